@@ -0,0 +1,601 @@
+package analysis;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import analysis.flow.BasicBlock;
+import analysis.flow.BasicBlockConnection;
+import analysis.flow.BasicBlockGraph;
+import classfile.ClassReference;
+import classfile.JavaMethod;
+import classfile.Primitive;
+import classfile.code.Code;
+import classfile.code.opcodes.Arithmetic;
+import classfile.code.opcodes.ArithmeticType;
+import classfile.code.opcodes.ArrayInstantiation;
+import classfile.code.opcodes.CompareJump;
+import classfile.code.opcodes.Comparison;
+import classfile.code.opcodes.ComputationalType;
+import classfile.code.opcodes.ConditionalJump;
+import classfile.code.opcodes.Conversion;
+import classfile.code.opcodes.FieldAccessor;
+import classfile.code.opcodes.LocalVariable;
+import classfile.code.opcodes.LocalVariableIncrement;
+import classfile.code.opcodes.MethodInvocation;
+import classfile.code.opcodes.MethodType;
+import classfile.code.opcodes.Opcode;
+import classfile.code.opcodes.Shift;
+import classfile.code.opcodes.StackManagement;
+import classfile.code.opcodes.Switch;
+import classfile.constant.ConstantEntry;
+import classfile.constant.ConstantType;
+
+/**
+ * Finds the control flow edges of a method that can never be taken, using sparse conditional constant propagation as described by Wegman and Zadeck. Obfuscators like to insert branches on conditions that are always true or always false (opaque predicates), and a {@link BasicBlockGraph} keeps both sides of such a branch, so every later analysis pays for code that can never run.
+ * <p>
+ * The propagation is optimistic: a block is assumed unreachable until an executable edge reaches it, and every stack slot and local is assumed constant until two different values meet in it. Blocks are interpreted from a worklist in reverse postorder, with each slot of the frame holding either a {@link ConstantEntry} or the overdefined marker, and operations on constants are evaluated by the {@link ConstantFolder}. When the operand of a conditional jump or a switch is constant, only the edge that it selects becomes executable. Exception handlers are assumed to be reachable from every executable block they cover, with nothing known about their frames. Since a slot can only go from constant to overdefined, and a block from unreachable to reachable, each block is interpreted a bounded number of times.
+ * <p>
+ * The edges that were never found to be executable can then be removed with {@link #prune()}, which also drops every block that becomes unreachable and recomputes the analyses of the graph.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class ConditionalConstantPropagation {
+
+	//the lattice value of a slot that may hold more than one value
+	private static final Object OVERDEFINED = new Object();
+
+	private final BasicBlockGraph graph;
+	private final List<BasicBlock> blocks;
+	private final Code code;
+
+	//the frame flowing into each block, indexed by block index, or null if the block hasn't been reached yet
+	private final Object[][] entryStacks;
+	private final Object[][] entryLocals;
+	//the connections found to be executable out of each reached block
+	private final Map<BasicBlock, Set<BasicBlockConnection>> executableConnections = new HashMap<>();
+	//the blocks whose entry frames have changed since they were last interpreted
+	private final BitSet worklist = new BitSet();
+
+	//the frame of the block being interpreted
+	private final Object[] stack;
+	private int stackSize;
+	private final Object[] locals;
+
+	/**
+	 * Propagates constants through a method to find its executable edges and blocks.
+	 *
+	 * @param method the method to analyze
+	 * @param graph the basic block graph of <code>method</code>
+	 */
+	public ConditionalConstantPropagation(JavaMethod method, BasicBlockGraph graph) {
+		this.graph = graph;
+		blocks = graph.getBlocks();
+		code = graph.getCode();
+		int blockCount = blocks.size();
+		entryStacks = new Object[blockCount][];
+		entryLocals = new Object[blockCount][];
+		stack = new Object[code.maxStack];
+		locals = new Object[code.maxLocals];
+		if (blockCount == 0) {
+			return;
+		}
+		//nothing is known about the arguments, and the other locals can't be read before they are stored
+		Object[] initialLocals = new Object[code.maxLocals];
+		Arrays.fill(initialLocals, OVERDEFINED);
+		entryStacks[0] = new Object[0];
+		entryLocals[0] = initialLocals;
+		worklist.set(0);
+		//always taking the earliest block in reverse postorder means that loops are iterated before the code after them
+		for (int index = worklist.nextSetBit(0); index >= 0; index = worklist.nextSetBit(0)) {
+			worklist.clear(index);
+			visitBlock(blocks.get(index));
+		}
+	}
+
+	/**
+	 * Determines whether a block can ever be executed.
+	 *
+	 * @param block the block to examine
+	 * @return whether an executable edge reaches <code>block</code>
+	 */
+	public boolean isExecutable(BasicBlock block) {
+		return block.index >= 0 && entryStacks[block.index] != null;
+	}
+
+	/**
+	 * Determines whether a connection out of a block can ever be taken.
+	 *
+	 * @param block the block the connection leaves from
+	 * @param connection the connection to examine
+	 * @return whether the connection is executable
+	 */
+	public boolean isExecutable(BasicBlock block, BasicBlockConnection connection) {
+		Set<BasicBlockConnection> connections = executableConnections.get(block);
+		return connections != null && connections.contains(connection);
+	}
+
+	/**
+	 * Gets the connections out of the executable blocks that can never be taken. Connections out of blocks that are never executed aren't included, since those blocks disappear along with everything they lead to.
+	 *
+	 * @return the dead connections, keyed by the block they leave from
+	 */
+	public Map<BasicBlock, Set<BasicBlockConnection>> getDeadConnections() {
+		Map<BasicBlock, Set<BasicBlockConnection>> deadConnections = new HashMap<>();
+		for (Map.Entry<BasicBlock, Set<BasicBlockConnection>> executable : executableConnections.entrySet()) {
+			BasicBlock block = executable.getKey();
+			Set<BasicBlockConnection> dead = new HashSet<>(block.successors.keySet());
+			dead.removeAll(executable.getValue());
+			if (!dead.isEmpty()) {
+				deadConnections.put(block, dead);
+			}
+		}
+		return deadConnections;
+	}
+
+	/**
+	 * Removes every dead connection from the graph, and with them every block that is never executed. The graph recomputes its block order, live locals, dominators, post-dominators, and loops afterwards, so this instance must not be used again.
+	 *
+	 * @return the number of blocks removed from the graph
+	 */
+	public int prune() {
+		Map<BasicBlock, Set<BasicBlockConnection>> deadConnections = getDeadConnections();
+		//every block that is never executed can only be reached through a dead connection, so if there are none, there's nothing to remove
+		return (deadConnections.isEmpty() ? 0 : graph.removeConnections(deadConnections));
+	}
+
+	/**
+	 * Interprets a block with its current entry frame, and propagates the resulting frame along the edges that it can take.
+	 *
+	 * @param block the block to interpret
+	 */
+	private void visitBlock(BasicBlock block) {
+		Object[] entryStack = entryStacks[block.index];
+		stackSize = entryStack.length;
+		System.arraycopy(entryStack, 0, stack, 0, stackSize);
+		System.arraycopy(entryLocals[block.index], 0, locals, 0, locals.length);
+		Set<BasicBlockConnection> connections = executableConnections.get(block);
+		if (connections == null) {
+			connections = new HashSet<>();
+			executableConnections.put(block, connections);
+			//an exception may be thrown anywhere in the block, so the handlers are reached as soon as the block is, and learn nothing from it
+			Object[] handlerLocals = new Object[locals.length];
+			Arrays.fill(handlerLocals, OVERDEFINED);
+			for (BasicBlock handler : new HashSet<>(block.handlers.values())) {
+				flowInto(handler, new Object[] { OVERDEFINED }, handlerLocals);
+			}
+		}
+		//the one connection that the last instruction is known to take, or null if any of them may be taken
+		BasicBlockConnection taken = null;
+		for (Opcode op : block.body) {
+			taken = interpret(op);
+		}
+		Object[] exitStack = Arrays.copyOf(stack, stackSize);
+		for (Map.Entry<BasicBlockConnection, BasicBlock> successor : block.successors.entrySet()) {
+			BasicBlockConnection connection = successor.getKey();
+			if (taken == null || taken.equals(connection)) {
+				connections.add(connection);
+				flowInto(successor.getValue(), exitStack, locals);
+			}
+		}
+	}
+
+	/**
+	 * Merges a frame into the entry frame of a block, queueing the block if it is reached for the first time or its entry frame changes.
+	 *
+	 * @param block the block the frame flows into
+	 * @param fromStack the stack flowing into the block
+	 * @param fromLocals the locals flowing into the block
+	 */
+	private void flowInto(BasicBlock block, Object[] fromStack, Object[] fromLocals) {
+		int index = block.index;
+		Object[] entryStack = entryStacks[index];
+		if (entryStack == null) {
+			entryStacks[index] = fromStack.clone();
+			entryLocals[index] = fromLocals.clone();
+			worklist.set(index);
+			return;
+		}
+		if (meet(entryStack, fromStack) | meet(entryLocals[index], fromLocals)) {
+			worklist.set(index);
+		}
+	}
+
+	/**
+	 * Lowers each slot of a frame to overdefined where it disagrees with another frame.
+	 *
+	 * @param into the frame to lower
+	 * @param from the frame flowing in
+	 * @return whether any slot of <code>into</code> changed
+	 */
+	private static boolean meet(Object[] into, Object[] from) {
+		boolean changed = false;
+		int length = Math.min(into.length, from.length);
+		for (int i = 0; i < length; i++) {
+			Object value = into[i];
+			if (value != OVERDEFINED && (value == null ? from[i] != null : !value.equals(from[i]))) {
+				into[i] = OVERDEFINED;
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Interprets one instruction on the current frame.
+	 *
+	 * @param op the instruction to interpret
+	 * @return the only connection that <code>op</code> can take out of its block, or <code>null</code> if it isn't a branch with a constant operand
+	 */
+	private BasicBlockConnection interpret(Opcode op) {
+		switch (op.type) {
+		case CONSTANT_LOAD:
+		{
+			ConstantEntry constant = (ConstantEntry) op.data;
+			push(constant, constant.type.classType.getComputationalType());
+			break;
+		}
+		case LOCAL_LOAD:
+		{
+			LocalVariable local = (LocalVariable) op.data;
+			push(locals[local.index], local.type);
+			break;
+		}
+		case ARRAY_LOAD:
+		{
+			stackSize -= 2;
+			push(OVERDEFINED, ((Primitive) op.data).computationalType);
+			break;
+		}
+		case LOCAL_STORE:
+		{
+			LocalVariable local = (LocalVariable) op.data;
+			locals[local.index] = pop(local.type);
+			if (local.type.category == 2) {
+				locals[local.index + 1] = null;
+			}
+			break;
+		}
+		case ARRAY_STORE:
+		{
+			pop(((Primitive) op.data).computationalType);
+			stackSize -= 2;
+			break;
+		}
+		case STACK_MANAGE:
+		{
+			//the stack is kept in slots, so the stack operations can work on the slots directly, regardless of the categories of the values in them
+			switch ((StackManagement) op.data) {
+			case POP:
+				stackSize--;
+				break;
+			case POP2:
+				stackSize -= 2;
+				break;
+			case DUP:
+				duplicate(1, 0);
+				break;
+			case DUP_X1:
+				duplicate(1, 1);
+				break;
+			case DUP_X2:
+				duplicate(1, 2);
+				break;
+			case DUP2:
+				duplicate(2, 0);
+				break;
+			case DUP2_X1:
+				duplicate(2, 1);
+				break;
+			case DUP2_X2:
+				duplicate(2, 2);
+				break;
+			case SWAP:
+			{
+				Object top = stack[stackSize - 1];
+				stack[stackSize - 1] = stack[stackSize - 2];
+				stack[stackSize - 2] = top;
+				break;
+			}
+			}
+			break;
+		}
+		case ARITHMETIC:
+		{
+			Arithmetic arithmetic = (Arithmetic) op.data;
+			ComputationalType operatingType = arithmetic.operatingType;
+			Object right = pop(operatingType);
+			Object left = pop(operatingType);
+			ConstantEntry folded = null;
+			if (left instanceof ConstantEntry && right instanceof ConstantEntry) {
+				folded = ConstantFolder.arithmetic(arithmetic.operation, operatingType, (ConstantEntry) left, (ConstantEntry) right);
+			}
+			push(folded, operatingType);
+			break;
+		}
+		case NEGATE:
+		{
+			ComputationalType negateType = (ComputationalType) op.data;
+			Object negated = pop(negateType);
+			push(negated instanceof ConstantEntry ? ConstantFolder.negate(negateType, (ConstantEntry) negated) : null, negateType);
+			break;
+		}
+		case SHIFT:
+		{
+			Shift shift = (Shift) op.data;
+			Object amount = pop(ComputationalType.INT);
+			Object shifted = pop(shift.operatingType);
+			ConstantEntry folded = null;
+			if (shifted instanceof ConstantEntry && amount instanceof ConstantEntry) {
+				folded = ConstantFolder.shift(shift.shiftType, shift.operatingType, (ConstantEntry) shifted, (ConstantEntry) amount);
+			}
+			push(folded, shift.operatingType);
+			break;
+		}
+		case LOCAL_INCREMENT:
+		{
+			LocalVariableIncrement increment = (LocalVariableIncrement) op.data;
+			int localIndex = increment.local.index;
+			Object local = locals[localIndex];
+			ConstantEntry folded = null;
+			if (local instanceof ConstantEntry) {
+				folded = ConstantFolder.arithmetic(ArithmeticType.ADD, ComputationalType.INT, (ConstantEntry) local, new ConstantEntry(ConstantType.INTEGER, increment.incrementAmount));
+			}
+			locals[localIndex] = (folded != null ? folded : OVERDEFINED);
+			break;
+		}
+		case CONVERT:
+		{
+			Conversion conversion = (Conversion) op.data;
+			Object value = pop(conversion.from.computationalType);
+			push(value instanceof ConstantEntry ? ConstantFolder.convert(conversion.from, conversion.to, (ConstantEntry) value) : null, conversion.to.computationalType);
+			break;
+		}
+		case COMPARE:
+		{
+			Comparison comparison = (Comparison) op.data;
+			ComputationalType compareType = comparison.compareType;
+			Object value2 = pop(compareType);
+			Object value1 = pop(compareType);
+			ConstantEntry folded = null;
+			if (value1 instanceof ConstantEntry && value2 instanceof ConstantEntry) {
+				folded = ConstantFolder.compare(comparison.option, compareType, (ConstantEntry) value1, (ConstantEntry) value2);
+			}
+			push(folded, ComputationalType.INT);
+			break;
+		}
+		case CONDITIONAL_JUMP:
+		{
+			ConditionalJump jump = (ConditionalJump) op.data;
+			Object value = pop(jump.conditionType);
+			if (value instanceof ConstantEntry) {
+				Boolean result = evaluate(jump, (ConstantEntry) value);
+				if (result != null) {
+					return (result ? BasicBlockConnection.fromConditionalJump(jump) : BasicBlockConnection.FALLTHROUGH);
+				}
+			}
+			break;
+		}
+		case COMPARE_JUMP:
+		{
+			CompareJump jump = (CompareJump) op.data;
+			Object value2 = pop(jump.compareType);
+			Object value1 = pop(jump.compareType);
+			if (value1 instanceof ConstantEntry && value2 instanceof ConstantEntry) {
+				Boolean result = evaluate(jump, (ConstantEntry) value1, (ConstantEntry) value2);
+				if (result != null) {
+					return (result ? BasicBlockConnection.fromCompareJump(jump) : BasicBlockConnection.FALLTHROUGH);
+				}
+			}
+			break;
+		}
+		case SUBROUTINE_JUMP:
+		{
+			//the return address
+			push(OVERDEFINED, ComputationalType.RETURN_ADDRESS);
+			break;
+		}
+		case SWITCH:
+		{
+			Switch switchOp = (Switch) op.data;
+			Object value = pop(ComputationalType.INT);
+			if (value instanceof ConstantEntry) {
+				int key = ((Number) ((ConstantEntry) value).data).intValue();
+				return (switchOp.jumpTable.containsKey(key) ? BasicBlockConnection.fromSwitch(key) : BasicBlockConnection.DEFAULT);
+			}
+			break;
+		}
+		case FIELD_LOAD:
+		{
+			FieldAccessor fieldAccess = (FieldAccessor) op.data;
+			if (!fieldAccess.isStatic) {
+				stackSize--;
+			}
+			push(OVERDEFINED, fieldAccess.field.type.getComputationalType());
+			break;
+		}
+		case FIELD_STORE:
+		{
+			FieldAccessor fieldAccess = (FieldAccessor) op.data;
+			pop(fieldAccess.field.type.getComputationalType());
+			if (!fieldAccess.isStatic) {
+				stackSize--;
+			}
+			break;
+		}
+		case METHOD_INVOKE:
+		{
+			MethodInvocation methodCall = (MethodInvocation) op.data;
+			for (ClassReference argumentType : methodCall.method.argTypes) {
+				pop(argumentType.getComputationalType());
+			}
+			if (methodCall.type != MethodType.STATIC) {
+				stackSize--;
+			}
+			ClassReference returnType = methodCall.method.returnType;
+			if (returnType.primitive != Primitive.VOID) {
+				push(OVERDEFINED, returnType.getComputationalType());
+			}
+			break;
+		}
+		case NEW_OBJECT:
+		{
+			push(OVERDEFINED, ComputationalType.REFERENCE);
+			break;
+		}
+		case NEW_ARRAY:
+		{
+			stackSize -= ((ArrayInstantiation) op.data).dimensionsCreated;
+			push(OVERDEFINED, ComputationalType.REFERENCE);
+			break;
+		}
+		case ARRAY_LENGTH:
+		{
+			stackSize--;
+			push(OVERDEFINED, ComputationalType.INT);
+			break;
+		}
+		case INSTANCE_OF:
+		{
+			//null is never an instance of anything
+			Object value = pop(ComputationalType.REFERENCE);
+			push(isNull(value) ? new ConstantEntry(ConstantType.INTEGER, 0) : null, ComputationalType.INT);
+			break;
+		}
+		case SYNCHRONIZE:
+		{
+			stackSize--;
+			break;
+		}
+		default:
+		{
+			//casts leave their operand alone, and the rest either don't touch the frame or end the block without a successor
+			break;
+		}
+		}
+		return null;
+	}
+
+	/**
+	 * Evaluates the condition of a conditional jump on a constant.
+	 *
+	 * @param jump the jump to evaluate
+	 * @param value the value being tested
+	 * @return whether the jump is taken, or <code>null</code> if it can't be determined
+	 */
+	private static Boolean evaluate(ConditionalJump jump, ConstantEntry value) {
+		switch (jump.condition) {
+		case IS_NULL:
+			return isNull(value);
+		case IS_NOT_NULL:
+			return !isNull(value);
+		default:
+			break;
+		}
+		if (value.type != ConstantType.INTEGER) {
+			return null;
+		}
+		int intValue = ((Number) value.data).intValue();
+		switch (jump.condition) {
+		case EQUAL_ZERO:
+			return intValue == 0;
+		case NOT_EQUAL_ZERO:
+			return intValue != 0;
+		case LESS_ZERO:
+			return intValue < 0;
+		case GREATER_EQUAL_ZERO:
+			return intValue >= 0;
+		case GREATER_ZERO:
+			return intValue > 0;
+		case LESS_EQUAL_ZERO:
+			return intValue <= 0;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Evaluates the condition of a comparison jump on two constants. References can only be compared when at least one of them is null, since two string constants may or may not be the same object.
+	 *
+	 * @param jump the jump to evaluate
+	 * @param value1 the first value being compared
+	 * @param value2 the second value being compared
+	 * @return whether the jump is taken, or <code>null</code> if it can't be determined
+	 */
+	private static Boolean evaluate(CompareJump jump, ConstantEntry value1, ConstantEntry value2) {
+		int comparison;
+		if (value1.type == ConstantType.INTEGER && value2.type == ConstantType.INTEGER) {
+			comparison = Integer.compare(((Number) value1.data).intValue(), ((Number) value2.data).intValue());
+		} else if (isNull(value1) || isNull(value2)) {
+			comparison = (isNull(value1) == isNull(value2) ? 0 : 1);
+		} else {
+			return null;
+		}
+		switch (jump.comparison) {
+		case COMPARE_EQUAL:
+			return comparison == 0;
+		case COMPARE_NOT_EQUAL:
+			return comparison != 0;
+		case COMPARE_LESS:
+			return comparison < 0;
+		case COMPARE_GREATER_EQUAL:
+			return comparison >= 0;
+		case COMPARE_GREATER:
+			return comparison > 0;
+		case COMPARE_LESS_EQUAL:
+			return comparison <= 0;
+		default:
+			return null;
+		}
+	}
+
+	private static boolean isNull(Object value) {
+		return value instanceof ConstantEntry && ((ConstantEntry) value).type == ConstantType.NULL;
+	}
+
+	/**
+	 * Duplicates the slots on the top of the stack, and inserts the copies below some of the slots under them.
+	 *
+	 * @param count the number of slots to duplicate
+	 * @param depth the number of slots under the duplicated slots to insert the copies below
+	 */
+	private void duplicate(int count, int depth) {
+		int start = stackSize - count - depth;
+		System.arraycopy(stack, start, stack, start + count, count + depth);
+		System.arraycopy(stack, stackSize, stack, start, count);
+		stackSize += count;
+	}
+
+	/**
+	 * Pushes a value onto the stack, along with the empty slot below it if it is category 2.
+	 *
+	 * @param value the value to push, or <code>null</code> for an overdefined value
+	 * @param type the type of the value
+	 */
+	private void push(Object value, ComputationalType type) {
+		if (type.category == 2) {
+			stack[stackSize++] = null;
+		}
+		stack[stackSize++] = (value != null ? value : OVERDEFINED);
+	}
+
+	/**
+	 * Pops a value off of the stack, along with the empty slot below it if it is category 2.
+	 *
+	 * @param type the type of the value
+	 * @return the popped value
+	 */
+	private Object pop(ComputationalType type) {
+		Object value = stack[--stackSize];
+		if (type.category == 2) {
+			stackSize--;
+		}
+		return value;
+	}
+
+}
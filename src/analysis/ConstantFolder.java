@@ -0,0 +1,389 @@
+package analysis;
+
+import classfile.Primitive;
+import classfile.code.opcodes.ArithmeticType;
+import classfile.code.opcodes.CompareOption;
+import classfile.code.opcodes.ComputationalType;
+import classfile.code.opcodes.ShiftType;
+import classfile.constant.ConstantEntry;
+import classfile.constant.ConstantType;
+
+/**
+ * Evaluates operations on constants exactly as the JVM would, so that the {@link MethodAnalyzer} can replace them by their results. Java arithmetic already matches JVM arithmetic (integer overflow wraps, shift amounts are masked, floating point conversions saturate and map NaN to 0, etc.), so each operation is evaluated with the corresponding Java operator. Operations that would throw at runtime, i.e., integer division or remainder by zero, are never folded.
+ * <p>
+ * Identities of integer operations, such as adding 0 or multiplying by 1, can also be recognized, so that an operation with one constant operand can be replaced by its other operand. Floating point operations have no such identities, because of negative zero and NaN.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class ConstantFolder {
+
+	/**
+	 * Evaluates a binary arithmetic operation.
+	 *
+	 * @param operation the operation to perform
+	 * @param type the type the operation is performed on
+	 * @param left the left operand
+	 * @param right the right operand
+	 * @return the result, or <code>null</code> if the operation can't be folded
+	 */
+	public static ConstantEntry arithmetic(ArithmeticType operation, ComputationalType type, ConstantEntry left, ConstantEntry right) {
+		switch (type) {
+		case INT:
+		{
+			int a = intValue(left), b = intValue(right);
+			switch (operation) {
+			case ADD:
+				return intConstant(a + b);
+			case SUBTRACT:
+				return intConstant(a - b);
+			case MULTIPLY:
+				return intConstant(a * b);
+			case DIVIDE:
+				return (b == 0 ? null : intConstant(a / b));
+			case REMAINDER:
+				return (b == 0 ? null : intConstant(a % b));
+			case AND:
+				return intConstant(a & b);
+			case OR:
+				return intConstant(a | b);
+			case XOR:
+				return intConstant(a ^ b);
+			}
+			break;
+		}
+		case LONG:
+		{
+			long a = longValue(left), b = longValue(right);
+			switch (operation) {
+			case ADD:
+				return longConstant(a + b);
+			case SUBTRACT:
+				return longConstant(a - b);
+			case MULTIPLY:
+				return longConstant(a * b);
+			case DIVIDE:
+				return (b == 0 ? null : longConstant(a / b));
+			case REMAINDER:
+				return (b == 0 ? null : longConstant(a % b));
+			case AND:
+				return longConstant(a & b);
+			case OR:
+				return longConstant(a | b);
+			case XOR:
+				return longConstant(a ^ b);
+			}
+			break;
+		}
+		case FLOAT:
+		{
+			float a = floatValue(left), b = floatValue(right);
+			switch (operation) {
+			case ADD:
+				return floatConstant(a + b);
+			case SUBTRACT:
+				return floatConstant(a - b);
+			case MULTIPLY:
+				return floatConstant(a * b);
+			case DIVIDE:
+				return floatConstant(a / b);
+			case REMAINDER:
+				return floatConstant(a % b);
+			default:
+				break;
+			}
+			break;
+		}
+		case DOUBLE:
+		{
+			double a = doubleValue(left), b = doubleValue(right);
+			switch (operation) {
+			case ADD:
+				return doubleConstant(a + b);
+			case SUBTRACT:
+				return doubleConstant(a - b);
+			case MULTIPLY:
+				return doubleConstant(a * b);
+			case DIVIDE:
+				return doubleConstant(a / b);
+			case REMAINDER:
+				return doubleConstant(a % b);
+			default:
+				break;
+			}
+			break;
+		}
+		default:
+			break;
+		}
+		return null;
+	}
+
+	/**
+	 * Determines whether a constant operand leaves the other operand of an integer operation unchanged, e.g., adding 0 or multiplying by 1.
+	 *
+	 * @param operation the operation to check
+	 * @param type the type the operation is performed on
+	 * @param constant the constant operand
+	 * @param isRight whether the constant is the right operand
+	 * @return whether the operation always evaluates to its other operand
+	 */
+	public static boolean isIdentity(ArithmeticType operation, ComputationalType type, ConstantEntry constant, boolean isRight) {
+		long value;
+		switch (type) {
+		case INT:
+			value = intValue(constant);
+			break;
+		case LONG:
+			value = longValue(constant);
+			break;
+		default:
+			return false;
+		}
+		switch (operation) {
+		case ADD:
+		case OR:
+		case XOR:
+			return value == 0;
+		case SUBTRACT:
+			return isRight && value == 0;
+		case MULTIPLY:
+			return value == 1;
+		case DIVIDE:
+			return isRight && value == 1;
+		case AND:
+			return value == -1;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Evaluates a negation.
+	 *
+	 * @param type the type of the value
+	 * @param value the value to negate
+	 * @return the negated value, or <code>null</code> if it can't be folded
+	 */
+	public static ConstantEntry negate(ComputationalType type, ConstantEntry value) {
+		switch (type) {
+		case INT:
+			return intConstant(-intValue(value));
+		case LONG:
+			return longConstant(-longValue(value));
+		case FLOAT:
+			return floatConstant(-floatValue(value));
+		case DOUBLE:
+			return doubleConstant(-doubleValue(value));
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Evaluates a shift. The shift amount is always an int, and is masked to the width of the shifted type.
+	 *
+	 * @param shiftType the kind of shift to perform
+	 * @param type the type of the shifted value
+	 * @param shifted the value to shift
+	 * @param amount the amount to shift by
+	 * @return the shifted value, or <code>null</code> if it can't be folded
+	 */
+	public static ConstantEntry shift(ShiftType shiftType, ComputationalType type, ConstantEntry shifted, ConstantEntry amount) {
+		int distance = intValue(amount);
+		switch (type) {
+		case INT:
+		{
+			int value = intValue(shifted);
+			switch (shiftType) {
+			case SHIFT_LEFT:
+				return intConstant(value << distance);
+			case SHIFT_RIGHT:
+				return intConstant(value >> distance);
+			case LOGICAL_SHIFT_RIGHT:
+				return intConstant(value >>> distance);
+			}
+			break;
+		}
+		case LONG:
+		{
+			long value = longValue(shifted);
+			switch (shiftType) {
+			case SHIFT_LEFT:
+				return longConstant(value << distance);
+			case SHIFT_RIGHT:
+				return longConstant(value >> distance);
+			case LOGICAL_SHIFT_RIGHT:
+				return longConstant(value >>> distance);
+			}
+			break;
+		}
+		default:
+			break;
+		}
+		return null;
+	}
+
+	/**
+	 * Determines whether shifting by a constant amount leaves a value unchanged, i.e., whether the masked shift amount is 0.
+	 *
+	 * @param type the type of the shifted value
+	 * @param amount the amount to shift by
+	 * @return whether the shift always evaluates to the shifted value
+	 */
+	public static boolean isIdentityShift(ComputationalType type, ConstantEntry amount) {
+		switch (type) {
+		case INT:
+			return (intValue(amount) & 0x1F) == 0;
+		case LONG:
+			return (intValue(amount) & 0x3F) == 0;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Evaluates a primitive conversion.
+	 *
+	 * @param from the type to convert from
+	 * @param to the type to convert to
+	 * @param value the value to convert
+	 * @return the converted value, or <code>null</code> if it can't be folded
+	 */
+	public static ConstantEntry convert(Primitive from, Primitive to, ConstantEntry value) {
+		switch (from.computationalType) {
+		case INT:
+		{
+			int a = intValue(value);
+			switch (to) {
+			case LONG:
+				return longConstant(a);
+			case FLOAT:
+				return floatConstant(a);
+			case DOUBLE:
+				return doubleConstant(a);
+			case BYTE:
+				return intConstant((byte) a);
+			case CHAR:
+				return intConstant((char) a);
+			case SHORT:
+				return intConstant((short) a);
+			default:
+				break;
+			}
+			break;
+		}
+		case LONG:
+		{
+			long a = longValue(value);
+			switch (to) {
+			case INT:
+				return intConstant((int) a);
+			case FLOAT:
+				return floatConstant(a);
+			case DOUBLE:
+				return doubleConstant(a);
+			default:
+				break;
+			}
+			break;
+		}
+		case FLOAT:
+		{
+			float a = floatValue(value);
+			switch (to) {
+			case INT:
+				return intConstant((int) a);
+			case LONG:
+				return longConstant((long) a);
+			case DOUBLE:
+				return doubleConstant(a);
+			default:
+				break;
+			}
+			break;
+		}
+		case DOUBLE:
+		{
+			double a = doubleValue(value);
+			switch (to) {
+			case INT:
+				return intConstant((int) a);
+			case LONG:
+				return longConstant((long) a);
+			case FLOAT:
+				return floatConstant((float) a);
+			default:
+				break;
+			}
+			break;
+		}
+		default:
+			break;
+		}
+		return null;
+	}
+
+	/**
+	 * Evaluates a comparison, as done by lcmp, fcmpl, fcmpg, dcmpl, and dcmpg. Note that negative and positive zero compare as equal, and that the result when either value is NaN depends on the comparison option.
+	 *
+	 * @param option what to do when either value is NaN
+	 * @param type the type of the values
+	 * @param left the first value
+	 * @param right the second value
+	 * @return -1, 0, or 1 as an int constant, or <code>null</code> if the comparison can't be folded
+	 */
+	public static ConstantEntry compare(CompareOption option, ComputationalType type, ConstantEntry left, ConstantEntry right) {
+		switch (type) {
+		case LONG:
+		{
+			long a = longValue(left), b = longValue(right);
+			return intConstant(a < b ? -1 : (a == b ? 0 : 1));
+		}
+		case FLOAT:
+		case DOUBLE:
+		{
+			double a = doubleValue(left), b = doubleValue(right);
+			if (Double.isNaN(a) || Double.isNaN(b)) {
+				return intConstant(option == CompareOption.GREATER_DEFAULT ? 1 : -1);
+			}
+			return intConstant(a < b ? -1 : (a == b ? 0 : 1));
+		}
+		default:
+			return null;
+		}
+	}
+
+	private static int intValue(ConstantEntry constant) {
+		return ((Number) constant.data).intValue();
+	}
+
+	private static long longValue(ConstantEntry constant) {
+		return ((Number) constant.data).longValue();
+	}
+
+	private static float floatValue(ConstantEntry constant) {
+		return ((Number) constant.data).floatValue();
+	}
+
+	private static double doubleValue(ConstantEntry constant) {
+		return ((Number) constant.data).doubleValue();
+	}
+
+	private static ConstantEntry intConstant(int value) {
+		return new ConstantEntry(ConstantType.INTEGER, value);
+	}
+
+	private static ConstantEntry longConstant(long value) {
+		return new ConstantEntry(ConstantType.LONG, value);
+	}
+
+	private static ConstantEntry floatConstant(float value) {
+		return new ConstantEntry(ConstantType.FLOAT, value);
+	}
+
+	private static ConstantEntry doubleConstant(double value) {
+		return new ConstantEntry(ConstantType.DOUBLE, value);
+	}
+
+}
@@ -1,20 +1,15 @@
 package analysis;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.NavigableMap;
-import java.util.NavigableSet;
-import java.util.Queue;
 import java.util.Set;
-import java.util.TreeMap;
-import java.util.TreeSet;
 
 import util.PrettyPrinter;
 import analysis.data.ArrayAccess;
@@ -31,14 +26,20 @@ import analysis.data.FieldAccess;
 import analysis.data.InstanceOf;
 import analysis.data.MethodCall;
 import analysis.data.NewArray;
+import analysis.data.Phi;
 import analysis.data.ShiftArithmetic;
 import analysis.data.Value;
 import analysis.data.ValueComparison;
+import analysis.data.ValueFactory;
 import analysis.data.ValueType;
+import analysis.data.Variable;
 import analysis.flow.BasicBlock;
+import analysis.flow.BasicBlockConnection;
+import analysis.flow.BasicBlockGraph;
+import analysis.flow.LocalWebs;
+import analysis.flow.PhiPlacement;
+import analysis.flow.ReachingDefinitions;
 import classfile.ClassReference;
-import classfile.ConstantEntry;
-import classfile.ConstantType;
 import classfile.JavaMethod;
 import classfile.MethodReference;
 import classfile.Primitive;
@@ -51,7 +52,6 @@ import classfile.code.opcodes.Comparison;
 import classfile.code.opcodes.ComputationalType;
 import classfile.code.opcodes.ConditionalJump;
 import classfile.code.opcodes.Conversion;
-import classfile.code.opcodes.ExceptionHandler;
 import classfile.code.opcodes.FieldAccessor;
 import classfile.code.opcodes.JumpCondition;
 import classfile.code.opcodes.LocalVariable;
@@ -62,26 +62,44 @@ import classfile.code.opcodes.Opcode;
 import classfile.code.opcodes.Shift;
 import classfile.code.opcodes.StackManagement;
 import classfile.code.opcodes.Switch;
+import classfile.code.stackmap.FullFrame;
+import classfile.code.stackmap.StackMapIndex;
+import classfile.code.stackmap.VerificationItem;
+import classfile.constant.ConstantEntry;
+import classfile.constant.ConstantType;
 
 public class MethodAnalyzer {
 
 	private final JavaMethod method;
 	private final Code code;
 
-	private Map<BasicBlock, BasicBlock> basicBlockOrdering = new HashMap<>();
-	private Map<BasicBlock, Set<Integer>> basicBlockSuccessors = new HashMap<>();
-	private final NavigableMap<Integer, BasicBlock> basicBlocks;
+	private final BasicBlockGraph graph;
 	private final BasicBlock startBasicBlock;
+	private final PhiPlacement phiPlacement;
+	//the local slots split into independent variables, so that each variable can be typed on its own
+	//computed on first use, since most analyses never look at webs
+	private LocalWebs localWebs;
+	//the verifier frames of the method by bytecode index, or null if the types at joins have to be inferred
+	private final StackMapIndex stackFrames;
+	//whether operations on constants are evaluated instead of being kept as expressions
+	private final boolean foldConstants;
 
-	private Map<BasicBlock, Map<DataBlock, Deque<Value>>> stackDefinitions = new HashMap<>();
-	private Map<BasicBlock, Map<DataBlock, List<Value>>> localDefinitions = new HashMap<>();
-	private Map<BasicBlock, Deque<Value>> computedStacks = new HashMap<>();
-	private Queue<BasicBlock> visitQueue = new LinkedList<>();
-	private Set<BasicBlock> backTargets = new HashSet<>();
-	private Deque<Value> stack;
-	private List<Value> locals;
-	private int localsCount;
+	//the frame of the block being interpreted, which is reused for every block
+	private final Value[] stack;
+	private int stackSize;
+	private final Value[] locals;
+	private final int localsCount;
+	//the frame at the end of each visited block, indexed by the reverse postorder index of the block
+	private Value[][] exitStacks;
+	private Value[][] exitLocals;
+	//the locals at the method entry, i.e., the arguments
+	private Value[] entryLocals;
+	//the stack slots whose incoming values disagree at the block being entered
+	private final BitSet stackConflicts = new BitSet();
 	private int dupCount = 0;
+	private int versionCount = 0;
+	//every value of the method is created through this, so that structurally equal values are shared
+	private final ValueFactory valueFactory = new ValueFactory();
 
 	private Map<BasicBlock, Map<DataConnection, BasicBlock>> dataConnections = new HashMap<>();
 	private Map<BasicBlock, DataBlock> dataBlockMap = new HashMap<>();
@@ -89,25 +107,119 @@ public class MethodAnalyzer {
 	private final Set<DataBlock> dataBlocks;
 	private final DataBlock startDataBlock;
 
-	/*
-	 * TODO:
-	 * Handle back edges properly in the merging procedure
-	 * Use StackMapTable instead of/in addition to inferring
-	 * SUBROUTINES
-	 * EXCEPTION HANDLERS
+	public MethodAnalyzer(JavaMethod method) {
+		this(method, true, false);
+	}
+
+	/**
+	 * Analyzes a method, optionally taking the types of the values merged at join points from the StackMapTable of the method. The frames in the table give the type of every live value at every branch target, so using them makes merges free, and avoids loading classes to find common superclasses. Methods without a table (e.g., those from classes older than Java 6) always fall back to inferring the merged types.
+	 *
+	 * @param method the method to analyze
+	 * @param useStackMap whether to use the StackMapTable of the method, if it has one
 	 */
+	public MethodAnalyzer(JavaMethod method, boolean useStackMap) {
+		this(method, useStackMap, false);
+	}
 
-	public MethodAnalyzer(JavaMethod method) {
+	/**
+	 * Analyzes a method, optionally folding constants as it goes. When folding is enabled, every arithmetic operation, shift, negation, conversion, and comparison whose operands are all constants is replaced by its result, as computed by the {@link ConstantFolder}, and integer operations with an identity operand (e.g., adding 0) are replaced by their other operand. This keeps the constant arithmetic that obfuscators insert from ever becoming part of the expression trees. Folding also runs a {@link ConditionalConstantPropagation} over the graph first, so that branches whose conditions are always true or always false lose their dead side, along with every block only reachable through it.
+	 *
+	 * @param method the method to analyze
+	 * @param useStackMap whether to use the StackMapTable of the method, if it has one
+	 * @param foldConstants whether to fold operations on constants
+	 */
+	public MethodAnalyzer(JavaMethod method, boolean useStackMap, boolean foldConstants) {
 		this.method = method;
-		code = method.code;
-		basicBlocks = createBasicBlocks();
-		startBasicBlock = basicBlocks.get(0);
-		connectBasicBlock(startBasicBlock, new HashSet<BasicBlock>(), new HashSet<BasicBlock>());
+		this.foldConstants = foldConstants;
+		graph = new BasicBlockGraph(method);
+		//the graph is built over the code with its subroutines inlined, which has no StackMapTable if anything was inlined
+		code = graph.getCode();
+		if (useStackMap && code.stackMapTable != null) {
+			stackFrames = new StackMapIndex(code.stackMapTable, FullFrame.initial(method.reference, method.flags.isStatic));
+		} else {
+			stackFrames = null;
+		}
+		if (foldConstants) {
+			//branches on constants lead to code that can never run, so it is cut out of the graph before anything is built on it
+			new ConditionalConstantPropagation(method, graph).prune();
+		}
+		startBasicBlock = graph.getBlock(0);
+		localsCount = code.maxLocals;
+		stack = new Value[code.maxStack];
+		locals = new Value[localsCount];
+		phiPlacement = new PhiPlacement(graph, localsCount);
 		createDataBlocks();
 		dataBlocks = connectDataBlocks();
 		startDataBlock = dataBlockMap.get(startBasicBlock);
 	}
 
+	/**
+	 * Gets the webs that the local variable slots of the method split into. The webs take a reaching definitions solve over the whole method, which the analysis itself doesn't need, so they are only computed the first time they are asked for; {@link #getWeb(Value)} finds the web of a value of the analysis.
+	 *
+	 * @return the webs of the method
+	 */
+	public LocalWebs getLocalWebs() {
+		if (localWebs == null) {
+			localWebs = new LocalWebs(new ReachingDefinitions(method, graph));
+		}
+		return localWebs;
+	}
+
+	/**
+	 * Finds the web of a value held in a local, i.e., of a local variable, of a local phi, or of the receiver or an argument of the method as it was on entry.
+	 *
+	 * @param value the value
+	 * @return the web of the value, or -1 if the value isn't held in a local
+	 */
+	public int getWeb(Value value) {
+		return getWeb(value, new HashSet<Phi>());
+	}
+
+	/**
+	 * Gets the data blocks of the method, i.e., the value trees of the phis, assignments and transitions of each reachable basic block.
+	 *
+	 * @return the data blocks, in no particular order
+	 */
+	public Set<DataBlock> getDataBlocks() {
+		return Collections.unmodifiableSet(dataBlocks);
+	}
+
+	private int getWeb(Value value, Set<Phi> visited) {
+		switch (value.type) {
+		case LOCAL:
+		{
+			Variable variable = (Variable) value.value;
+			return (variable.bci >= 0 ? getLocalWebs().getDefinitionWeb(variable.bci) : -1);
+		}
+		case PHI:
+		{
+			Phi phi = (Phi) value.value;
+			//the phis of a loop feed back into each other
+			if (phi.isStack || !visited.add(phi)) {
+				return -1;
+			}
+			//every definition merged by a local phi is in the same web, so the first operand with a web decides
+			for (Value operand : phi.operands.values()) {
+				int web = getWeb(operand, visited);
+				if (web >= 0) {
+					return web;
+				}
+			}
+			return -1;
+		}
+		case THIS:
+		case ARGUMENT:
+			for (int localIndex = 0; localIndex < localsCount; localIndex++) {
+				if (entryLocals[localIndex] == value) {
+					return getLocalWebs().getEntryWeb(localIndex);
+				}
+			}
+			return -1;
+		default:
+			return -1;
+		}
+	}
+
 	public String dataGML() {
 		PrettyPrinter gml = new PrettyPrinter();
 		gml.println("graph [")
@@ -134,6 +246,10 @@ public class MethodAnalyzer {
 			.print("LabelGraphics [ text \"")
 			.indent();
 			String sep = "";
+			for (Value phi : dataBlock.phis) {
+				gml.print(sep).print((phi + " <- " + ((Phi) phi.value).operands.values()).replace("\"", "").replace("&", ""));
+				sep = PrettyPrinter.NEWLINE;
+			}
 			for (Assignment assignment : dataBlock.assignments) {
 				gml.print(sep).print(assignment.toString().replace("\"", "").replace("&", ""));
 				sep = PrettyPrinter.NEWLINE;
@@ -182,162 +298,28 @@ public class MethodAnalyzer {
 		return gml.toString();
 	}
 
-	private NavigableMap<Integer, BasicBlock> createBasicBlocks() {
-		NavigableMap<Integer, BasicBlock> blockMap = new TreeMap<>();
-		NavigableSet<Integer> leaders = new TreeSet<>();
-		leaders.add(0);
-		Map<Integer, Set<Integer>> successorMap = new HashMap<>();
-		int codeSize = code.ops.size();
-		for (int pc = 0; pc < codeSize; pc++) {
-			Opcode op = code.ops.get(pc);
-			if (op == null) {
-				continue;
-			}
-			Set<Integer> successors = new HashSet<>();
-			boolean addNext = false;
-			switch (op.type) {
-			case CONDITIONAL_JUMP:
-			{
-				int conditionalTarget = ((ConditionalJump) op.data).jumpTarget;
-				leaders.add(conditionalTarget);
-				successors.add(conditionalTarget);
-				addNext = true;
-				break;
-			}
-			case COMPARE_JUMP:
-				int compareTarget = ((CompareJump) op.data).jumpTarget;
-				leaders.add(compareTarget);
-				successors.add(compareTarget);
-				addNext = true;
-				break;
-			case UNCONDITIONAL_JUMP:
-				int jumpTarget = (int) op.data;
-				leaders.add(jumpTarget);
-				successors.add(jumpTarget);
-				break;
-			case SUBROUTINE_JUMP:
-				int subroutine = (int) op.data;
-				leaders.add(subroutine);
-				successors.add(subroutine);
-				break;
-			case RETURN:
-				break;
-			case SUBROUTINE_RETURN:
-				break;
-			case SWITCH:
-				Switch switchOp = (Switch) op.data;
-				for (int switchTarget : switchOp.jumpTable.values()) {
-					leaders.add(switchTarget);
-					successors.add(switchTarget);
-				}
-				int defaultTarget = switchOp.defaultJump;
-				leaders.add(defaultTarget);
-				successors.add(defaultTarget);
-				break;
-			case THROW:
-				break;
-			default:
-				continue;
-			}
-			for (int i = pc + 1; i < codeSize; i++) {
-				if (code.ops.get(i) != null) {
-					leaders.add(i);
-					if (addNext) {
-						successors.add(i);
-					}
-					break;
-				}
-			}
-			successorMap.put(pc, successors);
-		}
-		for (ExceptionHandler handler : code.exceptionTable) {
-			leaders.add(handler.start);
-			leaders.add(handler.end);
-			leaders.add(handler.handler);
-		}
-		Map<BasicBlock, Integer> followers = new HashMap<>();
-
-		List<Object> nullList = Collections.singletonList(null);
-		int currentLeader = 0, nextLeader;
-		for (Iterator<Integer> iter = leaders.iterator(); iter.hasNext(); currentLeader = nextLeader) {
-			nextLeader = iter.next();
-			List<Opcode> body = new ArrayList<>(code.ops.subList(currentLeader, nextLeader));
-			body.removeAll(nullList);
-			BasicBlock block = new BasicBlock(body);
-			followers.put(block, nextLeader);
-			blockMap.put(currentLeader, block);
-		}
-		List<Opcode> lastBody = new ArrayList<>(code.ops.subList(currentLeader, codeSize));
-		lastBody.removeAll(nullList);
-		blockMap.put(currentLeader, new BasicBlock(lastBody));
-
-		for (Map.Entry<BasicBlock, Integer> entry : followers.entrySet()) {
-			basicBlockOrdering.put(entry.getKey(), blockMap.get(entry.getValue()));
-		}
-
-		for (Map.Entry<Integer, Set<Integer>> entry : successorMap.entrySet()) {
-			Map.Entry<Integer, BasicBlock> block = blockMap.floorEntry(entry.getKey());
-			leaders.remove(block.getKey());
-			basicBlockSuccessors.put(block.getValue(), entry.getValue());
-		}
-		for (int fallThrough : leaders) {
-			Integer nextBlock = blockMap.higherKey(fallThrough);
-			if (nextBlock != null) {
-				basicBlockSuccessors.put(blockMap.get(fallThrough), Collections.singleton(nextBlock));
-			}
-		}
-		return blockMap;
-	}
-
-	private void connectBasicBlock(BasicBlock block, Set<BasicBlock> exploring, Set<BasicBlock> visited) {
-		if (!visited.contains(block)) {
-			exploring.add(block);
-			for (int successorPc : basicBlockSuccessors.get(block)) {
-				BasicBlock successor = basicBlocks.get(successorPc);
-				if (exploring.contains(successor)) {
-					BasicBlock.connect(block, successor, true);
-					backTargets.add(successor);
-				} else {
-					BasicBlock.connect(block, successor, false);
-					connectBasicBlock(successor, exploring, visited);
-				}
-			}
-			exploring.remove(block);
-			visited.add(block);
-		}
-	}
-
 	private void createDataBlocks() {
-		for (BasicBlock block : basicBlocks.values()) {
-			stackDefinitions.put(block, new HashMap<DataBlock, Deque<Value>>());
-			localDefinitions.put(block, new HashMap<DataBlock, List<Value>>());
-		}
-
+		int blockCount = graph.getBlocks().size();
+		exitStacks = new Value[blockCount][];
+		exitLocals = new Value[blockCount][];
 		MethodReference methodReference = method.reference;
-		Deque<Value> startStack = new LinkedList<>();
-		stackDefinitions.get(startBasicBlock).put(null, startStack);
-		localsCount = code.maxLocals;
-		List<Value> arguments = new ArrayList<Value>(localsCount);
+		entryLocals = new Value[localsCount];
+		int localIndex = 0;
 		if (!method.flags.isStatic) {
-			arguments.add(new Value(ValueType.THIS, 0, methodReference.enclosingClass));
+			entryLocals[localIndex++] = valueFactory.create(ValueType.THIS, 0, methodReference.enclosingClass);
 		}
 		List<ClassReference> argumentTypes = methodReference.argTypes;
 		int argumentCount = argumentTypes.size();
 		for (int argumentIndex = 0; argumentIndex < argumentCount; argumentIndex++) {
 			ClassReference argumentType = argumentTypes.get(argumentIndex);
-			arguments.add(new Value(ValueType.ARGUMENT, argumentIndex, argumentType));
+			entryLocals[localIndex++] = valueFactory.create(ValueType.ARGUMENT, argumentIndex, argumentType);
 			if (argumentType.getComputationalType().category == 2) {
-				arguments.add(null);
+				localIndex++;
 			}
 		}
-		for (int i = arguments.size(); i < localsCount; i++) {
-			arguments.add(null);
-		}
-		localDefinitions.get(startBasicBlock).put(null, arguments);
-		Set<BasicBlock> visited = new HashSet<>();
-		visitQueue.add(startBasicBlock);
-		while (!visitQueue.isEmpty()) {
-			visitBlock(visitQueue.poll(), visited);
+		//in reverse postorder, every predecessor of a block has been visited before it, except for the sources of back edges
+		for (BasicBlock block : graph.getBlocks()) {
+			visitBlock(block);
 		}
 	}
 
@@ -352,49 +334,199 @@ public class MethodAnalyzer {
 		return new HashSet<>(dataBlockMap.values());
 	}
 
-	private void visitBlock(BasicBlock block, Set<BasicBlock> visited) {
-		if (!visited.contains(block)) {
-			visited.add(block);
-			for (Map.Entry<BasicBlock, Boolean> predecessorEntry : block.backwardEdges.entrySet()) {
-				BasicBlock predecessor = predecessorEntry.getKey();
-				if (!predecessorEntry.getValue() && !visited.contains(predecessor)) {
-					visitBlock(predecessor, visited);
+	private void visitBlock(BasicBlock block) {
+		DataBlock dataBlock = new DataBlock();
+		//exception handlers aren't interpreted yet, so blocks only reachable through them never receive a frame
+		if (!mergeFrames(block, dataBlock)) {
+			return;
+		}
+		createDataBlock(block, dataBlock);
+		dataBlockMap.put(block, dataBlock);
+		exitStacks[block.index] = Arrays.copyOf(stack, stackSize);
+		exitLocals[block.index] = locals.clone();
+		for (BasicBlock successor : new HashSet<>(block.successors.values())) {
+			DataBlock successorBlock = dataBlockMap.get(successor);
+			//a successor that was visited before this block is the target of a back edge, and its phis are still waiting for this operand
+			if (successorBlock != null) {
+				for (Value phiValue : successorBlock.phis) {
+					Phi phi = (Phi) phiValue.value;
+					int index = phi.variable.index;
+					Value operand = (phi.isStack ? stack[index] : locals[index]);
+					if (operand != null) {
+						phi.operands.put(dataBlock, operand);
+					}
 				}
 			}
-			stack = new LinkedList<>(mergeStacks(stackDefinitions.get(block)));
-			if (backTargets.contains(block)) {
-				System.out.println("Back target " + block);
-				Deque<Value> previousStack = computedStacks.get(block);
-				System.out.println("Last stack was " + previousStack);
-				System.out.println("Stack is now " + stack);
-				if (previousStack != null) {
-					if (!previousStack.equals(stack)) {
-						System.out.println("Stacks do not match");
-					} else {
-						System.out.println("Stacks merged successfully");
-					}
+		}
+	}
+
+	/**
+	 * Merges the frames flowing into a block into the current frame in place. The first incoming frame is copied, and the others are only compared against it, so nothing is allocated unless a phi is needed.
+	 */
+	private boolean mergeFrames(BasicBlock block, DataBlock dataBlock) {
+		BitSet live = block.localsIn;
+		boolean merged = false;
+		boolean backTarget = false;
+		stackConflicts.clear();
+		if (block == startBasicBlock) {
+			copyFrame(new Value[0], entryLocals, live);
+			merged = true;
+		}
+		for (BasicBlock predecessor : block.predecessors) {
+			if (predecessor.index < 0) {
+				continue;
+			}
+			if (BasicBlock.isRetreating(predecessor, block)) {
+				backTarget = true;
+			}
+			Value[] predecessorStack = exitStacks[predecessor.index];
+			if (predecessorStack == null) {
+				continue;
+			}
+			if (!merged) {
+				copyFrame(predecessorStack, exitLocals[predecessor.index], live);
+				merged = true;
+				continue;
+			}
+			for (int stackIndex = 0; stackIndex < stackSize; stackIndex++) {
+				Value stackValue = predecessorStack[stackIndex];
+				if (stack[stackIndex] == null) {
+					stack[stackIndex] = stackValue;
+				} else if (stackValue != null && stack[stackIndex] != stackValue) {
+					//values are hash-consed, so identity is the same as equality
+					stackConflicts.set(stackIndex);
 				}
-				System.out.println();
 			}
-			computedStacks.put(block, new LinkedList<>(stack));
-			locals = new ArrayList<>(mergeLocals(localDefinitions.get(block)));
-			DataBlock dataBlock = createDataBlock(block);
-			dataBlockMap.put(block, dataBlock);
-			for (Map.Entry<BasicBlock, Boolean> successorEntry : block.forwardEdges.entrySet()) {
-				BasicBlock successor = successorEntry.getKey();
-				stackDefinitions.get(successor).put(dataBlock, stack);
-				localDefinitions.get(successor).put(dataBlock, locals);
-				if (successorEntry.getValue()) {
-					visited.remove(successor);
+			//without a phi, the same definition reaches the block along every edge, but one of the edges may not have it yet
+			Value[] predecessorLocals = exitLocals[predecessor.index];
+			for (int localIndex = live.nextSetBit(0); localIndex >= 0 && localIndex < localsCount; localIndex = live.nextSetBit(localIndex + 1)) {
+				if (locals[localIndex] == null) {
+					locals[localIndex] = predecessorLocals[localIndex];
 				}
-				visitQueue.add(successor);
 			}
 		}
+		if (!merged) {
+			return false;
+		}
+		//the values coming in on back edges aren't known yet, so a back target always needs stack phis
+		for (int stackIndex = 0; stackIndex < stackSize; stackIndex++) {
+			if (stack[stackIndex] != null && (backTarget || stackConflicts.get(stackIndex))) {
+				stack[stackIndex] = createPhi(block, stackIndex, true, dataBlock);
+			}
+		}
+		BitSet phis = phiPlacement.getLocalPhis(block);
+		for (int localIndex = phis.nextSetBit(0); localIndex >= 0 && localIndex < localsCount; localIndex = phis.nextSetBit(localIndex + 1)) {
+			if (locals[localIndex] != null) {
+				locals[localIndex] = createPhi(block, localIndex, false, dataBlock);
+			}
+		}
+		//the second slot of a category 2 value is marked live along with the first, but never holds a value itself
+		for (int localIndex = 0; localIndex < localsCount - 1; localIndex++) {
+			Value localValue = locals[localIndex];
+			if (localValue != null && localValue.classType.getComputationalType().category == 2) {
+				locals[++localIndex] = null;
+			}
+		}
+		return true;
 	}
 
-	private DataBlock createDataBlock(BasicBlock block) {
-		DataBlock dataBlock = new DataBlock();
-		for (Opcode op : block.body) {
+	private void copyFrame(Value[] fromStack, Value[] fromLocals, BitSet live) {
+		stackSize = fromStack.length;
+		System.arraycopy(fromStack, 0, stack, 0, stackSize);
+		//dead locals are dropped, so that they are never merged
+		Arrays.fill(locals, null);
+		for (int localIndex = live.nextSetBit(0); localIndex >= 0 && localIndex < localsCount; localIndex = live.nextSetBit(localIndex + 1)) {
+			locals[localIndex] = fromLocals[localIndex];
+		}
+	}
+
+	private Value createPhi(BasicBlock block, int index, boolean isStack, DataBlock dataBlock) {
+		Map<DataBlock, Value> operands = new LinkedHashMap<>();
+		Set<ClassReference> classes = new HashSet<>();
+		if (block == startBasicBlock) {
+			addOperand(operands, null, (isStack ? null : entryLocals[index]), classes);
+		}
+		for (BasicBlock predecessor : block.predecessors) {
+			if (predecessor.index >= 0 && exitStacks[predecessor.index] != null) {
+				addOperand(operands, dataBlockMap.get(predecessor), (isStack ? exitStacks[predecessor.index][index] : exitLocals[predecessor.index][index]), classes);
+			}
+		}
+		Phi phi = new Phi(new Variable(index, versionCount++), isStack);
+		phi.operands.putAll(operands);
+		//the frame is checked first, since a loop header only has the operands of its forward edges so far, while the frame declares the type of the values on every edge
+		ClassReference phiClass;
+		VerificationItem frameItem = getFrameItem(block, index, isStack);
+		if (frameItem != null) {
+			phiClass = classOf(frameItem);
+		} else if (classes.size() == 1) {
+			phiClass = classes.iterator().next();
+		} else {
+			phiClass = ClassReference.leastCommonSuperclass(classes);
+		}
+		if (phiClass == null) {
+			return null;
+		}
+		Value phiValue = valueFactory.create(ValueType.PHI, phi, phiClass);
+		dataBlock.phis.add(phiValue);
+		return phiValue;
+	}
+
+	private VerificationItem getFrameItem(BasicBlock block, int index, boolean isStack) {
+		if (stackFrames == null) {
+			return null;
+		}
+		FullFrame frame = stackFrames.getFrame(block.startBci);
+		if (frame == null) {
+			return null;
+		}
+		return (isStack ? frame.getStack(index) : frame.getLocal(index));
+	}
+
+	private ClassReference classOf(VerificationItem item) {
+		switch (item.type) {
+		case INTEGER:
+			return ClassReference.INT;
+		case FLOAT:
+			return ClassReference.FLOAT;
+		case LONG:
+			return ClassReference.LONG;
+		case DOUBLE:
+			return ClassReference.DOUBLE;
+		case NULL:
+			return ClassReference.NULL;
+		case UNINITIALIZED_THIS:
+			return method.reference.enclosingClass;
+		case OBJECT:
+			return (ClassReference) item.data;
+		case UNINITIALIZED:
+			//the item refers to the new instruction that created the object
+			return (ClassReference) code.ops.get((int) item.data).data;
+		default:
+			//top means the slot doesn't hold anything usable, so a phi there would be dead
+			return null;
+		}
+	}
+
+	private void addOperand(Map<DataBlock, Value> operands, DataBlock source, Value operand, Set<ClassReference> classes) {
+		if (operand != null) {
+			operands.put(source, operand);
+			classes.add(operand.classType);
+		}
+	}
+
+	private void push(Value value) {
+		stack[stackSize++] = value;
+	}
+
+	private Value pop() {
+		Value value = stack[--stackSize];
+		stack[stackSize] = null;
+		return value;
+	}
+
+	private void createDataBlock(BasicBlock block, DataBlock dataBlock) {
+		for (int bci = block.startBci; bci >= 0 && bci <= block.endBci; bci = code.next(bci)) {
+			Opcode op = code.ops.get(bci);
 			switch (op.type) {
 			case NOOP:
 			{
@@ -405,9 +537,9 @@ public class MethodAnalyzer {
 				ConstantEntry constant = (ConstantEntry) op.data;
 				ClassReference constantClass = constant.type.classType;
 				if (constantClass.getComputationalType().category == 2) {
-					stack.push(null);
+					push(null);
 				}
-				stack.push(new Value(ValueType.CONSTANT, constant, constantClass));
+				push(valueFactory.create(ValueType.CONSTANT, constant, constantClass));
 				break;
 			}
 			case LOCAL_LOAD:
@@ -415,45 +547,48 @@ public class MethodAnalyzer {
 				LocalVariable local = (LocalVariable) op.data;
 				int localIndex = local.index;
 				if (local.type.category == 2) {
-					stack.push(null);
+					push(null);
 				}
-				stack.push(locals.get(localIndex));
+				push(locals[localIndex]);
 				break;
 			}
 			case ARRAY_LOAD:
 			{
-				Value arrayIndex = stack.pop();
-				Value arrayReference = stack.pop();
+				Value arrayIndex = pop();
+				Value arrayReference = pop();
 				ClassReference elementType = ClassReference.elementFromArrayType(arrayReference.classType);
 				if (elementType.getComputationalType().category == 2) {
-					stack.push(null);
+					push(null);
 				}
-				stack.push(new Value(ValueType.ARRAY_ACCESS, new ArrayAccess(arrayReference, arrayIndex), elementType));
+				push(valueFactory.create(ValueType.ARRAY_ACCESS, new ArrayAccess(arrayReference, arrayIndex), elementType));
 				break;
 			}
 			case LOCAL_STORE:
 			{
 				LocalVariable local = (LocalVariable) op.data;
 				int localIndex = local.index;
-				Value localValue = stack.pop();
+				Value localValue = pop();
 				ClassReference localClass = localValue.classType;
 				if (localClass.getComputationalType().category == 2) {
-					stack.pop();
+					pop();
+				}
+				Value localTarget = valueFactory.create(ValueType.LOCAL, new Variable(localIndex, versionCount++, bci), localClass);
+				locals[localIndex] = localTarget;
+				if (local.type.category == 2) {
+					locals[localIndex + 1] = null;
 				}
-				Value localTarget = new Value(ValueType.LOCAL, localIndex, localClass);
-				locals.set(localIndex, localTarget);
 				dataBlock.assignments.add(new Assignment(localTarget, localValue));
 				break;
 			}
 			case ARRAY_STORE:
 			{
-				Value arrayValue = stack.pop();
+				Value arrayValue = pop();
 				if (arrayValue.classType.getComputationalType().category == 2) {
-					stack.pop();
+					pop();
 				}
-				Value arrayIndex = stack.pop();
-				Value arrayReference = stack.pop();
-				dataBlock.assignments.add(new Assignment(new Value(ValueType.ARRAY_ACCESS, new ArrayAccess(arrayReference, arrayIndex), ClassReference.elementFromArrayType(arrayReference.classType)), arrayValue));
+				Value arrayIndex = pop();
+				Value arrayReference = pop();
+				dataBlock.assignments.add(new Assignment(valueFactory.create(ValueType.ARRAY_ACCESS, new ArrayAccess(arrayReference, arrayIndex), ClassReference.elementFromArrayType(arrayReference.classType)), arrayValue));
 				break;
 			}
 			case STACK_MANAGE:
@@ -461,13 +596,13 @@ public class MethodAnalyzer {
 				switch ((StackManagement) op.data) {
 				case POP:
 				{
-					dataBlock.assignments.add(new Assignment(Value.POP, stack.pop()));
+					dataBlock.assignments.add(new Assignment(Value.POP, pop()));
 					break;
 				}
 				case POP2:
 				{
-					dataBlock.assignments.add(new Assignment(Value.POP, stack.pop()));
-					Value pop2 = stack.pop();
+					dataBlock.assignments.add(new Assignment(Value.POP, pop()));
+					Value pop2 = pop();
 					if (pop2 != null) {
 						dataBlock.assignments.add(new Assignment(Value.POP, pop2));
 					}
@@ -475,61 +610,61 @@ public class MethodAnalyzer {
 				}
 				case DUP:
 				{
-					Value dupValue = stack.pop();
+					Value dupValue = pop();
 					Value dup;
 					if (isCacheSafe(dupValue)) {
 						dup = dupValue;
 					} else {
-						dup = new Value(ValueType.DUP, dupCount++, dupValue.classType);
+						dup = valueFactory.create(ValueType.DUP, dupCount++, dupValue.classType);
 						dataBlock.assignments.add(new Assignment(dup, dupValue));
 					}
-					stack.push(dup);
-					stack.push(dup);
+					push(dup);
+					push(dup);
 					break;
 				}
 				case DUP_X1:
 				{
-					Value value1 = stack.pop();
-					Value value2 = stack.pop();
+					Value value1 = pop();
+					Value value2 = pop();
 					Value dup;
 					if (isCacheSafe(value1)) {
 						dup = value1;
 					} else {
-						dup = new Value(ValueType.DUP, dupCount++, value1.classType);
+						dup = valueFactory.create(ValueType.DUP, dupCount++, value1.classType);
 						dataBlock.assignments.add(new Assignment(dup, value1));
 					}
-					stack.push(dup);
-					stack.push(value2);
-					stack.push(dup);
+					push(dup);
+					push(value2);
+					push(dup);
 					break;
 				}
 				case DUP_X2:
 				{
-					Value value1 = stack.pop();
-					Value value2 = stack.pop();
-					Value value3 = stack.pop();
+					Value value1 = pop();
+					Value value2 = pop();
+					Value value3 = pop();
 					Value dup;
 					if (isCacheSafe(value1)) {
 						dup = value1;
 					} else {
-						dup = new Value(ValueType.DUP, dupCount++, value1.classType);
+						dup = valueFactory.create(ValueType.DUP, dupCount++, value1.classType);
 						dataBlock.assignments.add(new Assignment(dup, value1));
 					}
-					stack.push(dup);
-					stack.push(value3);
-					stack.push(value2);
-					stack.push(dup);
+					push(dup);
+					push(value3);
+					push(value2);
+					push(dup);
 					break;
 				}
 				case DUP2:
 				{
-					Value value1 = stack.pop();
-					Value value2 = stack.pop();
+					Value value1 = pop();
+					Value value2 = pop();
 					Value dup1;
 					if (isCacheSafe(value1)) {
 						dup1 = value1;
 					} else {
-						dup1 = new Value(ValueType.DUP, dupCount++, value1.classType);
+						dup1 = valueFactory.create(ValueType.DUP, dupCount++, value1.classType);
 						dataBlock.assignments.add(new Assignment(dup1, value1));
 					}
 					Value dup2;
@@ -537,28 +672,28 @@ public class MethodAnalyzer {
 						if (isCacheSafe(value2)) {
 							dup2 = value2;
 						} else {
-							dup2 = new Value(ValueType.DUP, dupCount++, value2.classType);
-							dataBlock.assignments.add(new Assignment(dup1, value2));
+							dup2 = valueFactory.create(ValueType.DUP, dupCount++, value2.classType);
+							dataBlock.assignments.add(new Assignment(dup2, value2));
 						}
 					} else {
 						dup2 = null;
 					}
-					stack.push(dup2);
-					stack.push(dup1);
-					stack.push(dup2);
-					stack.push(dup1);
+					push(dup2);
+					push(dup1);
+					push(dup2);
+					push(dup1);
 					break;
 				}
 				case DUP2_X1:
 				{
-					Value value1 = stack.pop();
-					Value value2 = stack.pop();
-					Value value3 = stack.pop();
+					Value value1 = pop();
+					Value value2 = pop();
+					Value value3 = pop();
 					Value dup1;
 					if (isCacheSafe(value1)) {
 						dup1 = value1;
 					} else {
-						dup1 = new Value(ValueType.DUP, dupCount++, value1.classType);
+						dup1 = valueFactory.create(ValueType.DUP, dupCount++, value1.classType);
 						dataBlock.assignments.add(new Assignment(dup1, value1));
 					}
 					Value dup2;
@@ -566,30 +701,30 @@ public class MethodAnalyzer {
 						if (isCacheSafe(value2)) {
 							dup2 = value2;
 						} else {
-							dup2 = new Value(ValueType.DUP, dupCount++, value2.classType);
-							dataBlock.assignments.add(new Assignment(dup1, value2));
+							dup2 = valueFactory.create(ValueType.DUP, dupCount++, value2.classType);
+							dataBlock.assignments.add(new Assignment(dup2, value2));
 						}
 					} else {
 						dup2 = null;
 					}
-					stack.push(dup2);
-					stack.push(dup1);
-					stack.push(value3);
-					stack.push(dup2);
-					stack.push(dup1);
+					push(dup2);
+					push(dup1);
+					push(value3);
+					push(dup2);
+					push(dup1);
 					break;
 				}
 				case DUP2_X2:
 				{
-					Value value1 = stack.pop();
-					Value value2 = stack.pop();
-					Value value3 = stack.pop();
-					Value value4 = stack.pop();
+					Value value1 = pop();
+					Value value2 = pop();
+					Value value3 = pop();
+					Value value4 = pop();
 					Value dup1;
 					if (isCacheSafe(value1)) {
 						dup1 = value1;
 					} else {
-						dup1 = new Value(ValueType.DUP, dupCount++, value1.classType);
+						dup1 = valueFactory.create(ValueType.DUP, dupCount++, value1.classType);
 						dataBlock.assignments.add(new Assignment(dup1, value1));
 					}
 					Value dup2;
@@ -597,26 +732,26 @@ public class MethodAnalyzer {
 						if (isCacheSafe(value2)) {
 							dup2 = value2;
 						} else {
-							dup2 = new Value(ValueType.DUP, dupCount++, value2.classType);
-							dataBlock.assignments.add(new Assignment(dup1, value2));
+							dup2 = valueFactory.create(ValueType.DUP, dupCount++, value2.classType);
+							dataBlock.assignments.add(new Assignment(dup2, value2));
 						}
 					} else {
 						dup2 = null;
 					}
-					stack.push(dup2);
-					stack.push(dup1);
-					stack.push(value4);
-					stack.push(value3);
-					stack.push(dup2);
-					stack.push(dup1);
+					push(dup2);
+					push(dup1);
+					push(value4);
+					push(value3);
+					push(dup2);
+					push(dup1);
 					break;
 				}
 				case SWAP:
 				{
-					Value value1 = stack.pop();
-					Value value2 = stack.pop();
-					stack.push(value1);
-					stack.push(value2);
+					Value value1 = pop();
+					Value value2 = pop();
+					push(value1);
+					push(value2);
 					break;
 				}
 				default:
@@ -628,48 +763,75 @@ public class MethodAnalyzer {
 			{
 				Arithmetic arithmetic = (Arithmetic) op.data;
 				ComputationalType operatingType = arithmetic.operatingType;
-				Value right = stack.pop();
+				Value right = pop();
 				if (operatingType.category == 2) {
-					stack.pop();
+					pop();
 				}
-				Value left = stack.pop();
-				stack.push(new Value(ValueType.BINARY_ARITHMETIC, new BinaryArithmetic(left, right, arithmetic.operation), ClassReference.fromComputationalType(operatingType)));
+				Value left = pop();
+				push(createArithmetic(left, right, arithmetic.operation, operatingType));
 				break;
 			}
 			case NEGATE:
 			{
 				ComputationalType negateType = (ComputationalType) op.data;
-				stack.push(new Value(ValueType.NEGATE, stack.pop(), ClassReference.fromComputationalType(negateType)));
+				Value negated = pop();
+				ConstantEntry folded = (isFoldable(negated) ? ConstantFolder.negate(negateType, (ConstantEntry) negated.value) : null);
+				if (folded != null) {
+					push(createConstant(folded, ClassReference.fromComputationalType(negateType)));
+				} else {
+					push(valueFactory.create(ValueType.NEGATE, negated, ClassReference.fromComputationalType(negateType)));
+				}
 				break;
 			}
 			case SHIFT:
 			{
 				Shift shift = (Shift) op.data;
-				Value shiftAmount = stack.pop();
-				Value shifted = stack.pop();
-				stack.push(new Value(ValueType.SHIFT, new ShiftArithmetic(shifted, shiftAmount, shift.shiftType), ClassReference.fromComputationalType(shift.operatingType)));
+				Value shiftAmount = pop();
+				Value shifted = pop();
+				ConstantEntry folded = null;
+				if (isFoldable(shiftAmount)) {
+					if (isFoldable(shifted)) {
+						folded = ConstantFolder.shift(shift.shiftType, shift.operatingType, (ConstantEntry) shifted.value, (ConstantEntry) shiftAmount.value);
+					} else if (ConstantFolder.isIdentityShift(shift.operatingType, (ConstantEntry) shiftAmount.value)) {
+						push(shifted);
+						break;
+					}
+				}
+				if (folded != null) {
+					push(createConstant(folded, ClassReference.fromComputationalType(shift.operatingType)));
+				} else {
+					push(valueFactory.create(ValueType.SHIFT, new ShiftArithmetic(shifted, shiftAmount, shift.shiftType), ClassReference.fromComputationalType(shift.operatingType)));
+				}
 				break;
 			}
 			case LOCAL_INCREMENT:
 			{
 				LocalVariableIncrement localIncrement = (LocalVariableIncrement) op.data;
 				LocalVariable local = localIncrement.local;
-				Value localTarget = new Value(ValueType.LOCAL, local.index, ClassReference.fromComputationalType(ComputationalType.INT));
-				dataBlock.assignments.add(new Assignment(localTarget, new Value(ValueType.BINARY_ARITHMETIC, new BinaryArithmetic(localTarget, new Value(ValueType.CONSTANT, new ConstantEntry(ConstantType.INTEGER, localIncrement.incrementAmount), ClassReference.fromComputationalType(ComputationalType.INT)), ArithmeticType.ADD), localTarget.classType)));
+				Value localSource = locals[local.index];
+				Value localTarget = valueFactory.create(ValueType.LOCAL, new Variable(local.index, versionCount++, bci), ClassReference.fromComputationalType(ComputationalType.INT));
+				locals[local.index] = localTarget;
+				Value increment = createConstant(new ConstantEntry(ConstantType.INTEGER, localIncrement.incrementAmount), ClassReference.fromComputationalType(ComputationalType.INT));
+				dataBlock.assignments.add(new Assignment(localTarget, createArithmetic(localSource, increment, ArithmeticType.ADD, ComputationalType.INT)));
 				break;
 			}
 			case CONVERT:
 			{
 				Conversion conversion = (Conversion) op.data;
-				Value value = stack.pop();
+				Value value = pop();
 				if (conversion.from.computationalType.category == 2) {
-					stack.pop();
+					pop();
 				}
 				Primitive targetPrimitive = conversion.to;
 				if (targetPrimitive.computationalType.category == 2) {
-					stack.push(null);
+					push(null);
+				}
+				ConstantEntry folded = (isFoldable(value) ? ConstantFolder.convert(conversion.from, targetPrimitive, (ConstantEntry) value.value) : null);
+				if (folded != null) {
+					push(createConstant(folded, ClassReference.fromPrimitive(targetPrimitive)));
+				} else {
+					push(valueFactory.create(ValueType.CONVERT, new Convert(value, targetPrimitive), ClassReference.fromPrimitive(targetPrimitive)));
 				}
-				stack.push(new Value(ValueType.CONVERT, new Convert(value, targetPrimitive), ClassReference.fromPrimitive(targetPrimitive)));
 				break;
 			}
 			case COMPARE:
@@ -677,22 +839,27 @@ public class MethodAnalyzer {
 				Comparison comparison = (Comparison) op.data;
 				ComputationalType compareType = comparison.compareType;
 				boolean category2 = (compareType.category == 2);
-				Value value2 = stack.pop();
+				Value value2 = pop();
 				if (category2) {
-					stack.pop();
+					pop();
 				}
-				Value value1 = stack.pop();
+				Value value1 = pop();
 				if (category2) {
-					stack.pop();
+					pop();
+				}
+				ConstantEntry folded = (isFoldable(value1) && isFoldable(value2) ? ConstantFolder.compare(comparison.option, compareType, (ConstantEntry) value1.value, (ConstantEntry) value2.value) : null);
+				if (folded != null) {
+					push(createConstant(folded, ClassReference.fromComputationalType(ComputationalType.INT)));
+				} else {
+					push(valueFactory.create(ValueType.COMPARE, new Compare(value1, value2, comparison.option), ClassReference.fromComputationalType(ComputationalType.INT)));
 				}
-				stack.push(new Value(ValueType.COMPARE, new Compare(value1, value2, comparison.option), ClassReference.fromComputationalType(ComputationalType.INT)));
 				break;
 			}
 			case CONDITIONAL_JUMP:
 			{
 				ConditionalJump conditionalJump = (ConditionalJump) op.data;
-				BasicBlock ifBlock = basicBlocks.get((int) conditionalJump.jumpTarget);
-				BasicBlock elseBlock = basicBlockOrdering.get(block);
+				BasicBlock ifBlock = block.successors.get(BasicBlockConnection.fromConditionalJump(conditionalJump));
+				BasicBlock elseBlock = block.successors.get(BasicBlockConnection.FALLTHROUGH);
 				Value compareTo;
 				JumpCondition condition = conditionalJump.condition;
 				if (condition == JumpCondition.IS_NULL || condition == JumpCondition.IS_NOT_NULL) {
@@ -700,78 +867,83 @@ public class MethodAnalyzer {
 				} else {
 					compareTo = Value.ZERO;
 				}
-				dataBlock.transition = DataTransition.fromComparison(new ValueComparison(stack.pop(), ComparisonType.fromCondition(conditionalJump.condition), compareTo));
+				ValueComparison comparison = new ValueComparison(pop(), ComparisonType.fromCondition(conditionalJump.condition), compareTo);
 				if (conditionalJump.conditionType.category == 2) {
-					stack.pop();
+					pop();
 				}
-				Map<DataConnection, BasicBlock> connections = new HashMap<>();
-				connections.put(DataConnection.IF, ifBlock);
-				connections.put(DataConnection.ELSE, elseBlock);
-				dataConnections.put(block, connections);
+				connectBranch(block, dataBlock, comparison, ifBlock, elseBlock);
 				break;
 			}
 			case COMPARE_JUMP:
 			{
 				CompareJump compareJump = (CompareJump) op.data;
-				BasicBlock ifBlock = basicBlocks.get((int) compareJump.jumpTarget);
-				BasicBlock elseBlock = basicBlockOrdering.get(block);
+				BasicBlock ifBlock = block.successors.get(BasicBlockConnection.fromCompareJump(compareJump));
+				BasicBlock elseBlock = block.successors.get(BasicBlockConnection.FALLTHROUGH);
 				boolean category2 = (compareJump.compareType.category == 2);
-				Value left = stack.pop();
+				Value left = pop();
 				if (category2) {
-					stack.pop();
+					pop();
 				}
-				Value right = stack.pop();
+				Value right = pop();
 				if (category2) {
-					stack.pop();
+					pop();
 				}
-				dataBlock.transition = DataTransition.fromComparison(new ValueComparison(left, ComparisonType.fromCompare(compareJump.comparison), right));
-				Map<DataConnection, BasicBlock> connections = new HashMap<>();
-				connections.put(DataConnection.IF, ifBlock);
-				connections.put(DataConnection.ELSE, elseBlock);
-				dataConnections.put(block, connections);
+				connectBranch(block, dataBlock, new ValueComparison(left, ComparisonType.fromCompare(compareJump.comparison), right), ifBlock, elseBlock);
 				break;
 			}
 			case UNCONDITIONAL_JUMP:
 			{
 				dataBlock.transition = DataTransition.fromUnconditional();
-				dataConnections.put(block, Collections.singletonMap(DataConnection.UNCONDITIONAL, basicBlocks.get((int) op.data)));
+				dataConnections.put(block, Collections.singletonMap(DataConnection.UNCONDITIONAL, graph.getBlock((int) op.data)));
 				break;
 			}
 			case SUBROUTINE_JUMP:
 			{
-				//System.err.println("I hate subroutines");
-				stack.push(Value.NULL);
+				//subroutines are inlined by the graph, so this is only reached when inlining would have made the code too long; the return address is pushed as a placeholder
+				push(Value.NULL);
 				dataBlock.transition = DataTransition.fromUnconditional();
-				dataConnections.put(block, Collections.singletonMap(DataConnection.UNCONDITIONAL, basicBlocks.get((int) op.data)));
+				dataConnections.put(block, Collections.singletonMap(DataConnection.UNCONDITIONAL, graph.getBlock((int) op.data)));
 				break;
 			}
 			case SUBROUTINE_RETURN:
 			{
-				//System.err.println("I hate subroutines");
+				//the return is left without successors, since the call site it goes back to isn't known without inlining
 				dataBlock.transition = DataTransition.fromUnconditional();
 				break;
 			}
 			case SWITCH:
 			{
 				Switch switchOp = (Switch) op.data;
-				Value switchValue = stack.pop();
-				dataBlock.transition = DataTransition.fromSwitch(switchValue);
+				Value switchValue = pop();
 				Map<DataConnection, BasicBlock> connections = new HashMap<>();
-				for (Map.Entry<Integer, Integer> switchJump : switchOp.jumpTable.entrySet()) {
-					connections.put(DataConnection.fromSwitch(switchJump.getKey()), basicBlocks.get(switchJump.getValue()));
+				//cases that were found to be dead have already been removed from the graph
+				for (Integer switchKey : switchOp.jumpTable.keySet()) {
+					BasicBlock caseBlock = block.successors.get(BasicBlockConnection.fromSwitch(switchKey));
+					if (caseBlock != null) {
+						connections.put(DataConnection.fromSwitch(switchKey), caseBlock);
+					}
+				}
+				BasicBlock defaultBlock = block.successors.get(BasicBlockConnection.DEFAULT);
+				if (defaultBlock != null) {
+					connections.put(DataConnection.DEFAULT, defaultBlock);
+				}
+				if (connections.size() == 1) {
+					dataBlock.transition = DataTransition.fromUnconditional();
+					dataConnections.put(block, Collections.singletonMap(DataConnection.UNCONDITIONAL, connections.values().iterator().next()));
+				} else {
+					dataBlock.transition = DataTransition.fromSwitch(switchValue);
+					dataConnections.put(block, connections);
 				}
-				connections.put(DataConnection.DEFAULT, basicBlocks.get(switchOp.defaultJump));
-				dataConnections.put(block, connections);
 				break;
 			}
 			case RETURN:
 			{
 				ClassReference returnClass = method.reference.returnType;
 				if (returnClass.primitive != Primitive.VOID) {
-					Value returnValue = stack.pop();
+					Value returnValue = pop();
 					dataBlock.transition = DataTransition.fromReturn(returnValue);
 					if (returnClass.getComputationalType().category == 2) {
-						stack.pop();
+						pop();
 					}
 				} else {
 					dataBlock.transition = DataTransition.fromReturn(Value.VOID);
@@ -781,23 +953,23 @@ public class MethodAnalyzer {
 			case FIELD_LOAD:
 			{
 				FieldAccessor fieldAccess = (FieldAccessor) op.data;
-				Value instance = (fieldAccess.isStatic ? null : stack.pop());
+				Value instance = (fieldAccess.isStatic ? null : pop());
 				ClassReference fieldType = fieldAccess.field.type;
 				if (fieldType.getComputationalType().category == 2) {
-					stack.push(null);
+					push(null);
 				}
-				stack.push(new Value(ValueType.FIELD_ACCESS, new FieldAccess(instance, fieldAccess), fieldType));
+				push(valueFactory.create(ValueType.FIELD_ACCESS, new FieldAccess(instance, fieldAccess), fieldType));
 				break;
 			}
 			case FIELD_STORE:
 			{
 				FieldAccessor fieldAccess = (FieldAccessor) op.data;
-				Value fieldValue = stack.pop();
+				Value fieldValue = pop();
 				if (fieldValue.classType.getComputationalType().category == 2) {
-					stack.pop();
+					pop();
 				}
-				Value instance = (fieldAccess.isStatic ? null : stack.pop());
-				dataBlock.assignments.add(new Assignment(new Value(ValueType.FIELD_ACCESS, new FieldAccess(instance, fieldAccess), fieldAccess.field.type), fieldValue));
+				Value instance = (fieldAccess.isStatic ? null : pop());
+				dataBlock.assignments.add(new Assignment(valueFactory.create(ValueType.FIELD_ACCESS, new FieldAccess(instance, fieldAccess), fieldAccess.field.type), fieldValue));
 				break;
 			}
 			case METHOD_INVOKE:
@@ -807,30 +979,30 @@ public class MethodAnalyzer {
 				int argumentCount = methodReference.argTypes.size();
 				List<Value> arguments = new ArrayList<>(argumentCount);
 				for (int i = 0; i < argumentCount; i++) {
-					Value argument = stack.pop();
+					Value argument = pop();
 					arguments.add(argument);
 					if (argument.classType.getComputationalType().category == 2) {
-						stack.pop();
+						pop();
 					}
 				}
 				Collections.reverse(arguments);
-				Value instance = (methodCall.type == MethodType.STATIC ? null : stack.pop());
+				Value instance = (methodCall.type == MethodType.STATIC ? null : pop());
 				ClassReference returnType = methodReference.returnType;
-				Value methodValue = new Value(ValueType.METHOD_CALL, new MethodCall(instance, arguments, methodCall), returnType);
+				Value methodValue = valueFactory.create(ValueType.METHOD_CALL, new MethodCall(instance, arguments, methodCall), returnType);
 				if (returnType.primitive == Primitive.VOID) {
 					dataBlock.assignments.add(new Assignment(Value.VOID, methodValue));
 				} else {
 					if (returnType.getComputationalType().category == 2) {
-						stack.push(null);
+						push(null);
 					}
-					stack.push(methodValue);
+					push(methodValue);
 				}
 				break;
 			}
 			case NEW_OBJECT:
 			{
 				ClassReference instanceClass = (ClassReference) op.data;
-				stack.push(new Value(ValueType.NEW_INSTANCE, instanceClass, instanceClass));
+				push(valueFactory.create(ValueType.NEW_INSTANCE, instanceClass, instanceClass));
 				break;
 			}
 			case NEW_ARRAY:
@@ -839,160 +1011,97 @@ public class MethodAnalyzer {
 				int dimensionsCreated = instantiation.dimensionsCreated;
 				List<Value> counts = new ArrayList<>(dimensionsCreated);
 				for (int i = 0; i < dimensionsCreated; i++) {
-					counts.add(stack.pop());
+					counts.add(pop());
 				}
 				Collections.reverse(counts);
 				ClassReference arrayClass = instantiation.arrayClass;
-				stack.push(new Value(ValueType.NEW_ARRAY, new NewArray(arrayClass, counts), arrayClass));
+				push(valueFactory.create(ValueType.NEW_ARRAY, new NewArray(arrayClass, counts), arrayClass));
 				break;
 			}
 			case ARRAY_LENGTH:
 			{
-				stack.push(new Value(ValueType.ARRAY_LENGTH, stack.pop(), ClassReference.fromComputationalType(ComputationalType.INT)));
+				push(valueFactory.create(ValueType.ARRAY_LENGTH, pop(), ClassReference.fromComputationalType(ComputationalType.INT)));
 				break;
 			}
 			case THROW:
 			{
-				Value thrown = stack.pop();
+				Value thrown = pop();
 				dataBlock.transition = DataTransition.fromThrow();
-				dataBlock.assignments.add(new Assignment(new Value(ValueType.THROW, null, thrown.classType), thrown));
+				dataBlock.assignments.add(new Assignment(valueFactory.create(ValueType.THROW, null, thrown.classType), thrown));
 				break;
 			}
 			case CAST:
 			{
 				ClassReference castTo = (ClassReference) op.data;
-				stack.push(new Value(ValueType.CAST, new Cast(stack.pop(), castTo), castTo));
+				push(valueFactory.create(ValueType.CAST, new Cast(pop(), castTo), castTo));
 				break;
 			}
 			case INSTANCE_OF:
 			{
 				ClassReference instanceOf = (ClassReference) op.data;
-				stack.push(new Value(ValueType.INSTANCE_OF, new InstanceOf(stack.pop(), instanceOf), ClassReference.fromComputationalType(ComputationalType.INT)));
+				push(valueFactory.create(ValueType.INSTANCE_OF, new InstanceOf(pop(), instanceOf), ClassReference.fromComputationalType(ComputationalType.INT)));
 				break;
 			}
 			case SYNCHRONIZE:
 			{
 				if ((boolean) op.data) {
-					dataBlock.assignments.add(new Assignment(Value.MONITOR, stack.pop()));
+					dataBlock.assignments.add(new Assignment(Value.MONITOR, pop()));
 				} else {
-					dataBlock.assignments.add(new Assignment(Value.RELEASE, stack.pop()));
+					dataBlock.assignments.add(new Assignment(Value.RELEASE, pop()));
 				}
 				break;
 			}
 			}
 		}
 		if (dataBlock.transition == null) {
-			Set<BasicBlock> successors = block.forwardEdges.keySet();
+			Set<BasicBlock> successors = new HashSet<>(block.successors.values());
 			if (successors.size() == 1) {
 				dataBlock.transition = DataTransition.fromFallThrough();
 				dataConnections.put(block, Collections.singletonMap(DataConnection.FALL_THROUGH, successors.iterator().next()));
 			}
 		}
-		return dataBlock;
 	}
 
-	private Deque<Value> mergeStacks(Map<DataBlock, Deque<Value>> stackMap) {
-		int stackCount = stackMap.size();
-		if (stackCount == 1) {
-			return stackMap.values().iterator().next();
-		} else {
-			Deque<Value> merged = new LinkedList<>();
-			Deque<Map<DataBlock, Value>> stackValues = new LinkedList<>();
-			Deque<Set<ClassReference>> stackClasses = new LinkedList<>();
-			int stackHeight = stackMap.values().iterator().next().size();
-			for (int i = 0; i < stackHeight; i++) {
-				stackValues.push(new HashMap<DataBlock, Value>());
-				stackClasses.push(new HashSet<ClassReference>());
-			}
-			for (Map.Entry<DataBlock, Deque<Value>> stackEntry : stackMap.entrySet()) {
-				for (Value stackValue : stackEntry.getValue()) {
-					Map<DataBlock, Value> values = stackValues.remove();
-					Set<ClassReference> classes = stackClasses.remove();
-					if (stackValue != null) {
-						values.put(stackEntry.getKey(), stackValue);
-						classes.add(stackValue.classType);
-					}
-					stackClasses.add(classes);
-					stackValues.add(values);
-				}
-			}
-			int stackIndex = stackHeight - 1;
-			for (Set<ClassReference> classes : stackClasses) {
-				Map<DataBlock, Value> values = stackValues.pop();
-				if (new HashSet<>(values.values()).size() == 1) {
-					merged.add(values.values().iterator().next());
-				} else {
-					if (!classes.isEmpty()) {
-						System.out.println("Started with " + stackMap.values());
-						merged.add(new Value(ValueType.STACK, stackIndex, ClassReference.leastCommonSuperclass(classes)));
-						for (Map.Entry<DataBlock, Value> valueEntry : values.entrySet()) {
-							Value value = valueEntry.getValue();
-							System.out.println("Appending " + new Assignment(new Value(ValueType.STACK, stackIndex, value.classType), value) + " to " + valueEntry.getKey().hashCode());
-							valueEntry.getKey().assignments.add(new Assignment(new Value(ValueType.STACK, stackIndex, value.classType), value));
-						}
-					} else {
-						merged.add(null);
-					}
-				}
-				stackIndex--;
-			}
-			//System.out.println("Merged stack " + merged);
-			return merged;
+	/**
+	 * Ends a block with a two way branch, or with an unconditional jump if one side of the branch was removed from the graph as dead.
+	 */
+	private void connectBranch(BasicBlock block, DataBlock dataBlock, ValueComparison comparison, BasicBlock ifBlock, BasicBlock elseBlock) {
+		if (ifBlock == null || elseBlock == null) {
+			dataBlock.transition = DataTransition.fromUnconditional();
+			dataConnections.put(block, Collections.singletonMap(DataConnection.UNCONDITIONAL, (ifBlock != null ? ifBlock : elseBlock)));
+			return;
 		}
+		dataBlock.transition = DataTransition.fromComparison(comparison);
+		Map<DataConnection, BasicBlock> connections = new HashMap<>();
+		connections.put(DataConnection.IF, ifBlock);
+		connections.put(DataConnection.ELSE, elseBlock);
+		dataConnections.put(block, connections);
 	}
 
-	private List<Value> mergeLocals(Map<DataBlock, List<Value>> localsMap) {
-		int localSetsCount = localsMap.size();
-		if (localSetsCount == 1) {
-			return localsMap.values().iterator().next();
-		} else {
-			List<Value> merged = new ArrayList<>(localsCount);
-			List<Map<DataBlock, Value>> localValues = new ArrayList<>(localsCount);
-			List<Set<ClassReference>> localClasses = new ArrayList<>(localsCount);
-			for (int i = 0; i < localsCount; i++) {
-				merged.add(null);
-				localValues.add(new HashMap<DataBlock, Value>());
-				localClasses.add(new HashSet<ClassReference>());
-			}
-			for (Map.Entry<DataBlock, List<Value>> localsEntry : localsMap.entrySet()) {
-				List<Value> values = localsEntry.getValue();
-				for (int localIndex = 0; localIndex < localsCount; localIndex++) {
-					Value localValue = values.get(localIndex);
-					Set<ClassReference> classes = localClasses.get(localIndex);
-					if (localValue != null) {
-						localValues.get(localIndex).put(localsEntry.getKey(), localValue);
-						ClassReference localClass = localValue.classType;
-						classes.add(localClass);
-						if (localClass.getComputationalType().category == 2) {
-							localIndex++;
-						}
-					}
-				}
-			}
-			for (int localIndex = 0; localIndex < localsCount; localIndex++) {
-				Set<ClassReference> classes = localClasses.get(localIndex);
-				Map<DataBlock, Value> values = localValues.get(localIndex);
-				if (new HashSet<>(values.values()).size() == 1) {
-					Value localValue = values.values().iterator().next();
-					merged.set(localIndex, localValue);
-					if (localValue.classType.getComputationalType().category == 2) {
-						localIndex++;
-					}
-				} else {
-					if (!values.isEmpty()) {
-						ClassReference localClass = ClassReference.leastCommonSuperclass(classes);
-						if (localClass != null) {
-							merged.set(localIndex, new Value(ValueType.LOCAL, localIndex, localClass));
-							if (localClass.getComputationalType().category == 2) {
-								localIndex++;
-							}
-						}
-					}
+	private boolean isFoldable(Value value) {
+		return foldConstants && value.type == ValueType.CONSTANT;
+	}
+
+	private Value createConstant(ConstantEntry constant, ClassReference constantClass) {
+		return valueFactory.create(ValueType.CONSTANT, constant, constantClass);
+	}
+
+	private Value createArithmetic(Value left, Value right, ArithmeticType operation, ComputationalType operatingType) {
+		ClassReference resultClass = ClassReference.fromComputationalType(operatingType);
+		if (isFoldable(right)) {
+			ConstantEntry rightConstant = (ConstantEntry) right.value;
+			if (isFoldable(left)) {
+				ConstantEntry folded = ConstantFolder.arithmetic(operation, operatingType, (ConstantEntry) left.value, rightConstant);
+				if (folded != null) {
+					return createConstant(folded, resultClass);
 				}
+			} else if (resultClass.equals(left.classType) && ConstantFolder.isIdentity(operation, operatingType, rightConstant, true)) {
+				return left;
 			}
-			//System.out.println("Merged locals " + Arrays.toString(merged));
-			return merged;
+		} else if (isFoldable(left) && resultClass.equals(right.classType) && ConstantFolder.isIdentity(operation, operatingType, (ConstantEntry) left.value, false)) {
+			return right;
 		}
+		return valueFactory.create(ValueType.BINARY_ARITHMETIC, new BinaryArithmetic(left, right, operation), resultClass);
 	}
 
 	private boolean isCacheSafe(Value value) {
@@ -1002,6 +1111,7 @@ public class MethodAnalyzer {
 		case ARGUMENT:
 		case LOCAL:
 		case STACK:
+		case PHI:
 			return true;
 		case ARRAY_ACCESS:
 			return false;
@@ -5,13 +5,14 @@ import java.util.List;
 
 public class DataBlock {
 	
+	public final List<Value> phis = new LinkedList<>();
 	public final List<Assignment> assignments = new LinkedList<>();
 	public final List<DataHandler> handlers = new LinkedList<>();
 	public DataTransition transition;
 	
 	@Override
 	public String toString() {
-		return assignments + " " + transition;
+		return (phis.isEmpty() ? "" : phis + " ") + assignments + " " + transition;
 	}
 
 }
@@ -0,0 +1,24 @@
+package analysis.data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class Phi {
+	
+	public final Variable variable;
+	public final boolean isStack;
+	//the value flowing in from each predecessor, keyed by the predecessor's data block (null for the method entry)
+	public final Map<DataBlock, Value> operands = new LinkedHashMap<>();
+	
+	public Phi(Variable variable, boolean isStack) {
+		this.variable = variable;
+		this.isStack = isStack;
+	}
+	
+	@Override
+	public String toString() {
+		//the operands aren't printed here, since the phi of a loop header usually feeds back into its own operands
+		return (isStack ? "stack " : "local ") + variable;
+	}
+
+}
@@ -13,6 +13,40 @@ public class ShiftArithmetic {
 		this.shiftType = shiftType;
 	}
 	
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((shiftAmount == null) ? 0 : shiftAmount.hashCode());
+		result = prime * result + ((shiftType == null) ? 0 : shiftType.hashCode());
+		result = prime * result + ((shifted == null) ? 0 : shifted.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		ShiftArithmetic other = (ShiftArithmetic) obj;
+		if (shiftAmount == null) {
+			if (other.shiftAmount != null)
+				return false;
+		} else if (!shiftAmount.equals(other.shiftAmount))
+			return false;
+		if (shiftType != other.shiftType)
+			return false;
+		if (shifted == null) {
+			if (other.shifted != null)
+				return false;
+		} else if (!shifted.equals(other.shifted))
+			return false;
+		return true;
+	}
+
 	@Override
 	public String toString() {
 		return shifted + " " + shiftType + " " + shiftAmount;
@@ -18,21 +18,24 @@ public class Value {
 	public final ValueType type;
 	public final Object value;
 	public final ClassReference classType;
+	//the hash is computed once, since the values inside the payload have already cached theirs, so hashing never walks the whole tree
+	private final int hash;
 	
 	public Value(ValueType type, Object value, ClassReference classType) {
 		this.type = type;
 		this.value = value;
 		this.classType = classType;
-	}
-
-	@Override
-	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result+ ((classType == null) ? 0 : classType.hashCode());
 		result = prime * result + ((type == null) ? 0 : type.hashCode());
 		result = prime * result + ((value == null) ? 0 : value.hashCode());
-		return result;
+		hash = result;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
 	}
 
 	@Override
@@ -44,6 +47,8 @@ public class Value {
 		if (getClass() != obj.getClass())
 			return false;
 		Value other = (Value) obj;
+		if (hash != other.hash)
+			return false;
 		if (classType == null) {
 			if (other.classType != null)
 				return false;
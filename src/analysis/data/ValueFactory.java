@@ -0,0 +1,62 @@
+package analysis.data;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import classfile.ClassReference;
+
+/**
+ * A factory for the values of one method, which hash-conses them: creating a value structurally equal to one created before returns the earlier value, so that structurally equal values are the same object. Since the payloads of the values only compare the values inside them, and those have already been hash-consed, checking whether a value already exists never has to walk the whole expression tree, and long chains of arithmetic (e.g., those produced by obfuscators) share their common subexpressions instead of being copied.
+ * <p>
+ * Only pure values, i.e., those that always evaluate to the same result given the same operands, are shared. Reads of fields and arrays, method calls, and allocations can each produce a different result every time they execute, so every one of them is a distinct value.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class ValueFactory {
+	
+	/**
+	 * The types of values that are shared.
+	 */
+	public static final EnumSet<ValueType> PURE_TYPES = EnumSet.of(ValueType.CONSTANT, ValueType.THIS, ValueType.ARGUMENT, ValueType.LOCAL, ValueType.STACK, ValueType.PHI,
+			ValueType.BINARY_ARITHMETIC, ValueType.NEGATE, ValueType.SHIFT, ValueType.CONVERT, ValueType.COMPARE, ValueType.ARRAY_LENGTH, ValueType.CAST, ValueType.INSTANCE_OF);
+	
+	private final Map<Value, Value> values = new HashMap<>();
+	
+	public ValueFactory() {
+		values.put(Value.NULL, Value.NULL);
+		values.put(Value.ZERO, Value.ZERO);
+	}
+	
+	/**
+	 * Gets a value, creating it only if no structurally equal value has been created by this factory.
+	 * 
+	 * @param type the type of the value
+	 * @param value the payload of the value
+	 * @param classType the class of the value
+	 * @return the shared value
+	 */
+	public Value create(ValueType type, Object value, ClassReference classType) {
+		Value created = new Value(type, value, classType);
+		if (!PURE_TYPES.contains(type)) {
+			return created;
+		}
+		Value existing = values.get(created);
+		if (existing != null) {
+			return existing;
+		}
+		values.put(created, created);
+		return created;
+	}
+	
+	/**
+	 * Gets the number of distinct pure values created by this factory.
+	 * 
+	 * @return the number of shared values
+	 */
+	public int size() {
+		return values.size();
+	}
+
+}
@@ -4,7 +4,7 @@ public enum ValueType {
 	
 	CONSTANT,
 	THIS, ARGUMENT,
-	LOCAL, STACK,
+	LOCAL, STACK, PHI,
 	ARRAY_ACCESS,
 	BINARY_ARITHMETIC, NEGATE, SHIFT,
 	CONVERT,
@@ -0,0 +1,50 @@
+package analysis.data;
+
+public class Variable {
+	
+	public final int index;
+	public final int version;
+	//the bci of the store defining this variable, or -1 if it isn't defined by a store (e.g., a phi or a stack slot)
+	public final int bci;
+	
+	public Variable(int index, int version) {
+		this(index, version, -1);
+	}
+	
+	public Variable(int index, int version, int bci) {
+		this.index = index;
+		this.version = version;
+		this.bci = bci;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + index;
+		result = prime * result + version;
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		Variable other = (Variable) obj;
+		if (index != other.index)
+			return false;
+		if (version != other.version)
+			return false;
+		return true;
+	}
+	
+	@Override
+	public String toString() {
+		return index + "_" + version;
+	}
+
+}
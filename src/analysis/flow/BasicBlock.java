@@ -1,6 +1,7 @@
 package analysis.flow;
 
 import java.util.BitSet;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -22,6 +23,8 @@ public class BasicBlock {
 	
 	public int startBci;
 	public int endBci;
+	//the position of this block in the reverse postorder of its graph, or -1 if the block is unreachable
+	public int index = -1;
 	
 	public List<Opcode> body;
 	
@@ -37,6 +40,10 @@ public class BasicBlock {
 	
 	public Set<BasicBlock> dominators;
 	public BasicBlock immediateDominator;
+	public BasicBlock immediatePostDominator;
+	
+	//the number of natural loops containing this block, which is 0 for blocks outside of any loop
+	public int loopDepth;
 	
 	/**
 	 * Connects two basic blocks via a connection object.
@@ -63,19 +70,39 @@ public class BasicBlock {
 	}
 	
 	/**
-	 * Removes a block from a graph by disconnecting its references to other blocks and removing all references to the block.
+	 * Determines whether an edge between two blocks is a retreating edge, i.e., one that goes from a block to a block that is no later than it in reverse postorder. Every back edge of a loop is a retreating edge.
+	 * 
+	 * @param predecessor the block from which the edge begins
+	 * @param successor the target of the edge
+	 * @return whether the edge goes backwards in reverse postorder
+	 */
+	public static boolean isRetreating(BasicBlock predecessor, BasicBlock successor) {
+		return successor.index <= predecessor.index;
+	}
+	
+	/**
+	 * Removes a block from a graph by disconnecting its references to other blocks and removing all references to the block, including those of exception handlers.
 	 * 
 	 * @param block the block to remove from the graph
 	 */
 	public static void disconnect(BasicBlock block) {
+		Set<BasicBlock> removed = Collections.singleton(block);
 		for (BasicBlock predecessor : block.predecessors) {
-			predecessor.successors.remove(block);
+			predecessor.successors.values().removeAll(removed);
 		}
 		for (BasicBlock successor : block.successors.values()) {
 			successor.predecessors.remove(block);
 		}
+		for (BasicBlock handled : block.handled) {
+			handled.handlers.values().removeAll(removed);
+		}
+		for (BasicBlock handler : block.handlers.values()) {
+			handler.handled.remove(block);
+		}
 		block.predecessors.clear();
 		block.successors.clear();
+		block.handled.clear();
+		block.handlers.clear();
 	}
 	
 	@Override
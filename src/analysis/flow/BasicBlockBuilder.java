@@ -0,0 +1,297 @@
+package analysis.flow;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import classfile.code.Code;
+import classfile.code.opcodes.CompareJump;
+import classfile.code.opcodes.ConditionalJump;
+import classfile.code.opcodes.ExceptionHandler;
+import classfile.code.opcodes.Opcode;
+import classfile.code.opcodes.Switch;
+
+/**
+ * Divides the <code>Code</code> attribute of a method into {@link BasicBlock}s and connects them, in time linear in the size of the code. This is done in two passes over the instructions: the first pass marks every leader (the first instruction of a basic block) in a <code>BitSet</code> indexed by bytecode index, and the second pass cuts the code at each leader and wires the blocks to their successors. Since every leader is known before any block is created, a block never has to be split after the fact, e.g., when a backwards jump into the middle of it is found.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class BasicBlockBuilder {
+
+	//the code that the blocks are built from
+	private final Code code;
+
+	//the bcis that begin a basic block
+	private final BitSet leaders;
+	//the bcis that begin exception handler code
+	private final BitSet handlerEntries;
+	//the bcis that are the targets of jsr instructions
+	private final BitSet subroutineEntries;
+	//a lookup table from a bci to the block starting at that bci, or null if the bci is not a leader
+	private final BasicBlock[] blockStarts;
+	//the blocks in the order that they appear in the code
+	private final List<BasicBlock> blocks = new ArrayList<>();
+	//the handlers covering each bci
+	private final ExceptionHandlerIndex handlerIndex;
+
+	/**
+	 * Builds and connects the basic blocks of a <code>Code</code> attribute.
+	 *
+	 * @param code the code to divide into basic blocks
+	 */
+	public BasicBlockBuilder(Code code) {
+		this.code = code;
+		int codeSize = code.ops.size();
+		leaders = new BitSet(codeSize);
+		handlerEntries = new BitSet(codeSize);
+		subroutineEntries = new BitSet(codeSize);
+		blockStarts = new BasicBlock[codeSize];
+		handlerIndex = new ExceptionHandlerIndex(code.exceptionTable);
+		markLeaders();
+		cutBlocks();
+		connectBlocks();
+		connectHandlers();
+	}
+
+	/**
+	 * Gets the block beginning at a given bytecode index.
+	 *
+	 * @param bci the bytecode index of the start of the block
+	 * @return the block starting at <code>bci</code>, or <code>null</code> if no block starts there
+	 */
+	public BasicBlock getBlock(int bci) {
+		return (bci >= 0 && bci < blockStarts.length ? blockStarts[bci] : null);
+	}
+
+	/**
+	 * Gets all of the blocks that were built, sorted by their starting bytecode index.
+	 *
+	 * @return an unmodifiable list of the blocks in code order
+	 */
+	public List<BasicBlock> getBlocks() {
+		return Collections.unmodifiableList(blocks);
+	}
+
+	/**
+	 * Gets the index of the exception handlers of the code.
+	 *
+	 * @return the index of the handlers covering each bci
+	 */
+	public ExceptionHandlerIndex getHandlerIndex() {
+		return handlerIndex;
+	}
+
+	/**
+	 * Gets the set of leaders found in the code. The returned set is a copy, so it may be freely modified.
+	 *
+	 * @return the set of bytecode indices that start a basic block
+	 */
+	public BitSet getLeaders() {
+		return (BitSet) leaders.clone();
+	}
+
+	/**
+	 * The first pass: scans every instruction once and marks the bytecode indices that must begin a basic block. These are bci 0, the start, end, and handler of every exception handler, the targets of every jump, and the instruction following any instruction that transfers control.
+	 */
+	private void markLeaders() {
+		List<Opcode> ops = code.ops;
+		int codeSize = ops.size();
+		//bci 0 always starts a block, since it's the entry point of the method
+		leaders.set(0);
+		for (ExceptionHandler handler : code.exceptionTable) {
+			leaders.set(handler.start);
+			//the end of a handler range is exclusive, so it may be the end of the code, in which case it doesn't begin anything
+			if (handler.end < codeSize) {
+				leaders.set(handler.end);
+			}
+			leaders.set(handler.handler);
+			handlerEntries.set(handler.handler);
+		}
+		for (int bci = 0; bci < codeSize; bci++) {
+			Opcode op = ops.get(bci);
+			//the ops list is padded with nulls to keep bcis as indices, so skip the padding
+			if (op == null) {
+				continue;
+			}
+			switch (op.type) {
+			case CONDITIONAL_JUMP:
+				leaders.set(((ConditionalJump) op.data).jumpTarget);
+				break;
+			case COMPARE_JUMP:
+				leaders.set(((CompareJump) op.data).jumpTarget);
+				break;
+			case UNCONDITIONAL_JUMP:
+				leaders.set((int) op.data);
+				break;
+			case SUBROUTINE_JUMP:
+			{
+				int subroutineBci = (int) op.data;
+				leaders.set(subroutineBci);
+				subroutineEntries.set(subroutineBci);
+				break;
+			}
+			case SWITCH:
+			{
+				Switch switchOp = (Switch) op.data;
+				for (int switchTarget : switchOp.jumpTable.values()) {
+					leaders.set(switchTarget);
+				}
+				leaders.set(switchOp.defaultJump);
+				break;
+			}
+			case RETURN:
+			case SUBROUTINE_RETURN:
+			case THROW:
+				break;
+			default:
+				//any other instruction doesn't affect control flow, so it can't end a block
+				continue;
+			}
+			//control flow was transferred by this instruction, so whatever follows it starts a new block
+			int nextBci = code.next(bci);
+			if (nextBci > 0) {
+				leaders.set(nextBci);
+			}
+		}
+	}
+
+	/**
+	 * The first half of the second pass: cuts the code into blocks at each leader. Each block runs from its leader up to, but not including, the next leader.
+	 */
+	private void cutBlocks() {
+		List<Opcode> ops = code.ops;
+		int codeSize = ops.size();
+		for (int leader = leaders.nextSetBit(0); leader >= 0; leader = leaders.nextSetBit(leader + 1)) {
+			int nextLeader = leaders.nextSetBit(leader + 1);
+			if (nextLeader < 0) {
+				nextLeader = codeSize;
+			}
+			List<Opcode> body = new ArrayList<>(nextLeader - leader);
+			for (int bci = leader; bci < nextLeader; bci++) {
+				Opcode op = ops.get(bci);
+				if (op != null) {
+					body.add(op);
+				}
+			}
+			BasicBlock block = new BasicBlock();
+			block.startBci = leader;
+			//note that the end bci of a block is the bci of the start of its last instruction, not the end of the last instruction
+			block.endBci = code.previous(nextLeader);
+			block.body = body;
+			if (handlerEntries.get(leader)) {
+				block.flags.add(BasicBlockType.EXCEPTION_HANDLER);
+			}
+			if (subroutineEntries.get(leader)) {
+				block.flags.add(BasicBlockType.SUBROUTINE_ENTRY);
+			}
+			blockStarts[leader] = block;
+			blocks.add(block);
+		}
+	}
+
+	/**
+	 * The second half of the second pass: connects each block to its successors. Only the last instruction of a block can transfer control, so that is the only instruction that needs to be examined.
+	 */
+	private void connectBlocks() {
+		int blockCount = blocks.size();
+		for (int i = 0; i < blockCount; i++) {
+			BasicBlock block = blocks.get(i);
+			//the block that physically follows this one, which is where control goes if it falls through
+			BasicBlock next = (i + 1 < blockCount ? blocks.get(i + 1) : null);
+			Opcode last = code.ops.get(block.endBci);
+			switch (last.type) {
+			case CONDITIONAL_JUMP:
+			{
+				//conditional jumps have two successors - the jump and the fallthrough
+				ConditionalJump jump = (ConditionalJump) last.data;
+				BasicBlock.connect(block, BasicBlockConnection.fromConditionalJump(jump), blockStarts[jump.jumpTarget]);
+				connectFallthrough(block, next);
+				break;
+			}
+			case COMPARE_JUMP:
+			{
+				//comparison jumps are basically the same as conditional jumps in terms of control flow
+				CompareJump jump = (CompareJump) last.data;
+				BasicBlock.connect(block, BasicBlockConnection.fromCompareJump(jump), blockStarts[jump.jumpTarget]);
+				connectFallthrough(block, next);
+				break;
+			}
+			case UNCONDITIONAL_JUMP:
+			{
+				BasicBlock.connect(block, BasicBlockConnection.GOTO, blockStarts[(int) last.data]);
+				break;
+			}
+			case SUBROUTINE_JUMP:
+			{
+				//subroutines can only jump to one place, so they have one successor
+				BasicBlock.connect(block, BasicBlockConnection.SUBROUTINE, blockStarts[(int) last.data]);
+				break;
+			}
+			case SUBROUTINE_RETURN:
+			{
+				//there's no static successor of a ret, but it's worth labeling for later
+				block.flags.add(BasicBlockType.SUBROUTINE_EXIT);
+				break;
+			}
+			case SWITCH:
+			{
+				//switches have successors to each case and the default
+				Switch switchOp = (Switch) last.data;
+				for (Map.Entry<Integer, Integer> switchCondition : switchOp.jumpTable.entrySet()) {
+					BasicBlock.connect(block, BasicBlockConnection.fromSwitch(switchCondition.getKey()), blockStarts[switchCondition.getValue()]);
+				}
+				BasicBlock.connect(block, BasicBlockConnection.DEFAULT, blockStarts[switchOp.defaultJump]);
+				break;
+			}
+			case RETURN:
+			case THROW:
+			{
+				//returns and throws break up control flow, but aren't succeeded by anything
+				break;
+			}
+			default:
+			{
+				//the block was ended by a leader rather than by its last instruction, so it just falls through
+				connectFallthrough(block, next);
+				break;
+			}
+			}
+		}
+	}
+
+	/**
+	 * Connects the blocks covered by each exception handler to the handler block. Since every handler range begins and ends at a leader, each block is covered by exactly the handlers covering its first instruction, which the {@link ExceptionHandlerIndex} finds in logarithmic time, so the blocks are connected in one pass no matter how many handler ranges overlap.
+	 */
+	private void connectHandlers() {
+		List<ExceptionHandler> exceptionTable = code.exceptionTable;
+		int exceptionCount = exceptionTable.size();
+		if (exceptionCount == 0) {
+			return;
+		}
+		BasicBlockHandler[] exceptions = new BasicBlockHandler[exceptionCount];
+		for (int priority = 0; priority < exceptionCount; priority++) {
+			exceptions[priority] = new BasicBlockHandler(exceptionTable.get(priority).catchType, priority);
+		}
+		for (BasicBlock block : blocks) {
+			for (int priority : handlerIndex.getHandlers(block.startBci)) {
+				BasicBlock.connectHandler(block, exceptions[priority], blockStarts[exceptionTable.get(priority).handler]);
+			}
+		}
+	}
+
+	/**
+	 * Connects a block to the block following it in the code, if there is one.
+	 *
+	 * @param block the block which falls through
+	 * @param next the following block, or <code>null</code> if <code>block</code> is the last block of the code
+	 */
+	private static void connectFallthrough(BasicBlock block, BasicBlock next) {
+		if (next != null) {
+			BasicBlock.connect(block, BasicBlockConnection.FALLTHROUGH, next);
+		}
+	}
+
+}
@@ -1,36 +1,32 @@
 package analysis.flow;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.NavigableMap;
-import java.util.NavigableSet;
-import java.util.Queue;
 import java.util.Set;
-import java.util.TreeMap;
-import java.util.TreeSet;
 
 import util.PrettyPrinter;
 import classfile.JavaMethod;
 import classfile.code.Code;
-import classfile.code.opcodes.CompareJump;
-import classfile.code.opcodes.ConditionalJump;
-import classfile.code.opcodes.ExceptionHandler;
+import classfile.code.opcodes.Arithmetic;
+import classfile.code.opcodes.ArithmeticType;
+import classfile.code.opcodes.ComputationalType;
 import classfile.code.opcodes.LocalVariable;
 import classfile.code.opcodes.LocalVariableIncrement;
 import classfile.code.opcodes.Opcode;
-import classfile.code.opcodes.Switch;
+import classfile.constant.ConstantEntry;
+import classfile.constant.ConstantType;
 
 /**
- * A graph of the basic blocks from the <code>Code</code> attribute of a method. A basic block is a segment of code such that control flow cannot enter it except from one entry point, and leaves through one exit point. An exception to this rule are exception handlers (forgive the pun), which only divide basic blocks at the start and end of their handling range, and the start of the actual handler code. An instance of this class constructs a <code>Map</code> of bytecode indices to their respective {@link BasicBlock}s, and connects the <code>BasicBlocks</code> to their successors.
+ * A graph of the basic blocks from the <code>Code</code> attribute of a method. A basic block is a segment of code such that control flow cannot enter it except from one entry point, and leaves through one exit point. An exception to this rule are exception handlers (forgive the pun), which only divide basic blocks at the start and end of their handling range, and the start of the actual handler code. An instance of this class constructs a lookup table of bytecode indices to their respective {@link BasicBlock}s, and connects the <code>BasicBlocks</code> to their successors.
  * <p>
- * In addition to computing the positions of the basic blocks and forming the connections between them, a <code>BasicBlockGraph</code> performs two additional analyses at the moment - live local variable analysis and dominator computation. Live local analysis computes which local variables are needed to enter and exit each basic block such that the program can execute properly. This can be used to eliminate useless variables, such as those introduced by obfuscation techniques. Dominator computation finds dominating blocks for each basic block. A dominator of a basic block is a block through which control flow must always pass before reaching the dominated block.
+ * In addition to computing the positions of the basic blocks and forming the connections between them, a <code>BasicBlockGraph</code> performs three additional analyses at the moment - live local variable analysis, dominator computation (in both directions), and loop detection. Live local analysis computes which local variables are needed to enter and exit each basic block such that the program can execute properly. This can be used to eliminate useless variables, such as those introduced by obfuscation techniques. Dominator computation finds dominating blocks for each basic block. A dominator of a basic block is a block through which control flow must always pass before reaching the dominated block; a post-dominator is a block through which control flow must always pass after leaving it, and these give rise to a {@link ControlDependenceGraph}. Loop detection uses the dominators to find the natural loops of the code, and arranges them into a {@link LoopNest}.
  * 
  * @author Aaron Willey
  * @version 0.1
@@ -40,35 +36,172 @@ public class BasicBlockGraph {
 	//TODO: Add accessor methods to the graph first, and then work on transformation methods
 	//TODO: Think about the way in which exception handlers are treated and how they affect the division of and connections between basic blocks
 
+	//the flags set while ordering the blocks, which have to be cleared before they can be ordered again
+	private static final EnumSet<BasicBlockType> ORDER_FLAGS = EnumSet.of(BasicBlockType.VISITED, BasicBlockType.ACTIVE, BasicBlockType.LOOP_HEADER, BasicBlockType.METHOD_END);
+
 	//the code that this graph works on
 	private final Code code;
+	//the inliner that produced the code, which maps its bcis back to those of the method
+	private final SubroutineInliner inliner;
 
-	//a temporary variable for storing the current bytecode index, used to construct the initial basic block structure
-	private int currentBci;
-	//another temporary variable, this one recording the links between basic blocks before the basic block objects are fully created
-	private final Map<Integer, Map<BasicBlockConnection, Integer>> successors = new HashMap<>();
-	//the map of bytecode indices to basic blocks
-	private final NavigableMap<Integer, BasicBlock> blockMap = new TreeMap<>();
+	//a lookup table from bytecode indices to the basic blocks starting at them, with null for bcis that don't start a block
+	private final BasicBlock[] blockStarts;
 	//the basic blocks stored in reverse postorder (which is not the same as preorder)
 	private final List<BasicBlock> reversePostorder = new ArrayList<>();
+	//the dominator tree of the blocks, with nodes numbered by reverse postorder
+	private DominatorTree dominatorTree;
+	//the post-dominator tree of the blocks, rooted at a virtual exit
+	private PostDominatorTree postDominatorTree;
+	//the natural loops of the code
+	private LoopNest loopNest;
+	//the exception handlers covering each bci
+	private ExceptionHandlerIndex handlerIndex;
+	//the number of blocks and instructions dropped from the graph because they can never be executed
+	private int prunedBlockCount;
+	private int prunedInstructionCount;
 
 	/**
-	 * Constructs a graph of basic blocks from a bytecode method. This includes reverse postorder calculation, live variable analysis, and dominator computation for the code.
+	 * Constructs a graph of basic blocks from a bytecode method. The subroutines of the method are inlined first, so that the graph only has ordinary jumps (see {@link SubroutineInliner}), and the graph is built over the inlined code, which is what {@link #getCode()} returns. This includes reverse postorder calculation, live variable analysis, dominator and post-dominator computation, and loop detection for the code. Before any of these run, exception handlers are disconnected from the blocks that can't throw, and every block that isn't reachable from the start of the code through the remaining connections is dropped, so that no analysis ever spends time on code that can't run.
 	 * 
 	 * @param method the method to construct the graph from
 	 */
 	public BasicBlockGraph(JavaMethod method) {
-		code = method.code;
+		inliner = (method.code != null ? new SubroutineInliner(method.code) : null);
+		code = (inliner != null ? inliner.getCode() : null);
 		if (code == null) {
+			blockStarts = new BasicBlock[0];
 			return;
 		}
+		blockStarts = new BasicBlock[code.ops.size()];
 		createBasicBlocks();
+		removeDeadHandlers();
 		computeBlockOrder();
+		removeUnreachableBlocks();
 		computeLiveLocals();
 		computeDominators();
-		for (BasicBlock block : reversePostorder) {
-			System.out.println(block + " " + block.body);
+		computePostDominators();
+		computeLoops();
+	}
+
+	/**
+	 * Gets the code that this graph was built from. This is the code of the method with its subroutines inlined, so its bcis are only the same as those of the method when the method has no subroutines; every analysis built on the graph reports bcis of this code, which {@link #getOriginalBci(int)} maps back to the method.
+	 * 
+	 * @return the code of the graph, or <code>null</code> if the method has no code
+	 */
+	public Code getCode() {
+		return code;
+	}
+
+	/**
+	 * Determines whether the code of the graph had subroutines inlined, i.e., whether its bcis may differ from those of the method.
+	 * 
+	 * @return whether {@link #getCode()} returns rewritten code
+	 */
+	public boolean isInlined() {
+		return inliner != null && inliner.isInlined();
+	}
+
+	/**
+	 * Gets the bytecode index in the code of the method of an instruction of the code of the graph. Since a subroutine is copied once for every place it is called from, several bcis of the graph may map to the same bci of the method.
+	 * 
+	 * @param bci the bci of the instruction in the code returned by {@link #getCode()}
+	 * @return the bci in the class file that the instruction was copied from
+	 */
+	public int getOriginalBci(int bci) {
+		return (inliner != null ? inliner.getOriginalBci(bci) : bci);
+	}
+
+	/**
+	 * Gets the basic block beginning at a given bytecode index.
+	 * 
+	 * @param bci the bytecode index of the start of the block
+	 * @return the block starting at <code>bci</code>, or <code>null</code> if no block starts there
+	 */
+	public BasicBlock getBlock(int bci) {
+		return (bci >= 0 && bci < blockStarts.length ? blockStarts[bci] : null);
+	}
+
+	/**
+	 * Gets the basic blocks reachable from the start of the code, in reverse postorder. The position of each block in this list is also stored in {@link BasicBlock#index}.
+	 * 
+	 * @return an unmodifiable list of the reachable blocks in reverse postorder
+	 */
+	public List<BasicBlock> getBlocks() {
+		return Collections.unmodifiableList(reversePostorder);
+	}
+
+	/**
+	 * Gets the dominator tree of the reachable blocks. The nodes of the tree are the {@link BasicBlock#index} values of the blocks.
+	 * 
+	 * @return the dominator tree of this graph
+	 */
+	public DominatorTree getDominatorTree() {
+		return dominatorTree;
+	}
+
+	/**
+	 * Gets the post-dominator tree of the reachable blocks.
+	 * 
+	 * @return the post-dominator tree of this graph
+	 */
+	public PostDominatorTree getPostDominatorTree() {
+		return postDominatorTree;
+	}
+
+	/**
+	 * Gets the natural loops of the code, along with how they are nested.
+	 * 
+	 * @return the loop nesting forest of this graph
+	 */
+	public LoopNest getLoopNest() {
+		return loopNest;
+	}
+
+	/**
+	 * Gets the index of the exception handlers of the code, which can find the handlers covering any bci in logarithmic time.
+	 * 
+	 * @return the exception handler index of this graph, or <code>null</code> if the method has no code
+	 */
+	public ExceptionHandlerIndex getHandlerIndex() {
+		return handlerIndex;
+	}
+
+	/**
+	 * Gets the number of blocks that have been dropped from the graph because they can never be executed, either when the graph was built or when connections were removed afterwards.
+	 * 
+	 * @return the number of dropped blocks
+	 */
+	public int getPrunedBlockCount() {
+		return prunedBlockCount;
+	}
+
+	/**
+	 * Gets the number of instructions in the blocks that have been dropped from the graph.
+	 * 
+	 * @return the number of dropped instructions
+	 */
+	public int getPrunedInstructionCount() {
+		return prunedInstructionCount;
+	}
+
+	/**
+	 * Removes connections that control flow can never take, e.g., the branches of a condition that is always true, and rebuilds the graph from what remains. Blocks that can no longer be reached from the start of the code are dropped from the graph entirely, and the block order, live locals, dominators, post-dominators, and loops are all recomputed, so that later analyses only ever see reachable code. Any block indices, trees, or loops taken from the graph before this call are invalidated.
+	 * 
+	 * @param deadConnections the connections to remove, keyed by the block they leave from
+	 * @return the number of blocks that were dropped
+	 */
+	public int removeConnections(Map<BasicBlock, Set<BasicBlockConnection>> deadConnections) {
+		for (Map.Entry<BasicBlock, Set<BasicBlockConnection>> dead : deadConnections.entrySet()) {
+			BasicBlock block = dead.getKey();
+			for (BasicBlockConnection connection : dead.getValue()) {
+				BasicBlock successor = block.successors.remove(connection);
+				//two connections may lead to the same block, e.g., a conditional jump to the next instruction, and the other one may still be live
+				if (successor != null && !block.successors.containsValue(successor)) {
+					successor.predecessors.remove(block);
+				}
+			}
 		}
+		return rebuild();
 	}
 
 	/**
@@ -172,7 +305,7 @@ public class BasicBlockGraph {
 		gml.println("edge [")
 		.indent()
 		.println("source -1")
-		.print("target ").println(Integer.toString(blockMap.get(0).startBci))
+		.print("target ").println(Integer.toString(blockStarts[0].startBci))
 		.unindent()
 		.println("]")
 		.unindent()
@@ -182,187 +315,95 @@ public class BasicBlockGraph {
 
 
 	/**
-	 * Creates the map of bytecode indices to their respective basic blocks. This is done by first identifying the boundaries of basic blocks and saving the connections until all blocks have been created, at which point the blocks are then linked.
+	 * Creates the basic blocks of the code and connects them, using a {@link BasicBlockBuilder}. The builder finds every leader in one linear scan before cutting any blocks, so no block ever has to be split after it is created.
 	 */
 	private void createBasicBlocks() {
-		//DISCLAIMER: I can't recall if the order of some of these computations matters, but I'm pretty sure the current order is correct
-
-		List<Opcode> ops = code.ops;
-		//leaders are the beginning bcis of a basic block, sorted for convenience
-		NavigableSet<Integer> leaders = new TreeSet<>();
-		//manually add the block for bci 0, since it always exists
-		leaders.add(0);
-		blockMap.put(0, new BasicBlock());
-		//TODO: Think about how to handle JSR and RET.
-		Set<Integer> rets = new HashSet<>();
-
-		List<ExceptionHandler> exceptionTable = code.exceptionTable;
-		//the start, end, and handler bcis of an exception handler all start a new basic block
-		for (ExceptionHandler handler : exceptionTable) {
-			int startBci = handler.start;
-			int endBci = handler.end;
-			int handlerBci = handler.handler;
-			leaders.add(startBci);
-			leaders.add(endBci);
-			leaders.add(handlerBci);
-			makeBlock(startBci);
-			makeBlock(endBci);
-			BasicBlock handlerBlock = makeBlock(handlerBci);
-			handlerBlock.flags.add(BasicBlockType.EXCEPTION_HANDLER);
+		BasicBlockBuilder builder = new BasicBlockBuilder(code);
+		handlerIndex = builder.getHandlerIndex();
+		for (BasicBlock block : builder.getBlocks()) {
+			blockStarts[block.startBci] = block;
 		}
+	}
 
-		//these two variables have to be outside the for loop so that they persist between iterations
-		int nextBci;
-		//must be initialized to true so that the first loop will start
-		boolean hasNext = true;
-		//current bci has to be a field so that makeBlock() can use it to determine if a block needs to be split
-		for (currentBci = 0; hasNext; currentBci = nextBci) {
-			Opcode op = ops.get(currentBci);
-			nextBci = code.next(currentBci);
-			//Code.next() returns a negative value if no such opcode exists, so that's how we determine if there's a next opcode (somewhat hack-ish, but I guess that's what lack of multiple returns does)
-			hasNext = (nextBci > 0);
-			switch (op.type) {
-			case CONDITIONAL_JUMP:
-			{
-				//conditional jumps have two successors - the jump and the fallthrough, each being a leader
-				ConditionalJump jump = (ConditionalJump) op.data;
-				int targetBci = jump.jumpTarget;
-				leaders.add(targetBci);
-				makeBlock(targetBci);
-				addSuccessor(currentBci, BasicBlockConnection.fromConditionalJump(jump), targetBci);
-				addSuccessor(currentBci, BasicBlockConnection.FALLTHROUGH, nextBci);
-				break;
-			}
-			case COMPARE_JUMP:
-			{
-				//comparison jumps are basically the same as conditional jumps in terms of control flow
-				CompareJump jump = (CompareJump) op.data;
-				int targetBci = jump.jumpTarget;
-				leaders.add(targetBci);
-				makeBlock(targetBci);
-				addSuccessor(currentBci, BasicBlockConnection.fromCompareJump(jump), targetBci);
-				addSuccessor(currentBci, BasicBlockConnection.FALLTHROUGH, nextBci);
-				break;
-			}
-			case UNCONDITIONAL_JUMP:
-			{
-				//unconditional jumps only have one successor, but the fallthrough is still a leader
-				int targetBci = (int) op.data;
-				leaders.add(targetBci);
-				makeBlock(targetBci);
-				addSuccessor(currentBci, BasicBlockConnection.GOTO, targetBci);
-				break;
-			}
-			case SUBROUTINE_JUMP:
-			{
-				//subroutines are just weird, but they can only jump to one place, so they have one successor, which is now a leader
-				int subroutineBci = (int) op.data;
-				leaders.add(subroutineBci);
-				BasicBlock subroutine = makeBlock(subroutineBci);
-				subroutine.flags.add(BasicBlockType.SUBROUTINE_ENTRY);
-				addSuccessor(currentBci, BasicBlockConnection.SUBROUTINE, subroutineBci);
-				break;
-			}
-			case RETURN:
-			{
-				//returns break up control flow, but aren't succeeded by anything
-				break;
+	/**
+	 * Reorders the blocks after connections have been removed, drops the blocks that are no longer reachable, and recomputes every analysis of the graph.
+	 * 
+	 * @return the number of blocks that were dropped
+	 */
+	private int rebuild() {
+		for (BasicBlock block : blockStarts) {
+			if (block != null) {
+				block.index = -1;
+				block.flags.removeAll(ORDER_FLAGS);
 			}
-			case SUBROUTINE_RETURN:
-			{
-				//I have utterly no idea how to handle RET, so just keep track of them for now
-				rets.add(currentBci);
-				break;
+		}
+		reversePostorder.clear();
+		computeBlockOrder();
+		int removedCount = removeUnreachableBlocks();
+		computeLiveLocals();
+		computeDominators();
+		computePostDominators();
+		computeLoops();
+		return removedCount;
+	}
+
+	/**
+	 * Disconnects exception handlers from the blocks they cover that contain no instruction that can throw. Obfuscators often wrap harmless code in handlers that can never be entered, and since a handler is a successor of every block it covers, these would otherwise keep the handler code alive.
+	 */
+	private void removeDeadHandlers() {
+		for (BasicBlock block : blockStarts) {
+			if (block == null || block.handlers.isEmpty()) {
+				continue;
 			}
-			case SWITCH:
-			{
-				//switches have successors to each case and the default, making each of these a leader
-				Switch switchOp = (Switch) op.data;
-				for (Map.Entry<Integer, Integer> switchCondition : switchOp.jumpTable.entrySet()) {
-					int switchTarget = switchCondition.getValue();
-					leaders.add(switchTarget);
-					makeBlock(switchTarget);
-					addSuccessor(currentBci, BasicBlockConnection.fromSwitch(switchCondition.getKey()), switchTarget);
+			boolean canThrow = false;
+			for (Opcode op : block.body) {
+				if (canThrow(op)) {
+					canThrow = true;
+					break;
 				}
-				int defaultTarget = switchOp.defaultJump;
-				leaders.add(defaultTarget);
-				makeBlock(defaultTarget);
-				addSuccessor(currentBci, BasicBlockConnection.DEFAULT, defaultTarget);
-				break;
-			}
-			case THROW:
-			{
-				//like return, throw just breaks up control flow
-				break;
 			}
-			default:
-			{
-				//in the case of none of these special instructions, we check to see if the next instruction is a leader, and if so, we connect this block to the next one via a fallthrough
-				if (hasNext && leaders.contains(nextBci)) {
-					addSuccessor(currentBci, BasicBlockConnection.FALLTHROUGH, nextBci);
+			if (!canThrow) {
+				for (BasicBlock handler : block.handlers.values()) {
+					handler.handled.remove(block);
 				}
-				//we don't want to always create new blocks though, so we continue the loop
-				continue;
-			}
+				block.handlers.clear();
 			}
-			//if any of the special instructions in the switch above are found, the following instruction must start a new basic block, so the break from those cases brings control here
-			if (hasNext) {
-				leaders.add(nextBci);
-				makeBlock(nextBci);
-			}
-		}
-		//label things as subroutine exits for fun
-		for (int ret : rets) {
-			blockMap.floorEntry(ret).getValue().flags.add(BasicBlockType.SUBROUTINE_EXIT);
 		}
+	}
 
-		//this is just so that I can use List.removeAll() to get rid of all of the nulls in the opcode listings
-		List<Object> nullList = Collections.singletonList(null);
-		//the last (highest bci) leader, so that we can easily check if there's no following leader
-		int finalLeader = leaders.last();
-		for (int leader : leaders) {
-			//if this is the last leader, then the range of opcodes to grab will be from the current leader to the end of the opcode list
-			int nextLeader = (leader == finalLeader ? ops.size() : leaders.higher(leader));
-			List<Opcode> body = new ArrayList<>(ops.subList(leader, nextLeader));
-			body.removeAll(nullList);
-			BasicBlock block = blockMap.get(leader);
-			//note that the end bci of a block is the bci of the start of its last instruction, not the end of the last instruction
-			block.endBci = code.previous(nextLeader);
-			block.body = body;
-		}
-		//successors basically maps a bci contained in a basic block to a Map of connections to bcis of the successor basic blocks
-		//this loops iterates over these entries and connects the actual basic block objects
-		//the reason for it being done this way is that we know all of the basic blocks exist and are defined correctly now
-		for (Map.Entry<Integer, Map<BasicBlockConnection, Integer>> successorEntry : successors.entrySet()) {
-			int blockBci = successorEntry.getKey();
-			//because of the keys of the successors Map being anywhere in a basic block, we have to find the closest leader less than or equal to the stored bci to find the actual start bci of the block
-			BasicBlock predecessor = blockMap.get(leaders.floor(blockBci));
-			Map<BasicBlockConnection, Integer> successors = successorEntry.getValue();
-			for (Map.Entry<BasicBlockConnection, Integer> successor : successors.entrySet()) {
-				BasicBlock.connect(predecessor, successor.getKey(), blockMap.get(successor.getValue()));
-			}
-		}
-		int exceptionCount = exceptionTable.size();
-		//exception handlers are easier to handle, since we don't have to track their ranges and successors
-		for (int priority = 0; priority < exceptionCount; priority++) {
-			ExceptionHandler exceptionHandler = exceptionTable.get(priority);
-			BasicBlock handler = blockMap.get(exceptionHandler.handler);
-			BasicBlockHandler exception = new BasicBlockHandler(exceptionHandler.catchType, priority);
-			for (BasicBlock handled : blockMap.subMap(exceptionHandler.start, exceptionHandler.end).values()) {
-				BasicBlock.connectHandler(handled, exception, handler);
+	/**
+	 * Drops every block that wasn't numbered by the last block ordering, i.e., every block that can't be reached from the start of the code, and adds it to the pruning counts.
+	 * 
+	 * @return the number of blocks that were dropped
+	 */
+	private int removeUnreachableBlocks() {
+		int removedCount = 0;
+		for (int bci = 0; bci < blockStarts.length; bci++) {
+			BasicBlock block = blockStarts[bci];
+			if (block != null && block.index < 0) {
+				prunedInstructionCount += block.body.size();
+				BasicBlock.disconnect(block);
+				blockStarts[bci] = null;
+				removedCount++;
 			}
 		}
+		prunedBlockCount += removedCount;
+		return removedCount;
 	}
 
-
 	/**
 	 * Computes the reverse-postorder order of the basic blocks. Note that exception handlers are treated as successors to the block(s) they handle.
 	 */
 	private void computeBlockOrder() {
 		//start with the entry block of the code, calling the recursive method that adds the blocks in postorder
-		computeBlockOrder(blockMap.get(0));
+		computeBlockOrder(blockStarts[0]);
 		//reverse the list to get, surprise, reverse postorder
 		Collections.reverse(reversePostorder);
+		//number the blocks by their position, so that other analyses can index arrays and bitsets by block
+		int blockCount = reversePostorder.size();
+		for (int index = 0; index < blockCount; index++) {
+			reversePostorder.get(index).index = index;
+		}
 	}
 
 	/**
@@ -404,124 +445,138 @@ public class BasicBlockGraph {
 	}
 
 	/**
-	 * Computes the local variables used in a basic block using live variable analysis. In simple terms, a variable is live at the start of a block if it is needed in that block or any of its successors; it is live at the end of a block if it is just needed by the successors.
+	 * Computes the local variables used in a basic block using live variable analysis. In simple terms, a variable is live at the start of a block if it is needed in that block or any of its successors; it is live at the end of a block if it is just needed by the successors. This is a backward may problem over the local variable slots, so it is solved by a {@link BitVectorSolver}.
 	 */
 	private void computeLiveLocals() {
-		int localsCount = code.maxLocals;
-		//the gen and kill sets are stored in temporary maps, since we only care about live-in and live-out right now
-		Map<BasicBlock, BitSet> localsLiveGen = new HashMap<>();
-		Map<BasicBlock, BitSet> localsLiveKill = new HashMap<>();
-		//populate the gen and kill sets, and initialize the live-in and live-out sets
+		BitVectorSolver solver = new BitVectorSolver(this, FlowDirection.BACKWARD, true, code.maxLocals);
 		for (BasicBlock block : reversePostorder) {
-			BitSet gen = new BitSet(localsCount);
-			BitSet kill = new BitSet(localsCount);
-			initializeBlockLiveness(block, gen, kill);
-			localsLiveGen.put(block, gen);
-			localsLiveKill.put(block, kill);
-			//we can initialize all variables to dead optimistically, and fix things later on
-			block.localsIn = new BitSet(localsCount);
-			block.localsOut = new BitSet(localsCount);
+			initializeBlockLiveness(block, solver.getGen(block), solver.getKill(block));
 		}
-		//our working queue of basic blocks
-		Queue<BasicBlock> queue = new LinkedList<>();
-		//first populate the queue with the postorder (backwards reverse postorder) sorted blocks, flagging them all as first iteration live analysis blocks
-		for (int i = reversePostorder.size() - 1; i >= 0; i--) {
-			BasicBlock block = reversePostorder.get(i);
-			block.flags.add(BasicBlockType.LIVE_FIRST_ITERATION);
-			queue.add(block);
-		}
-		//keep working as long as there's something to process
-		while (!queue.isEmpty()) {
-			BasicBlock block = queue.poll();
-			BitSet liveOut = block.localsOut;
-			//create a copy of the live-out set at the start so that we can compare later
-			BitSet originalLiveOut = liveOut.get(0, localsCount);
-			//live-out is the union of all of the live-in sets of the successors of the block
-			for (BasicBlock successor : block.successors.values()) {
-				liveOut.or(successor.localsIn);
-			}
-			//handlers count as successors too
-			for (BasicBlock handler : block.handlers.values()) {
-				liveOut.or(handler.localsIn);
-			}
-			//for the first iteration, we always have to update the live-in set, and if anything has changed in the live-out set, we have to do the same
-			if (block.flags.remove(BasicBlockType.LIVE_FIRST_ITERATION) || !originalLiveOut.equals(liveOut)) {
-				BitSet liveIn = liveOut.get(0, localsCount);
-				//live-in = gen union (live-out minus kill)
-				liveIn.andNot(localsLiveKill.get(block));
-				liveIn.or(localsLiveGen.get(block));
-				block.localsIn = liveIn;
-				//since there was a change, we have to continue working backwards to propagate it
-				queue.addAll(block.predecessors);
-			}
+		solver.solve();
+		for (BasicBlock block : reversePostorder) {
+			block.localsIn = solver.getIn(block);
+			block.localsOut = solver.getOut(block);
 		}
 	}
 
 	/**
-	 * Computes the dominators and immediate dominator of each basic block. A block dominates another block n if going through it is the only way to reach n. The immediate dominator of a block n is the block that dominates n but does not dominate any other block that dominates n and is not equal to n (in simpler terms, it is the closest nonequal dominator of n).
+	 * Computes the dominators and immediate dominator of each basic block. A block dominates another block n if going through it is the only way to reach n. The immediate dominator of a block n is the block that dominates n but does not dominate any other block that dominates n and is not equal to n (in simpler terms, it is the closest nonequal dominator of n). The immediate dominators are found by a {@link DominatorTree} over the reverse postorder numbering of the blocks, and the full dominator set of each block is then just the path from it to the root of the tree.
 	 */
 	private void computeDominators() {
-		//initialize every block to be dominated by every block, since we are looking for a maximal solution to the data flow equations
+		int blockCount = reversePostorder.size();
+		//exception handlers are reached from the blocks they handle, so those count as predecessors too
+		int[][] predecessors = new int[blockCount][];
 		for (BasicBlock block : reversePostorder) {
-			block.dominators = new HashSet<>(reversePostorder);
+			predecessors[block.index] = indicesOf(block.predecessors, block.handled);
 		}
-		Queue<BasicBlock> queue = new LinkedList<>();
-		//we begin our queue with the start block of the code
-		queue.add(reversePostorder.get(0));
-		while (!queue.isEmpty()) {
-			BasicBlock block = queue.poll();
-			Set<BasicBlock> newDominators = new HashSet<>();
-			//choose one predecessor type block of the block being examined, and add its dominators to the new dominators set
-			//this is a kinda awkward step, but it's necessary because there's no way (that I know of) to compute the intersection of a number of sets, so we just start with one predecessor set as a base point, and then start intersecting everything
-			if (!block.predecessors.isEmpty()) {
-				newDominators.addAll(block.predecessors.iterator().next().dominators);
-			} else if (!block.handled.isEmpty()) {
-				newDominators.addAll(block.handled.iterator().next().dominators);
-			}
-			//now we can compute the intersection, specifically, the intersection of all of the dominators of each predecessor of the block
-			for (BasicBlock predecessor : block.predecessors) {
-				newDominators.retainAll(predecessor.dominators);
-			}
-			for (BasicBlock handled : block.handled) {
-				newDominators.retainAll(handled.dominators);
-			}
-			//plus the block itself, since every block dominates itself
-			newDominators.add(block);
-			//check whether the dominator set of the block has changed, and if it has, set the dominators of the block to the new set, and add every successor to the work queue
-			if (!block.dominators.equals(newDominators)) {
-				block.dominators = newDominators;
-				for (BasicBlock successor : block.successors.values()) {
-					queue.add(successor);
-				}
-				for (BasicBlock handler : block.handlers.values()) {
-					queue.add(handler);
-				}
-			}
+		dominatorTree = new DominatorTree(predecessors);
+		//reverse postorder guarantees that the immediate dominator of a block has been handled before the block itself
+		for (BasicBlock block : reversePostorder) {
+			int immediateDominator = dominatorTree.getImmediateDominator(block.index);
+			Set<BasicBlock> dominators;
+			if (immediateDominator == DominatorTree.NONE) {
+				block.immediateDominator = null;
+				dominators = new HashSet<>();
+			} else {
+				block.immediateDominator = reversePostorder.get(immediateDominator);
+				dominators = new HashSet<>(block.immediateDominator.dominators);
+			}
+			//every block dominates itself
+			dominators.add(block);
+			block.dominators = dominators;
 		}
-		//to compute the immediate dominator of each block, we look at the dominators of every block, and check whether the candidate dominator dominates any of the other dominators of the block
-		//if this is so, then it can't be an immediate dominator, so only the block that satisfies the condition is saved as the immediate dominator
+	}
+
+	/**
+	 * Computes the immediate post-dominator of each basic block, using a {@link PostDominatorTree} over the reversed graph.
+	 */
+	private void computePostDominators() {
+		postDominatorTree = new PostDominatorTree(this);
 		for (BasicBlock block : reversePostorder) {
-			for (BasicBlock candidateDominator : block.dominators) {
-				//a block dominates itself, but is not an immediate dominator of itself
-				if (candidateDominator == block) {
-					continue;
-				}
-				//XXX: This control structure just bothers me, but I don't know how to fix it
-				boolean isImmediateDominator = true;
-				for (BasicBlock tempDominator : block.dominators) {
-					//if any of the other strictly dominating blocks of the block we're working on are strictly dominated by the candidate dominator, the candidate cannot be an immediate dominator, so we break
-					if (tempDominator != block && tempDominator != candidateDominator && tempDominator.dominators.contains(candidateDominator)) {
-						isImmediateDominator = false;
-						break;
-					}
-				}
-				//if we found an immediate dominator, it has to be the only one for the block (I think)
-				if (isImmediateDominator) {
-					block.immediateDominator = candidateDominator;
-					break;
-				}
+			block.immediatePostDominator = postDominatorTree.getImmediatePostDominator(block);
+		}
+	}
+
+	/**
+	 * Finds the natural loops of the code and how they nest, and records the loop nesting depth of each block.
+	 */
+	private void computeLoops() {
+		loopNest = new LoopNest(this);
+		for (BasicBlock block : reversePostorder) {
+			block.loopDepth = loopNest.getDepth(block);
+		}
+	}
+
+	/**
+	 * Collects the reverse postorder indices of the reachable blocks in a collection of blocks into an array.
+	 * 
+	 * @param blocks the blocks to collect
+	 * @return the indices of the reachable blocks
+	 */
+	static int[] indicesOf(Collection<BasicBlock> blocks) {
+		return indicesOf(blocks, Collections.<BasicBlock>emptySet());
+	}
+
+	/**
+	 * Collects the reverse postorder indices of the reachable blocks in two collections of blocks into one array.
+	 * 
+	 * @param first the first collection of blocks
+	 * @param second the second collection of blocks
+	 * @return the indices of the reachable blocks in both collections
+	 */
+	static int[] indicesOf(Collection<BasicBlock> first, Collection<BasicBlock> second) {
+		int[] indices = new int[first.size() + second.size()];
+		int count = 0;
+		for (BasicBlock block : first) {
+			if (block.index >= 0) {
+				indices[count++] = block.index;
+			}
+		}
+		for (BasicBlock block : second) {
+			if (block.index >= 0) {
+				indices[count++] = block.index;
 			}
 		}
+		return (count == indices.length ? indices : Arrays.copyOf(indices, count));
+	}
+
+	/**
+	 * Determines whether an instruction can throw an exception. Asynchronous exceptions, such as those thrown by <code>Thread.stop</code>, are ignored, since they can't be predicted anyway. Anything that resolves a class or member can fail to link, so only instructions that work purely on the frame, or jump, are known not to throw; an integer division by an unknown value may still throw.
+	 * 
+	 * @param op the instruction to examine
+	 * @return whether <code>op</code> may throw
+	 */
+	private static boolean canThrow(Opcode op) {
+		switch (op.type) {
+		case NOOP:
+		case LOCAL_LOAD:
+		case LOCAL_STORE:
+		case STACK_MANAGE:
+		case NEGATE:
+		case SHIFT:
+		case LOCAL_INCREMENT:
+		case CONVERT:
+		case COMPARE:
+		case CONDITIONAL_JUMP:
+		case COMPARE_JUMP:
+		case UNCONDITIONAL_JUMP:
+		case SUBROUTINE_JUMP:
+		case SUBROUTINE_RETURN:
+		case SWITCH:
+			return false;
+		case CONSTANT_LOAD:
+			//class constants have to be resolved
+			return ((ConstantEntry) op.data).type == ConstantType.CLASS;
+		case ARITHMETIC:
+		{
+			Arithmetic arithmetic = (Arithmetic) op.data;
+			ComputationalType operatingType = arithmetic.operatingType;
+			boolean integral = (operatingType == ComputationalType.INT || operatingType == ComputationalType.LONG);
+			return integral && (arithmetic.operation == ArithmeticType.DIVIDE || arithmetic.operation == ArithmeticType.REMAINDER);
+		}
+		default:
+			return true;
+		}
 	}
 
 	/**
@@ -561,7 +616,7 @@ public class BasicBlockGraph {
 			case SUBROUTINE_RETURN:
 			{
 				//subroutines are evil, but they also use a local variable to store the return address, so it is a gen candidate
-				int localIndex = (int) op.data;
+				int localIndex = ((LocalVariable) op.data).index;
 				if (!kill.get(localIndex)) {
 					gen.set(localIndex);
 				}
@@ -587,53 +642,4 @@ public class BasicBlockGraph {
 		}
 	}
 
-	/**
-	 * Stores a connection between two blocks in a temporary map so that they can be later formally linked.
-	 * 
-	 * @param fromBci the bytecode index of an instruction contained by the block where the connection starts
-	 * @param connection the actual connection object linking the two blocks
-	 * @param toBci the bytecode index of the target block of this connection
-	 */
-	private void addSuccessor(int fromBci, BasicBlockConnection connection, int toBci) {
-		if (successors.containsKey(fromBci)) {
-			//add the connection
-			successors.get(fromBci).put(connection, toBci);
-		} else {
-			//create a new map and add the connection, then store the map
-			Map<BasicBlockConnection, Integer> successor = new HashMap<>();
-			successor.put(connection, toBci);
-			successors.put(fromBci, successor);
-		}
-	}
-
-	/**
-	 * Returns the basic block object for a specific bytecode index, creating one if necessary. If the new basic block is to be created from a backwards jump, the basic block before the new block is "split" and then connected to the created block.
-	 * 
-	 * @param bci the bytecode index of the block to make, if needed
-	 * @return the block that was created or found
-	 */
-	private BasicBlock makeBlock(int bci) {
-		if (!blockMap.containsKey(bci)) {
-			//we need to make a new block since it doesn't already exist
-			BasicBlock newBlock = new BasicBlock();
-			newBlock.startBci = bci;
-			//if the bci of the block we're making is lower than our current position in the code, i.e., a backwards jump occurred, we need to connect the two pieces of the split block together
-			if (bci < currentBci) {
-				//find the closest block below the bci where we want the new block
-				int splitBci = blockMap.lowerKey(bci);
-				//TODO: Figure out why I put this here - there's probably a reason, but I can't remember it, and it might have just been legacy if there was a reason. It doesn't seem to make a difference in test cases though.
-				/*if (successors.containsKey(splitBci)) {
-					successors.get(splitBci).clear();
-				}*/
-				//and connect that old block to the new one with a fallthrough
-				addSuccessor(splitBci, BasicBlockConnection.FALLTHROUGH, bci);
-			}
-			blockMap.put(bci, newBlock);
-			return newBlock;
-		} else {
-			//there's already a block, so just return it
-			return blockMap.get(bci);
-		}
-	}
-
 }
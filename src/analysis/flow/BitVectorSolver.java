@@ -0,0 +1,199 @@
+package analysis.flow;
+
+import java.util.BitSet;
+
+/**
+ * Solves a gen/kill data flow problem over sets of numbered items, such as local variables or definitions, on the blocks of a {@link BasicBlockGraph}. The fact flowing out of each block is <code>gen | (in &amp; ~kill)</code>, and facts are merged by union for a may problem, or by intersection for a must problem. The sets of every block are allocated once, and updated in place on each visit, so the solver does no allocation while it iterates.
+ * <p>
+ * The gen and kill sets of each block, and the boundary set, are filled in by the caller through {@link #getGen(BasicBlock)}, {@link #getKill(BasicBlock)}, and {@link #getBoundary()} before the problem is solved. Forward may problems can also give the items generated anywhere in a block through {@link #getExceptionalGen(BasicBlock)}, so that items killed within the block still reach its handlers.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class BitVectorSolver extends WorklistSolver {
+
+	//whether facts are merged by union (a may problem) rather than intersection (a must problem)
+	private final boolean union;
+	//the number of items in the sets
+	private final int width;
+
+	private final BitSet boundary;
+	//the gen and kill sets of each block, and the facts flowing into and out of it in the direction of the problem, indexed by block index
+	private final BitSet[] gens;
+	private final BitSet[] kills;
+	//the items generated anywhere in each block, only allocated for blocks that are given one
+	private final BitSet[] exceptionalGens;
+	private final BitSet[] inputs;
+	private final BitSet[] outputs;
+	//the sets that the next input and output are computed into, which are swapped with the old ones when they change
+	private BitSet inputScratch;
+	private BitSet scratch;
+
+	/**
+	 * Creates a solver for a gen/kill problem, with empty gen, kill, and boundary sets. The problem isn't solved until {@link #solve()} is called.
+	 *
+	 * @param graph the graph to solve the problem on, which must have its blocks ordered
+	 * @param direction the direction that facts flow in
+	 * @param union whether facts are merged by union, rather than intersection
+	 * @param width the number of items in the sets
+	 */
+	public BitVectorSolver(BasicBlockGraph graph, FlowDirection direction, boolean union, int width) {
+		super(graph, direction);
+		this.union = union;
+		this.width = width;
+		int blockCount = blocks.size();
+		boundary = new BitSet(width);
+		gens = new BitSet[blockCount];
+		kills = new BitSet[blockCount];
+		exceptionalGens = new BitSet[blockCount];
+		inputs = new BitSet[blockCount];
+		outputs = new BitSet[blockCount];
+		for (int i = 0; i < blockCount; i++) {
+			gens[i] = new BitSet(width);
+			kills[i] = new BitSet(width);
+			inputs[i] = top();
+			outputs[i] = top();
+		}
+		inputScratch = new BitSet(width);
+		scratch = new BitSet(width);
+	}
+
+	/**
+	 * Gets the gen set of a block, i.e., the items that the block adds to the facts flowing through it. The set may be modified until the problem is solved.
+	 *
+	 * @param block the block to look up
+	 * @return the gen set of <code>block</code>
+	 */
+	public BitSet getGen(BasicBlock block) {
+		return gens[block.index];
+	}
+
+	/**
+	 * Gets the kill set of a block, i.e., the items that the block removes from the facts flowing through it, before the gen set is added. The set may be modified until the problem is solved.
+	 *
+	 * @param block the block to look up
+	 * @return the kill set of <code>block</code>
+	 */
+	public BitSet getKill(BasicBlock block) {
+		return kills[block.index];
+	}
+
+	/**
+	 * Gets the exceptional gen set of a block, i.e., the items generated anywhere in the block, even if they are killed again before its end. In a forward may problem, these flow into the handlers of the block along with the sets at its start and end, since an exception can leave the block between any two instructions. The set is only allocated once it is asked for, and may be modified until the problem is solved.
+	 *
+	 * @param block the block to look up
+	 * @return the exceptional gen set of <code>block</code>
+	 */
+	public BitSet getExceptionalGen(BasicBlock block) {
+		BitSet exceptionalGen = exceptionalGens[block.index];
+		if (exceptionalGen == null) {
+			exceptionalGen = new BitSet(width);
+			exceptionalGens[block.index] = exceptionalGen;
+		}
+		return exceptionalGen;
+	}
+
+	/**
+	 * Gets the boundary set, i.e., the set flowing into the entry block of a forward problem, or out of the exit blocks of a backward problem. The set may be modified until the problem is solved.
+	 *
+	 * @return the boundary set
+	 */
+	public BitSet getBoundary() {
+		return boundary;
+	}
+
+	/**
+	 * Gets the set at the start of a block. The returned set must not be modified until the solver is no longer used.
+	 *
+	 * @param block the block to look up
+	 * @return the set at the start of <code>block</code>
+	 */
+	public BitSet getIn(BasicBlock block) {
+		return (direction == FlowDirection.FORWARD ? inputs : outputs)[block.index];
+	}
+
+	/**
+	 * Gets the set at the end of a block. The returned set must not be modified until the solver is no longer used.
+	 *
+	 * @param block the block to look up
+	 * @return the set at the end of <code>block</code>
+	 */
+	public BitSet getOut(BasicBlock block) {
+		return (direction == FlowDirection.FORWARD ? outputs : inputs)[block.index];
+	}
+
+	@Override
+	protected int update(BasicBlock block) {
+		int index = block.index;
+		BitSet input = inputScratch;
+		if (union) {
+			input.clear();
+		} else {
+			input.set(0, width);
+		}
+		if (isBoundary(block)) {
+			meetInto(input, boundary);
+		}
+		if (direction == FlowDirection.FORWARD) {
+			for (BasicBlock predecessor : block.predecessors) {
+				meetOutput(input, predecessor);
+			}
+			for (BasicBlock handled : block.handled) {
+				if (handled.index >= 0) {
+					meetInto(input, inputs[handled.index]);
+					meetInto(input, outputs[handled.index]);
+					if (union && exceptionalGens[handled.index] != null) {
+						input.or(exceptionalGens[handled.index]);
+					}
+				}
+			}
+		} else {
+			for (BasicBlock successor : block.successors.values()) {
+				meetOutput(input, successor);
+			}
+			for (BasicBlock handler : block.handlers.values()) {
+				meetOutput(input, handler);
+			}
+		}
+		int changes = 0;
+		if (!input.equals(inputs[index])) {
+			inputScratch = inputs[index];
+			inputs[index] = input;
+			changes |= INPUT_CHANGED;
+		}
+		BitSet output = scratch;
+		output.clear();
+		output.or(input);
+		output.andNot(kills[index]);
+		output.or(gens[index]);
+		if (!output.equals(outputs[index])) {
+			scratch = outputs[index];
+			outputs[index] = output;
+			changes |= OUTPUT_CHANGED;
+		}
+		return changes;
+	}
+
+	private void meetOutput(BitSet input, BasicBlock source) {
+		if (source.index >= 0) {
+			meetInto(input, outputs[source.index]);
+		}
+	}
+
+	private void meetInto(BitSet input, BitSet fact) {
+		if (union) {
+			input.or(fact);
+		} else {
+			input.and(fact);
+		}
+	}
+
+	private BitSet top() {
+		BitSet top = new BitSet(width);
+		if (!union) {
+			top.set(0, width);
+		}
+		return top;
+	}
+
+}
@@ -0,0 +1,90 @@
+package analysis.flow;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The control dependences between the blocks of a {@link BasicBlockGraph}. A block is control dependent on a branching block when one edge out of the branch guarantees that the block is executed, while another edge may avoid it; e.g., the blocks of the then and else parts of an if statement are control dependent on the block with the condition.
+ * <p>
+ * The dependences are derived from the {@link PostDominatorTree} of the graph: for each edge from A to B where B doesn't post-dominate A, every block on the path up the post-dominator tree from B to the immediate post-dominator of A (exclusive) is control dependent on A. Dependences are stored as <code>BitSet</code>s over the {@link BasicBlock#index} values of the blocks, in both directions.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class ControlDependenceGraph {
+
+	//the blocks that each block is control dependent on
+	private final BitSet[] dependences;
+	//the blocks that are control dependent on each block
+	private final BitSet[] dependents;
+
+	/**
+	 * Computes the control dependences of a graph from its post-dominator tree.
+	 *
+	 * @param graph the graph to compute the control dependences of
+	 */
+	public ControlDependenceGraph(BasicBlockGraph graph) {
+		List<BasicBlock> blocks = graph.getBlocks();
+		PostDominatorTree postDominatorTree = graph.getPostDominatorTree();
+		DominatorTree tree = postDominatorTree.getTree();
+		int blockCount = blocks.size();
+		dependences = new BitSet[blockCount];
+		dependents = new BitSet[blockCount];
+		for (int i = 0; i < blockCount; i++) {
+			dependences[i] = new BitSet();
+			dependents[i] = new BitSet();
+		}
+		for (BasicBlock branch : blocks) {
+			int branchNode = postDominatorTree.getNode(branch);
+			//a block that never reaches an exit has no post-dominators to bound its dependences
+			if (branchNode == DominatorTree.NONE) {
+				continue;
+			}
+			int stopNode = tree.getImmediateDominator(branchNode);
+			for (int successor : BasicBlockGraph.indicesOf(branch.successors.values())) {
+				BasicBlock successorBlock = blocks.get(successor);
+				if (postDominatorTree.postDominates(successorBlock, branch)) {
+					continue;
+				}
+				//everything from the successor up to (but not including) the post-dominator of the branch depends on which way the branch goes
+				for (int node = postDominatorTree.getNode(successorBlock); node != DominatorTree.NONE && node != stopNode && node != PostDominatorTree.EXIT; node = tree.getImmediateDominator(node)) {
+					int dependent = postDominatorTree.getBlock(node).index;
+					dependences[dependent].set(branch.index);
+					dependents[branch.index].set(dependent);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the blocks that a block is control dependent on. The returned set must not be modified.
+	 *
+	 * @param block the block to look up
+	 * @return the indices of the blocks that <code>block</code> is control dependent on
+	 */
+	public BitSet getDependences(BasicBlock block) {
+		return dependences[block.index];
+	}
+
+	/**
+	 * Gets the blocks that are control dependent on a block. The returned set must not be modified.
+	 *
+	 * @param block the block to look up
+	 * @return the indices of the blocks that are control dependent on <code>block</code>
+	 */
+	public BitSet getDependents(BasicBlock block) {
+		return dependents[block.index];
+	}
+
+	/**
+	 * Determines whether one block is control dependent on another.
+	 *
+	 * @param block the potentially dependent block
+	 * @param branch the block that may control it
+	 * @return whether <code>block</code> is control dependent on <code>branch</code>
+	 */
+	public boolean isControlDependent(BasicBlock block, BasicBlock branch) {
+		return block.index >= 0 && branch.index >= 0 && dependences[block.index].get(branch.index);
+	}
+
+}
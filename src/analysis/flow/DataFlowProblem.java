@@ -0,0 +1,35 @@
+package analysis.flow;
+
+/**
+ * A data flow problem over the blocks of a {@link BasicBlockGraph}, to be solved by a {@link DataFlowSolver}. The problem gives the lattice of facts, the direction that facts flow in, the fact at the boundary of the code, and the effect of each block on the facts flowing through it.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ * @param <T> the type of the facts
+ */
+public interface DataFlowProblem<T> extends Lattice<T> {
+
+	/**
+	 * Gets the direction in which facts flow.
+	 *
+	 * @return the direction of the problem
+	 */
+	FlowDirection getDirection();
+
+	/**
+	 * Gets the fact at the boundary of the code, i.e., the fact flowing into the entry block of a forward problem, or out of the exit blocks of a backward problem.
+	 *
+	 * @return the boundary fact
+	 */
+	T boundary();
+
+	/**
+	 * Computes the effect of a block on the fact flowing through it. The transfer function must be monotone for the solver to terminate.
+	 *
+	 * @param block the block to pass the fact through
+	 * @param input the fact flowing into the block, i.e., the fact at its start for a forward problem, or at its end for a backward problem
+	 * @return the fact flowing out of the block
+	 */
+	T transfer(BasicBlock block, T input);
+
+}
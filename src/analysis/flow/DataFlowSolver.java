@@ -0,0 +1,98 @@
+package analysis.flow;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Solves a {@link DataFlowProblem} over the blocks of a {@link BasicBlockGraph} by iterating to a fixed point from a prioritized worklist. Every block starts with the top fact of the problem, and is visited until the fact flowing out of it stops changing.
+ * <p>
+ * Facts are treated as immutable, so a problem over sets of small numbers is usually better off as a {@link BitVectorSolver}, which updates its sets in place.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ * @param <T> the type of the facts
+ */
+public class DataFlowSolver<T> extends WorklistSolver {
+
+	private final DataFlowProblem<T> problem;
+	//the facts flowing into and out of each block in the direction of the problem, indexed by block index
+	private final List<T> inputs;
+	private final List<T> outputs;
+
+	/**
+	 * Creates a solver for a problem. The problem isn't solved until {@link #solve()} is called.
+	 *
+	 * @param graph the graph to solve the problem on, which must have its blocks ordered
+	 * @param problem the problem to solve
+	 */
+	public DataFlowSolver(BasicBlockGraph graph, DataFlowProblem<T> problem) {
+		super(graph, problem.getDirection());
+		this.problem = problem;
+		int blockCount = blocks.size();
+		inputs = new ArrayList<>(blockCount);
+		outputs = new ArrayList<>(blockCount);
+		T top = problem.top();
+		for (int i = 0; i < blockCount; i++) {
+			inputs.add(top);
+			outputs.add(top);
+		}
+	}
+
+	/**
+	 * Gets the fact at the start of a block.
+	 *
+	 * @param block the block to look up
+	 * @return the fact at the start of <code>block</code>
+	 */
+	public T getIn(BasicBlock block) {
+		return (direction == FlowDirection.FORWARD ? inputs : outputs).get(block.index);
+	}
+
+	/**
+	 * Gets the fact at the end of a block.
+	 *
+	 * @param block the block to look up
+	 * @return the fact at the end of <code>block</code>
+	 */
+	public T getOut(BasicBlock block) {
+		return (direction == FlowDirection.FORWARD ? outputs : inputs).get(block.index);
+	}
+
+	@Override
+	protected int update(BasicBlock block) {
+		T input = (isBoundary(block) ? problem.boundary() : problem.top());
+		if (direction == FlowDirection.FORWARD) {
+			for (BasicBlock predecessor : block.predecessors) {
+				input = meetOutput(input, predecessor);
+			}
+			for (BasicBlock handled : block.handled) {
+				if (handled.index >= 0) {
+					input = problem.meet(input, problem.meet(inputs.get(handled.index), outputs.get(handled.index)));
+				}
+			}
+		} else {
+			for (BasicBlock successor : block.successors.values()) {
+				input = meetOutput(input, successor);
+			}
+			for (BasicBlock handler : block.handlers.values()) {
+				input = meetOutput(input, handler);
+			}
+		}
+		int changes = 0;
+		if (!input.equals(inputs.get(block.index))) {
+			inputs.set(block.index, input);
+			changes |= INPUT_CHANGED;
+		}
+		T output = problem.transfer(block, input);
+		if (!output.equals(outputs.get(block.index))) {
+			outputs.set(block.index, output);
+			changes |= OUTPUT_CHANGED;
+		}
+		return changes;
+	}
+
+	private T meetOutput(T input, BasicBlock source) {
+		return (source.index >= 0 ? problem.meet(input, outputs.get(source.index)) : input);
+	}
+
+}
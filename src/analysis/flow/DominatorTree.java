@@ -0,0 +1,248 @@
+package analysis.flow;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A dominator tree over a graph whose nodes are numbered by integers in reverse postorder, with node 0 as the root. The immediate dominators are computed with the iterative algorithm of Cooper, Harvey, and Kennedy, which walks up the partially built tree to intersect the dominators of the predecessors of each node, rather than intersecting whole sets of dominators. On the graphs produced by real code, this converges in two or three passes over the nodes.
+ * <p>
+ * The tree can also give the dominance frontier of each node, i.e., the nodes where the dominance of a node ends, which is where SSA construction needs to merge definitions.
+ * <p>
+ * Because the graph is given only by its predecessor arrays, the same class works for any graph over blocks, e.g., the forward control flow graph for dominators, or the reversed control flow graph for post-dominators. Once the tree is built, it is numbered in preorder and postorder so that dominance between any two nodes can be tested in constant time.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class DominatorTree {
+
+	/**
+	 * The value used for a node which has no immediate dominator, i.e., the root or a node unreachable from the root.
+	 */
+	public static final int NONE = -1;
+
+	//the predecessors of each node in the graph, kept for computing dominance frontiers
+	private final int[][] predecessors;
+	//the immediate dominator of each node
+	private final int[] immediateDominators;
+	//the children of each node in the dominator tree
+	private final int[][] children;
+	//the depth of each node in the tree, with the root at depth 0
+	private final int[] depths;
+	//the preorder and postorder numbers of each node in the tree, used for constant time dominance tests
+	private final int[] preorder;
+	private final int[] postorder;
+	//the dominance frontier of each node, computed the first time it is needed
+	private BitSet[] frontiers;
+
+	/**
+	 * Computes the dominator tree of a graph. The nodes of the graph must be numbered in reverse postorder starting from the root at node 0; nodes that are unreachable from the root are allowed, and are left out of the tree.
+	 *
+	 * @param predecessors the predecessors of each node, indexed by node number
+	 */
+	public DominatorTree(int[][] predecessors) {
+		this.predecessors = predecessors;
+		int nodeCount = predecessors.length;
+		immediateDominators = new int[nodeCount];
+		Arrays.fill(immediateDominators, NONE);
+		if (nodeCount > 0) {
+			//the root is temporarily its own dominator, so that the intersection walk always has somewhere to stop
+			immediateDominators[0] = 0;
+			boolean changed = true;
+			while (changed) {
+				changed = false;
+				//visiting nodes in reverse postorder means that most predecessors have been processed before the node itself
+				for (int node = 1; node < nodeCount; node++) {
+					int newDominator = NONE;
+					for (int predecessor : predecessors[node]) {
+						//predecessors that haven't been reached yet don't constrain anything
+						if (immediateDominators[predecessor] == NONE) {
+							continue;
+						}
+						newDominator = (newDominator == NONE ? predecessor : intersect(predecessor, newDominator));
+					}
+					if (newDominator != immediateDominators[node]) {
+						immediateDominators[node] = newDominator;
+						changed = true;
+					}
+				}
+			}
+			immediateDominators[0] = NONE;
+		}
+		//now that the immediate dominators are known, build the child arrays, counting the children first so that each array is allocated exactly once
+		int[] childCounts = new int[nodeCount];
+		for (int node = 0; node < nodeCount; node++) {
+			int dominator = immediateDominators[node];
+			if (dominator != NONE) {
+				childCounts[dominator]++;
+			}
+		}
+		children = new int[nodeCount][];
+		for (int node = 0; node < nodeCount; node++) {
+			children[node] = new int[childCounts[node]];
+			childCounts[node] = 0;
+		}
+		for (int node = 0; node < nodeCount; node++) {
+			int dominator = immediateDominators[node];
+			if (dominator != NONE) {
+				children[dominator][childCounts[dominator]++] = node;
+			}
+		}
+		depths = new int[nodeCount];
+		preorder = new int[nodeCount];
+		postorder = new int[nodeCount];
+		Arrays.fill(preorder, NONE);
+		Arrays.fill(postorder, NONE);
+		if (nodeCount > 0) {
+			numberTree();
+		}
+	}
+
+	/**
+	 * Finds the closest common dominator of two nodes, by walking up the tree from whichever node is later in reverse postorder until the two walks meet.
+	 *
+	 * @param node1 the first node
+	 * @param node2 the second node
+	 * @return the nearest common dominator of the two nodes
+	 */
+	private int intersect(int node1, int node2) {
+		while (node1 != node2) {
+			while (node1 > node2) {
+				node1 = immediateDominators[node1];
+			}
+			while (node2 > node1) {
+				node2 = immediateDominators[node2];
+			}
+		}
+		return node1;
+	}
+
+	/**
+	 * Numbers the nodes of the tree in preorder and postorder, and computes their depths. This is done with an explicit stack rather than recursion, since the trees of large methods can be very deep.
+	 */
+	private void numberTree() {
+		int nodeCount = immediateDominators.length;
+		int[] stack = new int[nodeCount];
+		//the index of the next child to visit for each node on the stack
+		int[] nextChild = new int[nodeCount];
+		int stackSize = 0;
+		int preorderCount = 0;
+		int postorderCount = 0;
+		stack[stackSize++] = 0;
+		preorder[0] = preorderCount++;
+		while (stackSize > 0) {
+			int node = stack[stackSize - 1];
+			if (nextChild[node] < children[node].length) {
+				int child = children[node][nextChild[node]++];
+				depths[child] = depths[node] + 1;
+				preorder[child] = preorderCount++;
+				stack[stackSize++] = child;
+			} else {
+				postorder[node] = postorderCount++;
+				stackSize--;
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of nodes in the graph that this tree was built from.
+	 *
+	 * @return the number of nodes
+	 */
+	public int size() {
+		return immediateDominators.length;
+	}
+
+	/**
+	 * Gets the immediate dominator of a node.
+	 *
+	 * @param node the node to examine
+	 * @return the immediate dominator of <code>node</code>, or {@link #NONE} if it is the root or is unreachable
+	 */
+	public int getImmediateDominator(int node) {
+		return immediateDominators[node];
+	}
+
+	/**
+	 * Gets the nodes that are immediately dominated by a node. The returned array must not be modified.
+	 *
+	 * @param node the node to examine
+	 * @return the children of <code>node</code> in the dominator tree
+	 */
+	public int[] getChildren(int node) {
+		return children[node];
+	}
+
+	/**
+	 * Gets the depth of a node in the dominator tree, where the root has a depth of 0.
+	 *
+	 * @param node the node to examine
+	 * @return the depth of <code>node</code>
+	 */
+	public int getDepth(int node) {
+		return depths[node];
+	}
+
+	/**
+	 * Determines whether a node is reachable from the root, and is therefore in the tree.
+	 *
+	 * @param node the node to examine
+	 * @return whether the node is in the tree
+	 */
+	public boolean isReachable(int node) {
+		return preorder[node] != NONE;
+	}
+
+	/**
+	 * Determines whether one node dominates another in constant time. Note that every reachable node dominates itself.
+	 *
+	 * @param dominator the potential dominator
+	 * @param node the potentially dominated node
+	 * @return whether <code>dominator</code> dominates <code>node</code>
+	 */
+	public boolean dominates(int dominator, int node) {
+		if (!isReachable(dominator) || !isReachable(node)) {
+			return false;
+		}
+		//a node is in the subtree of another exactly when it is numbered after it in preorder and before it in postorder
+		return preorder[dominator] <= preorder[node] && postorder[node] <= postorder[dominator];
+	}
+
+	/**
+	 * Gets the dominance frontier of a node. The dominance frontier of a node n is the set of nodes that have a predecessor dominated by n, but that are not strictly dominated by n themselves. The frontiers of all nodes are computed together the first time this method is called, by walking up the tree from the predecessors of each join node, as described by Cooper, Harvey, and Kennedy. The returned set must not be modified.
+	 *
+	 * @param node the node to examine
+	 * @return the dominance frontier of <code>node</code>
+	 */
+	public BitSet getDominanceFrontier(int node) {
+		if (frontiers == null) {
+			computeFrontiers();
+		}
+		return frontiers[node];
+	}
+
+	/**
+	 * Computes the dominance frontier of every node.
+	 */
+	private void computeFrontiers() {
+		int nodeCount = immediateDominators.length;
+		BitSet[] frontiers = new BitSet[nodeCount];
+		for (int node = 0; node < nodeCount; node++) {
+			frontiers[node] = new BitSet();
+		}
+		for (int node = 0; node < nodeCount; node++) {
+			//only join nodes can be in a dominance frontier
+			if (predecessors[node].length < 2 || !isReachable(node)) {
+				continue;
+			}
+			int dominator = immediateDominators[node];
+			for (int predecessor : predecessors[node]) {
+				//every node from the predecessor up to (but not including) the dominator of the join has the join in its frontier
+				for (int runner = predecessor; runner != dominator && runner != NONE && isReachable(runner); runner = immediateDominators[runner]) {
+					frontiers[runner].set(node);
+				}
+			}
+		}
+		this.frontiers = frontiers;
+	}
+
+}
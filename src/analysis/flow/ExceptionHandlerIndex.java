@@ -0,0 +1,111 @@
+package analysis.flow;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import classfile.code.opcodes.ExceptionHandler;
+
+/**
+ * An interval index over the exception table of a method, answering which handlers cover a bytecode index. The start and end of every handler range cut the code into segments that are each covered by a fixed set of handlers, and a single sweep over the sorted boundaries finds the set of each segment, keeping the active handlers in a <code>BitSet</code> indexed by priority. The sets are stored in compressed sparse row form, in priority order, so finding the handlers of a bci is a binary search over the segment starts.
+ * <p>
+ * Building the index takes O(h log h + s) time for h handlers and s covered (segment, handler) pairs, which is what connecting the handlers has to produce anyway; a lookup takes O(log h), plus the number of handlers returned.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class ExceptionHandlerIndex {
+
+	private static final int[] NO_HANDLERS = new int[0];
+
+	//the first bci of each segment, sorted, with the last boundary ending the final segment
+	private final int[] segmentStarts;
+	//the priorities of the handlers covering segment i are stored from handlerStarts[i] up to handlerStarts[i + 1]
+	private final int[] handlerStarts;
+	private final int[] handlers;
+
+	/**
+	 * Builds the index of an exception table.
+	 *
+	 * @param exceptionTable the exception table, in priority order
+	 */
+	public ExceptionHandlerIndex(List<ExceptionHandler> exceptionTable) {
+		int handlerCount = exceptionTable.size();
+		//each boundary is encoded as (bci << 1 | isStart) followed by the priority, so that sorting the longs puts the ends at a bci before the starts
+		long[] boundaries = new long[handlerCount * 2];
+		int boundaryCount = 0;
+		for (int priority = 0; priority < handlerCount; priority++) {
+			ExceptionHandler handler = exceptionTable.get(priority);
+			//an empty range covers nothing, and would otherwise be started after it ends
+			if (handler.start >= handler.end) {
+				continue;
+			}
+			boundaries[boundaryCount++] = (((long) handler.start << 1 | 1) << 32) | priority;
+			boundaries[boundaryCount++] = (((long) handler.end << 1) << 32) | priority;
+		}
+		boundaries = Arrays.copyOf(boundaries, boundaryCount);
+		Arrays.sort(boundaries);
+		int[] starts = new int[boundaries.length];
+		int[] sizes = new int[boundaries.length + 1];
+		int[] covered = new int[Math.max(handlerCount, 16)];
+		int segmentCount = 0;
+		int coveredCount = 0;
+		BitSet active = new BitSet(handlerCount);
+		for (int i = 0; i < boundaries.length; ) {
+			int bci = (int) (boundaries[i] >>> 33);
+			//apply every boundary at this bci before emitting the segment starting there
+			for (; i < boundaries.length && (int) (boundaries[i] >>> 33) == bci; i++) {
+				int priority = (int) boundaries[i];
+				if (((boundaries[i] >>> 32) & 1) != 0) {
+					active.set(priority);
+				} else {
+					active.clear(priority);
+				}
+			}
+			starts[segmentCount] = bci;
+			for (int priority = active.nextSetBit(0); priority >= 0; priority = active.nextSetBit(priority + 1)) {
+				if (coveredCount == covered.length) {
+					covered = Arrays.copyOf(covered, coveredCount * 2);
+				}
+				covered[coveredCount++] = priority;
+			}
+			sizes[++segmentCount] = coveredCount;
+		}
+		segmentStarts = Arrays.copyOf(starts, segmentCount);
+		handlerStarts = Arrays.copyOf(sizes, segmentCount + 1);
+		handlers = Arrays.copyOf(covered, coveredCount);
+	}
+
+	/**
+	 * Gets the handlers covering a bytecode index.
+	 *
+	 * @param bci the bci to look up
+	 * @return the priorities (i.e., the positions in the exception table) of the handlers covering <code>bci</code>, in priority order
+	 */
+	public int[] getHandlers(int bci) {
+		int segment = Arrays.binarySearch(segmentStarts, bci);
+		if (segment < 0) {
+			//the segment containing the bci starts at the last boundary before it
+			segment = -segment - 2;
+		}
+		if (segment < 0 || handlerStarts[segment] == handlerStarts[segment + 1]) {
+			return NO_HANDLERS;
+		}
+		return Arrays.copyOfRange(handlers, handlerStarts[segment], handlerStarts[segment + 1]);
+	}
+
+	/**
+	 * Determines whether any handler covers a bytecode index.
+	 *
+	 * @param bci the bci to look up
+	 * @return whether <code>bci</code> is covered by a handler
+	 */
+	public boolean isCovered(int bci) {
+		int segment = Arrays.binarySearch(segmentStarts, bci);
+		if (segment < 0) {
+			segment = -segment - 2;
+		}
+		return segment >= 0 && handlerStarts[segment] < handlerStarts[segment + 1];
+	}
+
+}
@@ -0,0 +1,20 @@
+package analysis.flow;
+
+/**
+ * The direction in which a data flow analysis propagates information through a {@link BasicBlockGraph}.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public enum FlowDirection {
+
+	/**
+	 * Information flows from the start of the code along control flow, e.g., for reaching definitions.
+	 */
+	FORWARD,
+	/**
+	 * Information flows from the ends of the code against control flow, e.g., for live variables.
+	 */
+	BACKWARD
+
+}
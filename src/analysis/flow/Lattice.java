@@ -0,0 +1,28 @@
+package analysis.flow;
+
+/**
+ * A semilattice of data flow facts. Facts start at the top of the lattice, and are only ever moved down it by the meet operation, so an analysis over a lattice of finite height always reaches a fixed point. Facts are compared with <code>equals</code> to decide whether anything has changed, and must not be modified once they have been returned.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ * @param <T> the type of the facts
+ */
+public interface Lattice<T> {
+
+	/**
+	 * Gets the top element of the lattice, i.e., the optimistic fact that every block starts with before anything flows into it.
+	 *
+	 * @return the top element
+	 */
+	T top();
+
+	/**
+	 * Combines the facts flowing into a block along two different edges.
+	 *
+	 * @param first the first fact
+	 * @param second the second fact
+	 * @return the greatest fact below both <code>first</code> and <code>second</code>
+	 */
+	T meet(T first, T second);
+
+}
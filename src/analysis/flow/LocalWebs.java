@@ -0,0 +1,181 @@
+package analysis.flow;
+
+import java.util.Arrays;
+
+/**
+ * The webs of the local variables of a method. A web is a set of definitions of a local slot that reach a common use, closed transitively, i.e., the definitions that must share one variable because some load may read any of them. Compilers reuse slots for variables whose lifetimes don't overlap, and obfuscators reuse them on purpose, so a single slot often holds several unrelated variables; splitting the slot into webs gives each of them its own identity.
+ * <p>
+ * The webs are found from the {@link ReachingDefinitions} of the method, with a union-find over the definition numbers: every use merges all of the definitions reaching it. The union-find is kept in an <code>int</code> array with union by size and path halving, so building the webs takes nearly linear time in the number of def-use chains. Definitions that are never used form webs of their own. Webs are numbered densely, in the order of their first definition, so the webs of each local are numbered contiguously as well.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class LocalWebs {
+
+	private final ReachingDefinitions reachingDefinitions;
+	//the web of each definition
+	private final int[] webs;
+	//the definitions of each web, with the definitions of web w stored from webStarts[w] up to webStarts[w + 1]
+	private final int[] webStarts;
+	private final int[] webDefinitions;
+
+	/**
+	 * Splits the local variables of a method into webs.
+	 *
+	 * @param reachingDefinitions the reaching definitions of the method
+	 */
+	public LocalWebs(ReachingDefinitions reachingDefinitions) {
+		this.reachingDefinitions = reachingDefinitions;
+		int definitionCount = reachingDefinitions.getDefinitionCount();
+		//each definition starts out as the root of its own set
+		int[] parents = new int[definitionCount];
+		int[] sizes = new int[definitionCount];
+		for (int definition = 0; definition < definitionCount; definition++) {
+			parents[definition] = definition;
+			sizes[definition] = 1;
+		}
+		int useCount = reachingDefinitions.getUseCount();
+		for (int use = 0; use < useCount; use++) {
+			int[] definitions = reachingDefinitions.getReachingDefinitions(use);
+			for (int i = 1; i < definitions.length; i++) {
+				int root1 = find(parents, definitions[0]);
+				int root2 = find(parents, definitions[i]);
+				if (root1 == root2) {
+					continue;
+				}
+				//the smaller tree goes under the larger one, which keeps the trees shallow
+				if (sizes[root1] < sizes[root2]) {
+					int swap = root1;
+					root1 = root2;
+					root2 = swap;
+				}
+				parents[root2] = root1;
+				sizes[root1] += sizes[root2];
+			}
+		}
+		//number the webs in the order of their first definitions, and count their definitions
+		webs = new int[definitionCount];
+		int[] rootWebs = new int[definitionCount];
+		Arrays.fill(rootWebs, -1);
+		int webCount = 0;
+		int[] webSizes = new int[definitionCount + 1];
+		for (int definition = 0; definition < definitionCount; definition++) {
+			int root = find(parents, definition);
+			if (rootWebs[root] < 0) {
+				rootWebs[root] = webCount++;
+			}
+			webs[definition] = rootWebs[root];
+			webSizes[webs[definition] + 1]++;
+		}
+		webStarts = Arrays.copyOf(webSizes, webCount + 1);
+		for (int web = 0; web < webCount; web++) {
+			webStarts[web + 1] += webStarts[web];
+		}
+		webDefinitions = new int[definitionCount];
+		int[] nextDefinition = Arrays.copyOf(webStarts, webCount);
+		for (int definition = 0; definition < definitionCount; definition++) {
+			webDefinitions[nextDefinition[webs[definition]]++] = definition;
+		}
+	}
+
+	/**
+	 * Finds the root of the set containing a definition, halving the path to it along the way.
+	 *
+	 * @param parents the parent of each definition in the union-find forest
+	 * @param definition the definition to look up
+	 * @return the root of the set of <code>definition</code>
+	 */
+	private static int find(int[] parents, int definition) {
+		while (parents[definition] != definition) {
+			parents[definition] = parents[parents[definition]];
+			definition = parents[definition];
+		}
+		return definition;
+	}
+
+	/**
+	 * Gets the reaching definitions that the webs were built from.
+	 *
+	 * @return the reaching definitions of the method
+	 */
+	public ReachingDefinitions getReachingDefinitions() {
+		return reachingDefinitions;
+	}
+
+	/**
+	 * Gets the number of webs.
+	 *
+	 * @return the number of webs
+	 */
+	public int getWebCount() {
+		return webStarts.length - 1;
+	}
+
+	/**
+	 * Gets the web that a definition belongs to.
+	 *
+	 * @param definition the number of the definition
+	 * @return the web of <code>definition</code>
+	 */
+	public int getWeb(int definition) {
+		return webs[definition];
+	}
+
+	/**
+	 * Gets the web of the definition made by the instruction at a bytecode index.
+	 *
+	 * @param bci the bci of the instruction
+	 * @return the web of the definition, or -1 if the instruction doesn't define a local
+	 */
+	public int getDefinitionWeb(int bci) {
+		int definition = reachingDefinitions.getDefinitionAt(bci);
+		return (definition >= 0 ? webs[definition] : -1);
+	}
+
+	/**
+	 * Gets the web read by the instruction at a bytecode index.
+	 *
+	 * @param bci the bci of the instruction
+	 * @return the web of the definitions reaching the use, or -1 if the instruction doesn't read a local
+	 */
+	public int getUseWeb(int bci) {
+		int use = reachingDefinitions.getUseAt(bci);
+		if (use < 0) {
+			return -1;
+		}
+		//every definition reaching a use is in the same web, by construction
+		int[] definitions = reachingDefinitions.getReachingDefinitions(use);
+		return (definitions.length > 0 ? webs[definitions[0]] : -1);
+	}
+
+	/**
+	 * Gets the web of the value a local holds when the method is entered, e.g., the web of an argument.
+	 *
+	 * @param local the index of the local
+	 * @return the web of the entry definition of <code>local</code>
+	 */
+	public int getEntryWeb(int local) {
+		return webs[reachingDefinitions.getEntryDefinition(local)];
+	}
+
+	/**
+	 * Gets the local variable slot that a web lives in.
+	 *
+	 * @param web the web to look up
+	 * @return the index of the local of <code>web</code>
+	 */
+	public int getLocal(int web) {
+		return reachingDefinitions.getDefinitionLocal(webDefinitions[webStarts[web]]);
+	}
+
+	/**
+	 * Gets the definitions in a web.
+	 *
+	 * @param web the web to look up
+	 * @return the numbers of the definitions in <code>web</code>, in increasing order
+	 */
+	public int[] getDefinitions(int web) {
+		return Arrays.copyOfRange(webDefinitions, webStarts[web], webStarts[web + 1]);
+	}
+
+}
@@ -0,0 +1,49 @@
+package analysis.flow;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A natural loop in a {@link BasicBlockGraph}. A natural loop is defined by its header, a block which dominates every block in the loop, and consists of the header plus every block that can reach a back edge into the header without passing through the header. All back edges into the same header are considered to form one loop. The blocks of a loop are stored as a <code>BitSet</code> over the {@link BasicBlock#index} values of the blocks.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class Loop {
+
+	//the header of the loop, which dominates the rest of the body
+	public final BasicBlock header;
+	//the blocks in the loop, including the header and the bodies of any nested loops
+	public final BitSet body;
+	//the blocks outside of the loop that control can leave the loop to, including exception handlers
+	public final BitSet exits = new BitSet();
+
+	//the innermost loop containing this loop, or null if this loop is outermost
+	public Loop parent;
+	//the loops immediately nested in this loop
+	public final List<Loop> children = new ArrayList<>();
+	//the nesting depth of this loop, which is 1 for an outermost loop
+	public int depth;
+
+	public Loop(BasicBlock header, BitSet body) {
+		this.header = header;
+		this.body = body;
+	}
+
+	/**
+	 * Determines whether a block is part of this loop.
+	 *
+	 * @param block the block to check
+	 * @return whether the block is in the body of this loop
+	 */
+	public boolean contains(BasicBlock block) {
+		return block.index >= 0 && body.get(block.index);
+	}
+
+	@Override
+	public String toString() {
+		return "Loop@" + header.startBci + " depth " + depth + " body " + body + " exits " + exits;
+	}
+
+}
@@ -0,0 +1,157 @@
+package analysis.flow;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The loop nesting forest of a {@link BasicBlockGraph}. Loops are found from the dominator tree of the graph: an edge whose target dominates its source is a back edge, and the body of the loop is found by walking backwards from the source of the back edge until the header is reached. Since two natural loops are always either disjoint or nested, sorting the loops from largest to smallest is enough to find the innermost loop containing each block, and with it the parent of each loop.
+ * <p>
+ * Retreating edges whose targets do not dominate their sources come from irreducible control flow, and do not form natural loops; the blocks involved are still flagged as {@link BasicBlockType#LOOP_HEADER}s by the graph, but they are not part of this forest.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class LoopNest {
+
+	//all of the loops, sorted from outermost to innermost (parents always come before their children)
+	private final List<Loop> loops = new ArrayList<>();
+	//the loops that aren't nested in any other loop
+	private final List<Loop> topLevelLoops = new ArrayList<>();
+	//the innermost loop containing each block, indexed by the reverse postorder index of the block
+	private final Loop[] innermostLoops;
+
+	/**
+	 * Finds the natural loops of a graph and arranges them into a forest. The graph must have its blocks ordered and its dominators computed.
+	 *
+	 * @param graph the graph to find the loops of
+	 */
+	public LoopNest(BasicBlockGraph graph) {
+		List<BasicBlock> blocks = graph.getBlocks();
+		DominatorTree dominatorTree = graph.getDominatorTree();
+		int blockCount = blocks.size();
+		innermostLoops = new Loop[blockCount];
+		//the body of the loop with each header, if there is one
+		BitSet[] bodies = new BitSet[blockCount];
+		//a reusable stack of blocks for the backwards walks
+		int[] stack = new int[blockCount];
+		for (BasicBlock block : blocks) {
+			for (BasicBlock successor : successorsOf(block)) {
+				int header = successor.index;
+				//only back edges, i.e., edges to a dominator, form natural loops
+				if (header < 0 || !dominatorTree.dominates(header, block.index)) {
+					continue;
+				}
+				BitSet body = bodies[header];
+				if (body == null) {
+					body = new BitSet(blockCount);
+					body.set(header);
+					bodies[header] = body;
+				}
+				//walk backwards from the source of the back edge, stopping at anything already in the body (which always includes the header)
+				int stackSize = 0;
+				if (!body.get(block.index)) {
+					body.set(block.index);
+					stack[stackSize++] = block.index;
+				}
+				while (stackSize > 0) {
+					BasicBlock member = blocks.get(stack[--stackSize]);
+					for (int predecessor : BasicBlockGraph.indicesOf(member.predecessors, member.handled)) {
+						if (!body.get(predecessor)) {
+							body.set(predecessor);
+							stack[stackSize++] = predecessor;
+						}
+					}
+				}
+			}
+		}
+		for (int header = 0; header < blockCount; header++) {
+			if (bodies[header] != null) {
+				loops.add(new Loop(blocks.get(header), bodies[header]));
+			}
+		}
+		//larger loops are processed first, so that by the time a loop is reached, the innermost loop containing its header so far must be its parent
+		Collections.sort(loops, new Comparator<Loop>() {
+			@Override
+			public int compare(Loop loop1, Loop loop2) {
+				return loop2.body.cardinality() - loop1.body.cardinality();
+			}
+		});
+		for (Loop loop : loops) {
+			Loop parent = innermostLoops[loop.header.index];
+			loop.parent = parent;
+			if (parent == null) {
+				loop.depth = 1;
+				topLevelLoops.add(loop);
+			} else {
+				loop.depth = parent.depth + 1;
+				parent.children.add(loop);
+			}
+			BitSet body = loop.body;
+			for (int member = body.nextSetBit(0); member >= 0; member = body.nextSetBit(member + 1)) {
+				innermostLoops[member] = loop;
+				//anything reached from the body that isn't in the body is an exit
+				for (BasicBlock successor : successorsOf(blocks.get(member))) {
+					if (successor.index >= 0 && !body.get(successor.index)) {
+						loop.exits.set(successor.index);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the successors of a block, including its exception handlers.
+	 *
+	 * @param block the block to examine
+	 * @return the successors and handlers of the block
+	 */
+	private static List<BasicBlock> successorsOf(BasicBlock block) {
+		List<BasicBlock> successors = new ArrayList<>(block.successors.size() + block.handlers.size());
+		successors.addAll(block.successors.values());
+		successors.addAll(block.handlers.values());
+		return successors;
+	}
+
+	/**
+	 * Gets every loop in the graph, with each loop appearing before any loop nested inside it.
+	 *
+	 * @return an unmodifiable list of all the loops
+	 */
+	public List<Loop> getLoops() {
+		return Collections.unmodifiableList(loops);
+	}
+
+	/**
+	 * Gets the loops that aren't nested inside any other loop.
+	 *
+	 * @return an unmodifiable list of the outermost loops
+	 */
+	public List<Loop> getTopLevelLoops() {
+		return Collections.unmodifiableList(topLevelLoops);
+	}
+
+	/**
+	 * Gets the innermost loop that contains a block.
+	 *
+	 * @param block the block to look up
+	 * @return the innermost loop containing <code>block</code>, or <code>null</code> if it isn't in any loop
+	 */
+	public Loop getLoop(BasicBlock block) {
+		return (block.index >= 0 ? innermostLoops[block.index] : null);
+	}
+
+	/**
+	 * Gets the loop nesting depth of a block, i.e., the number of loops containing it.
+	 *
+	 * @param block the block to look up
+	 * @return the loop nesting depth of <code>block</code>, which is 0 if it isn't in any loop
+	 */
+	public int getDepth(BasicBlock block) {
+		Loop loop = getLoop(block);
+		return (loop != null ? loop.depth : 0);
+	}
+
+}
@@ -0,0 +1,97 @@
+package analysis.flow;
+
+import java.util.BitSet;
+import java.util.List;
+
+import classfile.code.opcodes.LocalVariable;
+import classfile.code.opcodes.LocalVariableIncrement;
+import classfile.code.opcodes.Opcode;
+
+/**
+ * The placement of phi functions for the local variables of a {@link BasicBlockGraph}, as needed to put the code into static single assignment form. A local variable needs a phi at the start of a block when different definitions of it can reach the block along different edges, which is exactly the iterated dominance frontier of the blocks that define it, as shown by Cytron et al. The method entry counts as a definition of every local variable, since it defines the arguments.
+ * <p>
+ * The placement is pruned by the live variable analysis of the graph: a phi is only placed where the variable is live on entry to the block, since a merge of values that are never used is pointless, and would otherwise merge unrelated values which happen to share a slot. Phis are only placed for the first slot of a category 2 value, matching the way values are stored in the frames of the method.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class PhiPlacement {
+
+	//the local variables that need a phi at the start of each block, indexed by the reverse postorder index of the block
+	private final BitSet[] phis;
+
+	/**
+	 * Places the phis for the local variables of a graph. The graph must have its blocks ordered, its live locals computed, and its dominators computed.
+	 *
+	 * @param graph the graph to place phis in
+	 * @param localsCount the number of local variable slots in the method
+	 */
+	public PhiPlacement(BasicBlockGraph graph, int localsCount) {
+		List<BasicBlock> blocks = graph.getBlocks();
+		DominatorTree dominatorTree = graph.getDominatorTree();
+		int blockCount = blocks.size();
+		phis = new BitSet[blockCount];
+		for (int i = 0; i < blockCount; i++) {
+			phis[i] = new BitSet();
+		}
+		//the blocks that store to each local variable
+		BitSet[] definitions = new BitSet[localsCount];
+		for (int local = 0; local < localsCount; local++) {
+			definitions[local] = new BitSet(blockCount);
+			//the method entry defines every local
+			definitions[local].set(0);
+		}
+		for (BasicBlock block : blocks) {
+			for (Opcode op : block.body) {
+				switch (op.type) {
+				case LOCAL_STORE:
+					definitions[((LocalVariable) op.data).index].set(block.index);
+					break;
+				case LOCAL_INCREMENT:
+					definitions[((LocalVariableIncrement) op.data).local.index].set(block.index);
+					break;
+				default:
+					break;
+				}
+			}
+		}
+		//a reusable worklist of blocks defining the current local, and whether each block has ever been added to it
+		int[] worklist = new int[blockCount];
+		BitSet added = new BitSet(blockCount);
+		for (int local = 0; local < localsCount; local++) {
+			BitSet defined = definitions[local];
+			int worklistSize = 0;
+			added.clear();
+			for (int block = defined.nextSetBit(0); block >= 0; block = defined.nextSetBit(block + 1)) {
+				worklist[worklistSize++] = block;
+				added.set(block);
+			}
+			while (worklistSize > 0) {
+				BitSet frontier = dominatorTree.getDominanceFrontier(worklist[--worklistSize]);
+				for (int join = frontier.nextSetBit(0); join >= 0; join = frontier.nextSetBit(join + 1)) {
+					//a dead local needs no phi, and since every path from here redefines it before use, the join doesn't act as a new definition either
+					if (phis[join].get(local) || !blocks.get(join).localsIn.get(local)) {
+						continue;
+					}
+					phis[join].set(local);
+					//the phi is itself a definition, so its own frontier needs phis too
+					if (!added.get(join)) {
+						added.set(join);
+						worklist[worklistSize++] = join;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the local variables that need a phi at the start of a block. The returned set must not be modified.
+	 *
+	 * @param block the block to look up
+	 * @return the indices of the local variables needing a phi in <code>block</code>
+	 */
+	public BitSet getLocalPhis(BasicBlock block) {
+		return phis[block.index];
+	}
+
+}
@@ -0,0 +1,174 @@
+package analysis.flow;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The post-dominator tree of a {@link BasicBlockGraph}. A block post-dominates another block n if every path from n to the end of the method passes through it. This is exactly dominance on the reversed control flow graph, so the tree is computed by the same {@link DominatorTree} used for forward dominators, over a reversed graph rooted at a virtual exit node.
+ * <p>
+ * Every block without a normal successor, i.e., every block ending in a return, a throw, or a ret, is treated as a predecessor of the virtual exit. Exception handler edges are not followed here, since an exception leaving a region shouldn't stop the block after the region from post-dominating it, which is what structuring if/else and switch regions relies on. Blocks that can never reach an exit, such as the blocks of an infinite loop, have no post-dominators at all.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class PostDominatorTree {
+
+	/**
+	 * The node number of the virtual exit in the underlying tree.
+	 */
+	public static final int EXIT = 0;
+
+	//the reachable blocks of the graph, in reverse postorder
+	private final List<BasicBlock> blocks;
+	//the node of each block in the reversed graph, indexed by block index, or NONE if the block can't reach an exit
+	private final int[] nodes;
+	//the block index of each node in the reversed graph, with the virtual exit mapped to NONE
+	private final int[] blockIndices;
+	//the dominator tree of the reversed graph
+	private final DominatorTree tree;
+
+	/**
+	 * Computes the post-dominator tree of a graph. The graph must have its blocks ordered.
+	 *
+	 * @param graph the graph to compute the post-dominators of
+	 */
+	public PostDominatorTree(BasicBlockGraph graph) {
+		blocks = graph.getBlocks();
+		int blockCount = blocks.size();
+		nodes = new int[blockCount];
+		Arrays.fill(nodes, DominatorTree.NONE);
+		//the reversed graph needs its own reverse postorder, found by a depth first search backwards from the exit
+		int[] postorder = new int[blockCount];
+		int postorderCount = 0;
+		boolean[] visited = new boolean[blockCount];
+		int[] stack = new int[blockCount];
+		//the predecessors of each block on the stack, and how many of them have been explored so far
+		int[][] stackPredecessors = new int[blockCount][];
+		int[] nextPredecessor = new int[blockCount];
+		for (BasicBlock exit : blocks) {
+			if (!exit.successors.isEmpty() || visited[exit.index]) {
+				continue;
+			}
+			int stackSize = 0;
+			visited[exit.index] = true;
+			stack[stackSize] = exit.index;
+			stackPredecessors[stackSize] = BasicBlockGraph.indicesOf(exit.predecessors);
+			nextPredecessor[stackSize] = 0;
+			stackSize++;
+			while (stackSize > 0) {
+				int top = stackSize - 1;
+				if (nextPredecessor[top] < stackPredecessors[top].length) {
+					int predecessor = stackPredecessors[top][nextPredecessor[top]++];
+					if (!visited[predecessor]) {
+						visited[predecessor] = true;
+						stack[stackSize] = predecessor;
+						stackPredecessors[stackSize] = BasicBlockGraph.indicesOf(blocks.get(predecessor).predecessors);
+						nextPredecessor[stackSize] = 0;
+						stackSize++;
+					}
+				} else {
+					postorder[postorderCount++] = stack[top];
+					stackPredecessors[top] = null;
+					stackSize--;
+				}
+			}
+		}
+		//the virtual exit comes last in postorder, so it's first in reverse postorder, and the blocks follow it
+		int nodeCount = postorderCount + 1;
+		blockIndices = new int[nodeCount];
+		blockIndices[EXIT] = DominatorTree.NONE;
+		for (int i = 0; i < postorderCount; i++) {
+			int node = postorderCount - i;
+			nodes[postorder[i]] = node;
+			blockIndices[node] = postorder[i];
+		}
+		//in the reversed graph, the predecessors of a block are its successors, plus the virtual exit if it is an exit block
+		int[][] predecessors = new int[nodeCount][];
+		predecessors[EXIT] = new int[0];
+		for (int node = 1; node < nodeCount; node++) {
+			BasicBlock block = blocks.get(blockIndices[node]);
+			if (block.successors.isEmpty()) {
+				predecessors[node] = new int[] { EXIT };
+			} else {
+				int[] successors = BasicBlockGraph.indicesOf(block.successors.values());
+				int count = 0;
+				for (int successor : successors) {
+					//successors that can't reach an exit aren't part of the reversed graph
+					if (nodes[successor] != DominatorTree.NONE) {
+						successors[count++] = nodes[successor];
+					}
+				}
+				predecessors[node] = Arrays.copyOf(successors, count);
+			}
+		}
+		tree = new DominatorTree(predecessors);
+	}
+
+	/**
+	 * Gets the immediate post-dominator of a block.
+	 *
+	 * @param block the block to examine
+	 * @return the closest block that post-dominates <code>block</code>, or <code>null</code> if the closest post-dominator is the virtual exit or the block can't reach an exit
+	 */
+	public BasicBlock getImmediatePostDominator(BasicBlock block) {
+		int node = getNode(block);
+		if (node == DominatorTree.NONE) {
+			return null;
+		}
+		int dominator = tree.getImmediateDominator(node);
+		return (dominator == DominatorTree.NONE || dominator == EXIT ? null : blocks.get(blockIndices[dominator]));
+	}
+
+	/**
+	 * Determines whether one block post-dominates another. Note that every block that can reach an exit post-dominates itself.
+	 *
+	 * @param postDominator the potential post-dominator
+	 * @param block the potentially post-dominated block
+	 * @return whether <code>postDominator</code> post-dominates <code>block</code>
+	 */
+	public boolean postDominates(BasicBlock postDominator, BasicBlock block) {
+		int dominatorNode = getNode(postDominator);
+		int node = getNode(block);
+		return dominatorNode != DominatorTree.NONE && node != DominatorTree.NONE && tree.dominates(dominatorNode, node);
+	}
+
+	/**
+	 * Determines whether a block can reach the end of the method, and so is part of this tree.
+	 *
+	 * @param block the block to examine
+	 * @return whether the block has post-dominators
+	 */
+	public boolean canReachExit(BasicBlock block) {
+		return getNode(block) != DominatorTree.NONE;
+	}
+
+	/**
+	 * Gets the node of a block in the underlying tree.
+	 *
+	 * @param block the block to look up
+	 * @return the node of <code>block</code>, or {@link DominatorTree#NONE} if it can't reach an exit
+	 */
+	public int getNode(BasicBlock block) {
+		return (block.index >= 0 ? nodes[block.index] : DominatorTree.NONE);
+	}
+
+	/**
+	 * Gets the block of a node in the underlying tree.
+	 *
+	 * @param node the node to look up
+	 * @return the block of <code>node</code>, or <code>null</code> for the virtual exit
+	 */
+	public BasicBlock getBlock(int node) {
+		return (node == EXIT ? null : blocks.get(blockIndices[node]));
+	}
+
+	/**
+	 * Gets the underlying dominator tree of the reversed graph. Node {@link #EXIT} is the virtual exit; the other nodes can be translated to blocks with {@link #getBlock(int)}.
+	 *
+	 * @return the tree of the reversed graph
+	 */
+	public DominatorTree getTree() {
+		return tree;
+	}
+
+}
@@ -0,0 +1,340 @@
+package analysis.flow;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import classfile.JavaMethod;
+import classfile.code.Code;
+import classfile.code.opcodes.LocalVariable;
+import classfile.code.opcodes.LocalVariableIncrement;
+import classfile.code.opcodes.OpType;
+import classfile.code.opcodes.Opcode;
+
+/**
+ * The reaching definitions of the local variables of a method, i.e., for every instruction that reads a local, the instructions that may have stored the value it reads. A definition is a store or an increment of a local, and the method entry counts as one definition of every local, which covers the arguments (and anything read before it is stored, which valid code never does). A use is a load, an increment, or a ret.
+ * <p>
+ * Definitions are numbered densely, grouped by local and then ordered by bytecode index, so that the definitions of each local form a contiguous range of numbers, and killing every definition of a local is a single range operation on a <code>BitSet</code>. The sets are solved by a {@link BitVectorSolver}, and the chains are then stored in compressed sparse row form: the definitions reaching use <i>u</i> are <code>useDefinitions[useStarts[u]]</code> up to <code>useDefinitions[useStarts[u + 1]]</code>, and the uses of each definition are stored the same way. Nothing is allocated per chain, so methods with thousands of stores stay cheap.
+ * <p>
+ * A category 2 store also kills the definitions of the slot above it, since the value now occupies both slots. All bytecode indices are those of the code of the graph (see {@link BasicBlockGraph#getCode()}), which differ from those of the method when it had subroutines inlined, and are mapped back to the method by {@link BasicBlockGraph#getOriginalBci(int)}.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class ReachingDefinitions {
+
+	/**
+	 * The bytecode index given to the definitions at the method entry.
+	 */
+	public static final int ENTRY = -1;
+
+	//the number of definitions of each local, as a prefix sum, so that the definitions of local l are numbered from localStarts[l] up to localStarts[l + 1]
+	private final int[] localStarts;
+	//the bci and local of each definition
+	private final int[] definitionBcis;
+	private final int[] definitionLocals;
+	//the definition or use at each bci, or -1 if there is none
+	private final int[] definitionsByBci;
+	private final int[] usesByBci;
+	//the bci and local of each use
+	private final int[] useBcis;
+	private final int[] useLocals;
+	//the definitions reaching each use, and the uses reached by each definition
+	private final int[] useStarts;
+	private final int[] useDefinitions;
+	private final int[] definitionStarts;
+	private final int[] definitionUses;
+
+	/**
+	 * Computes the reaching definitions of every use of a local in a method.
+	 *
+	 * @param method the method to analyze
+	 * @param graph the basic block graph of <code>method</code>
+	 */
+	public ReachingDefinitions(JavaMethod method, BasicBlockGraph graph) {
+		Code code = graph.getCode();
+		List<Opcode> ops = code.ops;
+		int codeSize = ops.size();
+		int localsCount = code.maxLocals;
+		definitionsByBci = new int[codeSize];
+		usesByBci = new int[codeSize];
+		Arrays.fill(definitionsByBci, -1);
+		Arrays.fill(usesByBci, -1);
+		//count the definitions of each local, and the uses, in only the reachable code
+		localStarts = new int[localsCount + 1];
+		int useCount = 0;
+		for (int start = 0; start < codeSize; start++) {
+			BasicBlock block = graph.getBlock(start);
+			if (block == null) {
+				continue;
+			}
+			for (int bci = block.startBci; bci <= block.endBci; bci++) {
+				Opcode op = ops.get(bci);
+				if (op == null) {
+					continue;
+				}
+				int defined = definedLocal(op);
+				if (defined >= 0) {
+					localStarts[defined + 1]++;
+				}
+				if (usedLocal(op) >= 0) {
+					useCount++;
+				}
+			}
+			start = block.endBci;
+		}
+		//each local also has its entry definition
+		for (int local = 0; local < localsCount; local++) {
+			localStarts[local + 1] += localStarts[local] + 1;
+		}
+		int definitionCount = localStarts[localsCount];
+		definitionBcis = new int[definitionCount];
+		definitionLocals = new int[definitionCount];
+		useBcis = new int[useCount];
+		useLocals = new int[useCount];
+		int[] nextDefinition = Arrays.copyOf(localStarts, localsCount);
+		for (int local = 0; local < localsCount; local++) {
+			int definition = nextDefinition[local]++;
+			definitionBcis[definition] = ENTRY;
+			definitionLocals[definition] = local;
+		}
+		useCount = 0;
+		for (int start = 0; start < codeSize; start++) {
+			BasicBlock block = graph.getBlock(start);
+			if (block == null) {
+				continue;
+			}
+			for (int bci = block.startBci; bci <= block.endBci; bci++) {
+				Opcode op = ops.get(bci);
+				if (op == null) {
+					continue;
+				}
+				int used = usedLocal(op);
+				if (used >= 0) {
+					useBcis[useCount] = bci;
+					useLocals[useCount] = used;
+					usesByBci[bci] = useCount++;
+				}
+				int defined = definedLocal(op);
+				if (defined >= 0) {
+					int definition = nextDefinition[defined]++;
+					definitionBcis[definition] = bci;
+					definitionLocals[definition] = defined;
+					definitionsByBci[bci] = definition;
+				}
+			}
+			start = block.endBci;
+		}
+		BitVectorSolver solver = new BitVectorSolver(graph, FlowDirection.FORWARD, true, definitionCount);
+		for (int local = 0; local < localsCount; local++) {
+			solver.getBoundary().set(localStarts[local]);
+		}
+		for (BasicBlock block : graph.getBlocks()) {
+			BitSet gen = solver.getGen(block);
+			BitSet kill = solver.getKill(block);
+			BitSet exceptionalGen = (block.handlers.isEmpty() ? null : solver.getExceptionalGen(block));
+			for (int bci = block.startBci; bci <= block.endBci; bci++) {
+				int definition = definitionsByBci[bci];
+				if (definition < 0) {
+					continue;
+				}
+				for (int killed = definitionLocals[definition], end = killed + (isCategory2(ops.get(bci)) ? 2 : 1); killed < end && killed < localsCount; killed++) {
+					gen.clear(localStarts[killed], localStarts[killed + 1]);
+					kill.set(localStarts[killed], localStarts[killed + 1]);
+				}
+				gen.set(definition);
+				if (exceptionalGen != null) {
+					exceptionalGen.set(definition);
+				}
+			}
+		}
+		solver.solve();
+		//walk each block from its entry set to find the definitions reaching each use, growing the chain array as needed
+		useStarts = new int[useCount + 1];
+		int[] chains = new int[Math.max(useCount, 16)];
+		int chainCount = 0;
+		BitSet current = new BitSet(definitionCount);
+		for (int start = 0; start < codeSize; start++) {
+			BasicBlock block = graph.getBlock(start);
+			if (block == null) {
+				continue;
+			}
+			current.clear();
+			current.or(solver.getIn(block));
+			for (int instruction = block.startBci; instruction <= block.endBci; instruction++) {
+				int use = usesByBci[instruction];
+				if (use >= 0) {
+					int local = useLocals[use];
+					useStarts[use] = chainCount;
+					for (int definition = current.nextSetBit(localStarts[local]); definition >= 0 && definition < localStarts[local + 1]; definition = current.nextSetBit(definition + 1)) {
+						if (chainCount == chains.length) {
+							chains = Arrays.copyOf(chains, chainCount * 2);
+						}
+						chains[chainCount++] = definition;
+					}
+				}
+				int definition = definitionsByBci[instruction];
+				if (definition >= 0) {
+					for (int killed = definitionLocals[definition], end = killed + (isCategory2(ops.get(instruction)) ? 2 : 1); killed < end && killed < localsCount; killed++) {
+						current.clear(localStarts[killed], localStarts[killed + 1]);
+					}
+					current.set(definition);
+				}
+			}
+			start = block.endBci;
+		}
+		useStarts[useCount] = chainCount;
+		useDefinitions = Arrays.copyOf(chains, chainCount);
+		//invert the chains with a counting sort, so that the uses of each definition come out in bci order
+		definitionStarts = new int[definitionCount + 1];
+		for (int i = 0; i < chainCount; i++) {
+			definitionStarts[useDefinitions[i] + 1]++;
+		}
+		for (int definition = 0; definition < definitionCount; definition++) {
+			definitionStarts[definition + 1] += definitionStarts[definition];
+		}
+		definitionUses = new int[chainCount];
+		int[] nextUse = Arrays.copyOf(definitionStarts, definitionCount);
+		for (int use = 0; use < useCount; use++) {
+			for (int i = useStarts[use]; i < useStarts[use + 1]; i++) {
+				definitionUses[nextUse[useDefinitions[i]]++] = use;
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of definitions, including the entry definition of every local.
+	 *
+	 * @return the number of definitions
+	 */
+	public int getDefinitionCount() {
+		return definitionBcis.length;
+	}
+
+	/**
+	 * Gets the bytecode index of a definition.
+	 *
+	 * @param definition the number of the definition
+	 * @return the bci of the instruction that makes the definition, or {@link #ENTRY} for an entry definition
+	 */
+	public int getDefinitionBci(int definition) {
+		return definitionBcis[definition];
+	}
+
+	/**
+	 * Gets the local variable defined by a definition.
+	 *
+	 * @param definition the number of the definition
+	 * @return the index of the local that is defined
+	 */
+	public int getDefinitionLocal(int definition) {
+		return definitionLocals[definition];
+	}
+
+	/**
+	 * Gets the definition made by the instruction at a bytecode index.
+	 *
+	 * @param bci the bci of the instruction
+	 * @return the number of the definition, or -1 if the instruction doesn't define a local
+	 */
+	public int getDefinitionAt(int bci) {
+		return definitionsByBci[bci];
+	}
+
+	/**
+	 * Gets the entry definition of a local, i.e., the definition standing for its value when the method is entered.
+	 *
+	 * @param local the index of the local
+	 * @return the number of the entry definition of <code>local</code>
+	 */
+	public int getEntryDefinition(int local) {
+		return localStarts[local];
+	}
+
+	/**
+	 * Gets the number of uses of locals in the reachable code.
+	 *
+	 * @return the number of uses
+	 */
+	public int getUseCount() {
+		return useBcis.length;
+	}
+
+	/**
+	 * Gets the bytecode index of a use.
+	 *
+	 * @param use the number of the use
+	 * @return the bci of the instruction that reads the local
+	 */
+	public int getUseBci(int use) {
+		return useBcis[use];
+	}
+
+	/**
+	 * Gets the use made by the instruction at a bytecode index.
+	 *
+	 * @param bci the bci of the instruction
+	 * @return the number of the use, or -1 if the instruction doesn't read a local
+	 */
+	public int getUseAt(int bci) {
+		return usesByBci[bci];
+	}
+
+	/**
+	 * Gets the definitions that reach a use.
+	 *
+	 * @param use the number of the use
+	 * @return the numbers of the definitions that may have stored the value read by <code>use</code>, in increasing order
+	 */
+	public int[] getReachingDefinitions(int use) {
+		return Arrays.copyOfRange(useDefinitions, useStarts[use], useStarts[use + 1]);
+	}
+
+	/**
+	 * Gets the uses reached by a definition.
+	 *
+	 * @param definition the number of the definition
+	 * @return the numbers of the uses that may read the value stored by <code>definition</code>, in increasing order
+	 */
+	public int[] getUses(int definition) {
+		return Arrays.copyOfRange(definitionUses, definitionStarts[definition], definitionStarts[definition + 1]);
+	}
+
+	/**
+	 * Gets the local variable that an instruction stores to.
+	 *
+	 * @param op the instruction to examine
+	 * @return the index of the defined local, or -1 if the instruction doesn't define one
+	 */
+	private static int definedLocal(Opcode op) {
+		if (op.type == OpType.LOCAL_STORE) {
+			return ((LocalVariable) op.data).index;
+		} else if (op.type == OpType.LOCAL_INCREMENT) {
+			return ((LocalVariableIncrement) op.data).local.index;
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the local variable that an instruction reads.
+	 *
+	 * @param op the instruction to examine
+	 * @return the index of the used local, or -1 if the instruction doesn't use one
+	 */
+	private static int usedLocal(Opcode op) {
+		switch (op.type) {
+		case LOCAL_LOAD:
+		case SUBROUTINE_RETURN:
+			return ((LocalVariable) op.data).index;
+		case LOCAL_INCREMENT:
+			return ((LocalVariableIncrement) op.data).local.index;
+		default:
+			return -1;
+		}
+	}
+
+	private static boolean isCategory2(Opcode op) {
+		return op.type == OpType.LOCAL_STORE && ((LocalVariable) op.data).type.category == 2;
+	}
+
+}
@@ -0,0 +1,366 @@
+package analysis.flow;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import classfile.code.Code;
+import classfile.code.opcodes.CompareJump;
+import classfile.code.opcodes.ConditionalJump;
+import classfile.code.opcodes.ExceptionHandler;
+import classfile.code.opcodes.OpType;
+import classfile.code.opcodes.Opcode;
+import classfile.code.opcodes.Switch;
+
+/**
+ * Rewrites the code of a method so that it has no subroutines, by giving every call of a subroutine its own copy of the subroutine body. Old compilers emit <code>jsr</code> and <code>ret</code> for <code>finally</code> blocks, and some obfuscators use them to tangle control flow, but a <code>ret</code> has no static successor, so every analysis would otherwise need a slow path for them. Once each call has its own copy, the return of the copy can only go back to one place, and the code is an ordinary control flow graph.
+ * <p>
+ * The body of a subroutine is every instruction reachable from its entry without following a <code>ret</code> or entering another subroutine, along with the handlers of any exception range that covers part of the body (and everything reachable from them). The main body of the method is found in the same way from bci 0. Each body is then laid out once per instantiation, starting from the main body, with every <code>jsr</code> replaced by a push of a <code>null</code> placeholder for the return address and a jump to a fresh instantiation of the subroutine, and every <code>ret</code> replaced by a jump back to the instruction after the call. Subroutines called from within a subroutine are instantiated once per instantiation of their caller, so nesting multiplies the size of the code; when the inlined code would grow past the size limit, the code is left as it is, and the analyses fall back to treating subroutine calls conservatively.
+ * <p>
+ * The inlined code has one instruction per bytecode index, and no StackMapTable. The bci in the original code of each inlined instruction is kept, so that results can be mapped back to the class file.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class SubroutineInliner {
+
+	/**
+	 * The default limit on the number of instructions in the inlined code, which is the largest number of instructions that a method can have, so that inlined code could still be written to a class file.
+	 */
+	public static final int DEFAULT_SIZE_LIMIT = 65535;
+
+	private final Code code;
+	private final int sizeLimit;
+	//the bcis of the instructions in the body of each subroutine, sorted, keyed by the bci of the entry of the subroutine
+	private final Map<Integer, int[]> bodies = new HashMap<>();
+	//the instantiations of the bodies, in the order that they are laid out, starting with the main body
+	private final List<Instantiation> instantiations = new ArrayList<>();
+	private int inlinedSize;
+	private Code inlinedCode;
+	private int[] originalBcis;
+
+	/**
+	 * Inlines the subroutines of some code, with the default size limit.
+	 *
+	 * @param code the code to inline the subroutines of
+	 */
+	public SubroutineInliner(Code code) {
+		this(code, DEFAULT_SIZE_LIMIT);
+	}
+
+	/**
+	 * Inlines the subroutines of some code.
+	 *
+	 * @param code the code to inline the subroutines of
+	 * @param sizeLimit the largest number of instructions that the inlined code may have
+	 */
+	public SubroutineInliner(Code code, int sizeLimit) {
+		this.code = code;
+		this.sizeLimit = sizeLimit;
+		if (hasSubroutines() && layOut()) {
+			emit();
+		}
+	}
+
+	/**
+	 * Inlines the subroutines of some code, with the default size limit.
+	 *
+	 * @param code the code to inline the subroutines of
+	 * @return code without subroutines, or <code>code</code> itself if it has none or if they couldn't be inlined
+	 */
+	public static Code inline(Code code) {
+		return new SubroutineInliner(code).getCode();
+	}
+
+	/**
+	 * Gets the code with its subroutines inlined.
+	 *
+	 * @return the inlined code, or the original code if it had no subroutines or if they couldn't be inlined
+	 */
+	public Code getCode() {
+		return (inlinedCode != null ? inlinedCode : code);
+	}
+
+	/**
+	 * Determines whether any subroutines were inlined.
+	 *
+	 * @return whether {@link #getCode()} returns rewritten code
+	 */
+	public boolean isInlined() {
+		return inlinedCode != null;
+	}
+
+	/**
+	 * Gets the bytecode index in the original code of an instruction of the inlined code. The placeholder push and the jump that replace a <code>jsr</code> both map back to the <code>jsr</code>, and the jump that replaces a <code>ret</code> maps back to the <code>ret</code>.
+	 *
+	 * @param bci the bci of the instruction in the code returned by {@link #getCode()}
+	 * @return the bci that the instruction was copied from
+	 */
+	public int getOriginalBci(int bci) {
+		return (inlinedCode != null ? originalBcis[bci] : bci);
+	}
+
+	/**
+	 * Gets the number of bodies that were laid out, including the main body of the method.
+	 *
+	 * @return the number of instantiations, or 0 if nothing was inlined
+	 */
+	public int getInstantiationCount() {
+		return (inlinedCode != null ? instantiations.size() : 0);
+	}
+
+	private boolean hasSubroutines() {
+		for (Opcode op : code.ops) {
+			if (op != null && op.type == OpType.SUBROUTINE_JUMP) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Assigns a bci in the inlined code to every instruction of every instantiation, creating the instantiations of the subroutines as their calls are found.
+	 *
+	 * @return whether the code can be inlined within the size limit
+	 */
+	private boolean layOut() {
+		List<Opcode> ops = code.ops;
+		instantiations.add(new Instantiation(-1, getBody(0), null, -1));
+		for (int i = 0; i < instantiations.size(); i++) {
+			Instantiation instantiation = instantiations.get(i);
+			int[] bcis = instantiation.bcis;
+			instantiation.start = inlinedSize;
+			for (int j = 0; j < bcis.length; j++) {
+				int bci = bcis[j];
+				Opcode op = ops.get(bci);
+				instantiation.newBcis[j] = inlinedSize++;
+				if (op.type == OpType.SUBROUTINE_JUMP) {
+					int entry = (int) op.data;
+					//a subroutine that calls itself would be inlined forever, and the verifier rejects it anyway
+					for (Instantiation caller = instantiation; caller != null; caller = caller.parent) {
+						if (caller.entry == entry) {
+							return false;
+						}
+					}
+					instantiations.add(new Instantiation(entry, getBody(entry), instantiation, code.next(bci)));
+					//the jsr becomes two instructions, the placeholder push and the jump
+					inlinedSize++;
+				} else if (op.type == OpType.SUBROUTINE_RETURN && (instantiation.parent == null || instantiation.returnBci < 0)) {
+					//a ret with nowhere to return to
+					return false;
+				}
+				if (inlinedSize > sizeLimit) {
+					return false;
+				}
+			}
+			instantiation.end = inlinedSize;
+		}
+		return true;
+	}
+
+	/**
+	 * Copies the instructions of every instantiation to their bcis in the inlined code, redirecting their jumps to the copies in the same instantiation, and copies the exception table for every instantiation.
+	 */
+	private void emit() {
+		List<Opcode> ops = code.ops;
+		Opcode[] inlined = new Opcode[inlinedSize];
+		originalBcis = new int[inlinedSize];
+		//the callees were created in the same order that their calls are visited here, so they can just be taken in turn
+		int nextCallee = 1;
+		for (Instantiation instantiation : instantiations) {
+			int[] bcis = instantiation.bcis;
+			for (int j = 0; j < bcis.length; j++) {
+				int bci = bcis[j];
+				int newBci = instantiation.newBcis[j];
+				Opcode op = ops.get(bci);
+				originalBcis[newBci] = bci;
+				switch (op.type) {
+				case CONDITIONAL_JUMP:
+				{
+					ConditionalJump jump = (ConditionalJump) op.data;
+					inlined[newBci] = new Opcode(op.type, new ConditionalJump(jump.condition, jump.conditionType, instantiation.map(jump.jumpTarget)));
+					break;
+				}
+				case COMPARE_JUMP:
+				{
+					CompareJump jump = (CompareJump) op.data;
+					inlined[newBci] = new Opcode(op.type, new CompareJump(jump.comparison, jump.compareType, instantiation.map(jump.jumpTarget)));
+					break;
+				}
+				case UNCONDITIONAL_JUMP:
+				{
+					inlined[newBci] = new Opcode(op.type, instantiation.map((int) op.data));
+					break;
+				}
+				case SUBROUTINE_JUMP:
+				{
+					//the subroutine stores or pops the return address, so something has to be pushed in its place
+					inlined[newBci] = Opcode.ACONST_NULL;
+					inlined[newBci + 1] = new Opcode(OpType.UNCONDITIONAL_JUMP, instantiations.get(nextCallee++).start);
+					originalBcis[newBci + 1] = bci;
+					break;
+				}
+				case SUBROUTINE_RETURN:
+				{
+					inlined[newBci] = new Opcode(OpType.UNCONDITIONAL_JUMP, instantiation.parent.map(instantiation.returnBci));
+					break;
+				}
+				case SWITCH:
+				{
+					Switch switchOp = (Switch) op.data;
+					Map<Integer, Integer> jumpTable = new HashMap<>();
+					for (Map.Entry<Integer, Integer> switchCase : switchOp.jumpTable.entrySet()) {
+						jumpTable.put(switchCase.getKey(), instantiation.map(switchCase.getValue()));
+					}
+					inlined[newBci] = new Opcode(op.type, new Switch(jumpTable, instantiation.map(switchOp.defaultJump)));
+					break;
+				}
+				default:
+				{
+					inlined[newBci] = op;
+					break;
+				}
+				}
+			}
+		}
+		//the handlers keep their priorities, since the copies of different instantiations never overlap
+		List<ExceptionHandler> exceptionTable = new ArrayList<>();
+		for (ExceptionHandler handler : code.exceptionTable) {
+			for (Instantiation instantiation : instantiations) {
+				int[] bcis = instantiation.bcis;
+				//the instructions of the body inside the range are laid out next to each other, so the range stays in one piece
+				int first = search(bcis, handler.start);
+				int last = search(bcis, handler.end);
+				if (first < last) {
+					int end = (last < bcis.length ? instantiation.newBcis[last] : instantiation.end);
+					exceptionTable.add(new ExceptionHandler(instantiation.newBcis[first], end, instantiation.map(handler.handler), handler.catchType));
+				}
+			}
+		}
+		inlinedCode = new Code(code.maxStack, code.maxLocals, Arrays.asList(inlined), exceptionTable, code.exceptions);
+	}
+
+	/**
+	 * Finds the instructions of the body of a subroutine, walking every path from its entry. A call of another subroutine is walked over to the instruction after it, and a return ends the path.
+	 *
+	 * @param entry the bci of the first instruction of the subroutine
+	 * @return the sorted bcis of the instructions in the body
+	 */
+	private int[] getBody(int entry) {
+		int[] bcis = bodies.get(entry);
+		if (bcis != null) {
+			return bcis;
+		}
+		List<Opcode> ops = code.ops;
+		BitSet body = new BitSet(ops.size());
+		Deque<Integer> worklist = new ArrayDeque<>();
+		worklist.push(entry);
+		while (!worklist.isEmpty()) {
+			while (!worklist.isEmpty()) {
+				int bci = worklist.pop();
+				if (bci < 0 || body.get(bci)) {
+					continue;
+				}
+				body.set(bci);
+				Opcode op = ops.get(bci);
+				switch (op.type) {
+				case CONDITIONAL_JUMP:
+					worklist.push(((ConditionalJump) op.data).jumpTarget);
+					worklist.push(code.next(bci));
+					break;
+				case COMPARE_JUMP:
+					worklist.push(((CompareJump) op.data).jumpTarget);
+					worklist.push(code.next(bci));
+					break;
+				case UNCONDITIONAL_JUMP:
+					worklist.push((int) op.data);
+					break;
+				case SWITCH:
+				{
+					Switch switchOp = (Switch) op.data;
+					for (int switchTarget : switchOp.jumpTable.values()) {
+						worklist.push(switchTarget);
+					}
+					worklist.push(switchOp.defaultJump);
+					break;
+				}
+				case RETURN:
+				case SUBROUTINE_RETURN:
+				case THROW:
+					break;
+				default:
+					//this includes jsr, which comes back to the next instruction
+					worklist.push(code.next(bci));
+					break;
+				}
+			}
+			//any handler that covers part of the body can be reached from it, and its code may in turn be covered by more handlers
+			for (ExceptionHandler handler : code.exceptionTable) {
+				int covered = body.nextSetBit(handler.start);
+				if (!body.get(handler.handler) && covered >= 0 && covered < handler.end) {
+					worklist.push(handler.handler);
+				}
+			}
+		}
+		bcis = new int[body.cardinality()];
+		for (int bci = body.nextSetBit(0), i = 0; bci >= 0; bci = body.nextSetBit(bci + 1)) {
+			bcis[i++] = bci;
+		}
+		bodies.put(entry, bcis);
+		return bcis;
+	}
+
+	/**
+	 * Finds the position of the first bci in a sorted array that is at least a given bci.
+	 */
+	private static int search(int[] bcis, int bci) {
+		int position = Arrays.binarySearch(bcis, bci);
+		return (position >= 0 ? position : -position - 1);
+	}
+
+	/**
+	 * One copy of the body of a subroutine, or of the main body of the method.
+	 */
+	private static class Instantiation {
+
+		//the bci of the entry of the subroutine, or -1 for the main body
+		final int entry;
+		//the bcis of the body in the original code, and of their copies in the inlined code
+		final int[] bcis;
+		final int[] newBcis;
+		//the instantiation that called this one, and the bci in the original code that its ret goes back to
+		final Instantiation parent;
+		final int returnBci;
+		//the range of the copies in the inlined code
+		int start;
+		int end;
+
+		Instantiation(int entry, int[] bcis, Instantiation parent, int returnBci) {
+			this.entry = entry;
+			this.bcis = bcis;
+			this.parent = parent;
+			this.returnBci = returnBci;
+			newBcis = new int[bcis.length];
+		}
+
+		/**
+		 * Maps a bci of the original code to its copy, looking in the callers of this instantiation for instructions outside of its body.
+		 */
+		int map(int bci) {
+			for (Instantiation owner = this; owner != null; owner = owner.parent) {
+				int position = Arrays.binarySearch(owner.bcis, bci);
+				if (position >= 0) {
+					return owner.newBcis[position];
+				}
+			}
+			return -1;
+		}
+
+	}
+
+}
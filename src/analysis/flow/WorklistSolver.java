@@ -0,0 +1,133 @@
+package analysis.flow;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The worklist shared by the data flow solvers. Blocks are kept in a <code>BitSet</code> indexed by their priority, and the block with the highest priority is always taken next: blocks are taken in reverse postorder for a forward problem, and in postorder for a backward problem, so that a block is usually only visited after every block it depends on, apart from the sources of back edges. On reducible code, this converges in a number of passes bounded by the loop nesting depth, instead of the number of blocks.
+ * <p>
+ * Every visit of a block counts as one iteration. A solver can be given a limit on its iterations, or be stopped from inside the problem it is solving, once the analysis has learned what it needs; in either case, the facts it has computed so far are not a fixed point, and should only be used if the analysis knows that they are still safe.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public abstract class WorklistSolver {
+
+	//the blocks of the graph, in reverse postorder
+	protected final List<BasicBlock> blocks;
+	protected final FlowDirection direction;
+
+	/**
+	 * The flags returned by {@link #update(BasicBlock)}, for a change to the facts flowing into and out of a block.
+	 */
+	protected static final int INPUT_CHANGED = 0x1, OUTPUT_CHANGED = 0x2;
+
+	//the priorities of the blocks that need to be visited again
+	private final BitSet worklist = new BitSet();
+	private int iterationCount;
+	private int iterationLimit = Integer.MAX_VALUE;
+	private boolean stopped;
+
+	/**
+	 * Creates a solver over the blocks of a graph.
+	 *
+	 * @param graph the graph to solve a problem on, which must have its blocks ordered
+	 * @param direction the direction that facts flow in
+	 */
+	protected WorklistSolver(BasicBlockGraph graph, FlowDirection direction) {
+		blocks = graph.getBlocks();
+		this.direction = direction;
+	}
+
+	/**
+	 * Limits the number of iterations the solver may take before giving up.
+	 *
+	 * @param iterationLimit the maximum number of block visits
+	 */
+	public void setIterationLimit(int iterationLimit) {
+		this.iterationLimit = iterationLimit;
+	}
+
+	/**
+	 * Gets the number of iterations taken so far, i.e., the number of times a block has been visited.
+	 *
+	 * @return the number of iterations
+	 */
+	public int getIterationCount() {
+		return iterationCount;
+	}
+
+	/**
+	 * Stops the solver after the current iteration. This is meant to be called from the transfer function of a problem once the answer it is looking for is known.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * Visits blocks until the facts stop changing, the iteration limit is reached, or the solver is stopped. Every block is visited at least once, unless the solver stops first.
+	 *
+	 * @return whether a fixed point was reached
+	 */
+	public boolean solve() {
+		int blockCount = blocks.size();
+		worklist.set(0, blockCount);
+		stopped = false;
+		for (int priority = worklist.nextSetBit(0); priority >= 0; priority = worklist.nextSetBit(0)) {
+			if (stopped || iterationCount >= iterationLimit) {
+				return false;
+			}
+			worklist.clear(priority);
+			iterationCount++;
+			BasicBlock block = blocks.get(direction == FlowDirection.FORWARD ? priority : blockCount - 1 - priority);
+			int changes = update(block);
+			//whatever the block flows into has to see the change
+			if (direction == FlowDirection.FORWARD) {
+				if ((changes & OUTPUT_CHANGED) != 0) {
+					enqueue(block.successors.values());
+				}
+				//handlers take the facts at the start of the blocks they handle as well as at the end, so either change reaches them
+				if (changes != 0) {
+					enqueue(block.handlers.values());
+				}
+			} else if ((changes & OUTPUT_CHANGED) != 0) {
+				enqueue(block.predecessors);
+				enqueue(block.handled);
+			}
+		}
+		return !stopped;
+	}
+
+	/**
+	 * Adds blocks to the worklist.
+	 *
+	 * @param dependents the blocks to add
+	 */
+	private void enqueue(Iterable<BasicBlock> dependents) {
+		int blockCount = blocks.size();
+		for (BasicBlock dependent : dependents) {
+			if (dependent.index >= 0) {
+				worklist.set(direction == FlowDirection.FORWARD ? dependent.index : blockCount - 1 - dependent.index);
+			}
+		}
+	}
+
+	/**
+	 * Recomputes the facts of a block from the facts flowing into it. In a forward problem, a block takes the facts leaving its predecessors, and the facts anywhere in the blocks it handles exceptions for, i.e., the meet of their entry and exit facts; the entry block also takes the boundary fact. In a backward problem, a block takes the facts entering its successors and handlers, and a block without successors also takes the boundary fact.
+	 *
+	 * @param block the block to update
+	 * @return the changes to the facts of the block, as a combination of {@link #INPUT_CHANGED} and {@link #OUTPUT_CHANGED}
+	 */
+	protected abstract int update(BasicBlock block);
+
+	/**
+	 * Determines whether a block receives the boundary fact.
+	 *
+	 * @param block the block to examine
+	 * @return whether <code>block</code> is at the boundary of the code in the direction of the problem
+	 */
+	protected boolean isBoundary(BasicBlock block) {
+		return (direction == FlowDirection.FORWARD ? block.index == 0 : block.successors.isEmpty());
+	}
+
+}
@@ -0,0 +1,35 @@
+package analysis.program;
+
+/**
+ * A match of a {@link BytecodePattern} in the code of a method, found by a {@link BytecodeSearchIndex}.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class BytecodeMatch {
+
+	/**
+	 * The number of the method containing the match, as numbered by the {@link ClassHierarchy} of the index.
+	 */
+	public final int method;
+	/**
+	 * The bci of the first instruction of the match.
+	 */
+	public final int startBci;
+	/**
+	 * The bci of the last instruction of the match.
+	 */
+	public final int endBci;
+
+	public BytecodeMatch(int method, int startBci, int endBci) {
+		this.method = method;
+		this.startBci = startBci;
+		this.endBci = endBci;
+	}
+
+	@Override
+	public String toString() {
+		return "method " + method + " at " + startBci + "-" + endBci;
+	}
+
+}
@@ -0,0 +1,252 @@
+package analysis.program;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import classfile.code.Code;
+import classfile.code.opcodes.OpType;
+import classfile.code.opcodes.Opcode;
+
+/**
+ * A pattern over the instructions of a method, i.e., a sequence of elements that each match one or more consecutive {@link Opcode}s, in bytecode order. A pattern is compiled from a string of elements separated by whitespace, where each element is one of:
+ * <ul>
+ * <li>an {@link OpType} name, e.g., <code>FIELD_LOAD</code>, which matches any instruction of that type</li>
+ * <li>several type names separated by <code>|</code>, e.g., <code>ARITHMETIC|SHIFT</code>, which matches an instruction of any of the types</li>
+ * <li><code>*</code>, which matches any single instruction</li>
+ * <li><code>...</code>, which matches any number of instructions, including none</li>
+ * </ul>
+ * A type may be followed by text in square brackets, e.g., <code>ARITHMETIC[MULTIPLY INT]</code>, which further requires the text of the instruction's data to contain it, where the text is what {@link Opcode#toString()} prints in brackets. For example, <code>FIELD_LOAD CONSTANT_LOAD[INTEGER] ARITHMETIC[MULTIPLY INT]</code> matches a field multiplied by an int constant.
+ * <p>
+ * Besides matching, a pattern knows which instruction types any match must contain, and which runs of two and three types must appear next to each other, which a {@link BytecodeSearchIndex} uses to reject most methods without looking at their instructions.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class BytecodePattern {
+
+	private final String source;
+	private final List<Element> elements;
+	//the types and n-grams of types that every match contains, in the form kept by BytecodeSearchIndex
+	private final long requiredTypes;
+	private final long[] requiredGrams = new long[BytecodeSearchIndex.SIGNATURE_WORDS];
+
+	private BytecodePattern(String source, List<Element> elements) {
+		this.source = source;
+		this.elements = Collections.unmodifiableList(elements);
+		long requiredTypes = 0;
+		for (int i = 0; i < elements.size(); i++) {
+			OpType type = elements.get(i).getSingleType();
+			if (type == null) {
+				continue;
+			}
+			requiredTypes |= 1L << type.ordinal();
+			//only elements that each match exactly one instruction of a known type form n-grams
+			OpType previous = (i >= 1 ? elements.get(i - 1).getSingleType() : null);
+			OpType beforePrevious = (i >= 2 ? elements.get(i - 2).getSingleType() : null);
+			if (previous != null) {
+				BytecodeSearchIndex.addGram(requiredGrams, BytecodeSearchIndex.gramHash(-1, previous.ordinal(), type.ordinal()));
+				if (beforePrevious != null) {
+					BytecodeSearchIndex.addGram(requiredGrams, BytecodeSearchIndex.gramHash(beforePrevious.ordinal(), previous.ordinal(), type.ordinal()));
+				}
+			}
+		}
+		this.requiredTypes = requiredTypes;
+	}
+
+	/**
+	 * Compiles a pattern from a string.
+	 *
+	 * @param pattern the string of the pattern, in the syntax described above
+	 * @return the compiled pattern
+	 * @throws IllegalArgumentException if the pattern is empty, or has an unknown type or an unclosed bracket
+	 */
+	public static BytecodePattern compile(String pattern) {
+		List<Element> elements = new ArrayList<>();
+		int position = 0;
+		while (true) {
+			while (position < pattern.length() && Character.isWhitespace(pattern.charAt(position))) {
+				position++;
+			}
+			if (position >= pattern.length()) {
+				break;
+			}
+			int start = position;
+			while (position < pattern.length() && !Character.isWhitespace(pattern.charAt(position)) && pattern.charAt(position) != '[') {
+				position++;
+			}
+			String types = pattern.substring(start, position);
+			String dataText = null;
+			if (position < pattern.length() && pattern.charAt(position) == '[') {
+				int end = pattern.indexOf(']', position);
+				if (end < 0) {
+					throw new IllegalArgumentException("Unclosed bracket at " + position + " in pattern " + pattern);
+				}
+				dataText = pattern.substring(position + 1, end);
+				position = end + 1;
+			}
+			elements.add(parseElement(types, dataText, pattern));
+		}
+		if (elements.isEmpty()) {
+			throw new IllegalArgumentException("Empty pattern");
+		}
+		return new BytecodePattern(pattern, elements);
+	}
+
+	private static Element parseElement(String types, String dataText, String pattern) {
+		if (types.equals("...") || types.equals("*")) {
+			if (dataText != null) {
+				throw new IllegalArgumentException("Wildcard " + types + " can't have data in pattern " + pattern);
+			}
+			return new Element(null, null, types.equals("..."));
+		}
+		EnumSet<OpType> typeSet = EnumSet.noneOf(OpType.class);
+		for (String name : types.split("\\|")) {
+			try {
+				typeSet.add(OpType.valueOf(name));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Unknown instruction type " + name + " in pattern " + pattern);
+			}
+		}
+		return new Element(typeSet, dataText, false);
+	}
+
+	/**
+	 * Finds every match of the pattern in some code. A match may start at each instruction, and is the shortest match starting there, so matches starting at different instructions may overlap.
+	 *
+	 * @param code the code to search
+	 * @return the bcis of the first and last instructions of each match, as pairs, in increasing order of the first
+	 */
+	public List<int[]> findMatches(Code code) {
+		//gather the instructions, skipping the padding of the operands
+		List<Opcode> ops = code.ops;
+		int[] bcis = new int[ops.size()];
+		int count = 0;
+		for (int bci = 0; bci < ops.size(); bci++) {
+			if (ops.get(bci) != null) {
+				bcis[count++] = bci;
+			}
+		}
+		List<int[]> matches = new ArrayList<>();
+		for (int start = 0; start < count; start++) {
+			int end = matchFrom(start, ops, bcis, count);
+			if (end >= 0) {
+				//a match of nothing but gaps covers no instructions, so it ends where it starts
+				matches.add(new int[] { bcis[start], bcis[Math.max(start, end - 1)] });
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Matches the pattern against the instructions from some instruction on. The pattern is matched one run of elements at a time, where a run is the elements between two gaps, and each run after a gap is matched at the earliest instruction it matches at. Since the elements of a run each match exactly one instruction and gaps match any number of them, a match of the rest of the pattern after a later position of a run is also a match after the earliest one, so the earliest position never misses a match, and it gives the shortest match; no position is ever tried twice, so a pattern with several gaps doesn't backtrack.
+	 *
+	 * @param position the index of the first instruction to match
+	 * @param ops the instructions of the code, indexed by bci
+	 * @param bcis the bcis of the instructions, in order
+	 * @param count the number of instructions
+	 * @return the index after the last instruction of the shortest match, or -1 if there is none
+	 */
+	private int matchFrom(int position, List<Opcode> ops, int[] bcis, int count) {
+		int size = elements.size();
+		boolean isAfterGap = false;
+		for (int element = 0; element < size; ) {
+			if (elements.get(element).isGap) {
+				isAfterGap = true;
+				element++;
+				continue;
+			}
+			int runEnd = element;
+			while (runEnd < size && !elements.get(runEnd).isGap) {
+				runEnd++;
+			}
+			int runLength = runEnd - element;
+			int found = -1;
+			for (int start = position; start + runLength <= count; start++) {
+				if (matchesRun(element, runEnd, start, ops, bcis)) {
+					found = start;
+					break;
+				}
+				//without a gap before it, a run has to match right where the previous one ended
+				if (!isAfterGap) {
+					break;
+				}
+			}
+			if (found < 0) {
+				return -1;
+			}
+			position = found + runLength;
+			element = runEnd;
+			isAfterGap = false;
+		}
+		return position;
+	}
+
+	private boolean matchesRun(int element, int runEnd, int position, List<Opcode> ops, int[] bcis) {
+		for (; element < runEnd; element++, position++) {
+			if (!elements.get(element).matches(ops.get(bcis[position]))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the instruction types that every match of the pattern contains.
+	 *
+	 * @return a mask with the bit of each required type's ordinal set
+	 */
+	public long getRequiredTypes() {
+		return requiredTypes;
+	}
+
+	/**
+	 * Gets the hashed runs of two and three instruction types that every match of the pattern contains.
+	 *
+	 * @return the n-gram signature of the pattern, in the form kept by {@link BytecodeSearchIndex}
+	 */
+	public long[] getRequiredGrams() {
+		return requiredGrams.clone();
+	}
+
+	@Override
+	public String toString() {
+		return source;
+	}
+
+	/**
+	 * One element of a pattern.
+	 */
+	private static class Element {
+
+		//the types matched, or null for a wildcard
+		public final EnumSet<OpType> types;
+		public final String dataText;
+		public final boolean isGap;
+
+		public Element(EnumSet<OpType> types, String dataText, boolean isGap) {
+			this.types = types;
+			this.dataText = dataText;
+			this.isGap = isGap;
+		}
+
+		public boolean matches(Opcode op) {
+			if (types == null) {
+				return true;
+			}
+			return types.contains(op.type) && (dataText == null || (op.data != null && op.data.toString().contains(dataText)));
+		}
+
+		/**
+		 * Gets the type of instruction that this element always matches exactly one of.
+		 *
+		 * @return the type, or null if this element is a wildcard or matches several types
+		 */
+		public OpType getSingleType() {
+			return (types != null && types.size() == 1 ? types.iterator().next() : null);
+		}
+
+	}
+
+}
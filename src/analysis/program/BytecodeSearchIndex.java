@@ -0,0 +1,161 @@
+package analysis.program;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import util.ParallelUtils;
+import classfile.JavaMethod;
+import classfile.code.opcodes.Opcode;
+
+/**
+ * An index for searching the code of a whole program for {@link BytecodePattern}s. For every method, the index keeps the set of instruction types the method contains, as a mask of type ordinals, and a signature of the runs of two and three consecutive instruction types it contains, hashed into a small bit set (i.e., a Bloom filter with one hash). A method can only match a pattern if it contains every type and run that the pattern requires, so a search first tests the masks and signatures of every method, which takes a few word operations each, and only runs the matcher over the instructions of the methods that pass. Since a signature may have false positives, but never false negatives, the filter never loses a match.
+ * <p>
+ * The masks and signatures are computed once, in parallel, when the index is built, and stored in flat <code>long</code> arrays indexed by the method numbers of the {@link ClassHierarchy}. Searches run the matcher over the candidate methods in parallel as well.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class BytecodeSearchIndex {
+
+	//the number of longs in an n-gram signature, i.e., 256 bits
+	static final int SIGNATURE_WORDS = 4;
+	private static final int SIGNATURE_BITS = SIGNATURE_WORDS * 64;
+
+	private final ClassHierarchy hierarchy;
+	//the instruction types of each method, as a mask of their ordinals, and its signature in the SIGNATURE_WORDS longs from method * SIGNATURE_WORDS
+	private final long[] methodTypes;
+	private final long[] methodGrams;
+
+	/**
+	 * Builds the search index of a program.
+	 *
+	 * @param hierarchy the class hierarchy of the program, whose methods are indexed
+	 */
+	public BytecodeSearchIndex(final ClassHierarchy hierarchy) {
+		this.hierarchy = hierarchy;
+		int methodCount = hierarchy.getMethodCount();
+		methodTypes = new long[methodCount];
+		methodGrams = new long[methodCount * SIGNATURE_WORDS];
+		//each class writes only the slots of its own methods
+		ParallelUtils.forEachIndex(hierarchy.getClassCount(), new ParallelUtils.IndexTask() {
+			@Override
+			public void run(int id) {
+				for (int method = hierarchy.getFirstMethod(id), end = hierarchy.getFirstMethod(id + 1); method < end; method++) {
+					computeSignature(method);
+				}
+			}
+		});
+	}
+
+	private void computeSignature(int method) {
+		JavaMethod javaMethod = hierarchy.getMethod(method);
+		if (javaMethod.code == null) {
+			return;
+		}
+		long types = 0;
+		long[] grams = new long[SIGNATURE_WORDS];
+		int beforePrevious = -1;
+		int previous = -1;
+		for (Opcode op : javaMethod.code.ops) {
+			if (op == null) {
+				continue;
+			}
+			int type = op.type.ordinal();
+			types |= 1L << type;
+			if (previous >= 0) {
+				addGram(grams, gramHash(-1, previous, type));
+				if (beforePrevious >= 0) {
+					addGram(grams, gramHash(beforePrevious, previous, type));
+				}
+			}
+			beforePrevious = previous;
+			previous = type;
+		}
+		methodTypes[method] = types;
+		System.arraycopy(grams, 0, methodGrams, method * SIGNATURE_WORDS, SIGNATURE_WORDS);
+	}
+
+	/**
+	 * Hashes a run of instruction types to a bit of a signature.
+	 *
+	 * @param first the ordinal of the first type of a run of three, or -1 for a run of two
+	 * @param second the ordinal of the type before the last
+	 * @param third the ordinal of the last type
+	 * @return the index of the bit of the run
+	 */
+	static int gramHash(int first, int second, int third) {
+		long key = ((long) (first + 1) << 16) | (second << 8) | third;
+		//fibonacci hashing spreads the keys, which differ only in their low bits, over the whole signature
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - Integer.numberOfTrailingZeros(SIGNATURE_BITS)));
+	}
+
+	static void addGram(long[] grams, int bit) {
+		grams[bit >>> 6] |= 1L << bit;
+	}
+
+	/**
+	 * Gets the class hierarchy that the index was built from, which numbers the methods of the matches.
+	 *
+	 * @return the class hierarchy of the program
+	 */
+	public ClassHierarchy getHierarchy() {
+		return hierarchy;
+	}
+
+	/**
+	 * Finds the methods that may match a pattern, i.e., the methods with code that contain every instruction type and run of types that the pattern requires.
+	 *
+	 * @param pattern the pattern to search for
+	 * @return the numbers of the candidate methods, in increasing order
+	 */
+	public int[] getCandidates(BytecodePattern pattern) {
+		long requiredTypes = pattern.getRequiredTypes();
+		long[] requiredGrams = pattern.getRequiredGrams();
+		int[] candidates = new int[16];
+		int count = 0;
+		methods: for (int method = 0; method < methodTypes.length; method++) {
+			//a method without code has no types, so a pattern that requires none still has to check for code
+			if ((methodTypes[method] & requiredTypes) != requiredTypes || hierarchy.getMethod(method).code == null) {
+				continue;
+			}
+			int offset = method * SIGNATURE_WORDS;
+			for (int word = 0; word < SIGNATURE_WORDS; word++) {
+				if ((methodGrams[offset + word] & requiredGrams[word]) != requiredGrams[word]) {
+					continue methods;
+				}
+			}
+			if (count == candidates.length) {
+				candidates = Arrays.copyOf(candidates, count * 2);
+			}
+			candidates[count++] = method;
+		}
+		return Arrays.copyOf(candidates, count);
+	}
+
+	/**
+	 * Searches every method of the program for a pattern.
+	 *
+	 * @param pattern the pattern to search for
+	 * @return the matches of the pattern, ordered by method and then by bci
+	 */
+	public List<BytecodeMatch> search(final BytecodePattern pattern) {
+		final int[] candidates = getCandidates(pattern);
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		final List<int[]>[] found = new List[candidates.length];
+		ParallelUtils.forEachIndex(candidates.length, new ParallelUtils.IndexTask() {
+			@Override
+			public void run(int index) {
+				found[index] = pattern.findMatches(hierarchy.getMethod(candidates[index]).code);
+			}
+		});
+		List<BytecodeMatch> matches = new ArrayList<>();
+		for (int i = 0; i < candidates.length; i++) {
+			for (int[] match : found[i]) {
+				matches.add(new BytecodeMatch(candidates[i], match[0], match[1]));
+			}
+		}
+		return matches;
+	}
+
+}
@@ -0,0 +1,340 @@
+package analysis.program;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import util.ParallelUtils;
+import classfile.ClassReference;
+import classfile.JavaMethod;
+import classfile.MethodReference;
+import classfile.code.opcodes.MethodInvocation;
+import classfile.code.opcodes.OpType;
+import classfile.code.opcodes.Opcode;
+
+/**
+ * The call graph of a whole program. Every method of the {@link ClassHierarchy} is a node, numbered as in the hierarchy, and every <code>invoke</code> instruction adds an edge from its method to each method it may run:
+ * <ul>
+ * <li>static and special calls run the method found by resolving the reference, so they have one target</li>
+ * <li>virtual and interface calls are resolved by class hierarchy analysis (CHA), i.e., they may run the method selected for every concrete subtype of the class named by the reference</li>
+ * <li>with rapid type analysis (RTA), the receiver of a virtual or interface call is further limited to the classes that the program instantiates somewhere</li>
+ * </ul>
+ * Calls of methods that aren't part of the program have no edges, and are only counted. The RTA here is the flow-insensitive, whole-program variant, which takes the classes instantiated by any method, rather than only by the methods reachable from some entry point, so that the graph covers libraries as well as applications.
+ * <p>
+ * The edges are stored in compressed sparse row form, in both directions: the callees of method <i>m</i> are <code>callees[calleeStarts[m]]</code> up to <code>callees[calleeStarts[m + 1]]</code>, with the bci of each call in the parallel <code>callSites</code> array, and the callers are stored the same way. The call sites are scanned in parallel, one class at a time, and the targets of each distinct virtual call are computed once and shared, so building the graph of a large classpath takes a few seconds.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class CallGraph {
+
+	private static final int[] NO_METHODS = new int[0];
+	//the cached targets of a call of a method that isn't part of the program, which is told apart from a call with no targets by identity
+	private static final int[] UNRESOLVED = new int[0];
+
+	private final ClassHierarchy hierarchy;
+	private final boolean rapidTypeAnalysis;
+	//the classes instantiated by the program, if rta is used
+	private final BitSet instantiated;
+	//the targets of each distinct call, shared between the threads building the graph
+	private final ConcurrentHashMap<MethodReference, int[]> virtualTargets = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<MethodReference, int[]> directTargets = new ConcurrentHashMap<>();
+	private final AtomicInteger unresolvedCount = new AtomicInteger();
+	private final int[] calleeStarts;
+	private final int[] callees;
+	private final int[] callSites;
+	private final int[] callerStarts;
+	private final int[] callers;
+
+	/**
+	 * Builds the call graph of a program with class hierarchy analysis.
+	 *
+	 * @param hierarchy the class hierarchy of the program
+	 */
+	public CallGraph(ClassHierarchy hierarchy) {
+		this(hierarchy, false);
+	}
+
+	/**
+	 * Builds the call graph of a program.
+	 *
+	 * @param hierarchy the class hierarchy of the program
+	 * @param rapidTypeAnalysis whether virtual calls are limited to the classes that the program instantiates
+	 */
+	public CallGraph(final ClassHierarchy hierarchy, boolean rapidTypeAnalysis) {
+		this.hierarchy = hierarchy;
+		this.rapidTypeAnalysis = rapidTypeAnalysis;
+		final int classCount = hierarchy.getClassCount();
+		int methodCount = hierarchy.getMethodCount();
+		instantiated = (rapidTypeAnalysis ? findInstantiatedClasses() : null);
+		//find the targets of the calls of each method in parallel, each method writing only its own slots
+		final int[][] methodCallees = new int[methodCount][];
+		final int[][] methodCallSites = new int[methodCount][];
+		ParallelUtils.forEachIndex(classCount, new ParallelUtils.IndexTask() {
+			@Override
+			public void run(int id) {
+				for (int node = hierarchy.getFirstMethod(id), end = hierarchy.getFirstMethod(id + 1); node < end; node++) {
+					scanCalls(node, methodCallees, methodCallSites);
+				}
+			}
+		});
+		calleeStarts = new int[methodCount + 1];
+		for (int node = 0; node < methodCount; node++) {
+			calleeStarts[node + 1] = calleeStarts[node] + methodCallees[node].length;
+		}
+		int edgeCount = calleeStarts[methodCount];
+		callees = new int[edgeCount];
+		callSites = new int[edgeCount];
+		for (int node = 0; node < methodCount; node++) {
+			System.arraycopy(methodCallees[node], 0, callees, calleeStarts[node], methodCallees[node].length);
+			System.arraycopy(methodCallSites[node], 0, callSites, calleeStarts[node], methodCallSites[node].length);
+		}
+		//invert the edges with a counting sort, so that the callers of each method come out in node order
+		callerStarts = new int[methodCount + 1];
+		for (int callee : callees) {
+			callerStarts[callee + 1]++;
+		}
+		for (int node = 0; node < methodCount; node++) {
+			callerStarts[node + 1] += callerStarts[node];
+		}
+		callers = new int[edgeCount];
+		int[] nextCaller = Arrays.copyOf(callerStarts, methodCount);
+		for (int node = 0; node < methodCount; node++) {
+			for (int edge = calleeStarts[node]; edge < calleeStarts[node + 1]; edge++) {
+				callers[nextCaller[callees[edge]]++] = node;
+			}
+		}
+	}
+
+	/**
+	 * Finds the classes instantiated by any method of the program.
+	 *
+	 * @return the set of the numbers of the instantiated classes
+	 */
+	private BitSet findInstantiatedClasses() {
+		BitSet instantiated = new BitSet(hierarchy.getClassCount());
+		for (int node = 0; node < hierarchy.getMethodCount(); node++) {
+			JavaMethod method = hierarchy.getMethod(node);
+			if (method.code == null) {
+				continue;
+			}
+			for (Opcode op : method.code.ops) {
+				if (op != null && op.type == OpType.NEW_OBJECT) {
+					int id = hierarchy.getId((ClassReference) op.data);
+					if (id >= 0) {
+						instantiated.set(id);
+					}
+				}
+			}
+		}
+		return instantiated;
+	}
+
+	/**
+	 * Finds the targets of every call made by a method.
+	 *
+	 * @param node the node of the method
+	 * @param methodCallees the targets of the calls of each method, which the targets of this method are stored in
+	 * @param methodCallSites the bcis of the calls of each method, parallel to <code>methodCallees</code>
+	 */
+	private void scanCalls(int node, int[][] methodCallees, int[][] methodCallSites) {
+		JavaMethod method = hierarchy.getMethod(node);
+		if (method.code == null) {
+			methodCallees[node] = NO_METHODS;
+			methodCallSites[node] = NO_METHODS;
+			return;
+		}
+		List<Opcode> ops = method.code.ops;
+		int[] targets = new int[16];
+		int[] sites = new int[16];
+		int edgeCount = 0;
+		for (int bci = 0; bci < ops.size(); bci++) {
+			Opcode op = ops.get(bci);
+			if (op == null || op.type != OpType.METHOD_INVOKE) {
+				continue;
+			}
+			MethodInvocation invocation = (MethodInvocation) op.data;
+			int[] callTargets;
+			switch (invocation.type) {
+			case VIRTUAL:
+			case INTERFACE:
+				callTargets = getVirtualTargets(invocation.method);
+				break;
+			default:
+				callTargets = getDirectTargets(invocation.method);
+				break;
+			}
+			if (callTargets == null) {
+				unresolvedCount.incrementAndGet();
+				continue;
+			}
+			if (edgeCount + callTargets.length > targets.length) {
+				int length = Math.max(targets.length * 2, edgeCount + callTargets.length);
+				targets = Arrays.copyOf(targets, length);
+				sites = Arrays.copyOf(sites, length);
+			}
+			for (int target : callTargets) {
+				targets[edgeCount] = target;
+				sites[edgeCount++] = bci;
+			}
+		}
+		methodCallees[node] = Arrays.copyOf(targets, edgeCount);
+		methodCallSites[node] = Arrays.copyOf(sites, edgeCount);
+	}
+
+	/**
+	 * Gets the target of a static or special call, which is the method that the reference resolves to.
+	 *
+	 * @param method the method called
+	 * @return the node of the target, in an array of one, or <code>null</code> if the method isn't part of the program
+	 */
+	private int[] getDirectTargets(MethodReference method) {
+		int[] targets = directTargets.get(method);
+		if (targets == null) {
+			int target = hierarchy.resolveMethod(method);
+			targets = (target >= 0 ? new int[] { target } : UNRESOLVED);
+			//another thread may have computed the same targets in the meantime, which is harmless
+			directTargets.putIfAbsent(method, targets);
+		}
+		return (targets != UNRESOLVED ? targets : null);
+	}
+
+	/**
+	 * Gets the targets of a virtual or interface call, which are the methods selected for every concrete subtype of the class named by the reference (that is instantiated, with rta), unless the reference resolves to a private method, which is called directly.
+	 *
+	 * @param method the method called
+	 * @return the nodes of the targets, sorted, or <code>null</code> if the method isn't part of the program
+	 */
+	private int[] getVirtualTargets(MethodReference method) {
+		int[] targets = virtualTargets.get(method);
+		if (targets == null) {
+			int id = hierarchy.getId(method.enclosingClass);
+			int signature = hierarchy.getSignature(method);
+			int resolved = hierarchy.resolveMethod(method);
+			if (id < 0 || signature < 0) {
+				targets = UNRESOLVED;
+			} else if (resolved >= 0 && hierarchy.getMethod(resolved).flags.isPrivate) {
+				//a private method overrides nothing and is never overridden, so the jvm invokes the resolved method itself, whatever the class of the receiver
+				targets = new int[] { resolved };
+			} else {
+				BitSet receivers = hierarchy.getAllSubtypes(id);
+				if (instantiated != null) {
+					receivers.and(instantiated);
+				}
+				BitSet selected = new BitSet();
+				for (int receiver = receivers.nextSetBit(0); receiver >= 0; receiver = receivers.nextSetBit(receiver + 1)) {
+					if (hierarchy.isConcrete(receiver)) {
+						int target = hierarchy.selectMethod(receiver, signature);
+						if (target >= 0) {
+							selected.set(target);
+						}
+					}
+				}
+				targets = new int[selected.cardinality()];
+				for (int target = selected.nextSetBit(0), i = 0; target >= 0; target = selected.nextSetBit(target + 1)) {
+					targets[i++] = target;
+				}
+			}
+			virtualTargets.putIfAbsent(method, targets);
+		}
+		return (targets != UNRESOLVED ? targets : null);
+	}
+
+	/**
+	 * Gets the class hierarchy that the graph was built from.
+	 *
+	 * @return the class hierarchy of the program
+	 */
+	public ClassHierarchy getHierarchy() {
+		return hierarchy;
+	}
+
+	/**
+	 * Determines whether virtual calls were limited by rapid type analysis.
+	 *
+	 * @return whether rta was used
+	 */
+	public boolean isRapidTypeAnalysis() {
+		return rapidTypeAnalysis;
+	}
+
+	/**
+	 * Gets the number of methods in the graph.
+	 *
+	 * @return the number of nodes
+	 */
+	public int getMethodCount() {
+		return hierarchy.getMethodCount();
+	}
+
+	/**
+	 * Gets the number of edges in the graph, counting a call with several targets once per target.
+	 *
+	 * @return the number of edges
+	 */
+	public int getEdgeCount() {
+		return callees.length;
+	}
+
+	/**
+	 * Gets the number of calls of methods that aren't part of the program, which have no edges.
+	 *
+	 * @return the number of unresolved call sites
+	 */
+	public int getUnresolvedCount() {
+		return unresolvedCount.get();
+	}
+
+	/**
+	 * Gets the method of a node.
+	 *
+	 * @param node the node
+	 * @return the method of <code>node</code>
+	 */
+	public JavaMethod getMethod(int node) {
+		return hierarchy.getMethod(node);
+	}
+
+	/**
+	 * Gets the node of a method.
+	 *
+	 * @param method the reference to the method, which must name the class declaring it
+	 * @return the node of the method, or -1 if it isn't part of the program
+	 */
+	public int getNode(MethodReference method) {
+		return hierarchy.getMethodId(method);
+	}
+
+	/**
+	 * Gets the methods that a method may call.
+	 *
+	 * @param node the node of the caller
+	 * @return the nodes of the callees, once per call site and target, in the order of the call sites
+	 */
+	public int[] getCallees(int node) {
+		return Arrays.copyOfRange(callees, calleeStarts[node], calleeStarts[node + 1]);
+	}
+
+	/**
+	 * Gets the call sites of the edges leaving a method.
+	 *
+	 * @param node the node of the caller
+	 * @return the bci of the call of each callee returned by {@link #getCallees(int)}, in the same order
+	 */
+	public int[] getCallSites(int node) {
+		return Arrays.copyOfRange(callSites, calleeStarts[node], calleeStarts[node + 1]);
+	}
+
+	/**
+	 * Gets the methods that may call a method.
+	 *
+	 * @param node the node of the callee
+	 * @return the nodes of the callers, once per call site, in increasing order
+	 */
+	public int[] getCallers(int node) {
+		return Arrays.copyOfRange(callers, callerStarts[node], callerStarts[node + 1]);
+	}
+
+}
@@ -0,0 +1,447 @@
+package analysis.program;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import classfile.ClassReference;
+import classfile.JavaClass;
+import classfile.JavaMethod;
+import classfile.MethodReference;
+
+/**
+ * The class hierarchy of a whole program, i.e., a set of loaded classes. Classes are numbered densely in the order they are given, and the superclass, the interfaces, and the direct subtypes of each class are stored as <code>int</code> arrays of class numbers, so that walking the hierarchy never touches a map. Supertypes that aren't part of the program (e.g., library classes that weren't loaded) are simply left out.
+ * <p>
+ * The methods of the program are numbered as well, in the order of their classes, so that the methods of each class are numbered contiguously. Each distinct signature (i.e., name and descriptor) is also given a number, and the method declared by a class with a given signature is found with a single lookup of the pair, so that method lookups along the hierarchy don't have to compare any names or descriptors. Lookups follow the resolution and selection rules of the JVM specification, except that access checks are ignored, since a valid program has already passed them.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class ClassHierarchy {
+
+	private static final int[] NO_CLASSES = new int[0];
+
+	private final JavaClass[] classes;
+	private final Map<ClassReference, Integer> classIds;
+	//the superclass of each class, or -1 if it has none in the program
+	private final int[] superclasses;
+	//the direct superinterfaces and direct subtypes of each class
+	private final int[][] interfaces;
+	private final int[][] subtypes;
+	//the methods, with the methods of class c numbered from classMethodStarts[c] up to classMethodStarts[c + 1]
+	private final JavaMethod[] methods;
+	private final int[] classMethodStarts;
+	private final int[] methodClasses;
+	private final Map<MethodReference, Integer> methodIds;
+	//the signature of each method, and the number of each signature, keyed by a reference without an enclosing class
+	private final int[] methodSignatures;
+	private final Map<MethodReference, Integer> signatureIds = new HashMap<>();
+	//an open addressing table of the method declared by each class with each signature, keyed by the class number in the high half and the signature number in the low half, which avoids boxing a key for every lookup
+	private final long[] declaredKeys;
+	private final int[] declaredMethods;
+	private final int declaredShift;
+	//the scratch space of interface searches, kept per thread since the hierarchy is queried from many threads at once, and reused so that a search only costs as much as the interfaces it visits
+	private final ThreadLocal<InterfaceSearch> interfaceSearches = new ThreadLocal<InterfaceSearch>() {
+		@Override
+		protected InterfaceSearch initialValue() {
+			return new InterfaceSearch();
+		}
+	};
+
+	/**
+	 * Builds the hierarchy of a set of classes. If several classes have the same name, the first one is used.
+	 *
+	 * @param program the classes of the program
+	 */
+	public ClassHierarchy(Collection<JavaClass> program) {
+		List<JavaClass> unique = new ArrayList<>(program.size());
+		classIds = new HashMap<>(program.size() * 2);
+		for (JavaClass clazz : program) {
+			if (!classIds.containsKey(clazz.thisType)) {
+				classIds.put(clazz.thisType, unique.size());
+				unique.add(clazz);
+			}
+		}
+		int classCount = unique.size();
+		classes = unique.toArray(new JavaClass[classCount]);
+		superclasses = new int[classCount];
+		interfaces = new int[classCount][];
+		int[] subtypeCounts = new int[classCount];
+		for (int id = 0; id < classCount; id++) {
+			JavaClass clazz = classes[id];
+			superclasses[id] = getId(clazz.superType);
+			if (superclasses[id] >= 0) {
+				subtypeCounts[superclasses[id]]++;
+			}
+			int[] implemented = new int[clazz.interfaces.size()];
+			int implementedCount = 0;
+			for (ClassReference implementedType : clazz.interfaces) {
+				int implementedId = getId(implementedType);
+				if (implementedId >= 0) {
+					implemented[implementedCount++] = implementedId;
+					subtypeCounts[implementedId]++;
+				}
+			}
+			interfaces[id] = (implementedCount > 0 ? Arrays.copyOf(implemented, implementedCount) : NO_CLASSES);
+		}
+		subtypes = new int[classCount][];
+		for (int id = 0; id < classCount; id++) {
+			subtypes[id] = (subtypeCounts[id] > 0 ? new int[subtypeCounts[id]] : NO_CLASSES);
+			subtypeCounts[id] = 0;
+		}
+		for (int id = 0; id < classCount; id++) {
+			if (superclasses[id] >= 0) {
+				subtypes[superclasses[id]][subtypeCounts[superclasses[id]]++] = id;
+			}
+			for (int implementedId : interfaces[id]) {
+				subtypes[implementedId][subtypeCounts[implementedId]++] = id;
+			}
+		}
+		//number the methods and their signatures
+		classMethodStarts = new int[classCount + 1];
+		for (int id = 0; id < classCount; id++) {
+			classMethodStarts[id + 1] = classMethodStarts[id] + classes[id].methods.size();
+		}
+		int methodCount = classMethodStarts[classCount];
+		methods = new JavaMethod[methodCount];
+		methodClasses = new int[methodCount];
+		methodSignatures = new int[methodCount];
+		methodIds = new HashMap<>(methodCount * 2);
+		//keep the table at most half full, so that probe sequences stay short
+		int tableBits = 32 - Integer.numberOfLeadingZeros(Math.max(methodCount * 2 - 1, 1));
+		declaredShift = 64 - tableBits;
+		declaredKeys = new long[1 << tableBits];
+		declaredMethods = new int[1 << tableBits];
+		Arrays.fill(declaredMethods, -1);
+		for (int id = 0; id < classCount; id++) {
+			int methodId = classMethodStarts[id];
+			for (JavaMethod method : classes[id].methods.values()) {
+				MethodReference signature = toSignature(method.reference);
+				Integer signatureId = signatureIds.get(signature);
+				if (signatureId == null) {
+					signatureId = signatureIds.size();
+					signatureIds.put(signature, signatureId);
+				}
+				methods[methodId] = method;
+				methodClasses[methodId] = id;
+				methodSignatures[methodId] = signatureId;
+				methodIds.put(method.reference, methodId);
+				long key = key(id, signatureId);
+				int slot = slot(key);
+				while (declaredMethods[slot] >= 0 && declaredKeys[slot] != key) {
+					slot = (slot + 1) & (declaredKeys.length - 1);
+				}
+				declaredKeys[slot] = key;
+				declaredMethods[slot] = methodId;
+				methodId++;
+			}
+		}
+	}
+
+	private static MethodReference toSignature(MethodReference method) {
+		return new MethodReference(null, method.name, method.argTypes, method.returnType);
+	}
+
+	private static long key(int id, int signature) {
+		return ((long) id << 32) | signature;
+	}
+
+	private int slot(long key) {
+		//fibonacci hashing spreads the keys, which differ mostly in their low bits, over the whole table
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> declaredShift);
+	}
+
+	/**
+	 * Gets the number of classes in the program.
+	 *
+	 * @return the number of classes
+	 */
+	public int getClassCount() {
+		return classes.length;
+	}
+
+	/**
+	 * Gets a class by its number.
+	 *
+	 * @param id the number of the class
+	 * @return the class numbered <code>id</code>
+	 */
+	public JavaClass getClass(int id) {
+		return classes[id];
+	}
+
+	/**
+	 * Gets the number of a class. Array types are numbered as <code>java.lang.Object</code>, since that is where their methods are found.
+	 *
+	 * @param type the type of the class
+	 * @return the number of the class, or -1 if it isn't part of the program
+	 */
+	public int getId(ClassReference type) {
+		if (type == null) {
+			return -1;
+		}
+		Integer id = classIds.get(type.arrayDimension > 0 ? ClassReference.OBJECT : type);
+		return (id != null ? id : -1);
+	}
+
+	/**
+	 * Gets the superclass of a class.
+	 *
+	 * @param id the number of the class
+	 * @return the number of the superclass, or -1 if the class has no superclass in the program
+	 */
+	public int getSuperclass(int id) {
+		return superclasses[id];
+	}
+
+	/**
+	 * Gets the interfaces that a class directly implements, or that an interface directly extends.
+	 *
+	 * @param id the number of the class
+	 * @return the numbers of the direct superinterfaces that are part of the program
+	 */
+	public int[] getInterfaces(int id) {
+		return interfaces[id].clone();
+	}
+
+	/**
+	 * Gets the classes that directly extend a class or implement an interface, and the interfaces that directly extend an interface.
+	 *
+	 * @param id the number of the class
+	 * @return the numbers of the direct subtypes of the class
+	 */
+	public int[] getSubtypes(int id) {
+		return subtypes[id].clone();
+	}
+
+	/**
+	 * Gets every subtype of a class, including the class itself.
+	 *
+	 * @param id the number of the class
+	 * @return the set of the numbers of the subtypes of the class
+	 */
+	public BitSet getAllSubtypes(int id) {
+		BitSet visited = new BitSet(classes.length);
+		int[] stack = new int[16];
+		int size = 0;
+		stack[size++] = id;
+		visited.set(id);
+		while (size > 0) {
+			for (int subtype : subtypes[stack[--size]]) {
+				//interfaces make the hierarchy a dag, so a subtype can be reached more than once
+				if (!visited.get(subtype)) {
+					visited.set(subtype);
+					if (size == stack.length) {
+						stack = Arrays.copyOf(stack, size * 2);
+					}
+					stack[size++] = subtype;
+				}
+			}
+		}
+		return visited;
+	}
+
+	/**
+	 * Determines whether a class can have instances of its own, i.e., whether it is neither an interface nor abstract.
+	 *
+	 * @param id the number of the class
+	 * @return whether the class is concrete
+	 */
+	public boolean isConcrete(int id) {
+		return !classes[id].flags.isInterface && !classes[id].flags.isAbstract;
+	}
+
+	/**
+	 * Gets the number of methods declared by the classes of the program.
+	 *
+	 * @return the number of methods
+	 */
+	public int getMethodCount() {
+		return methods.length;
+	}
+
+	/**
+	 * Gets a method by its number.
+	 *
+	 * @param methodId the number of the method
+	 * @return the method numbered <code>methodId</code>
+	 */
+	public JavaMethod getMethod(int methodId) {
+		return methods[methodId];
+	}
+
+	/**
+	 * Gets the number of a method.
+	 *
+	 * @param method the reference to the method, which must name the class declaring it
+	 * @return the number of the method, or -1 if it isn't part of the program
+	 */
+	public int getMethodId(MethodReference method) {
+		Integer methodId = methodIds.get(method);
+		return (methodId != null ? methodId : -1);
+	}
+
+	/**
+	 * Gets the first method declared by a class. The methods of each class are numbered contiguously, so they run up to, but not including, the first method of the next class.
+	 *
+	 * @param id the number of the class
+	 * @return the number of the first method of the class
+	 */
+	public int getFirstMethod(int id) {
+		return classMethodStarts[id];
+	}
+
+	/**
+	 * Gets the class that declares a method.
+	 *
+	 * @param methodId the number of the method
+	 * @return the number of the declaring class
+	 */
+	public int getDeclaringClass(int methodId) {
+		return methodClasses[methodId];
+	}
+
+	/**
+	 * Gets the signature of a method, i.e., the number given to its name and descriptor.
+	 *
+	 * @param methodId the number of the method
+	 * @return the signature of the method
+	 */
+	public int getSignature(int methodId) {
+		return methodSignatures[methodId];
+	}
+
+	/**
+	 * Gets the signature of a method reference.
+	 *
+	 * @param method the method reference, whose enclosing class is ignored
+	 * @return the number of the name and descriptor of the method, or -1 if no class of the program declares a method with them
+	 */
+	public int getSignature(MethodReference method) {
+		Integer signatureId = signatureIds.get(toSignature(method));
+		return (signatureId != null ? signatureId : -1);
+	}
+
+	/**
+	 * Finds the method declared by a class with a given signature.
+	 *
+	 * @param id the number of the class
+	 * @param signature the signature of the method
+	 * @return the number of the method, or -1 if the class doesn't declare one
+	 */
+	public int getDeclaredMethod(int id, int signature) {
+		long key = key(id, signature);
+		for (int slot = slot(key); declaredMethods[slot] >= 0; slot = (slot + 1) & (declaredKeys.length - 1)) {
+			if (declaredKeys[slot] == key) {
+				return declaredMethods[slot];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Resolves a method reference the way the JVM does for an invoke instruction: the class named by the reference and its superclasses are searched first, and then its superinterfaces.
+	 *
+	 * @param method the method reference to resolve
+	 * @return the number of the resolved method, or -1 if the method can't be found in the program
+	 */
+	public int resolveMethod(MethodReference method) {
+		int id = getId(method.enclosingClass);
+		int signature = getSignature(method);
+		if (id < 0 || signature < 0) {
+			return -1;
+		}
+		for (int current = id; current >= 0; current = superclasses[current]) {
+			int declared = getDeclaredMethod(current, signature);
+			if (declared >= 0) {
+				return declared;
+			}
+		}
+		return findInterfaceMethod(id, signature, false);
+	}
+
+	/**
+	 * Selects the method that a virtual or interface call runs when the receiver is an instance of a given class: the first declaration in the class or its superclasses that is neither static nor private, since neither can override anything, or else a default method of one of its superinterfaces.
+	 *
+	 * @param id the number of the class of the receiver
+	 * @param signature the signature of the method called
+	 * @return the number of the selected method, or -1 if there is none, or if the selected method is abstract
+	 */
+	public int selectMethod(int id, int signature) {
+		for (int current = id; current >= 0; current = superclasses[current]) {
+			int declared = getDeclaredMethod(current, signature);
+			if (declared >= 0 && !methods[declared].flags.isStatic && !methods[declared].flags.isPrivate) {
+				return (methods[declared].flags.isAbstract ? -1 : declared);
+			}
+		}
+		return findInterfaceMethod(id, signature, true);
+	}
+
+	/**
+	 * Searches the superinterfaces of a class, and of its superclasses, for a method, breadth first, so that the most specific interfaces are searched first.
+	 *
+	 * @param id the number of the class
+	 * @param signature the signature of the method
+	 * @param concreteOnly whether only default methods are wanted
+	 * @return the number of the method found, or -1 if there is none
+	 */
+	private int findInterfaceMethod(int id, int signature, boolean concreteOnly) {
+		InterfaceSearch search = interfaceSearches.get();
+		for (int current = id; current >= 0; current = superclasses[current]) {
+			for (int implemented : interfaces[current]) {
+				search.add(implemented);
+			}
+		}
+		int found = -1;
+		for (int i = 0; i < search.size; i++) {
+			int current = search.queue[i];
+			int declared = getDeclaredMethod(current, signature);
+			if (declared >= 0) {
+				JavaMethod method = methods[declared];
+				if (!method.flags.isStatic && !method.flags.isPrivate && (!concreteOnly || !method.flags.isAbstract)) {
+					found = declared;
+					break;
+				}
+			}
+			for (int implemented : interfaces[current]) {
+				search.add(implemented);
+			}
+		}
+		search.clear();
+		return found;
+	}
+
+	/**
+	 * The queue of a breadth first search of interfaces, which queues every interface at most once.
+	 */
+	private static final class InterfaceSearch {
+
+		final BitSet visited = new BitSet();
+		int[] queue = new int[16];
+		int size;
+
+		void add(int id) {
+			if (!visited.get(id)) {
+				visited.set(id);
+				if (size == queue.length) {
+					queue = Arrays.copyOf(queue, size * 2);
+				}
+				queue[size++] = id;
+			}
+		}
+
+		//only the bits of the queued interfaces are set, so clearing them is cheaper than clearing the whole set
+		void clear() {
+			for (int i = 0; i < size; i++) {
+				visited.clear(queue[i]);
+			}
+			size = 0;
+		}
+
+	}
+
+}
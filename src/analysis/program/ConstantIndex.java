@@ -0,0 +1,497 @@
+package analysis.program;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import util.BufferUtils;
+import util.ParallelUtils;
+import classfile.ClassFormatException;
+import classfile.ClassReference;
+import classfile.constant.ConstantType;
+import classfile.struct.ClassStruct;
+import classfile.struct.ConstantEntryStruct;
+
+/**
+ * An inverted index of the string and numeric constants of a set of class files, which maps each <code>CONSTANT_String</code>, <code>CONSTANT_Integer</code>, <code>CONSTANT_Long</code>, <code>CONSTANT_Float</code> and <code>CONSTANT_Double</code> value to the classes whose constant pools contain it. Only the constant pool of each class file is read, with {@link ClassStruct#readConstantPool(ByteBuffer)}, and only the entries that are indexed are decoded, so indexing a large classpath costs little more than reading its files, and the files are read in parallel.
+ * <p>
+ * The values of each type are kept sorted, with the classes of the value at index <i>i</i> stored from <code>starts[i]</code> up to <code>starts[i + 1]</code>, so that an exact, prefix or range query is a binary search followed by a scan of the matching values. Floating point values are kept by a <code>long</code> key that sorts the same way as the values themselves, with the sign bit of negative values flipped (a float is widened to a double first, which is exact). An index can be saved to a file and loaded again, to avoid reading the class files on every run.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class ConstantIndex {
+
+	//the first int of a saved index, and the version of its format
+	private static final int MAGIC = 0x434F4E53;
+	private static final int VERSION = 1;
+	//the constant types of the numeric tables, in order
+	private static final ConstantType[] NUMBER_TYPES = { ConstantType.INTEGER, ConstantType.LONG, ConstantType.FLOAT, ConstantType.DOUBLE };
+
+	private final ClassReference[] classes;
+	private final String[] strings;
+	private final Postings stringPostings;
+	//the sorted keys of each numeric type, indexed as in NUMBER_TYPES
+	private final long[][] numbers;
+	private final Postings[] numberPostings;
+
+	/**
+	 * Builds the constant index of a set of class files. Files that can't be read or aren't valid class files are skipped.
+	 *
+	 * @param classFiles the paths of the class files, e.g., from {@link classfile.ClassStore#getClassFiles()}
+	 */
+	public ConstantIndex(final List<Path> classFiles) {
+		//read the constant pool of each file in parallel, each file writing only its own slot
+		final ClassConstants[] scanned = new ClassConstants[classFiles.size()];
+		ParallelUtils.forEachIndex(scanned.length, new ParallelUtils.IndexTask() {
+			@Override
+			public void run(int index) {
+				try {
+					scanned[index] = scanClass(classFiles.get(index));
+				} catch (IOException e) {
+					e.printStackTrace();
+				} catch (ClassFormatException e) {
+					//a broken class shouldn't stop the rest of the files from being indexed
+				}
+			}
+		});
+		List<ClassReference> classList = new ArrayList<>(scanned.length);
+		for (ClassConstants constants : scanned) {
+			if (constants != null) {
+				classList.add(constants.type);
+			}
+		}
+		classes = classList.toArray(new ClassReference[classList.size()]);
+		//number the distinct values in the order they're found, pairing each number with the class it's found in
+		Map<String, Integer> stringIds = new HashMap<>();
+		List<Map<Long, Integer>> numberIds = new ArrayList<>();
+		for (int type = 0; type < NUMBER_TYPES.length; type++) {
+			numberIds.add(new HashMap<Long, Integer>());
+		}
+		PairList stringPairs = new PairList();
+		PairList[] numberPairs = new PairList[NUMBER_TYPES.length];
+		for (int type = 0; type < NUMBER_TYPES.length; type++) {
+			numberPairs[type] = new PairList();
+		}
+		int classId = 0;
+		for (ClassConstants constants : scanned) {
+			if (constants == null) {
+				continue;
+			}
+			for (String value : constants.strings) {
+				Integer id = stringIds.get(value);
+				if (id == null) {
+					id = stringIds.size();
+					stringIds.put(value, id);
+				}
+				stringPairs.add(id, classId);
+			}
+			for (int i = 0; i < constants.numberCount; i++) {
+				Map<Long, Integer> ids = numberIds.get(constants.numberTypes[i]);
+				Integer id = ids.get(constants.numbers[i]);
+				if (id == null) {
+					id = ids.size();
+					ids.put(constants.numbers[i], id);
+				}
+				numberPairs[constants.numberTypes[i]].add(id, classId);
+			}
+			classId++;
+		}
+		//then sort the values, and renumber the pairs by the sorted order
+		strings = stringIds.keySet().toArray(new String[stringIds.size()]);
+		Arrays.sort(strings);
+		int[] stringRanks = new int[strings.length];
+		for (int rank = 0; rank < strings.length; rank++) {
+			stringRanks[stringIds.get(strings[rank])] = rank;
+		}
+		stringPostings = new Postings(strings.length, stringPairs, stringRanks);
+		numbers = new long[NUMBER_TYPES.length][];
+		numberPostings = new Postings[NUMBER_TYPES.length];
+		for (int type = 0; type < NUMBER_TYPES.length; type++) {
+			Map<Long, Integer> ids = numberIds.get(type);
+			long[] keys = new long[ids.size()];
+			int i = 0;
+			for (Long key : ids.keySet()) {
+				keys[i++] = key;
+			}
+			Arrays.sort(keys);
+			int[] ranks = new int[keys.length];
+			for (int rank = 0; rank < keys.length; rank++) {
+				ranks[ids.get(keys[rank])] = rank;
+			}
+			numbers[type] = keys;
+			numberPostings[type] = new Postings(keys.length, numberPairs[type], ranks);
+		}
+	}
+
+	private ConstantIndex(ClassReference[] classes, String[] strings, Postings stringPostings, long[][] numbers, Postings[] numberPostings) {
+		this.classes = classes;
+		this.strings = strings;
+		this.stringPostings = stringPostings;
+		this.numbers = numbers;
+		this.numberPostings = numberPostings;
+	}
+
+	/**
+	 * Reads the indexed constants of a class file.
+	 *
+	 * @param file the path of the class file
+	 * @return the name of the class and its constants
+	 * @throws IOException if the file can't be read
+	 */
+	private static ClassConstants scanClass(Path file) throws IOException {
+		ClassStruct struct = new ClassStruct().readConstantPool(ByteBuffer.wrap(Files.readAllBytes(file)));
+		ConstantEntryStruct[] pool = struct.constantPool;
+		ClassConstants constants = new ClassConstants();
+		constants.type = ClassReference.fromConstant(getUTF8(pool, pool[struct.thisClass].info.getShort(0) & 0xFFFF));
+		for (int i = 1; i < pool.length; i++) {
+			if (pool[i] == null) {
+				continue;
+			}
+			//the info buffers are read with absolute gets, since they're shared with the rest of the struct
+			ByteBuffer info = pool[i].info;
+			switch (pool[i].tag) {
+			case ConstantEntryStruct.STRING:
+				constants.strings.add(getUTF8(pool, info.getShort(0) & 0xFFFF));
+				break;
+			case ConstantEntryStruct.INTEGER:
+				constants.addNumber(0, info.getInt(0));
+				break;
+			case ConstantEntryStruct.LONG:
+				constants.addNumber(1, info.getLong(0));
+				break;
+			case ConstantEntryStruct.FLOAT:
+				constants.addNumber(2, toKey(info.getFloat(0)));
+				break;
+			case ConstantEntryStruct.DOUBLE:
+				constants.addNumber(3, toKey(info.getDouble(0)));
+				break;
+			default:
+				break;
+			}
+		}
+		return constants;
+	}
+
+	private static String getUTF8(ConstantEntryStruct[] pool, int index) {
+		if (index <= 0 || index >= pool.length || pool[index] == null || pool[index].tag != ConstantEntryStruct.UTF8) {
+			throw new ClassFormatException("Invalid UTF8 constant index " + index + "!");
+		}
+		return BufferUtils.getModifiedUTF8(pool[index].info.duplicate());
+	}
+
+	/**
+	 * Converts a floating point value to a key that sorts in the same order as the value. The bits of a positive value already sort in order, so only the bits below the sign of a negative value are flipped. Every NaN is converted to the same key, which is greater than the key of positive infinity.
+	 *
+	 * @param value the value to convert
+	 * @return the key of <code>value</code>
+	 */
+	private static long toKey(double value) {
+		long bits = Double.doubleToLongBits(value);
+		return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+	}
+
+	private static int getNumberType(ConstantType type) {
+		for (int i = 0; i < NUMBER_TYPES.length; i++) {
+			if (NUMBER_TYPES[i] == type) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Constants of type " + type + " aren't numbers!");
+	}
+
+	/**
+	 * Gets the number of classes in the index.
+	 *
+	 * @return the number of indexed classes
+	 */
+	public int getClassCount() {
+		return classes.length;
+	}
+
+	/**
+	 * Gets the number of distinct values of a type in the index.
+	 *
+	 * @param type the type of constant, which is {@link ConstantType#STRING} or one of the numeric types
+	 * @return the number of distinct values of <code>type</code>
+	 */
+	public int getValueCount(ConstantType type) {
+		return (type == ConstantType.STRING ? strings.length : numbers[getNumberType(type)].length);
+	}
+
+	/**
+	 * Finds the classes that contain a string constant.
+	 *
+	 * @param value the value of the string
+	 * @return the classes containing <code>value</code>
+	 */
+	public List<ClassReference> findString(String value) {
+		int index = Arrays.binarySearch(strings, value);
+		return (index >= 0 ? findClasses(stringPostings, index, index + 1) : new ArrayList<ClassReference>());
+	}
+
+	/**
+	 * Finds the classes that contain a string constant starting with a prefix.
+	 *
+	 * @param prefix the prefix of the strings
+	 * @return the classes containing a string that starts with <code>prefix</code>
+	 */
+	public List<ClassReference> findStringPrefix(String prefix) {
+		int start = Arrays.binarySearch(strings, prefix);
+		if (start < 0) {
+			start = -start - 1;
+		}
+		int end = start;
+		while (end < strings.length && strings[end].startsWith(prefix)) {
+			end++;
+		}
+		return findClasses(stringPostings, start, end);
+	}
+
+	/**
+	 * Finds the classes that contain an integral constant in a range.
+	 *
+	 * @param type the type of constant, which is {@link ConstantType#INTEGER} or {@link ConstantType#LONG}
+	 * @param min the least value in the range
+	 * @param max the greatest value in the range
+	 * @return the classes containing a value of <code>type</code> from <code>min</code> to <code>max</code>, inclusive
+	 */
+	public List<ClassReference> findNumberRange(ConstantType type, long min, long max) {
+		if (type != ConstantType.INTEGER && type != ConstantType.LONG) {
+			throw new IllegalArgumentException("Constants of type " + type + " aren't integral!");
+		}
+		return findKeyRange(getNumberType(type), min, max);
+	}
+
+	/**
+	 * Finds the classes that contain a floating point constant in a range.
+	 *
+	 * @param type the type of constant, which is {@link ConstantType#FLOAT} or {@link ConstantType#DOUBLE}
+	 * @param min the least value in the range
+	 * @param max the greatest value in the range
+	 * @return the classes containing a value of <code>type</code> from <code>min</code> to <code>max</code>, inclusive, where NaN is greater than positive infinity
+	 */
+	public List<ClassReference> findNumberRange(ConstantType type, double min, double max) {
+		if (type != ConstantType.FLOAT && type != ConstantType.DOUBLE) {
+			throw new IllegalArgumentException("Constants of type " + type + " aren't floating point!");
+		}
+		return findKeyRange(getNumberType(type), toKey(min), toKey(max));
+	}
+
+	private List<ClassReference> findKeyRange(int type, long min, long max) {
+		long[] keys = numbers[type];
+		int start = lowerBound(keys, min);
+		int end = (max == Long.MAX_VALUE ? keys.length : lowerBound(keys, max + 1));
+		return findClasses(numberPostings[type], start, Math.max(start, end));
+	}
+
+	private static int lowerBound(long[] keys, long key) {
+		int index = Arrays.binarySearch(keys, key);
+		return (index >= 0 ? index : -index - 1);
+	}
+
+	/**
+	 * Gets the classes of a range of values, without repeating a class that contains several of them.
+	 *
+	 * @param postings the postings of the values
+	 * @param start the index of the first value
+	 * @param end the index after the last value
+	 * @return the classes containing any of the values, in the order they were indexed
+	 */
+	private List<ClassReference> findClasses(Postings postings, int start, int end) {
+		BitSet found = new BitSet(classes.length);
+		for (int i = postings.starts[start]; i < postings.starts[end]; i++) {
+			found.set(postings.classes[i]);
+		}
+		List<ClassReference> result = new ArrayList<>(found.cardinality());
+		for (int id = found.nextSetBit(0); id >= 0; id = found.nextSetBit(id + 1)) {
+			result.add(classes[id]);
+		}
+		return result;
+	}
+
+	/**
+	 * Saves the index to a file, which can be loaded again with {@link #load(Path)}.
+	 *
+	 * @param file the path of the file to write
+	 * @throws IOException if the file can't be written
+	 */
+	public void save(Path file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(classes.length);
+			for (ClassReference clazz : classes) {
+				out.writeUTF(clazz.className);
+			}
+			//a string constant is at most 65535 bytes of modified UTF-8, which is exactly what writeUTF allows
+			out.writeInt(strings.length);
+			for (String value : strings) {
+				out.writeUTF(value);
+			}
+			stringPostings.write(out);
+			for (int type = 0; type < NUMBER_TYPES.length; type++) {
+				out.writeInt(numbers[type].length);
+				for (long key : numbers[type]) {
+					out.writeLong(key);
+				}
+				numberPostings[type].write(out);
+			}
+		}
+	}
+
+	/**
+	 * Loads an index saved by {@link #save(Path)}.
+	 *
+	 * @param file the path of the file to read
+	 * @return the loaded index
+	 * @throws IOException if the file can't be read, or doesn't hold an index in the current format
+	 */
+	public static ConstantIndex load(Path file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a constant index: " + file);
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported constant index version " + version + ": " + file);
+			}
+			ClassReference[] classes = new ClassReference[in.readInt()];
+			for (int i = 0; i < classes.length; i++) {
+				classes[i] = ClassReference.fromName(in.readUTF());
+			}
+			String[] strings = new String[in.readInt()];
+			for (int i = 0; i < strings.length; i++) {
+				strings[i] = in.readUTF();
+			}
+			Postings stringPostings = Postings.read(in, strings.length);
+			long[][] numbers = new long[NUMBER_TYPES.length][];
+			Postings[] numberPostings = new Postings[NUMBER_TYPES.length];
+			for (int type = 0; type < NUMBER_TYPES.length; type++) {
+				numbers[type] = new long[in.readInt()];
+				for (int i = 0; i < numbers[type].length; i++) {
+					numbers[type][i] = in.readLong();
+				}
+				numberPostings[type] = Postings.read(in, numbers[type].length);
+			}
+			return new ConstantIndex(classes, strings, stringPostings, numbers, numberPostings);
+		}
+	}
+
+	/**
+	 * The indexed constants of one class file.
+	 */
+	private static class ClassConstants {
+
+		public ClassReference type;
+		public List<String> strings = new ArrayList<>();
+		//each numeric value is stored as a key, with the index of its type in NUMBER_TYPES
+		public int numberCount;
+		public int[] numberTypes = new int[16];
+		public long[] numbers = new long[16];
+
+		public void addNumber(int type, long key) {
+			if (numberCount == numbers.length) {
+				numberTypes = Arrays.copyOf(numberTypes, numberCount * 2);
+				numbers = Arrays.copyOf(numbers, numberCount * 2);
+			}
+			numberTypes[numberCount] = type;
+			numbers[numberCount++] = key;
+		}
+
+	}
+
+	/**
+	 * A growable list of (value, class) pairs, packed into <code>long</code>s with the value in the high half, so that sorting the list groups the classes by value.
+	 */
+	private static class PairList {
+
+		public int count;
+		public long[] pairs = new long[64];
+
+		public void add(int value, int classId) {
+			if (count == pairs.length) {
+				pairs = Arrays.copyOf(pairs, count * 2);
+			}
+			pairs[count++] = ((long) value << 32) | classId;
+		}
+
+	}
+
+	/**
+	 * The classes containing each value of one type, in compressed sparse row form.
+	 */
+	private static class Postings {
+
+		public final int[] starts;
+		public final int[] classes;
+
+		public Postings(int[] starts, int[] classes) {
+			this.starts = starts;
+			this.classes = classes;
+		}
+
+		/**
+		 * Builds the postings of a set of values from their pairs, dropping any pair found more than once.
+		 *
+		 * @param valueCount the number of distinct values
+		 * @param pairs the pairs of the values and the classes containing them
+		 * @param ranks the index of each value number in the sorted values
+		 */
+		public Postings(int valueCount, PairList pairs, int[] ranks) {
+			long[] sorted = new long[pairs.count];
+			for (int i = 0; i < pairs.count; i++) {
+				sorted[i] = ((long) ranks[(int) (pairs.pairs[i] >>> 32)] << 32) | (pairs.pairs[i] & 0xFFFFFFFFL);
+			}
+			Arrays.sort(sorted);
+			starts = new int[valueCount + 1];
+			int[] classes = new int[sorted.length];
+			int count = 0;
+			for (int i = 0; i < sorted.length; i++) {
+				if (i > 0 && sorted[i] == sorted[i - 1]) {
+					continue;
+				}
+				starts[(int) (sorted[i] >>> 32) + 1]++;
+				classes[count++] = (int) sorted[i];
+			}
+			for (int value = 0; value < valueCount; value++) {
+				starts[value + 1] += starts[value];
+			}
+			this.classes = Arrays.copyOf(classes, count);
+		}
+
+		public void write(DataOutputStream out) throws IOException {
+			for (int start : starts) {
+				out.writeInt(start);
+			}
+			for (int clazz : classes) {
+				out.writeInt(clazz);
+			}
+		}
+
+		public static Postings read(DataInputStream in, int valueCount) throws IOException {
+			int[] starts = new int[valueCount + 1];
+			for (int i = 0; i < starts.length; i++) {
+				starts[i] = in.readInt();
+			}
+			int[] classes = new int[starts[valueCount]];
+			for (int i = 0; i < classes.length; i++) {
+				classes[i] = in.readInt();
+			}
+			return new Postings(starts, classes);
+		}
+
+	}
+
+}
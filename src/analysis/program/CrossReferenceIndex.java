@@ -0,0 +1,287 @@
+package analysis.program;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import util.ParallelUtils;
+import classfile.ClassReference;
+import classfile.FieldReference;
+import classfile.JavaMethod;
+import classfile.MethodReference;
+import classfile.code.opcodes.FieldAccessor;
+import classfile.code.opcodes.MethodInvocation;
+import classfile.code.opcodes.Opcode;
+
+/**
+ * A cross reference index of a whole program, which maps every method, field and class referred to by an instruction to the places that refer to it, i.e., who calls a method, who reads or writes a field, and who instantiates, casts to or tests for a class. A use is kept under the symbolic reference written in the instruction, so a call of a method through a subclass (e.g., <code>B.foo</code>, where <code>foo</code> is declared by <code>A</code>) is found under the reference to <code>B.foo</code>; {@link ClassHierarchy#resolveMethod(MethodReference)} maps such references to the methods they resolve to.
+ * <p>
+ * Each use is a site, made of the number of the method containing the instruction, as numbered by the {@link ClassHierarchy}, and the bci of the instruction. The sites of all symbols are stored in one pair of <code>int</code> arrays, grouped by symbol, and ordered by method and bci within each symbol, so a query is a single hash lookup followed by a copy. The code of each class is scanned in parallel, and the sites are then gathered into the arrays in a single pass.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class CrossReferenceIndex {
+
+	private static final int[] NO_SITES = new int[0];
+	private static final ReferenceType[] REFERENCE_TYPES = ReferenceType.values();
+
+	private final ClassHierarchy hierarchy;
+	//the number of each symbol referred to in each way, where the sites of symbol s are stored from siteStarts[s] up to siteStarts[s + 1]
+	private final Map<ReferenceType, Map<Object, Integer>> symbolIds = new EnumMap<>(ReferenceType.class);
+	private final int[] siteStarts;
+	private final int[] siteMethods;
+	private final int[] siteBcis;
+
+	/**
+	 * Builds the cross reference index of a program.
+	 *
+	 * @param hierarchy the class hierarchy of the program, whose methods are scanned
+	 */
+	public CrossReferenceIndex(final ClassHierarchy hierarchy) {
+		this.hierarchy = hierarchy;
+		for (ReferenceType type : REFERENCE_TYPES) {
+			symbolIds.put(type, new HashMap<Object, Integer>());
+		}
+		//scan the code of each class in parallel, each class writing only its own slot
+		final ClassReferences[] scanned = new ClassReferences[hierarchy.getClassCount()];
+		ParallelUtils.forEachIndex(scanned.length, new ParallelUtils.IndexTask() {
+			@Override
+			public void run(int id) {
+				scanned[id] = scanClass(id);
+			}
+		});
+		//number the symbols and count their sites, and then place every site after the sites of the symbols before it
+		int siteCount = 0;
+		for (ClassReferences references : scanned) {
+			references.symbolIds = new int[references.count];
+			for (int i = 0; i < references.count; i++) {
+				Map<Object, Integer> ids = symbolIds.get(REFERENCE_TYPES[references.types[i]]);
+				Integer symbol = ids.get(references.symbols[i]);
+				if (symbol == null) {
+					symbol = ids.size();
+					ids.put(references.symbols[i], symbol);
+				}
+				references.symbolIds[i] = symbol;
+			}
+			siteCount += references.count;
+		}
+		//the symbols of each type were numbered from 0, so they're shifted past the symbols of the types before
+		int symbolCount = 0;
+		int[] offsets = new int[REFERENCE_TYPES.length];
+		for (ReferenceType type : REFERENCE_TYPES) {
+			Map<Object, Integer> ids = symbolIds.get(type);
+			offsets[type.ordinal()] = symbolCount;
+			for (Map.Entry<Object, Integer> entry : ids.entrySet()) {
+				entry.setValue(entry.getValue() + symbolCount);
+			}
+			symbolCount += ids.size();
+		}
+		int[] counts = new int[symbolCount + 1];
+		for (ClassReferences references : scanned) {
+			for (int i = 0; i < references.count; i++) {
+				references.symbolIds[i] += offsets[references.types[i]];
+				counts[references.symbolIds[i] + 1]++;
+			}
+		}
+		siteStarts = counts;
+		for (int symbol = 0; symbol < symbolCount; symbol++) {
+			siteStarts[symbol + 1] += siteStarts[symbol];
+		}
+		siteMethods = new int[siteCount];
+		siteBcis = new int[siteCount];
+		//the classes are visited in order, so the sites of each symbol come out ordered by method and bci
+		int[] nextSite = Arrays.copyOf(siteStarts, symbolCount);
+		for (ClassReferences references : scanned) {
+			for (int i = 0; i < references.count; i++) {
+				int site = nextSite[references.symbolIds[i]]++;
+				siteMethods[site] = references.methods[i];
+				siteBcis[site] = references.bcis[i];
+			}
+		}
+	}
+
+	/**
+	 * Finds the references made by the code of every method of a class.
+	 *
+	 * @param id the number of the class
+	 * @return the references of the class, in the order of its methods and their bcis
+	 */
+	private ClassReferences scanClass(int id) {
+		ClassReferences references = new ClassReferences();
+		for (int methodId = hierarchy.getFirstMethod(id), end = hierarchy.getFirstMethod(id + 1); methodId < end; methodId++) {
+			JavaMethod method = hierarchy.getMethod(methodId);
+			if (method.code == null) {
+				continue;
+			}
+			List<Opcode> ops = method.code.ops;
+			for (int bci = 0; bci < ops.size(); bci++) {
+				Opcode op = ops.get(bci);
+				if (op == null) {
+					continue;
+				}
+				switch (op.type) {
+				case METHOD_INVOKE:
+					references.add(ReferenceType.METHOD_CALL, ((MethodInvocation) op.data).method, methodId, bci);
+					break;
+				case FIELD_LOAD:
+					references.add(ReferenceType.FIELD_READ, ((FieldAccessor) op.data).field, methodId, bci);
+					break;
+				case FIELD_STORE:
+					references.add(ReferenceType.FIELD_WRITE, ((FieldAccessor) op.data).field, methodId, bci);
+					break;
+				case NEW_OBJECT:
+					references.add(ReferenceType.INSTANTIATION, op.data, methodId, bci);
+					break;
+				case CAST:
+					references.add(ReferenceType.CAST, op.data, methodId, bci);
+					break;
+				case INSTANCE_OF:
+					references.add(ReferenceType.INSTANCE_TEST, op.data, methodId, bci);
+					break;
+				default:
+					break;
+				}
+			}
+		}
+		return references;
+	}
+
+	/**
+	 * Gets the class hierarchy that the index was built from, which numbers the methods of the sites.
+	 *
+	 * @return the class hierarchy of the program
+	 */
+	public ClassHierarchy getHierarchy() {
+		return hierarchy;
+	}
+
+	/**
+	 * Gets the number of sites in the index, over every symbol and type of reference.
+	 *
+	 * @return the number of sites
+	 */
+	public int getSiteCount() {
+		return siteMethods.length;
+	}
+
+	/**
+	 * Gets the symbols referred to in some way anywhere in the program.
+	 *
+	 * @param type the type of reference
+	 * @return the set of the referred symbols, which are {@link MethodReference}s, {@link FieldReference}s or {@link ClassReference}s, depending on <code>type</code>
+	 */
+	public Set<Object> getSymbols(ReferenceType type) {
+		return Collections.unmodifiableSet(symbolIds.get(type).keySet());
+	}
+
+	/**
+	 * Gets the number of places that refer to a symbol in some way.
+	 *
+	 * @param type the type of reference
+	 * @param symbol the {@link MethodReference}, {@link FieldReference} or {@link ClassReference} referred to
+	 * @return the number of sites referring to <code>symbol</code>
+	 */
+	public int getSiteCount(ReferenceType type, Object symbol) {
+		Integer id = symbolIds.get(type).get(symbol);
+		return (id != null ? siteStarts[id + 1] - siteStarts[id] : 0);
+	}
+
+	/**
+	 * Gets the methods containing the places that refer to a symbol in some way.
+	 *
+	 * @param type the type of reference
+	 * @param symbol the {@link MethodReference}, {@link FieldReference} or {@link ClassReference} referred to
+	 * @return the method number of each site referring to <code>symbol</code>, once per site, in increasing order
+	 */
+	public int[] getSiteMethods(ReferenceType type, Object symbol) {
+		Integer id = symbolIds.get(type).get(symbol);
+		return (id != null ? Arrays.copyOfRange(siteMethods, siteStarts[id], siteStarts[id + 1]) : NO_SITES);
+	}
+
+	/**
+	 * Gets the bcis of the places that refer to a symbol in some way.
+	 *
+	 * @param type the type of reference
+	 * @param symbol the {@link MethodReference}, {@link FieldReference} or {@link ClassReference} referred to
+	 * @return the bci of each site referring to <code>symbol</code>, in the same order as {@link #getSiteMethods(ReferenceType, Object)}
+	 */
+	public int[] getSiteBcis(ReferenceType type, Object symbol) {
+		Integer id = symbolIds.get(type).get(symbol);
+		return (id != null ? Arrays.copyOfRange(siteBcis, siteStarts[id], siteStarts[id + 1]) : NO_SITES);
+	}
+
+	/**
+	 * Gets the methods that call a method.
+	 *
+	 * @param method the reference to the method, as written in the calls
+	 * @return the method number of each call site, in increasing order
+	 */
+	public int[] getCallers(MethodReference method) {
+		return getSiteMethods(ReferenceType.METHOD_CALL, method);
+	}
+
+	/**
+	 * Gets the methods that read a field.
+	 *
+	 * @param field the reference to the field, as written in the reads
+	 * @return the method number of each read, in increasing order
+	 */
+	public int[] getReaders(FieldReference field) {
+		return getSiteMethods(ReferenceType.FIELD_READ, field);
+	}
+
+	/**
+	 * Gets the methods that write a field.
+	 *
+	 * @param field the reference to the field, as written in the writes
+	 * @return the method number of each write, in increasing order
+	 */
+	public int[] getWriters(FieldReference field) {
+		return getSiteMethods(ReferenceType.FIELD_WRITE, field);
+	}
+
+	/**
+	 * Gets the methods that instantiate a class.
+	 *
+	 * @param type the class instantiated
+	 * @return the method number of each <code>new</code> instruction, in increasing order
+	 */
+	public int[] getInstantiators(ClassReference type) {
+		return getSiteMethods(ReferenceType.INSTANTIATION, type);
+	}
+
+	/**
+	 * The references made by the code of one class, in the order they're found.
+	 */
+	private static class ClassReferences {
+
+		public int count;
+		public int[] types = new int[16];
+		public Object[] symbols = new Object[16];
+		public int[] methods = new int[16];
+		public int[] bcis = new int[16];
+		//the index-wide number of each symbol, filled in when the sites are gathered
+		public int[] symbolIds;
+
+		public void add(ReferenceType type, Object symbol, int method, int bci) {
+			if (count == types.length) {
+				int length = count * 2;
+				types = Arrays.copyOf(types, length);
+				symbols = Arrays.copyOf(symbols, length);
+				methods = Arrays.copyOf(methods, length);
+				bcis = Arrays.copyOf(bcis, length);
+			}
+			types[count] = type.ordinal();
+			symbols[count] = symbol;
+			methods[count] = method;
+			bcis[count++] = bci;
+		}
+
+	}
+
+}
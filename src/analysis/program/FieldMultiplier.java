@@ -0,0 +1,47 @@
+package analysis.program;
+
+import classfile.FieldReference;
+
+/**
+ * The multipliers that an obfuscator encodes an <code>int</code> or <code>long</code> field with, as inferred by a {@link MultiplierInference}. The field holds its real value times the encoder, i.e., every store to it is multiplied by the encoder, and every load of it is multiplied by the decoder to get the real value back, where the decoder is the modular inverse of the encoder (modulo 2<sup>32</sup> for an <code>int</code> field, or 2<sup>64</sup> for a <code>long</code> one).
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class FieldMultiplier {
+
+	/**
+	 * The field, named by the class declaring it.
+	 */
+	public final FieldReference field;
+	/**
+	 * The multiplier of the values stored to the field, which fits in an <code>int</code> for an <code>int</code> field.
+	 */
+	public final long encoder;
+	/**
+	 * The multiplier of the values loaded from the field, i.e., the modular inverse of the encoder.
+	 */
+	public final long decoder;
+	/**
+	 * The number of uses of the field multiplied by the encoder or the decoder.
+	 */
+	public final int votes;
+	/**
+	 * The number of uses of the field multiplied by some other constant.
+	 */
+	public final int conflicts;
+
+	public FieldMultiplier(FieldReference field, long encoder, long decoder, int votes, int conflicts) {
+		this.field = field;
+		this.encoder = encoder;
+		this.decoder = decoder;
+		this.votes = votes;
+		this.conflicts = conflicts;
+	}
+
+	@Override
+	public String toString() {
+		return field.enclosingClass + "." + field.name + " encoder " + encoder + " decoder " + decoder + " (" + votes + " votes, " + conflicts + " conflicts)";
+	}
+
+}
@@ -0,0 +1,205 @@
+package analysis.program;
+
+import java.util.Arrays;
+
+import util.ParallelUtils;
+
+/**
+ * A locality-sensitive hash index of the {@link MethodFingerprint}s of a program, for matching the methods of one revision of a program with those of another. The MinHash signature of each fingerprint is cut into bands of a few hashes, and two methods are candidates for a match if any band of their signatures is equal, which, with {@value #BAND_COUNT} bands of {@value #BAND_WIDTH} hashes, happens for nearly every pair of methods with a similarity above about a half, and for few pairs below that. Candidates are then ranked by their exact similarity. A lookup costs one binary search per band plus the candidates found, so matching two revisions takes time roughly linear in the number of methods, rather than comparing every pair.
+ * <p>
+ * The entries of each band are kept in one sorted <code>long</code> array, with a 40 bit hash of the band in the high bits and the method number in the low 24 bits, so a bucket is a run of entries with the same high bits. A bucket holding more than {@value #MAX_BUCKET_SIZE} methods is skipped during lookups, since it only holds trivial methods (e.g., getters and setters) that look the same as each other and can't be told apart anyway. The fingerprints are computed in parallel.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class FingerprintIndex {
+
+	private static final int BAND_COUNT = 16;
+	private static final int BAND_WIDTH = MethodFingerprint.SIGNATURE_LENGTH / BAND_COUNT;
+	private static final int MAX_BUCKET_SIZE = 256;
+	private static final int METHOD_BITS = 24;
+	private static final long METHOD_MASK = (1L << METHOD_BITS) - 1;
+	private static final int[] NO_METHODS = new int[0];
+
+	private final ClassHierarchy hierarchy;
+	//the fingerprint of each method, or null if it has no code
+	private final MethodFingerprint[] fingerprints;
+	private final long[][] bands;
+
+	/**
+	 * Builds the fingerprint index of a program.
+	 *
+	 * @param hierarchy the class hierarchy of the program, whose methods are indexed
+	 * @throws IllegalArgumentException if the program has too many methods for the entries of the bands
+	 */
+	public FingerprintIndex(final ClassHierarchy hierarchy) {
+		this.hierarchy = hierarchy;
+		int methodCount = hierarchy.getMethodCount();
+		if (methodCount > METHOD_MASK) {
+			throw new IllegalArgumentException("Too many methods to index: " + methodCount);
+		}
+		fingerprints = new MethodFingerprint[methodCount];
+		ParallelUtils.forEachIndex(methodCount, new ParallelUtils.IndexTask() {
+			@Override
+			public void run(int method) {
+				if (hierarchy.getMethod(method).code != null) {
+					fingerprints[method] = new MethodFingerprint(hierarchy, method);
+				}
+			}
+		});
+		int fingerprintCount = 0;
+		for (MethodFingerprint fingerprint : fingerprints) {
+			if (fingerprint != null) {
+				fingerprintCount++;
+			}
+		}
+		bands = new long[BAND_COUNT][fingerprintCount];
+		for (int band = 0; band < BAND_COUNT; band++) {
+			int entry = 0;
+			for (int method = 0; method < methodCount; method++) {
+				if (fingerprints[method] != null) {
+					bands[band][entry++] = (bandHash(fingerprints[method], band) << METHOD_BITS) | method;
+				}
+			}
+			Arrays.sort(bands[band]);
+		}
+	}
+
+	/**
+	 * Hashes one band of the signature of a fingerprint.
+	 *
+	 * @param fingerprint the fingerprint
+	 * @param band the index of the band
+	 * @return the hash of the band, in the low 40 bits
+	 */
+	private static long bandHash(MethodFingerprint fingerprint, int band) {
+		long hash = band;
+		for (int i = band * BAND_WIDTH; i < (band + 1) * BAND_WIDTH; i++) {
+			hash = MethodFingerprint.mix(hash ^ fingerprint.signature[i]);
+		}
+		return hash >>> METHOD_BITS;
+	}
+
+	/**
+	 * Gets the class hierarchy that the index was built from, which numbers the methods.
+	 *
+	 * @return the class hierarchy of the program
+	 */
+	public ClassHierarchy getHierarchy() {
+		return hierarchy;
+	}
+
+	/**
+	 * Gets the fingerprint of a method.
+	 *
+	 * @param method the number of the method
+	 * @return the fingerprint of the method, or <code>null</code> if it has no code
+	 */
+	public MethodFingerprint getFingerprint(int method) {
+		return fingerprints[method];
+	}
+
+	/**
+	 * Finds the methods whose fingerprints share a band with a fingerprint, i.e., the methods that are likely to be similar to it.
+	 *
+	 * @param fingerprint the fingerprint to look up, which may come from another index
+	 * @return the numbers of the candidate methods, in increasing order
+	 */
+	public int[] getCandidates(MethodFingerprint fingerprint) {
+		int[] candidates = NO_METHODS;
+		int count = 0;
+		for (int band = 0; band < BAND_COUNT; band++) {
+			long low = bandHash(fingerprint, band) << METHOD_BITS;
+			long[] entries = bands[band];
+			int start = lowerBound(entries, low);
+			int end = lowerBound(entries, low | METHOD_MASK);
+			if (end < entries.length && entries[end] == (low | METHOD_MASK)) {
+				end++;
+			}
+			if (end - start > MAX_BUCKET_SIZE) {
+				continue;
+			}
+			if (count + end - start > candidates.length) {
+				candidates = Arrays.copyOf(candidates, Math.max(candidates.length * 2, count + end - start));
+			}
+			for (int entry = start; entry < end; entry++) {
+				candidates[count++] = (int) (entries[entry] & METHOD_MASK);
+			}
+		}
+		//a method found in several bands is only returned once
+		Arrays.sort(candidates, 0, count);
+		int unique = 0;
+		for (int i = 0; i < count; i++) {
+			if (unique == 0 || candidates[i] != candidates[unique - 1]) {
+				candidates[unique++] = candidates[i];
+			}
+		}
+		return Arrays.copyOf(candidates, unique);
+	}
+
+	private static int lowerBound(long[] entries, long key) {
+		int index = Arrays.binarySearch(entries, key);
+		return (index >= 0 ? index : -index - 1);
+	}
+
+	/**
+	 * Finds the method most similar to a fingerprint.
+	 *
+	 * @param fingerprint the fingerprint to match, which may come from another index
+	 * @param minSimilarity the least similarity of a match
+	 * @return the number of the only method with the highest similarity, or -1 if no candidate is similar enough, or several are equally similar
+	 */
+	public int findBestMatch(MethodFingerprint fingerprint, double minSimilarity) {
+		int best = -1;
+		double bestSimilarity = minSimilarity;
+		boolean isTied = false;
+		for (int candidate : getCandidates(fingerprint)) {
+			double similarity = fingerprint.similarity(fingerprints[candidate]);
+			if (similarity > bestSimilarity || (best < 0 && similarity == bestSimilarity)) {
+				best = candidate;
+				bestSimilarity = similarity;
+				isTied = false;
+			} else if (similarity == bestSimilarity) {
+				isTied = true;
+			}
+		}
+		return (isTied ? -1 : best);
+	}
+
+	/**
+	 * Matches the methods of another revision of the program with the methods of this one. A method is matched with the method of this index most similar to it, only if that method's most similar method in the other index is the same method, so that every match is one-to-one and stable.
+	 *
+	 * @param previous the index of the other revision
+	 * @param minSimilarity the least similarity of a match
+	 * @return the number of the matching method of this index for each method of <code>previous</code>, or -1 if it has no match
+	 */
+	public int[] match(final FingerprintIndex previous, final double minSimilarity) {
+		final int[] forward = new int[previous.fingerprints.length];
+		ParallelUtils.forEachIndex(forward.length, new ParallelUtils.IndexTask() {
+			@Override
+			public void run(int method) {
+				MethodFingerprint fingerprint = previous.fingerprints[method];
+				forward[method] = (fingerprint != null ? findBestMatch(fingerprint, minSimilarity) : -1);
+			}
+		});
+		final int[] backward = new int[fingerprints.length];
+		Arrays.fill(backward, -2);
+		ParallelUtils.forEachIndex(forward.length, new ParallelUtils.IndexTask() {
+			@Override
+			public void run(int method) {
+				//only the chosen methods need a match back, and a method chosen twice may be matched back twice at once, which is harmless since both find the same method
+				int target = forward[method];
+				if (target >= 0 && backward[target] == -2) {
+					backward[target] = previous.findBestMatch(fingerprints[target], minSimilarity);
+				}
+			}
+		});
+		for (int method = 0; method < forward.length; method++) {
+			if (forward[method] >= 0 && backward[forward[method]] != method) {
+				forward[method] = -1;
+			}
+		}
+		return forward;
+	}
+
+}
@@ -0,0 +1,298 @@
+package analysis.program;
+
+import java.util.Arrays;
+import java.util.List;
+
+import analysis.flow.BasicBlock;
+import analysis.flow.BasicBlockGraph;
+import classfile.ClassReference;
+import classfile.JavaClass;
+import classfile.JavaField;
+import classfile.JavaMethod;
+import classfile.MethodReference;
+import classfile.Primitive;
+import classfile.code.Code;
+import classfile.code.opcodes.FieldAccessor;
+import classfile.code.opcodes.MethodInvocation;
+import classfile.code.opcodes.Opcode;
+import classfile.constant.ConstantEntry;
+
+/**
+ * A structural fingerprint of a method, which stays the same when the classes, methods and fields of a program are renamed, so that a method can be matched with itself in another revision of an obfuscated program. The fingerprint is a set of features, each hashed to a <code>long</code> from a string, so that the hashes are the same in every run:
+ * <ul>
+ * <li>the flags and the descriptor of the method, with every class of the program replaced by a placeholder, since their names change between revisions</li>
+ * <li>the supertypes and the types of the fields of the class declaring the method, erased the same way, which tells apart methods with the same code in different classes (e.g., the many trivial methods of inner classes)</li>
+ * <li>the shape of the control flow graph, i.e., the numbers of blocks, loops and handlers, and the number of predecessors, successors and the loop depth of each block</li>
+ * <li>every run of three consecutive instruction types, which captures the histogram of the types as well as their order</li>
+ * <li>every constant loaded, except for classes of the program</li>
+ * <li>every method called, field accessed, and class instantiated outside of the program (e.g., library methods), by name, and every one inside the program by its erased descriptor alone</li>
+ * </ul>
+ * A feature found several times is kept once per occurrence, as a separate hash, so the features form a multiset. Two fingerprints are compared by the Jaccard similarity of their features. For fast lookups, a fingerprint also has a MinHash signature of its features, where the chance that two signatures agree at an index is the Jaccard similarity of the fingerprints, which a {@link FingerprintIndex} buckets by bands to find similar methods without comparing every pair.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class MethodFingerprint {
+
+	/**
+	 * The number of hashes in a MinHash signature.
+	 */
+	public static final int SIGNATURE_LENGTH = 64;
+	//the seeds of the hash functions of the signature, which are fixed so that signatures can be compared across runs
+	private static final long[] SEEDS = new long[SIGNATURE_LENGTH];
+
+	static {
+		long seed = 0x5DEECE66DL;
+		for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+			seed = mix(seed + i);
+			SEEDS[i] = seed;
+		}
+	}
+
+	/**
+	 * The hashes of the features of the method, sorted.
+	 */
+	public final long[] features;
+	/**
+	 * The MinHash signature of the features, i.e., the least hash of any feature under each of {@link #SIGNATURE_LENGTH} hash functions.
+	 */
+	public final long[] signature;
+	/**
+	 * The number of instructions in the method.
+	 */
+	public final int instructionCount;
+
+	/**
+	 * Computes the fingerprint of a method.
+	 *
+	 * @param program the class hierarchy of the program containing the method, whose classes are the ones that are renamed between revisions
+	 * @param methodId the number of the method in <code>program</code>
+	 */
+	public MethodFingerprint(ClassHierarchy program, int methodId) {
+		JavaMethod method = program.getMethod(methodId);
+		FeatureList features = new FeatureList();
+		features.add("flags " + method.flags);
+		features.add("descriptor " + eraseDescriptor(method.reference, program));
+		addClassFeatures(program.getClass(program.getDeclaringClass(methodId)), program, features);
+		int instructionCount = 0;
+		if (method.code != null) {
+			BasicBlockGraph graph = new BasicBlockGraph(method);
+			addShapeFeatures(graph, features);
+			Code code = graph.getCode();
+			int beforePrevious = -1;
+			int previous = -1;
+			for (Opcode op : code.ops) {
+				if (op == null) {
+					continue;
+				}
+				instructionCount++;
+				int type = op.type.ordinal();
+				features.add("ops " + beforePrevious + " " + previous + " " + type);
+				beforePrevious = previous;
+				previous = type;
+				addReferenceFeature(op, program, features);
+			}
+		}
+		this.instructionCount = instructionCount;
+		this.features = features.toSortedArray();
+		signature = new long[SIGNATURE_LENGTH];
+		Arrays.fill(signature, Long.MAX_VALUE);
+		for (long feature : this.features) {
+			for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+				long hash = mix(feature ^ SEEDS[i]);
+				if (hash < signature[i]) {
+					signature[i] = hash;
+				}
+			}
+		}
+	}
+
+	private static void addClassFeatures(JavaClass clazz, ClassHierarchy program, FeatureList features) {
+		if (clazz.superType != null) {
+			features.add("class extends " + eraseType(clazz.superType, program));
+		}
+		for (ClassReference implemented : clazz.interfaces) {
+			features.add("class implements " + eraseType(implemented, program));
+		}
+		for (JavaField field : clazz.fields.values()) {
+			features.add("class field " + field.flags.isStatic + " " + eraseType(field.reference.type, program));
+		}
+	}
+
+	private static void addShapeFeatures(BasicBlockGraph graph, FeatureList features) {
+		List<BasicBlock> blocks = graph.getBlocks();
+		int handlerCount = 0;
+		for (BasicBlock block : blocks) {
+			handlerCount += block.handlers.size();
+			features.add("block " + block.predecessors.size() + " " + block.successors.size() + " " + block.handlers.size() + " " + block.loopDepth);
+		}
+		features.add("graph " + blocks.size() + " " + graph.getLoopNest().getLoops().size() + " " + handlerCount);
+	}
+
+	private static void addReferenceFeature(Opcode op, ClassHierarchy program, FeatureList features) {
+		switch (op.type) {
+		case CONSTANT_LOAD:
+			ConstantEntry constant = (ConstantEntry) op.data;
+			if (constant.data instanceof ClassReference) {
+				if (!isProgramClass((ClassReference) constant.data, program)) {
+					features.add("constant " + constant);
+				}
+			} else {
+				features.add("constant " + constant);
+			}
+			break;
+		case METHOD_INVOKE:
+			MethodInvocation invocation = (MethodInvocation) op.data;
+			if (isProgramClass(invocation.method.enclosingClass, program)) {
+				features.add("call " + invocation.type + " " + eraseDescriptor(invocation.method, program));
+			} else {
+				features.add("call " + invocation);
+			}
+			break;
+		case FIELD_LOAD:
+		case FIELD_STORE:
+			FieldAccessor accessor = (FieldAccessor) op.data;
+			if (isProgramClass(accessor.field.enclosingClass, program)) {
+				features.add("field " + op.type + " " + accessor.isStatic + " " + eraseType(accessor.field.type, program));
+			} else {
+				features.add("field " + op.type + " " + accessor);
+			}
+			break;
+		case NEW_OBJECT:
+		case CAST:
+		case INSTANCE_OF:
+			features.add("type " + op.type + " " + eraseType((ClassReference) op.data, program));
+			break;
+		default:
+			break;
+		}
+	}
+
+	static boolean isProgramClass(ClassReference type, ClassHierarchy program) {
+		if (type.primitive != Primitive.REFERENCE || type.className == null) {
+			return false;
+		}
+		//the hierarchy treats every array as an object, so the element class is looked up instead
+		return program.getId(type.arrayDimension > 0 ? ClassReference.fromName(type.className) : type) >= 0;
+	}
+
+	static String eraseType(ClassReference type, ClassHierarchy program) {
+		if (!isProgramClass(type, program)) {
+			return type.toString();
+		}
+		StringBuilder erased = new StringBuilder("?");
+		for (int i = 0; i < type.arrayDimension; i++) {
+			erased.append("[]");
+		}
+		return erased.toString();
+	}
+
+	static String eraseDescriptor(MethodReference method, ClassHierarchy program) {
+		StringBuilder erased = new StringBuilder("(");
+		for (ClassReference argType : method.argTypes) {
+			erased.append(eraseType(argType, program)).append(',');
+		}
+		//constructors and static initializers keep their names, since those are never renamed
+		String name = (method.name.startsWith("<") ? method.name : "");
+		return name + erased.append(')').append(eraseType(method.returnType, program)).toString();
+	}
+
+	/**
+	 * Computes the Jaccard similarity of the features of this fingerprint and another, i.e., the size of their intersection over the size of their union.
+	 *
+	 * @param other the other fingerprint
+	 * @return the similarity of the fingerprints, from 0 to 1
+	 */
+	public double similarity(MethodFingerprint other) {
+		int shared = 0;
+		int i = 0;
+		int j = 0;
+		while (i < features.length && j < other.features.length) {
+			if (features[i] == other.features[j]) {
+				shared++;
+				i++;
+				j++;
+			} else if (features[i] < other.features[j]) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		int union = features.length + other.features.length - shared;
+		return (union > 0 ? (double) shared / union : 1.0);
+	}
+
+	/**
+	 * Estimates the Jaccard similarity of this fingerprint and another from their signatures alone.
+	 *
+	 * @param other the other fingerprint
+	 * @return the fraction of the hashes of the signatures that agree
+	 */
+	public double estimateSimilarity(MethodFingerprint other) {
+		int agreeing = 0;
+		for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+			if (signature[i] == other.signature[i]) {
+				agreeing++;
+			}
+		}
+		return (double) agreeing / SIGNATURE_LENGTH;
+	}
+
+	/**
+	 * Hashes a string to 64 bits with FNV-1a, which, unlike {@link String#hashCode()}, is wide enough that the features of a program almost never collide.
+	 *
+	 * @param value the string to hash
+	 * @return the hash of <code>value</code>
+	 */
+	static long hash(String value) {
+		long hash = 0xCBF29CE484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			hash = (hash ^ value.charAt(i)) * 0x100000001B3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Mixes the bits of a value, with the finalizer of the SplitMix64 generator.
+	 *
+	 * @param value the value to mix
+	 * @return the mixed value
+	 */
+	static long mix(long value) {
+		value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+		value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+		return value ^ (value >>> 31);
+	}
+
+	/**
+	 * A growable list of the hashes of features, which keeps repeated features apart by hashing in the number of the occurrence.
+	 */
+	private static class FeatureList {
+
+		private long[] hashes = new long[64];
+		private int count;
+
+		public void add(String feature) {
+			if (count == hashes.length) {
+				hashes = Arrays.copyOf(hashes, count * 2);
+			}
+			hashes[count++] = hash(feature);
+		}
+
+		public long[] toSortedArray() {
+			long[] sorted = Arrays.copyOf(hashes, count);
+			Arrays.sort(sorted);
+			//the occurrences of a feature are numbered within each run of equal hashes
+			int occurrence = 0;
+			long[] result = new long[sorted.length];
+			for (int i = 0; i < sorted.length; i++) {
+				occurrence = (i > 0 && sorted[i] == sorted[i - 1] ? occurrence + 1 : 0);
+				result[i] = mix(sorted[i] + occurrence);
+			}
+			Arrays.sort(result);
+			return result;
+		}
+
+	}
+
+}
@@ -0,0 +1,385 @@
+package analysis.program;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import util.ParallelUtils;
+import analysis.MethodAnalyzer;
+import analysis.data.ArrayAccess;
+import analysis.data.Assignment;
+import analysis.data.BinaryArithmetic;
+import analysis.data.Cast;
+import analysis.data.Compare;
+import analysis.data.Convert;
+import analysis.data.DataBlock;
+import analysis.data.FieldAccess;
+import analysis.data.InstanceOf;
+import analysis.data.MethodCall;
+import analysis.data.NewArray;
+import analysis.data.Phi;
+import analysis.data.ShiftArithmetic;
+import analysis.data.Value;
+import analysis.data.ValueComparison;
+import analysis.data.ValueType;
+import classfile.ClassReference;
+import classfile.FieldReference;
+import classfile.JavaMethod;
+import classfile.Primitive;
+import classfile.code.opcodes.ArithmeticType;
+import classfile.constant.ConstantEntry;
+
+/**
+ * Infers the multipliers that an obfuscator encodes the <code>int</code> and <code>long</code> fields of a program with, i.e., for each such field, the encoder that the values stored to it are multiplied by and the decoder, its modular inverse, that the values loaded from it are multiplied by. Every method of the program is analyzed with a constant folding {@link MethodAnalyzer}, in parallel, and its value trees are searched for two kinds of uses:
+ * <ul>
+ * <li>a load of a field multiplied by a constant, e.g., <code>this.a * 1234567891</code>, which votes for the constant as the decoder of the field</li>
+ * <li>a store to a field of a value multiplied by a constant, e.g., <code>this.a = x * -1098811165</code>, which votes for the constant as the encoder of the field</li>
+ * </ul>
+ * Since the decoder and the encoder of a field determine each other, the votes for an encoder are counted as votes for its inverse as the decoder, and the decoder with the most votes wins, unless another has as many. Even constants have no inverse, so they can't be multipliers, and are never counted. A store of a field multiplied by a constant to another field (e.g., <code>this.a = this.b * 1476395009</code>) is left out, since obfuscators fold the decoder of one field and the encoder of the other into a single constant there, which is neither.
+ * <p>
+ * Plain arithmetic on a field (e.g., <code>hash * 31</code>) also looks like a use of a multiplier, but small constants are almost never the encoders or decoders of an obfuscator, which picks them at random, so a multiplier is only accepted if both it and its inverse are at least {@value #MIN_MAGNITUDE} in magnitude. Each multiplier keeps the number of uses that agree with it and of those that don't, to judge how far to trust it.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class MultiplierInference {
+
+	private static final long MIN_MAGNITUDE = 1 << 16;
+
+	private final ClassHierarchy hierarchy;
+	private final Map<FieldReference, FieldMultiplier> multipliers = new HashMap<>();
+	private int failedMethodCount;
+
+	/**
+	 * Infers the multipliers of the fields of a program.
+	 *
+	 * @param hierarchy the class hierarchy of the program, whose methods are analyzed
+	 */
+	public MultiplierInference(final ClassHierarchy hierarchy) {
+		this.hierarchy = hierarchy;
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		final List<Vote>[] methodVotes = new List[hierarchy.getMethodCount()];
+		ParallelUtils.forEachIndex(methodVotes.length, new ParallelUtils.IndexTask() {
+			@Override
+			public void run(int method) {
+				JavaMethod javaMethod = hierarchy.getMethod(method);
+				if (javaMethod.code == null) {
+					methodVotes[method] = Collections.emptyList();
+					return;
+				}
+				try {
+					methodVotes[method] = findVotes(javaMethod);
+				} catch (RuntimeException e) {
+					//the analyzer has no exceptions of its own, so code it can't handle fails with any of them; the method is left without votes and counted, so that the rest of the program still votes
+				}
+			}
+		});
+		//the votes for each field, as the number of votes for each decoder
+		Map<FieldReference, Map<Long, Integer>> fieldVotes = new HashMap<>();
+		for (List<Vote> votes : methodVotes) {
+			if (votes == null) {
+				failedMethodCount++;
+				continue;
+			}
+			for (Vote vote : votes) {
+				FieldReference field = resolveField(vote.field);
+				Map<Long, Integer> decoders = fieldVotes.get(field);
+				if (decoders == null) {
+					decoders = new HashMap<>();
+					fieldVotes.put(field, decoders);
+				}
+				Integer count = decoders.get(vote.decoder);
+				decoders.put(vote.decoder, (count == null ? 1 : count + 1));
+			}
+		}
+		for (Map.Entry<FieldReference, Map<Long, Integer>> entry : fieldVotes.entrySet()) {
+			FieldMultiplier multiplier = solve(entry.getKey(), entry.getValue());
+			if (multiplier != null) {
+				multipliers.put(entry.getKey(), multiplier);
+			}
+		}
+	}
+
+	/**
+	 * Picks the decoder of a field with the most votes.
+	 *
+	 * @param field the field
+	 * @param decoders the number of votes for each decoder
+	 * @return the multiplier of the field, or <code>null</code> if no decoder has more votes than every other, or the best one is too small
+	 */
+	private static FieldMultiplier solve(FieldReference field, Map<Long, Integer> decoders) {
+		long best = 0;
+		int bestVotes = 0;
+		int secondVotes = 0;
+		int totalVotes = 0;
+		for (Map.Entry<Long, Integer> entry : decoders.entrySet()) {
+			int votes = entry.getValue();
+			totalVotes += votes;
+			if (votes > bestVotes) {
+				secondVotes = bestVotes;
+				best = entry.getKey();
+				bestVotes = votes;
+			} else if (votes > secondVotes) {
+				secondVotes = votes;
+			}
+		}
+		if (bestVotes == secondVotes) {
+			return null;
+		}
+		long encoder = inverse(best, field.type.primitive == Primitive.LONG);
+		if (Math.abs(best) < MIN_MAGNITUDE || Math.abs(encoder) < MIN_MAGNITUDE) {
+			return null;
+		}
+		return new FieldMultiplier(field, encoder, best, bestVotes, totalVotes - bestVotes);
+	}
+
+	/**
+	 * Computes the modular inverse of an odd number, by Newton's iteration <code>x = x * (2 - a * x)</code>, which doubles the number of correct low bits of <code>x</code> each time. Starting from <code>x = a</code>, which is correct in the low 3 bits since the square of every odd number is 1 modulo 8, five iterations give all 64 bits.
+	 *
+	 * @param value the odd number to invert
+	 * @param isLong whether to invert the number modulo 2<sup>64</sup>, rather than modulo 2<sup>32</sup>
+	 * @return the inverse, as an <code>int</code> widened to a <code>long</code> if <code>isLong</code> is <code>false</code>
+	 */
+	public static long inverse(long value, boolean isLong) {
+		long inverse = value;
+		for (int i = 0; i < 5; i++) {
+			inverse *= 2 - value * inverse;
+		}
+		//the inverse modulo 2^64 of an int, widened, is also its inverse modulo 2^32
+		return (isLong ? inverse : (int) inverse);
+	}
+
+	/**
+	 * Finds the field that a field reference refers to, which is declared by the class named by the reference or one of its superclasses.
+	 *
+	 * @param field the field reference
+	 * @return the field named by the class declaring it, or the reference itself if the field isn't declared in the program
+	 */
+	private FieldReference resolveField(FieldReference field) {
+		for (int id = hierarchy.getId(field.enclosingClass); id >= 0; id = hierarchy.getSuperclass(id)) {
+			FieldReference declared = new FieldReference(hierarchy.getClass(id).thisType, field.name, field.type);
+			if (hierarchy.getClass(id).fields.containsKey(declared)) {
+				return declared;
+			}
+		}
+		return field;
+	}
+
+	/**
+	 * Gets the class hierarchy of the program that the multipliers were inferred from.
+	 *
+	 * @return the class hierarchy of the program
+	 */
+	public ClassHierarchy getHierarchy() {
+		return hierarchy;
+	}
+
+	/**
+	 * Gets the number of methods that couldn't be analyzed, and so didn't vote for any multipliers. This should be 0 for code that a JVM would accept; anything else means that the multipliers may be missing votes, or that the analyzer has a bug.
+	 *
+	 * @return the number of methods with code whose analysis failed
+	 */
+	public int getFailedMethodCount() {
+		return failedMethodCount;
+	}
+
+	/**
+	 * Gets the multiplier of a field.
+	 *
+	 * @param field the field, which may be named by a subclass of the class declaring it
+	 * @return the multiplier of the field, or <code>null</code> if it has none
+	 */
+	public FieldMultiplier getMultiplier(FieldReference field) {
+		return multipliers.get(resolveField(field));
+	}
+
+	/**
+	 * Gets the multipliers of every field that has one.
+	 *
+	 * @return the multipliers, keyed by the fields named by the classes declaring them
+	 */
+	public Map<FieldReference, FieldMultiplier> getMultipliers() {
+		return Collections.unmodifiableMap(multipliers);
+	}
+
+	/**
+	 * Finds the uses of multiplied fields in a method.
+	 *
+	 * @param method the method, which has code
+	 * @return the votes of the uses
+	 */
+	private static List<Vote> findVotes(JavaMethod method) {
+		MethodAnalyzer analyzer = new MethodAnalyzer(method, true, true);
+		List<Vote> votes = new ArrayList<>();
+		//values are shared between the trees, so each is only searched once
+		Set<Value> visited = Collections.newSetFromMap(new IdentityHashMap<Value, Boolean>());
+		for (DataBlock block : analyzer.getDataBlocks()) {
+			for (Value phi : block.phis) {
+				findVotes(phi, visited, votes);
+			}
+			for (Assignment assignment : block.assignments) {
+				if (assignment.target.type == ValueType.FIELD_ACCESS && assignment.value.type == ValueType.BINARY_ARITHMETIC) {
+					BinaryArithmetic arithmetic = (BinaryArithmetic) assignment.value.value;
+					FieldReference field = ((FieldAccess) assignment.target.value).accessor.field;
+					if (findFieldMultiplier(arithmetic) != null) {
+						//a field copied into another is multiplied by the decoder of one and the encoder of the other at once, so neither is counted
+						visited.add(assignment.value);
+					} else {
+						ConstantEntry constant = findConstantMultiplier(arithmetic, field.type);
+						if (constant != null && isOdd(constant)) {
+							votes.add(new Vote(field, inverse(((Number) constant.data).longValue(), field.type.primitive == Primitive.LONG)));
+						}
+					}
+				}
+				findVotes(assignment.target, visited, votes);
+				findVotes(assignment.value, visited, votes);
+			}
+			if (block.transition != null && block.transition.transition instanceof ValueComparison) {
+				ValueComparison comparison = (ValueComparison) block.transition.transition;
+				findVotes(comparison.left, visited, votes);
+				findVotes(comparison.right, visited, votes);
+			} else if (block.transition != null && block.transition.transition instanceof Value) {
+				findVotes((Value) block.transition.transition, visited, votes);
+			}
+		}
+		return votes;
+	}
+
+	/**
+	 * Searches a value tree for loads of fields multiplied by constants.
+	 */
+	private static void findVotes(Value value, Set<Value> visited, List<Vote> votes) {
+		if (value == null || !visited.add(value)) {
+			return;
+		}
+		switch (value.type) {
+		case ARRAY_ACCESS:
+			ArrayAccess arrayAccess = (ArrayAccess) value.value;
+			findVotes(arrayAccess.reference, visited, votes);
+			findVotes(arrayAccess.index, visited, votes);
+			break;
+		case BINARY_ARITHMETIC:
+			BinaryArithmetic arithmetic = (BinaryArithmetic) value.value;
+			FieldReference field = findFieldMultiplier(arithmetic);
+			if (field != null) {
+				ConstantEntry constant = findConstantMultiplier(arithmetic, field.type);
+				if (isOdd(constant)) {
+					votes.add(new Vote(field, ((Number) constant.data).longValue()));
+				}
+			}
+			findVotes(arithmetic.left, visited, votes);
+			findVotes(arithmetic.right, visited, votes);
+			break;
+		case NEGATE:
+		case ARRAY_LENGTH:
+			findVotes((Value) value.value, visited, votes);
+			break;
+		case SHIFT:
+			ShiftArithmetic shift = (ShiftArithmetic) value.value;
+			findVotes(shift.shifted, visited, votes);
+			findVotes(shift.shiftAmount, visited, votes);
+			break;
+		case CONVERT:
+			findVotes(((Convert) value.value).value, visited, votes);
+			break;
+		case COMPARE:
+			Compare compare = (Compare) value.value;
+			findVotes(compare.value1, visited, votes);
+			findVotes(compare.value2, visited, votes);
+			break;
+		case FIELD_ACCESS:
+			findVotes(((FieldAccess) value.value).instance, visited, votes);
+			break;
+		case METHOD_CALL:
+			MethodCall call = (MethodCall) value.value;
+			findVotes(call.instance, visited, votes);
+			for (Value argument : call.arguments) {
+				findVotes(argument, visited, votes);
+			}
+			break;
+		case NEW_ARRAY:
+			for (Value count : ((NewArray) value.value).counts) {
+				findVotes(count, visited, votes);
+			}
+			break;
+		case CAST:
+			findVotes(((Cast) value.value).value, visited, votes);
+			break;
+		case INSTANCE_OF:
+			findVotes(((InstanceOf) value.value).value, visited, votes);
+			break;
+		case PHI:
+			for (Value operand : ((Phi) value.value).operands.values()) {
+				findVotes(operand, visited, votes);
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Finds the field of a multiplication of a loaded <code>int</code> or <code>long</code> field by a constant.
+	 *
+	 * @param arithmetic the arithmetic to check
+	 * @return the field, or <code>null</code> if the arithmetic isn't such a multiplication
+	 */
+	private static FieldReference findFieldMultiplier(BinaryArithmetic arithmetic) {
+		if (arithmetic.arithmetic != ArithmeticType.MULTIPLY) {
+			return null;
+		}
+		Value fieldValue = (arithmetic.left.type == ValueType.FIELD_ACCESS ? arithmetic.left : arithmetic.right);
+		if (fieldValue.type != ValueType.FIELD_ACCESS) {
+			return null;
+		}
+		FieldReference field = ((FieldAccess) fieldValue.value).accessor.field;
+		return (isMultipliable(field.type) && findConstantMultiplier(arithmetic, field.type) != null ? field : null);
+	}
+
+	/**
+	 * Finds the constant operand of a multiplication of the type of a field.
+	 *
+	 * @param arithmetic the arithmetic to check
+	 * @param type the type of the field
+	 * @return the constant, or <code>null</code> if the arithmetic isn't a multiplication by a constant of that type
+	 */
+	private static ConstantEntry findConstantMultiplier(BinaryArithmetic arithmetic, ClassReference type) {
+		if (arithmetic.arithmetic != ArithmeticType.MULTIPLY || !isMultipliable(type)) {
+			return null;
+		}
+		//the obfuscator may put the constant on either side
+		Value constant = (arithmetic.right.type == ValueType.CONSTANT ? arithmetic.right : arithmetic.left);
+		if (constant.type != ValueType.CONSTANT || !type.equals(constant.classType)) {
+			return null;
+		}
+		return (ConstantEntry) constant.value;
+	}
+
+	private static boolean isMultipliable(ClassReference type) {
+		return type.arrayDimension == 0 && (type.primitive == Primitive.INT || type.primitive == Primitive.LONG);
+	}
+
+	private static boolean isOdd(ConstantEntry constant) {
+		return (((Number) constant.data).longValue() & 1) != 0;
+	}
+
+	/**
+	 * A use of a field as multiplied by a decoder, where a store multiplied by an encoder votes for its inverse.
+	 */
+	private static class Vote {
+
+		public final FieldReference field;
+		public final long decoder;
+
+		public Vote(FieldReference field, long decoder) {
+			this.field = field;
+			this.decoder = decoder;
+		}
+
+	}
+
+}
@@ -0,0 +1,36 @@
+package analysis.program;
+
+/**
+ * The ways in which an instruction refers to a method, a field or a class, which are the kinds of uses kept by a {@link CrossReferenceIndex}.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public enum ReferenceType {
+
+	/**
+	 * An <code>invoke</code> instruction calls a method, of any {@link classfile.code.opcodes.MethodType}.
+	 */
+	METHOD_CALL,
+	/**
+	 * A <code>getfield</code> or <code>getstatic</code> instruction reads a field.
+	 */
+	FIELD_READ,
+	/**
+	 * A <code>putfield</code> or <code>putstatic</code> instruction writes a field.
+	 */
+	FIELD_WRITE,
+	/**
+	 * A <code>new</code> instruction instantiates a class.
+	 */
+	INSTANTIATION,
+	/**
+	 * A <code>checkcast</code> instruction casts to a class.
+	 */
+	CAST,
+	/**
+	 * An <code>instanceof</code> instruction tests for a class.
+	 */
+	INSTANCE_TEST
+
+}
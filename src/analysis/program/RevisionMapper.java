@@ -0,0 +1,744 @@
+package analysis.program;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import util.ParallelUtils;
+import classfile.ClassFormatException;
+import classfile.ClassReference;
+import classfile.ClassStore;
+import classfile.FieldReference;
+import classfile.JavaClass;
+import classfile.JavaField;
+import classfile.JavaMethod;
+import classfile.MethodReference;
+import classfile.code.opcodes.FieldAccessor;
+import classfile.code.opcodes.MethodInvocation;
+import classfile.code.opcodes.OpType;
+import classfile.code.opcodes.Opcode;
+
+/**
+ * Maps the classes, methods and fields of one revision of an obfuscated program to those of another, i.e., finds what each renamed class and member was called before. The two revisions are loaded side by side (e.g., with {@link ClassStore#readClasses(Path)}), each in its own {@link ClassHierarchy}, and matched in rounds, starting from seeds that don't depend on any names of the program:
+ * <ul>
+ * <li>classes with the same direct library supertypes, where no other class of either revision has them (e.g., the only class extending <code>java.awt.Canvas</code>)</li>
+ * <li>methods whose {@link MethodFingerprint}s are each other's unique best match, with a similarity of at least {@value #SEED_SIMILARITY}</li>
+ * </ul>
+ * Each new match then votes for the matches it implies: a method match votes for its classes, and for the methods called and the fields accessed at the corresponding places of the two methods; a class match votes for its superclasses, and for the pairs of its members with similar fingerprints, or with the same name where the name comes from a library (e.g., a method overriding <code>Runnable.run</code>) and therefore can't be renamed; and a field match votes for its classes. After each round, the entities that received votes are rescored, and a pair is matched if each is the other's best candidate by a clear margin, with a score of at least {@value #MIN_SCORE}. The rounds end when no more pairs can be matched.
+ * <p>
+ * Only the candidates touched by the votes of a round, or whose competitors were matched in it, are rescored, rather than every pair, so the work of a round is proportional to its new matches. The fingerprints, the votes of each round, and the rescoring are all computed in parallel. Library supertypes are looked up in the {@link ClassStore}, so the library (e.g., <code>rt.jar</code>) should be added to its search paths to find methods overriding library methods.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class RevisionMapper {
+
+	//the least similarity of a seed method match, and of a pair of members voted for by their classes
+	private static final double SEED_SIMILARITY = 0.9;
+	private static final double MEMBER_SIMILARITY = 0.5;
+	//the weight of a vote for two members with the same library name, which can't have been renamed
+	private static final double STABLE_NAME_WEIGHT = 2.0;
+	private static final double MIN_SCORE = 1.0;
+
+	private final Revision from;
+	private final Revision to;
+	private final Matching classes;
+	private final Matching methods;
+	private final Matching fields;
+	private int roundCount;
+
+	/**
+	 * Maps one revision of a program to another.
+	 *
+	 * @param fromProgram the classes of the old revision
+	 * @param toProgram the classes of the new revision
+	 */
+	public RevisionMapper(Collection<JavaClass> fromProgram, Collection<JavaClass> toProgram) {
+		from = new Revision(fromProgram);
+		to = new Revision(toProgram);
+		classes = new Matching(from.hierarchy.getClassCount(), to.hierarchy.getClassCount());
+		methods = new Matching(from.hierarchy.getMethodCount(), to.hierarchy.getMethodCount());
+		fields = new Matching(from.fields.length, to.fields.length);
+		addSeeds();
+		while (classes.added.size() + methods.added.size() + fields.added.size() > 0 || !classes.dirty.isEmpty() || !methods.dirty.isEmpty() || !fields.dirty.isEmpty()) {
+			roundCount++;
+			propagate();
+			classes.evaluate();
+			methods.evaluate();
+			fields.evaluate();
+		}
+	}
+
+	/**
+	 * Matches the seeds, which are found without any votes.
+	 */
+	private void addSeeds() {
+		//the classes with library supertypes that no other class of their revision has
+		Map<String, Integer> fromSupertypes = from.findUniqueLibrarySupertypes();
+		Map<String, Integer> toSupertypes = to.findUniqueLibrarySupertypes();
+		for (Map.Entry<String, Integer> entry : fromSupertypes.entrySet()) {
+			Integer toClass = toSupertypes.get(entry.getKey());
+			if (toClass != null) {
+				classes.accept(entry.getValue(), toClass);
+			}
+		}
+		int[] seeds = to.fingerprints.match(from.fingerprints, SEED_SIMILARITY);
+		for (int method = 0; method < seeds.length; method++) {
+			if (seeds[method] >= 0) {
+				methods.accept(method, seeds[method]);
+			}
+		}
+	}
+
+	/**
+	 * Collects the votes of the matches made in the last round, in parallel, and adds them to the scores.
+	 */
+	private void propagate() {
+		final int[] newClasses = classes.takeAdded();
+		final int[] newMethods = methods.takeAdded();
+		final int[] newFields = fields.takeAdded();
+		final VoteList[] votes = new VoteList[newClasses.length + newMethods.length + newFields.length];
+		ParallelUtils.forEachIndex(votes.length, new ParallelUtils.IndexTask() {
+			@Override
+			public void run(int index) {
+				VoteList list = new VoteList();
+				if (index < newClasses.length) {
+					voteForClass(newClasses[index], classes.forward[newClasses[index]], list);
+				} else if (index < newClasses.length + newMethods.length) {
+					int method = newMethods[index - newClasses.length];
+					voteForMethod(method, methods.forward[method], list);
+				} else {
+					int field = newFields[index - newClasses.length - newMethods.length];
+					list.add(classes, from.fieldClasses[field], to.fieldClasses[fields.forward[field]], 1.0);
+				}
+				votes[index] = list;
+			}
+		});
+		for (VoteList list : votes) {
+			for (int i = 0; i < list.count; i++) {
+				list.matchings[i].vote(list.froms[i], list.tos[i], list.weights[i]);
+			}
+		}
+	}
+
+	private void voteForClass(int fromClass, int toClass, VoteList votes) {
+		int fromSuperclass = from.hierarchy.getSuperclass(fromClass);
+		int toSuperclass = to.hierarchy.getSuperclass(toClass);
+		if (fromSuperclass >= 0 && toSuperclass >= 0) {
+			votes.add(classes, fromSuperclass, toSuperclass, 1.0);
+		}
+		//the members of the classes are paired by the similarity of their fingerprints, or by their library names
+		for (int fromMethod = from.hierarchy.getFirstMethod(fromClass); fromMethod < from.hierarchy.getFirstMethod(fromClass + 1); fromMethod++) {
+			if (methods.forward[fromMethod] >= 0) {
+				continue;
+			}
+			MethodFingerprint fromFingerprint = from.fingerprints.getFingerprint(fromMethod);
+			for (int toMethod = to.hierarchy.getFirstMethod(toClass); toMethod < to.hierarchy.getFirstMethod(toClass + 1); toMethod++) {
+				if (methods.backward[toMethod] >= 0) {
+					continue;
+				}
+				if (from.stableNames[fromMethod] != null && from.stableNames[fromMethod].equals(to.stableNames[toMethod])) {
+					votes.add(methods, fromMethod, toMethod, STABLE_NAME_WEIGHT);
+				}
+				MethodFingerprint toFingerprint = to.fingerprints.getFingerprint(toMethod);
+				if (fromFingerprint != null && toFingerprint != null) {
+					double similarity = fromFingerprint.similarity(toFingerprint);
+					if (similarity >= MEMBER_SIMILARITY) {
+						votes.add(methods, fromMethod, toMethod, similarity);
+					}
+				}
+			}
+		}
+		//fields are only paired when their erased type is unique within both classes, and are otherwise left to the methods using them
+		Map<String, int[]> fieldsByType = new HashMap<>();
+		for (int field = from.classFieldStarts[fromClass]; field < from.classFieldStarts[fromClass + 1]; field++) {
+			addFieldByType(fieldsByType, from.fieldKeys[field], 0, field);
+		}
+		for (int field = to.classFieldStarts[toClass]; field < to.classFieldStarts[toClass + 1]; field++) {
+			addFieldByType(fieldsByType, to.fieldKeys[field], 1, field);
+		}
+		for (int[] pair : fieldsByType.values()) {
+			if (pair[0] >= 0 && pair[1] >= 0 && fields.forward[pair[0]] < 0 && fields.backward[pair[1]] < 0) {
+				votes.add(fields, pair[0], pair[1], 1.0);
+			}
+		}
+	}
+
+	private static void addFieldByType(Map<String, int[]> fieldsByType, String key, int side, int field) {
+		int[] pair = fieldsByType.get(key);
+		if (pair == null) {
+			pair = new int[] { -1, -1 };
+			fieldsByType.put(key, pair);
+		}
+		//a second field of the same type makes the type ambiguous on this side
+		pair[side] = (pair[side] == -1 ? field : -2);
+	}
+
+	private void voteForMethod(int fromMethod, int toMethod, VoteList votes) {
+		votes.add(classes, from.hierarchy.getDeclaringClass(fromMethod), to.hierarchy.getDeclaringClass(toMethod), 1.0);
+		alignUses(from.callKeys[fromMethod], from.callTargets[fromMethod], to.callKeys[toMethod], to.callTargets[toMethod], methods, votes);
+		alignUses(from.fieldUseKeys[fromMethod], from.fieldUseTargets[fromMethod], to.fieldUseKeys[toMethod], to.fieldUseTargets[toMethod], fields, votes);
+	}
+
+	/**
+	 * Pairs the uses of methods or fields in two matched methods, and votes for the pairs of their targets. The uses are grouped by their erased keys (e.g., the descriptor of a call, with the classes of the program erased), and the uses of a key are paired in order if both methods have the same number of them, which survives most reorderings of the code between revisions.
+	 */
+	private static void alignUses(long[] fromKeys, int[] fromTargets, long[] toKeys, int[] toTargets, Matching matching, VoteList votes) {
+		if (fromKeys.length == 0 || toKeys.length == 0) {
+			return;
+		}
+		Map<Long, List<Integer>> fromUses = groupUses(fromKeys);
+		Map<Long, List<Integer>> toUses = groupUses(toKeys);
+		for (Map.Entry<Long, List<Integer>> entry : fromUses.entrySet()) {
+			List<Integer> fromGroup = entry.getValue();
+			List<Integer> toGroup = toUses.get(entry.getKey());
+			if (toGroup == null || toGroup.size() != fromGroup.size()) {
+				continue;
+			}
+			for (int i = 0; i < fromGroup.size(); i++) {
+				int fromTarget = fromTargets[fromGroup.get(i)];
+				int toTarget = toTargets[toGroup.get(i)];
+				if (fromTarget >= 0 && toTarget >= 0) {
+					votes.add(matching, fromTarget, toTarget, 1.0);
+				}
+			}
+		}
+	}
+
+	private static Map<Long, List<Integer>> groupUses(long[] keys) {
+		Map<Long, List<Integer>> groups = new HashMap<>();
+		for (int i = 0; i < keys.length; i++) {
+			List<Integer> group = groups.get(keys[i]);
+			if (group == null) {
+				group = new ArrayList<>();
+				groups.put(keys[i], group);
+			}
+			group.add(i);
+		}
+		return groups;
+	}
+
+	/**
+	 * Gets the number of rounds of voting it took to find every match.
+	 *
+	 * @return the number of rounds
+	 */
+	public int getRoundCount() {
+		return roundCount;
+	}
+
+	/**
+	 * Gets the class hierarchy of the old revision.
+	 *
+	 * @return the hierarchy that the matches are from
+	 */
+	public ClassHierarchy getFromHierarchy() {
+		return from.hierarchy;
+	}
+
+	/**
+	 * Gets the class hierarchy of the new revision.
+	 *
+	 * @return the hierarchy that the matches are to
+	 */
+	public ClassHierarchy getToHierarchy() {
+		return to.hierarchy;
+	}
+
+	/**
+	 * Gets the class of the new revision matched with a class of the old one.
+	 *
+	 * @param classId the number of the class in the old revision
+	 * @return the number of the matching class in the new revision, or -1 if it has no match
+	 */
+	public int getClassMatch(int classId) {
+		return classes.forward[classId];
+	}
+
+	/**
+	 * Gets the method of the new revision matched with a method of the old one.
+	 *
+	 * @param methodId the number of the method in the old revision
+	 * @return the number of the matching method in the new revision, or -1 if it has no match
+	 */
+	public int getMethodMatch(int methodId) {
+		return methods.forward[methodId];
+	}
+
+	/**
+	 * Gets the field of the new revision matched with a field of the old one.
+	 *
+	 * @param field the field of the old revision, named by the class declaring it
+	 * @return the matching field of the new revision, or <code>null</code> if it has no match
+	 */
+	public FieldReference getFieldMatch(FieldReference field) {
+		Integer fieldId = from.fieldIds.get(field);
+		int match = (fieldId != null ? fields.forward[fieldId] : -1);
+		return (match >= 0 ? to.fields[match] : null);
+	}
+
+	/**
+	 * Gets the numbers of matched classes, methods and fields.
+	 *
+	 * @return an array of the number of class, method and field matches
+	 */
+	public int[] getMatchCounts() {
+		return new int[] { classes.count, methods.count, fields.count };
+	}
+
+	/**
+	 * Writes the matches to a mapping file, in the format of ProGuard's mapping files: a line <code>old.Name -&gt; new.Name:</code> for each matched class, followed by an indented line <code>type name -&gt; newName</code> for each matched field and <code>returnType name(argTypes) -&gt; newName</code> for each matched method of the class, where the types are those of the old revision. Members matched with a member of a class other than the match of their own class can't be expressed in this format, and are left out.
+	 *
+	 * @param file the path of the file to write
+	 * @throws IOException if the file can't be written
+	 */
+	public void writeMapping(Path file) throws IOException {
+		try (PrintWriter out = new PrintWriter(new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8)))) {
+			for (int fromClass = 0; fromClass < from.hierarchy.getClassCount(); fromClass++) {
+				int toClass = classes.forward[fromClass];
+				if (toClass < 0) {
+					continue;
+				}
+				out.println(from.hierarchy.getClass(fromClass).thisType + " -> " + to.hierarchy.getClass(toClass).thisType + ":");
+				for (int field = from.classFieldStarts[fromClass]; field < from.classFieldStarts[fromClass + 1]; field++) {
+					int match = fields.forward[field];
+					if (match >= 0 && to.fieldClasses[match] == toClass) {
+						out.println("    " + from.fields[field].type + " " + from.fields[field].name + " -> " + to.fields[match].name);
+					}
+				}
+				for (int method = from.hierarchy.getFirstMethod(fromClass); method < from.hierarchy.getFirstMethod(fromClass + 1); method++) {
+					int match = methods.forward[method];
+					if (match >= 0 && to.hierarchy.getDeclaringClass(match) == toClass) {
+						MethodReference reference = from.hierarchy.getMethod(method).reference;
+						StringBuilder line = new StringBuilder("    ").append(reference.returnType).append(' ').append(reference.name).append('(');
+						String separator = "";
+						for (ClassReference argType : reference.argTypes) {
+							line.append(separator).append(argType);
+							separator = ",";
+						}
+						out.println(line.append(") -> ").append(to.hierarchy.getMethod(match).reference.name));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * One revision of the program, with everything about it that the matching looks up.
+	 */
+	private static class Revision {
+
+		public final ClassHierarchy hierarchy;
+		public final FingerprintIndex fingerprints;
+		//the fields declared by the classes of the program, with the fields of class c numbered from classFieldStarts[c] up to classFieldStarts[c + 1]
+		public final FieldReference[] fields;
+		public final int[] fieldClasses;
+		public final int[] classFieldStarts;
+		public final Map<FieldReference, Integer> fieldIds = new HashMap<>();
+		//the type of each field with the classes of the program erased, and whether it's static
+		public final String[] fieldKeys;
+		//the name of each method that can't be renamed, i.e., of constructors and library overrides, with the classes of its descriptor erased, or null
+		public final String[] stableNames;
+		//the hashed, erased keys and the resolved targets (or -1) of the calls and field accesses of each method, in bytecode order
+		public final long[][] callKeys;
+		public final int[][] callTargets;
+		public final long[][] fieldUseKeys;
+		public final int[][] fieldUseTargets;
+
+		public Revision(Collection<JavaClass> program) {
+			hierarchy = new ClassHierarchy(program);
+			fingerprints = new FingerprintIndex(hierarchy);
+			int classCount = hierarchy.getClassCount();
+			List<FieldReference> fieldList = new ArrayList<>();
+			List<String> keyList = new ArrayList<>();
+			classFieldStarts = new int[classCount + 1];
+			for (int id = 0; id < classCount; id++) {
+				classFieldStarts[id] = fieldList.size();
+				for (JavaField field : hierarchy.getClass(id).fields.values()) {
+					fieldIds.put(field.reference, fieldList.size());
+					fieldList.add(field.reference);
+					keyList.add(field.flags.isStatic + " " + MethodFingerprint.eraseType(field.reference.type, hierarchy));
+				}
+			}
+			classFieldStarts[classCount] = fieldList.size();
+			fields = fieldList.toArray(new FieldReference[fieldList.size()]);
+			fieldKeys = keyList.toArray(new String[keyList.size()]);
+			fieldClasses = new int[fields.length];
+			for (int id = 0; id < classCount; id++) {
+				Arrays.fill(fieldClasses, classFieldStarts[id], classFieldStarts[id + 1], id);
+			}
+			int methodCount = hierarchy.getMethodCount();
+			stableNames = new String[methodCount];
+			callKeys = new long[methodCount][];
+			callTargets = new int[methodCount][];
+			fieldUseKeys = new long[methodCount][];
+			fieldUseTargets = new int[methodCount][];
+			ParallelUtils.forEachIndex(methodCount, new ParallelUtils.IndexTask() {
+				@Override
+				public void run(int method) {
+					scanMethod(method);
+				}
+			});
+		}
+
+		private void scanMethod(int method) {
+			JavaMethod javaMethod = hierarchy.getMethod(method);
+			MethodReference reference = javaMethod.reference;
+			if (reference.name.startsWith("<") || (!javaMethod.flags.isStatic && !javaMethod.flags.isPrivate && overridesLibraryMethod(hierarchy.getDeclaringClass(method), reference))) {
+				stableNames[method] = reference.name + MethodFingerprint.eraseDescriptor(reference, hierarchy);
+			}
+			List<Long> calls = new ArrayList<>();
+			List<Integer> callMethods = new ArrayList<>();
+			List<Long> fieldUses = new ArrayList<>();
+			List<Integer> fieldUseFields = new ArrayList<>();
+			if (javaMethod.code != null) {
+				for (Opcode op : javaMethod.code.ops) {
+					if (op == null) {
+						continue;
+					}
+					if (op.type == OpType.METHOD_INVOKE) {
+						MethodInvocation invocation = (MethodInvocation) op.data;
+						if (MethodFingerprint.isProgramClass(invocation.method.enclosingClass, hierarchy)) {
+							calls.add(MethodFingerprint.hash(invocation.type + " " + MethodFingerprint.eraseDescriptor(invocation.method, hierarchy)));
+							callMethods.add(hierarchy.resolveMethod(invocation.method));
+						}
+					} else if (op.type == OpType.FIELD_LOAD || op.type == OpType.FIELD_STORE) {
+						FieldAccessor accessor = (FieldAccessor) op.data;
+						if (MethodFingerprint.isProgramClass(accessor.field.enclosingClass, hierarchy)) {
+							fieldUses.add(MethodFingerprint.hash(op.type + " " + accessor.isStatic + " " + MethodFingerprint.eraseType(accessor.field.type, hierarchy)));
+							fieldUseFields.add(resolveField(accessor.field));
+						}
+					}
+				}
+			}
+			callKeys[method] = toLongArray(calls);
+			callTargets[method] = toIntArray(callMethods);
+			fieldUseKeys[method] = toLongArray(fieldUses);
+			fieldUseTargets[method] = toIntArray(fieldUseFields);
+		}
+
+		/**
+		 * Finds the field that a field reference refers to, which is declared by the class named by the reference or one of its superclasses.
+		 *
+		 * @param field the field reference
+		 * @return the number of the field, or -1 if it isn't declared in the program
+		 */
+		private int resolveField(FieldReference field) {
+			for (int id = hierarchy.getId(field.enclosingClass); id >= 0; id = hierarchy.getSuperclass(id)) {
+				Integer fieldId = fieldIds.get(new FieldReference(hierarchy.getClass(id).thisType, field.name, field.type));
+				if (fieldId != null) {
+					return fieldId;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Determines whether a method overrides a method of a library supertype of its class, whose name therefore can't have been changed by the obfuscator.
+		 *
+		 * @param classId the number of the class declaring the method
+		 * @param method the method
+		 * @return whether a library supertype declares a method with the same name and descriptor
+		 */
+		private boolean overridesLibraryMethod(int classId, MethodReference method) {
+			for (ClassReference library : findLibrarySupertypes(classId)) {
+				if (declaresMethod(library, method, new ArrayList<ClassReference>())) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private static boolean declaresMethod(ClassReference type, MethodReference method, List<ClassReference> visited) {
+			if (visited.contains(type)) {
+				return false;
+			}
+			visited.add(type);
+			JavaClass clazz;
+			try {
+				clazz = ClassStore.findClass(type);
+			} catch (ClassFormatException e) {
+				//a library class that can't be read is treated like one that can't be found
+				clazz = null;
+			}
+			if (clazz == null) {
+				return false;
+			}
+			if (clazz.methods.containsKey(new MethodReference(clazz.thisType, method.name, method.argTypes, method.returnType))) {
+				return true;
+			}
+			if (clazz.superType != null && declaresMethod(clazz.superType, method, visited)) {
+				return true;
+			}
+			for (ClassReference implemented : clazz.interfaces) {
+				if (declaresMethod(implemented, method, visited)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Finds the supertypes of a class that aren't part of the program, directly or through its supertypes in the program.
+		 *
+		 * @param classId the number of the class
+		 * @return the names of the library supertypes, sorted
+		 */
+		private TreeSet<ClassReference> findLibrarySupertypes(int classId) {
+			TreeSet<ClassReference> libraries = new TreeSet<>(new Comparator<ClassReference>() {
+				@Override
+				public int compare(ClassReference type1, ClassReference type2) {
+					return type1.className.compareTo(type2.className);
+				}
+			});
+			addLibrarySupertypes(classId, libraries, new BitSet());
+			return libraries;
+		}
+
+		private void addLibrarySupertypes(int classId, TreeSet<ClassReference> libraries, BitSet visited) {
+			if (visited.get(classId)) {
+				return;
+			}
+			visited.set(classId);
+			JavaClass clazz = hierarchy.getClass(classId);
+			List<ClassReference> supertypes = new ArrayList<>(clazz.interfaces);
+			if (clazz.superType != null) {
+				supertypes.add(clazz.superType);
+			}
+			for (ClassReference supertype : supertypes) {
+				int id = hierarchy.getId(supertype);
+				if (id >= 0) {
+					addLibrarySupertypes(id, libraries, visited);
+				} else {
+					libraries.add(supertype);
+				}
+			}
+		}
+
+		/**
+		 * Finds the classes whose direct library supertypes no other class of the program has, other than classes that only extend <code>Object</code>.
+		 *
+		 * @return the number of each such class, keyed by the names of its direct library supertypes
+		 */
+		public Map<String, Integer> findUniqueLibrarySupertypes() {
+			Map<String, Integer> unique = new HashMap<>();
+			Map<String, Integer> counts = new HashMap<>();
+			for (int id = 0; id < hierarchy.getClassCount(); id++) {
+				JavaClass clazz = hierarchy.getClass(id);
+				TreeSet<String> names = new TreeSet<>();
+				if (clazz.superType != null && hierarchy.getId(clazz.superType) < 0 && !clazz.superType.equals(ClassReference.OBJECT)) {
+					names.add(clazz.superType.className);
+				}
+				for (ClassReference implemented : clazz.interfaces) {
+					if (hierarchy.getId(implemented) < 0) {
+						names.add(implemented.className);
+					}
+				}
+				if (names.isEmpty()) {
+					continue;
+				}
+				String key = names.toString();
+				Integer count = counts.get(key);
+				counts.put(key, (count == null ? 1 : count + 1));
+				unique.put(key, id);
+			}
+			for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+				if (entry.getValue() > 1) {
+					unique.remove(entry.getKey());
+				}
+			}
+			return unique;
+		}
+
+		private static long[] toLongArray(List<Long> values) {
+			long[] array = new long[values.size()];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = values.get(i);
+			}
+			return array;
+		}
+
+		private static int[] toIntArray(List<Integer> values) {
+			int[] array = new int[values.size()];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = values.get(i);
+			}
+			return array;
+		}
+
+	}
+
+	/**
+	 * The matches and candidate scores of one kind of entity (i.e., classes, methods or fields) between the revisions.
+	 */
+	private static class Matching {
+
+		//the match of each entity of each revision, or -1
+		public final int[] forward;
+		public final int[] backward;
+		public int count;
+		//the scores of the candidates of each entity of each revision, created when the first vote arrives
+		private final Map<Integer, Double>[] forwardScores;
+		private final Map<Integer, Double>[] backwardScores;
+		//the entities of the old revision whose best candidates may have changed since the last evaluation
+		public final BitSet dirty = new BitSet();
+		//the entities of the old revision matched since the last propagation
+		public final List<Integer> added = new ArrayList<>();
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		public Matching(int fromCount, int toCount) {
+			forward = new int[fromCount];
+			backward = new int[toCount];
+			Arrays.fill(forward, -1);
+			Arrays.fill(backward, -1);
+			forwardScores = new Map[fromCount];
+			backwardScores = new Map[toCount];
+		}
+
+		public void vote(int from, int to, double weight) {
+			if (forward[from] >= 0 || backward[to] >= 0) {
+				return;
+			}
+			if (forwardScores[from] == null) {
+				forwardScores[from] = new HashMap<>();
+			}
+			if (backwardScores[to] == null) {
+				backwardScores[to] = new HashMap<>();
+			}
+			Double score = forwardScores[from].get(to);
+			double newScore = (score != null ? score : 0.0) + weight;
+			forwardScores[from].put(to, newScore);
+			backwardScores[to].put(from, newScore);
+			dirty.set(from);
+		}
+
+		public void accept(int from, int to) {
+			if (forward[from] >= 0 || backward[to] >= 0) {
+				return;
+			}
+			forward[from] = to;
+			backward[to] = from;
+			count++;
+			added.add(from);
+			//the other candidates of the pair may now be the best of what's left
+			if (backwardScores[to] != null) {
+				for (int other : backwardScores[to].keySet()) {
+					dirty.set(other);
+				}
+			}
+			if (forwardScores[from] != null) {
+				for (int other : forwardScores[from].keySet()) {
+					if (backwardScores[other] != null) {
+						for (int competitor : backwardScores[other].keySet()) {
+							dirty.set(competitor);
+						}
+					}
+				}
+			}
+		}
+
+		public int[] takeAdded() {
+			int[] result = new int[added.size()];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = added.get(i);
+			}
+			added.clear();
+			return result;
+		}
+
+		/**
+		 * Rescores the dirty entities in parallel, and matches every pair that is each other's clear best candidate.
+		 */
+		public void evaluate() {
+			final int[] candidates = new int[dirty.cardinality()];
+			for (int from = dirty.nextSetBit(0), i = 0; from >= 0; from = dirty.nextSetBit(from + 1)) {
+				candidates[i++] = from;
+			}
+			dirty.clear();
+			final int[] choices = new int[candidates.length];
+			ParallelUtils.forEachIndex(candidates.length, new ParallelUtils.IndexTask() {
+				@Override
+				public void run(int index) {
+					int from = candidates[index];
+					int to = (forward[from] < 0 ? findBest(forwardScores[from], backward) : -1);
+					choices[index] = (to >= 0 && findBest(backwardScores[to], forward) == from ? to : -1);
+				}
+			});
+			for (int i = 0; i < candidates.length; i++) {
+				if (choices[i] >= 0) {
+					accept(candidates[i], choices[i]);
+				}
+			}
+		}
+
+		/**
+		 * Finds the unmatched candidate with the highest score, if its score is high enough and higher than that of every other unmatched candidate.
+		 *
+		 * @param scores the scores of the candidates
+		 * @param matches the matches of the candidates, which are only considered if they're -1
+		 * @return the best candidate, or -1 if there is no clear best
+		 */
+		private static int findBest(Map<Integer, Double> scores, int[] matches) {
+			if (scores == null) {
+				return -1;
+			}
+			int best = -1;
+			double bestScore = 0.0;
+			double secondScore = 0.0;
+			for (Map.Entry<Integer, Double> entry : scores.entrySet()) {
+				if (matches[entry.getKey()] >= 0) {
+					continue;
+				}
+				double score = entry.getValue();
+				if (score > bestScore) {
+					secondScore = bestScore;
+					best = entry.getKey();
+					bestScore = score;
+				} else if (score > secondScore) {
+					secondScore = score;
+				}
+			}
+			return (bestScore >= MIN_SCORE && bestScore > secondScore ? best : -1);
+		}
+
+	}
+
+	/**
+	 * The votes collected by one task of a round, which are added to the scores once every task is done.
+	 */
+	private static class VoteList {
+
+		public int count;
+		public Matching[] matchings = new Matching[16];
+		public int[] froms = new int[16];
+		public int[] tos = new int[16];
+		public double[] weights = new double[16];
+
+		public void add(Matching matching, int from, int to, double weight) {
+			if (count == froms.length) {
+				matchings = Arrays.copyOf(matchings, count * 2);
+				froms = Arrays.copyOf(froms, count * 2);
+				tos = Arrays.copyOf(tos, count * 2);
+				weights = Arrays.copyOf(weights, count * 2);
+			}
+			matchings[count] = matching;
+			froms[count] = from;
+			tos[count] = to;
+			weights[count++] = weight;
+		}
+
+	}
+
+}
@@ -277,6 +277,53 @@ public class ClassReference {
 		}
 	}
 
+	/**
+	 * Creates the string contents of a constant pool entry of type CONSTANT_CLASS for the class represented by this reference, i.e., the inverse of {@link #fromConstant(String)}: the internal binary name of a non-array class, or the descriptor of an array class.
+	 * 
+	 * @return the constant pool class-representing string
+	 */
+	public String toConstant() {
+		if (arrayDimension > 0) {
+			return toDescriptor();
+		} else {
+			return className.replace('.', '/');
+		}
+	}
+
+	/**
+	 * Creates the class file descriptor of the class represented by this reference, e.g., <code>[Ljava/lang/String;</code> for <code>java.lang.String[]</code>, which is the inverse of parsing a descriptor with {@link #ClassReference(String)}.
+	 * 
+	 * @return the JVM internal descriptor for this class
+	 */
+	public String toDescriptor() {
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < arrayDimension; i++) {
+			result.append('[');
+		}
+		switch (primitive) {
+		case BOOLEAN:
+			return result.append('Z').toString();
+		case BYTE:
+			return result.append('B').toString();
+		case CHAR:
+			return result.append('C').toString();
+		case SHORT:
+			return result.append('S').toString();
+		case INT:
+			return result.append('I').toString();
+		case LONG:
+			return result.append('J').toString();
+		case FLOAT:
+			return result.append('F').toString();
+		case DOUBLE:
+			return result.append('D').toString();
+		case VOID:
+			return result.append('V').toString();
+		default:
+			return result.append('L').append(className.replace('.', '/')).append(';').toString();
+		}
+	}
+
 	/**
 	 * Returns the appropriate class reference for a given computational type.
 	 * 
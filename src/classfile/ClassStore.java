@@ -3,6 +3,7 @@ package classfile;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.ByteBuffer;
+import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
@@ -10,17 +11,22 @@ import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import util.ParallelUtils;
 import analysis.flow.BasicBlockGraph;
 import classfile.struct.ClassStruct;
 
 public class ClassStore {
 
-	private static Map<ClassReference, JavaClass> classes = new HashMap<>();
+	//classes may be loaded from several threads at once by loadAllClasses
+	private static Map<ClassReference, JavaClass> classes = new ConcurrentHashMap<>();
 	private static Map<String, Set<Path>> paths = new HashMap<>();
 
 	private static final ClassVisitor VISITOR = new ClassVisitor();
@@ -63,6 +69,99 @@ public class ClassStore {
 		}
 	}
 
+	/**
+	 * Gets every class file found on the search paths so far.
+	 * 
+	 * @return the paths of the class files, in no particular order
+	 */
+	public static List<Path> getClassFiles() {
+		List<Path> files = new ArrayList<>();
+		for (Set<Path> pathSet : paths.values()) {
+			files.addAll(pathSet);
+		}
+		return files;
+	}
+
+	/**
+	 * Loads every class file found on the search paths, parsing the files in parallel. Files that can't be read or aren't valid class files are skipped.
+	 * 
+	 * @return the loaded classes, in no particular order
+	 */
+	public static List<JavaClass> loadAllClasses() {
+		final List<Path> files = getClassFiles();
+		final JavaClass[] loaded = new JavaClass[files.size()];
+		ParallelUtils.forEachIndex(loaded.length, new ParallelUtils.IndexTask() {
+			@Override
+			public void run(int index) {
+				try {
+					loaded[index] = loadClass(files.get(index));
+				} catch (IOException e) {
+					e.printStackTrace();
+				} catch (ClassFormatException e) {
+					//a broken class shouldn't stop the rest of the program from loading
+				}
+			}
+		});
+		List<JavaClass> result = new ArrayList<>(loaded.length);
+		for (JavaClass clazz : loaded) {
+			if (clazz != null) {
+				result.add(clazz);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Reads every class file in a jar or directory, parsing the files in parallel, without adding the path to the search paths or the classes to the store. This allows several revisions of a program, which may have classes with the same names, to be loaded side by side. Files that aren't valid class files are skipped.
+	 * 
+	 * @param path the jar or directory to read
+	 * @return the classes read, in no particular order
+	 * @throws IOException if the jar or directory can't be read
+	 */
+	public static List<JavaClass> readClasses(Path path) throws IOException {
+		if (Files.isDirectory(path)) {
+			return readClassFiles(path);
+		}
+		//the files of a jar can only be read while its file system is open, so it is closed only after the parallel read
+		try (FileSystem jar = FileSystems.newFileSystem(path, null)) {
+			return readClassFiles(jar.getPath("/"));
+		}
+	}
+
+	private static List<JavaClass> readClassFiles(Path root) throws IOException {
+		final List<Path> files = new ArrayList<>();
+		SimpleFileVisitor<Path> visitor = new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if (!attrs.isDirectory() && file.getFileName().toString().endsWith(".class")) {
+					files.add(file);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		};
+		Files.walkFileTree(root, visitor);
+		final JavaClass[] read = new JavaClass[files.size()];
+		ParallelUtils.forEachIndex(read.length, new ParallelUtils.IndexTask() {
+			@Override
+			public void run(int index) {
+				try {
+					read[index] = new JavaClass(new ClassStruct().read(ByteBuffer.wrap(Files.readAllBytes(files.get(index)))));
+				} catch (IOException e) {
+					e.printStackTrace();
+				} catch (ClassFormatException e) {
+					//a broken class shouldn't stop the rest of the program from loading
+				}
+			}
+		});
+		List<JavaClass> result = new ArrayList<>(read.length);
+		for (JavaClass clazz : read) {
+			if (clazz != null) {
+				result.add(clazz);
+			}
+		}
+		return result;
+	}
+
 	public static void clear() {
 		classes.clear();
 	}
@@ -0,0 +1,19 @@
+package classfile;
+
+/**
+ * A change made to each class passing through a {@link JarTransformer}. Transforms are chained, with every transform of the chain given the same {@link ClassWriter} for a class, so a transform sees the code replaced by the transforms before it through {@link ClassWriter#getCode(MethodReference)}, rather than the code of the {@link JavaClass}, which is always the original. A class that no transform has changed is copied to the output jar as is.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public interface ClassTransform {
+
+	/**
+	 * Changes a class. This is called for many classes at once from several threads, so anything shared between classes must be safe to use concurrently.
+	 *
+	 * @param clazz the class as read from the input jar
+	 * @param writer the writer of the class, which holds the changes made by this transform and the transforms before it
+	 */
+	void transform(JavaClass clazz, ClassWriter writer);
+
+}
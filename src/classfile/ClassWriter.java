@@ -0,0 +1,251 @@
+package classfile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import classfile.code.Code;
+import classfile.code.CodeWriter;
+import classfile.code.opcodes.MethodInvocation;
+import classfile.code.opcodes.MethodType;
+import classfile.code.opcodes.OpType;
+import classfile.code.opcodes.Opcode;
+import classfile.constant.ConstantPoolBuilder;
+import classfile.struct.AttributeStruct;
+import classfile.struct.ClassStruct;
+import classfile.struct.ConstantEntryStruct;
+import classfile.struct.FieldStruct;
+import classfile.struct.MethodStruct;
+
+/**
+ * Writes a {@link JavaClass} back into a class file, with the code of some of its methods replaced. Everything in the class that isn't replaced is copied byte for byte from the raw structure that the class was read from, including the whole original constant pool, which stays at the same indices so that the copied attributes still refer to the right constants; the constants used by the replaced code are added to the end of the pool by a {@link ConstantPoolBuilder}, which reuses any constant already in the pool. Writing a class without replacing any code is therefore little more than copying its bytes, so a whole jar can be rewritten at close to the speed of reading and writing it.
+ * <p>
+ * The code of a replaced method is encoded by a {@link CodeWriter}, which recomputes its maximum stack size and locals, and leaves out the attributes of the original code, since they refer to the original layout. Among them is the StackMapTable, which a class file of version 51 (Java 7) or later must have for the verifier to accept its code, and which would take a full type analysis of the code to compute; instead, a class with replaced code is written as version 50 (Java 6), the last version whose verifier infers the types itself when the StackMapTable is missing. This doesn't change the meaning of the class, as long as it doesn't use anything that needs version 52 (Java 8), i.e., an interface declaring methods with code, or code calling an interface method through invokestatic or invokespecial; such a class can be neither downgraded nor written without a StackMapTable, so writing it with replaced code fails rather than producing a class file that won't load.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class ClassWriter {
+
+	//the latest version of class files that can be verified without a StackMapTable
+	private static final int MAX_UNFRAMED_VERSION = 50;
+	//the version of class files that added default and static methods to interfaces
+	private static final int INTERFACE_METHODS_VERSION = 52;
+
+	private final JavaClass clazz;
+	private final Map<MethodReference, Code> replacedCode = new HashMap<>();
+
+	/**
+	 * Creates a writer for a class, which writes the class unchanged until code is replaced.
+	 *
+	 * @param clazz the class to write, whose raw structure the unchanged parts are copied from
+	 */
+	public ClassWriter(JavaClass clazz) {
+		this.clazz = clazz;
+	}
+
+	/**
+	 * Replaces the code of a method of the class.
+	 *
+	 * @param method the method, which must be declared by the class and have code
+	 * @param code the new code of the method
+	 * @throws IllegalArgumentException if the class doesn't declare the method, or the method is abstract or native
+	 */
+	public void setCode(MethodReference method, Code code) {
+		JavaMethod javaMethod = clazz.methods.get(method);
+		if (javaMethod == null || javaMethod.code == null) {
+			throw new IllegalArgumentException("Method " + method + " has no code to replace in " + clazz.thisType + "!");
+		}
+		replacedCode.put(method, code);
+	}
+
+	/**
+	 * Gets the current code of a method of the class, so that several changes to the same method build on each other.
+	 *
+	 * @param method the method
+	 * @return the code that replaced the code of the method, or the original code if it hasn't been replaced, or <code>null</code> if the class doesn't declare the method or the method has no code
+	 */
+	public Code getCode(MethodReference method) {
+		Code code = replacedCode.get(method);
+		if (code != null) {
+			return code;
+		}
+		JavaMethod javaMethod = clazz.methods.get(method);
+		return (javaMethod != null ? javaMethod.code : null);
+	}
+
+	/**
+	 * Checks whether any code of the class has been replaced, i.e., whether the class written differs from the original class file.
+	 *
+	 * @return <code>true</code> if the code of a method has been replaced
+	 */
+	public boolean isChanged() {
+		return !replacedCode.isEmpty();
+	}
+
+	/**
+	 * Writes the class file.
+	 *
+	 * @return the bytes of the class file
+	 * @throws ClassFormatException if the class has grown past the limits of a class file, e.g., its constant pool has too many entries, or it has replaced code and needs class file version 52
+	 */
+	public byte[] toByteArray() {
+		ClassStruct struct = clazz.struct;
+		int minorVersion = struct.minorVersion;
+		int majorVersion = struct.majorVersion;
+		if (!replacedCode.isEmpty() && majorVersion > MAX_UNFRAMED_VERSION) {
+			if (majorVersion >= INTERFACE_METHODS_VERSION && (hasInterfaceMethods() || callsInterfaceMethods())) {
+				throw new ClassFormatException("Class " + clazz.thisType + " needs class file version " + INTERFACE_METHODS_VERSION + ", which can't be verified without a StackMapTable for its replaced code!");
+			}
+			minorVersion = 0;
+			majorVersion = MAX_UNFRAMED_VERSION;
+		}
+		ConstantPoolBuilder pool = new ConstantPoolBuilder(struct);
+		CodeWriter codeWriter = new CodeWriter(pool);
+		//the body is written first, since the constant pool before it isn't complete until the replaced code has been encoded
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(body);
+		try {
+			out.writeShort(struct.accessFlags);
+			out.writeShort(struct.thisClass);
+			out.writeShort(struct.superClass);
+			out.writeShort(struct.interfacesCount);
+			for (int i = 0; i < struct.interfacesCount; i++) {
+				out.writeShort(struct.interfaces[i]);
+			}
+			out.writeShort(struct.fieldsCount);
+			for (int i = 0; i < struct.fieldsCount; i++) {
+				FieldStruct field = struct.fields[i];
+				out.writeShort(field.accessFlags);
+				out.writeShort(field.nameIndex);
+				out.writeShort(field.descriptorIndex);
+				writeAttributes(field.attributes, field.attributesCount, out);
+			}
+			out.writeShort(struct.methodsCount);
+			for (int i = 0; i < struct.methodsCount; i++) {
+				writeMethod(struct.methods[i], pool, codeWriter, out);
+			}
+			writeAttributes(struct.attributes, struct.attributesCount, out);
+			ByteArrayOutputStream file = new ByteArrayOutputStream(body.size() + pool.getCount() * 8 + 16);
+			DataOutputStream header = new DataOutputStream(file);
+			header.writeInt(JavaClass.MAGIC);
+			header.writeShort(minorVersion);
+			header.writeShort(majorVersion);
+			header.writeShort(pool.getCount());
+			pool.writeTo(header);
+			body.writeTo(header);
+			return file.toByteArray();
+		} catch (IOException e) {
+			//writing to an array never fails
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Checks whether the class is an interface that needs a class file version of at least 52, i.e., declares a method with code other than its static initializer.
+	 */
+	private boolean hasInterfaceMethods() {
+		if (!clazz.flags.isInterface) {
+			return false;
+		}
+		for (JavaMethod method : clazz.methods.values()) {
+			if (method.code != null && !method.reference.name.equals("<clinit>")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether the code of the class, as it will be written, calls an interface method through invokestatic or invokespecial, which needs a class file version of at least 52. Such a call refers to an interface method entry of the constant pool, and replaced code can only refer to one that is already in the original pool, since {@link ConstantPoolBuilder#addMethod(MethodReference, boolean)} only adds interface method entries for invokeinterface, and prefers a method entry to an interface method entry; so the calls are looked for among the methods that the original pool only has interface method entries for.
+	 */
+	private boolean callsInterfaceMethods() {
+		ClassStruct struct = clazz.struct;
+		Set<MethodReference> interfaceMethods = new HashSet<>();
+		Set<MethodReference> methods = new HashSet<>();
+		for (int i = 1; i < struct.constantPoolCount; i++) {
+			//the entry after a long or double is unused
+			ConstantEntryStruct entry = struct.constantPool[i];
+			if (entry != null && entry.tag == ConstantEntryStruct.INTERFACE_METHOD_REF) {
+				interfaceMethods.add((MethodReference) clazz.getConstant(i).data);
+			} else if (entry != null && entry.tag == ConstantEntryStruct.METHOD_REF) {
+				methods.add((MethodReference) clazz.getConstant(i).data);
+			}
+		}
+		interfaceMethods.removeAll(methods);
+		if (interfaceMethods.isEmpty()) {
+			return false;
+		}
+		for (MethodReference method : clazz.methods.keySet()) {
+			Code code = getCode(method);
+			if (code == null) {
+				continue;
+			}
+			for (Opcode op : code.ops) {
+				if (op != null && op.type == OpType.METHOD_INVOKE) {
+					MethodInvocation invocation = (MethodInvocation) op.data;
+					if ((invocation.type == MethodType.STATIC || invocation.type == MethodType.SPECIAL) && interfaceMethods.contains(invocation.method)) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	private void writeMethod(MethodStruct method, ConstantPoolBuilder pool, CodeWriter codeWriter, DataOutputStream out) throws IOException {
+		out.writeShort(method.accessFlags);
+		out.writeShort(method.nameIndex);
+		out.writeShort(method.descriptorIndex);
+		Code code = null;
+		MethodReference reference = null;
+		if (!replacedCode.isEmpty()) {
+			reference = new MethodReference(clazz.thisType, (String) clazz.getConstant(method.nameIndex).data, (String) clazz.getConstant(method.descriptorIndex).data);
+			code = replacedCode.get(reference);
+		}
+		if (code == null) {
+			writeAttributes(method.attributes, method.attributesCount, out);
+			return;
+		}
+		out.writeShort(method.attributesCount);
+		for (int i = 0; i < method.attributesCount; i++) {
+			AttributeStruct attribute = method.attributes[i];
+			if (AttributeStruct.CODE.equals(clazz.getConstant(attribute.attributeNameIndex).data)) {
+				byte[] info = codeWriter.write(code, reference, clazz.methods.get(reference).flags.isStatic);
+				out.writeShort(attribute.attributeNameIndex);
+				out.writeInt(info.length);
+				out.write(info);
+			} else {
+				writeAttribute(attribute, out);
+			}
+		}
+	}
+
+	private static void writeAttributes(AttributeStruct[] attributes, int attributesCount, DataOutputStream out) throws IOException {
+		out.writeShort(attributesCount);
+		for (int i = 0; i < attributesCount; i++) {
+			writeAttribute(attributes[i], out);
+		}
+	}
+
+	private static void writeAttribute(AttributeStruct attribute, DataOutputStream out) throws IOException {
+		out.writeShort(attribute.attributeNameIndex);
+		out.writeInt(attribute.attributeLength);
+		//the attribute may have been read from already, so it is copied from its start
+		ByteBuffer info = attribute.info.duplicate();
+		info.rewind();
+		if (info.hasArray()) {
+			out.write(info.array(), info.arrayOffset(), attribute.attributeLength);
+		} else {
+			byte[] data = new byte[attribute.attributeLength];
+			info.get(data);
+			out.write(data);
+		}
+	}
+
+}
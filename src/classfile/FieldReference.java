@@ -18,6 +18,49 @@ public class FieldReference {
 		this.type = new ClassReference(type);
 	}
 	
+	public FieldReference(ClassReference enclosingClass, String name, ClassReference type) {
+		this.enclosingClass = enclosingClass;
+		this.name = name;
+		this.type = type;
+	}
+	
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((enclosingClass == null) ? 0 : enclosingClass.hashCode());
+		result = prime * result + ((name == null) ? 0 : name.hashCode());
+		result = prime * result + ((type == null) ? 0 : type.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		FieldReference other = (FieldReference) obj;
+		if (enclosingClass == null) {
+			if (other.enclosingClass != null)
+				return false;
+		} else if (!enclosingClass.equals(other.enclosingClass))
+			return false;
+		if (name == null) {
+			if (other.name != null)
+				return false;
+		} else if (!name.equals(other.name))
+			return false;
+		if (type == null) {
+			if (other.type != null)
+				return false;
+		} else if (!type.equals(other.type))
+			return false;
+		return true;
+	}
+	
 	@Override
 	public String toString() {
 		return enclosingClass + "." + name + ":" + type;
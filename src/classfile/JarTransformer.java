@@ -0,0 +1,519 @@
+package classfile;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import util.ParallelUtils;
+import classfile.struct.ClassStruct;
+
+/**
+ * Rewrites a jar by passing each of its classes through a chain of {@link ClassTransform}s, streaming the entries of the input jar to the output jar. The classes are read, transformed and compressed in parallel, and written in the order of the entries of the input jar, so the output doesn't depend on how the work was split between the threads. Only a bounded number of entries are in memory at once, i.e., those being transformed and those waiting for an earlier entry to be written, so a jar of any size can be rewritten with little memory.
+ * <p>
+ * The jar is read and written as a zip file directly, rather than through the zip file system that {@link ClassStore} searches jars with, so that an entry can be copied without being decompressed and compressed again: every entry that isn't a class, and every class that no transform changes, is copied from the compressed bytes of the input jar. Only the classes that have changed are compressed again. A class that can't be parsed, or whose changes can't be written (e.g., because it needs a class file version that {@link ClassWriter} can't write replaced code for), is rejected and also copied unchanged, so that one bad class doesn't stop the rest of the jar from being rewritten. Zip64 jars, i.e., those over 4 GB or with more than 65535 entries, aren't supported. Note that changing the classes of a signed jar invalidates its signature.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class JarTransformer {
+
+	//the signatures of the records of a zip file
+	private static final int LOCAL_HEADER = 0x04034B50, CENTRAL_HEADER = 0x02014B50, END_OF_CENTRAL_DIRECTORY = 0x06054B50;
+	private static final int LOCAL_HEADER_SIZE = 30, CENTRAL_HEADER_SIZE = 46, END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+	private static final int STORED = 0, DEFLATED = 8;
+	private static final int FLAG_ENCRYPTED = 0x1, FLAG_DATA_DESCRIPTOR = 0x8;
+	//the version of the zip format needed to extract deflated entries
+	private static final int DEFLATE_VERSION = 20;
+	//sizes and offsets saturate to this value in zip64 files
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+	//the default number of entries each thread may have in memory
+	private static final int ENTRIES_PER_THREAD = 8;
+
+	//stands in for the result of a class that is rejected, so that rejections are counted in order with the other entries
+	private static final CompressedClass REJECTED = new CompressedClass(null, 0, 0);
+
+	private final List<ClassTransform> transforms;
+	private final int maxInFlight;
+
+	/**
+	 * Creates a transformer with the default bound on the entries in memory.
+	 *
+	 * @param transforms the transforms applied to each class, in order
+	 */
+	public JarTransformer(List<ClassTransform> transforms) {
+		this(transforms, ParallelUtils.getThreadCount() * ENTRIES_PER_THREAD);
+	}
+
+	/**
+	 * Creates a transformer.
+	 *
+	 * @param transforms the transforms applied to each class, in order
+	 * @param maxInFlight the highest number of entries held in memory at once
+	 */
+	public JarTransformer(List<ClassTransform> transforms, int maxInFlight) {
+		this.transforms = new ArrayList<>(transforms);
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Rewrites a jar.
+	 *
+	 * @param input the jar to read
+	 * @param output the jar to write, which is replaced if it exists
+	 * @return the numbers of classes changed and rejected
+	 * @throws IOException if either jar can't be read or written, or the input jar is not a valid zip file
+	 */
+	public Result transform(Path input, Path output) throws IOException {
+		if (Files.exists(output) && Files.isSameFile(input, output)) {
+			throw new IllegalArgumentException("Can't rewrite " + input + " in place!");
+		}
+		try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			JarReader reader = new JarReader(in);
+			final JarWriter writer = new JarWriter(in, out, reader.entries.size());
+			final List<Entry> entries = reader.entries;
+			final int[] changed = new int[1];
+			final int[] rejected = new int[1];
+			try {
+				ParallelUtils.forEachIndexInOrder(entries.size(), maxInFlight, new ParallelUtils.OrderedTask<CompressedClass>() {
+					@Override
+					public CompressedClass run(int index) {
+						try {
+							return transformEntry(entries.get(index), in);
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					}
+
+					@Override
+					public void complete(int index, CompressedClass result) {
+						try {
+							if (result == REJECTED) {
+								rejected[0]++;
+								result = null;
+							} else if (result != null) {
+								changed[0]++;
+							}
+							writer.write(entries.get(index), result);
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					}
+				});
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+			writer.finish(reader.comment);
+			return new Result(changed[0], rejected[0]);
+		}
+	}
+
+	/**
+	 * Runs the transforms on an entry of the input jar.
+	 *
+	 * @param entry the entry
+	 * @param in the input jar
+	 * @return the compressed class, or <code>null</code> if the entry is copied as is, or {@link #REJECTED} if the entry is a class that can't be parsed or written
+	 * @throws IOException if the entry can't be read
+	 */
+	private CompressedClass transformEntry(Entry entry, FileChannel in) throws IOException {
+		if (transforms.isEmpty() || !entry.name.endsWith(".class") || (entry.flags & FLAG_ENCRYPTED) != 0
+				|| (entry.method != STORED && entry.method != DEFLATED)) {
+			return null;
+		}
+		byte[] data = inflate(entry, readFully(in, entry.getDataOffset(in), entry.compressedSize));
+		JavaClass clazz;
+		try {
+			clazz = new JavaClass(new ClassStruct().read(ByteBuffer.wrap(data)));
+		} catch (RuntimeException e) {
+			//a truncated class file fails with whatever exception reading past its end throws, not only ClassFormatException
+			return REJECTED;
+		}
+		ClassWriter classWriter = new ClassWriter(clazz);
+		for (ClassTransform transform : transforms) {
+			transform.transform(clazz, classWriter);
+		}
+		if (!classWriter.isChanged()) {
+			return null;
+		}
+		byte[] bytes;
+		try {
+			bytes = classWriter.toByteArray();
+		} catch (ClassFormatException e) {
+			return REJECTED;
+		}
+		return CompressedClass.deflate(bytes);
+	}
+
+	private static byte[] inflate(Entry entry, byte[] compressed) throws IOException {
+		if (entry.method == STORED) {
+			return compressed;
+		}
+		byte[] data = new byte[(int) entry.size];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(compressed);
+			int length = 0;
+			while (length < data.length && !inflater.finished()) {
+				int inflated = inflater.inflate(data, length, data.length - length);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				length += inflated;
+			}
+			if (length != data.length) {
+				throw new ZipException("Entry " + entry.name + " is shorter than its size!");
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException("Invalid compressed data in entry " + entry.name + ": " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		return data;
+	}
+
+	private static byte[] readFully(FileChannel in, long position, long length) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate((int) length);
+		while (buf.hasRemaining()) {
+			if (in.read(buf, position + buf.position()) < 0) {
+				throw new ZipException("Unexpected end of zip file!");
+			}
+		}
+		return buf.array();
+	}
+
+	private static void writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+		buf.flip();
+		while (buf.hasRemaining()) {
+			out.write(buf);
+		}
+	}
+
+	/**
+	 * An entry of a zip file, as described by its header in the central directory.
+	 */
+	private static final class Entry {
+
+		int versionMadeBy;
+		int versionNeeded;
+		int flags;
+		int method;
+		int time;
+		int date;
+		int crc;
+		long compressedSize;
+		long size;
+		byte[] nameBytes;
+		String name;
+		byte[] extra;
+		byte[] comment;
+		int internalAttributes;
+		int externalAttributes;
+		long localHeaderOffset;
+		//the extra field of the local header, which may differ from that of the central directory
+		byte[] localExtra;
+		long dataOffset = -1;
+
+		/**
+		 * Gets the offset of the data of the entry, reading the local header to find it.
+		 */
+		synchronized long getDataOffset(FileChannel in) throws IOException {
+			if (dataOffset < 0) {
+				ByteBuffer header = ByteBuffer.wrap(readFully(in, localHeaderOffset, LOCAL_HEADER_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+				if (header.getInt(0) != LOCAL_HEADER) {
+					throw new ZipException("Invalid local header for entry " + name + "!");
+				}
+				int nameLength = header.getShort(26) & 0xFFFF;
+				int extraLength = header.getShort(28) & 0xFFFF;
+				localExtra = readFully(in, localHeaderOffset + LOCAL_HEADER_SIZE + nameLength, extraLength);
+				dataOffset = localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+			}
+			return dataOffset;
+		}
+
+	}
+
+	/**
+	 * The outcome of rewriting a jar.
+	 */
+	public static final class Result {
+
+		//the number of classes changed by the transforms and written to the output jar
+		public final int changedCount;
+		//the number of classes copied unchanged because they couldn't be parsed, or their changes couldn't be written
+		public final int rejectedCount;
+
+		private Result(int changedCount, int rejectedCount) {
+			this.changedCount = changedCount;
+			this.rejectedCount = rejectedCount;
+		}
+
+		@Override
+		public String toString() {
+			return changedCount + " changed, " + rejectedCount + " rejected";
+		}
+
+	}
+
+	/**
+	 * A class changed by the transforms, compressed for the output jar.
+	 */
+	private static final class CompressedClass {
+
+		final byte[] data;
+		final int size;
+		final int crc;
+
+		private CompressedClass(byte[] data, int size, int crc) {
+			this.data = data;
+			this.size = size;
+			this.crc = crc;
+		}
+
+		static CompressedClass deflate(byte[] bytes) {
+			CRC32 crc = new CRC32();
+			crc.update(bytes, 0, bytes.length);
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			try {
+				deflater.setInput(bytes);
+				deflater.finish();
+				byte[] buffer = new byte[bytes.length / 2 + 64];
+				int length = 0;
+				while (!deflater.finished()) {
+					if (length == buffer.length) {
+						buffer = Arrays.copyOf(buffer, buffer.length * 2);
+					}
+					length += deflater.deflate(buffer, length, buffer.length - length);
+				}
+				return new CompressedClass(Arrays.copyOf(buffer, length), bytes.length, (int) crc.getValue());
+			} finally {
+				deflater.end();
+			}
+		}
+
+	}
+
+	/**
+	 * Reads the central directory of a zip file.
+	 */
+	private static final class JarReader {
+
+		final List<Entry> entries;
+		final byte[] comment;
+
+		JarReader(FileChannel in) throws IOException {
+			//the end of central directory record is at the end of the file, followed only by a comment of up to 65535 bytes
+			long fileSize = in.size();
+			int tailLength = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE + 0xFFFF);
+			ByteBuffer tail = ByteBuffer.wrap(readFully(in, fileSize - tailLength, tailLength)).order(ByteOrder.LITTLE_ENDIAN);
+			int end = -1;
+			for (int i = tailLength - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+				if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY && i + END_OF_CENTRAL_DIRECTORY_SIZE + (tail.getShort(i + 20) & 0xFFFF) == tailLength) {
+					end = i;
+					break;
+				}
+			}
+			if (end < 0) {
+				throw new ZipException("Not a zip file: no end of central directory found!");
+			}
+			int entryCount = tail.getShort(end + 10) & 0xFFFF;
+			long directorySize = tail.getInt(end + 12) & ZIP64_MAGIC;
+			long directoryOffset = tail.getInt(end + 16) & ZIP64_MAGIC;
+			if (entryCount == 0xFFFF || directoryOffset == ZIP64_MAGIC || (tail.getShort(end + 4) | tail.getShort(end + 6)) != 0) {
+				throw new ZipException("Zip64 and multi-disk zip files aren't supported!");
+			}
+			comment = Arrays.copyOfRange(tail.array(), end + END_OF_CENTRAL_DIRECTORY_SIZE, tailLength);
+			ByteBuffer directory = ByteBuffer.wrap(readFully(in, directoryOffset, directorySize)).order(ByteOrder.LITTLE_ENDIAN);
+			entries = new ArrayList<>(entryCount);
+			for (int i = 0; i < entryCount; i++) {
+				if (directory.remaining() < CENTRAL_HEADER_SIZE || directory.getInt() != CENTRAL_HEADER) {
+					throw new ZipException("Invalid central directory header!");
+				}
+				Entry entry = new Entry();
+				entry.versionMadeBy = directory.getShort() & 0xFFFF;
+				entry.versionNeeded = directory.getShort() & 0xFFFF;
+				entry.flags = directory.getShort() & 0xFFFF;
+				entry.method = directory.getShort() & 0xFFFF;
+				entry.time = directory.getShort() & 0xFFFF;
+				entry.date = directory.getShort() & 0xFFFF;
+				entry.crc = directory.getInt();
+				entry.compressedSize = directory.getInt() & ZIP64_MAGIC;
+				entry.size = directory.getInt() & ZIP64_MAGIC;
+				int nameLength = directory.getShort() & 0xFFFF;
+				int extraLength = directory.getShort() & 0xFFFF;
+				int commentLength = directory.getShort() & 0xFFFF;
+				//skip the disk number
+				directory.getShort();
+				entry.internalAttributes = directory.getShort() & 0xFFFF;
+				entry.externalAttributes = directory.getInt();
+				entry.localHeaderOffset = directory.getInt() & ZIP64_MAGIC;
+				entry.nameBytes = new byte[nameLength];
+				directory.get(entry.nameBytes);
+				entry.extra = new byte[extraLength];
+				directory.get(entry.extra);
+				entry.comment = new byte[commentLength];
+				directory.get(entry.comment);
+				//jars name their entries in UTF-8, whether or not the flag for it is set
+				entry.name = new String(entry.nameBytes, StandardCharsets.UTF_8);
+				if (entry.compressedSize == ZIP64_MAGIC || entry.size == ZIP64_MAGIC || entry.localHeaderOffset == ZIP64_MAGIC) {
+					throw new ZipException("Zip64 entry " + entry.name + " isn't supported!");
+				}
+				entries.add(entry);
+			}
+		}
+
+	}
+
+	/**
+	 * Writes a zip file one entry at a time, copying the data of unchanged entries straight from the input file.
+	 */
+	private static final class JarWriter {
+
+		private final FileChannel in;
+		private final FileChannel out;
+		private ByteBuffer directory;
+		private final ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE + 2 * 0xFFFF).order(ByteOrder.LITTLE_ENDIAN);
+		private long position;
+		private int entryCount;
+
+		JarWriter(FileChannel in, FileChannel out, int entryCount) {
+			this.in = in;
+			this.out = out;
+			//the central directory is built up in memory, since it follows the data of every entry
+			directory = ByteBuffer.allocate(1024 + entryCount * 128).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		/**
+		 * Writes an entry, followed by its data.
+		 *
+		 * @param entry the entry of the input file
+		 * @param changed the new data of the entry, or <code>null</code> if the data is copied from the input file
+		 * @throws IOException if the input can't be read from or the output written to
+		 */
+		void write(Entry entry, CompressedClass changed) throws IOException {
+			long dataOffset = entry.getDataOffset(in);
+			//the sizes and checksum are always known before the data, so no data descriptor follows it
+			int flags = entry.flags & ~FLAG_DATA_DESCRIPTOR;
+			int method = entry.method;
+			int versionNeeded = entry.versionNeeded;
+			int crc = entry.crc;
+			long compressedSize = entry.compressedSize;
+			long size = entry.size;
+			if (changed != null) {
+				method = DEFLATED;
+				versionNeeded = Math.max(versionNeeded, DEFLATE_VERSION);
+				crc = changed.crc;
+				compressedSize = changed.data.length;
+				size = changed.size;
+			}
+			long headerOffset = position;
+			if (headerOffset + LOCAL_HEADER_SIZE + entry.nameBytes.length + entry.localExtra.length + compressedSize > ZIP64_MAGIC) {
+				throw new ZipException("Output zip file is larger than 4 GB, which needs zip64!");
+			}
+			header.clear();
+			header.putInt(LOCAL_HEADER);
+			header.putShort((short) versionNeeded);
+			header.putShort((short) flags);
+			header.putShort((short) method);
+			header.putShort((short) entry.time);
+			header.putShort((short) entry.date);
+			header.putInt(crc);
+			header.putInt((int) compressedSize);
+			header.putInt((int) size);
+			header.putShort((short) entry.nameBytes.length);
+			header.putShort((short) entry.localExtra.length);
+			header.put(entry.nameBytes);
+			header.put(entry.localExtra);
+			position += header.position();
+			writeFully(out, header);
+			if (changed != null) {
+				ByteBuffer data = ByteBuffer.wrap(changed.data);
+				while (data.hasRemaining()) {
+					out.write(data);
+				}
+			} else {
+				for (long copied = 0; copied < compressedSize; ) {
+					long transferred = in.transferTo(dataOffset + copied, compressedSize - copied, out);
+					if (transferred <= 0) {
+						throw new ZipException("Unexpected end of zip file in entry " + entry.name + "!");
+					}
+					copied += transferred;
+				}
+			}
+			position += compressedSize;
+			ensureDirectoryCapacity(CENTRAL_HEADER_SIZE + entry.nameBytes.length + entry.extra.length + entry.comment.length);
+			directory.putInt(CENTRAL_HEADER);
+			directory.putShort((short) entry.versionMadeBy);
+			directory.putShort((short) versionNeeded);
+			directory.putShort((short) flags);
+			directory.putShort((short) method);
+			directory.putShort((short) entry.time);
+			directory.putShort((short) entry.date);
+			directory.putInt(crc);
+			directory.putInt((int) compressedSize);
+			directory.putInt((int) size);
+			directory.putShort((short) entry.nameBytes.length);
+			directory.putShort((short) entry.extra.length);
+			directory.putShort((short) entry.comment.length);
+			directory.putShort((short) 0);
+			directory.putShort((short) entry.internalAttributes);
+			directory.putInt(entry.externalAttributes);
+			directory.putInt((int) headerOffset);
+			directory.put(entry.nameBytes);
+			directory.put(entry.extra);
+			directory.put(entry.comment);
+			entryCount++;
+		}
+
+		private void ensureDirectoryCapacity(int length) {
+			if (directory.remaining() < length) {
+				ByteBuffer grown = ByteBuffer.allocate(Math.max(directory.capacity() * 2, directory.position() + length)).order(ByteOrder.LITTLE_ENDIAN);
+				directory.flip();
+				grown.put(directory);
+				directory = grown;
+			}
+		}
+
+		/**
+		 * Writes the central directory after the last entry.
+		 *
+		 * @param comment the comment of the zip file
+		 * @throws IOException if the output can't be written to
+		 */
+		void finish(byte[] comment) throws IOException {
+			long directoryOffset = position;
+			int directorySize = directory.position();
+			if (directoryOffset + directorySize > ZIP64_MAGIC) {
+				throw new ZipException("Output zip file is larger than 4 GB, which needs zip64!");
+			}
+			ensureDirectoryCapacity(END_OF_CENTRAL_DIRECTORY_SIZE + comment.length);
+			directory.putInt(END_OF_CENTRAL_DIRECTORY);
+			directory.putShort((short) 0);
+			directory.putShort((short) 0);
+			directory.putShort((short) entryCount);
+			directory.putShort((short) entryCount);
+			directory.putInt(directorySize);
+			directory.putInt((int) directoryOffset);
+			directory.putShort((short) comment.length);
+			directory.put(comment);
+			writeFully(out, directory);
+		}
+
+	}
+
+}
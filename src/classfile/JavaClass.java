@@ -31,6 +31,10 @@ public class JavaClass implements Printable {
 
 	//WARNING! I do not believe much in getters or setters, especially for final fields of immutable instances
 	
+	/**
+	 * The raw structure this class was created from, which a {@link ClassWriter} copies the unchanged parts of the class from.
+	 */
+	public final ClassStruct struct;
 	/**
 	 * The internal version of this class file.
 	 */
@@ -72,6 +76,7 @@ public class JavaClass implements Printable {
 		if (struct.magic != MAGIC) {
 			throw new ClassFormatException("Bad magic!");
 		}
+		this.struct = struct;
 		//create our nice version object
 		version = new ClassVersion(struct.majorVersion, struct.minorVersion);
 		//initialize the constant pool array
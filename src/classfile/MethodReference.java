@@ -36,10 +36,73 @@ public class MethodReference {
 		this.returnType = new ClassReference(descriptor);
 	}
 	
+	public MethodReference(ClassReference enclosingClass, String name, List<ClassReference> argTypes, ClassReference returnType) {
+		this.enclosingClass = enclosingClass;
+		this.name = name;
+		this.argTypes = argTypes;
+		this.returnType = returnType;
+	}
+	
+	/**
+	 * Creates the class file descriptor of this method, e.g., <code>(I[Ljava/lang/String;)V</code>.
+	 * 
+	 * @return the JVM internal descriptor of the argument and return types of this method
+	 */
+	public String toDescriptor() {
+		StringBuilder result = new StringBuilder("(");
+		for (ClassReference argType : argTypes) {
+			result.append(argType.toDescriptor());
+		}
+		return result.append(')').append(returnType.toDescriptor()).toString();
+	}
+	
 	public boolean isInit() {
 		return name.equals("<init>");
 	}
 	
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((argTypes == null) ? 0 : argTypes.hashCode());
+		result = prime * result + ((enclosingClass == null) ? 0 : enclosingClass.hashCode());
+		result = prime * result + ((name == null) ? 0 : name.hashCode());
+		result = prime * result + ((returnType == null) ? 0 : returnType.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		MethodReference other = (MethodReference) obj;
+		if (argTypes == null) {
+			if (other.argTypes != null)
+				return false;
+		} else if (!argTypes.equals(other.argTypes))
+			return false;
+		if (enclosingClass == null) {
+			if (other.enclosingClass != null)
+				return false;
+		} else if (!enclosingClass.equals(other.enclosingClass))
+			return false;
+		if (name == null) {
+			if (other.name != null)
+				return false;
+		} else if (!name.equals(other.name))
+			return false;
+		if (returnType == null) {
+			if (other.returnType != null)
+				return false;
+		} else if (!returnType.equals(other.returnType))
+			return false;
+		return true;
+	}
+	
 	@Override
 	public String toString() {
 		StringBuilder result = new StringBuilder();
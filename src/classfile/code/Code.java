@@ -114,10 +114,10 @@ public class Code implements Printable {
 				ops.add(Opcode.DCONST_1);
 				break;
 			case BIPUSH:
-				ops.add(new Opcode(OpType.CONSTANT_LOAD, new ConstantEntry(ConstantType.INTEGER, info.get())));
+				ops.add(new Opcode(OpType.CONSTANT_LOAD, new ConstantEntry(ConstantType.INTEGER, (int) info.get())));
 				break;
 			case SIPUSH:
-				ops.add(new Opcode(OpType.CONSTANT_LOAD, new ConstantEntry(ConstantType.INTEGER, info.getShort())));
+				ops.add(new Opcode(OpType.CONSTANT_LOAD, new ConstantEntry(ConstantType.INTEGER, (int) info.getShort())));
 				break;
 			case LDC:
 				ops.add(new Opcode(OpType.CONSTANT_LOAD, enclosingClass.getConstant(BufferUtils.getUnsignedByte(info))));
@@ -809,6 +809,17 @@ public class Code implements Printable {
 		this.exceptions = Collections.unmodifiableList(exceptions);
 	}
 	
+	//creates code from ops that have already been decoded, such as code rewritten by an analysis, which has no StackMapTable since the frames of the original code no longer line up with it
+	public Code(int maxStack, int maxLocals, List<Opcode> ops, List<ExceptionHandler> exceptionTable, List<ClassReference> exceptions) {
+		this.maxStack = maxStack;
+		this.maxLocals = maxLocals;
+		this.ops = Collections.unmodifiableList(new ArrayList<>(ops));
+		this.size = ops.size();
+		this.exceptionTable = Collections.unmodifiableList(new ArrayList<>(exceptionTable));
+		this.exceptions = exceptions;
+		this.stackMapTable = null;
+	}
+	
 	public int previous(int bci) {
 		do {
 			if (bci <= 0) {
@@ -865,7 +876,8 @@ public class Code implements Printable {
 		.println("]");
 	}
 
-	private static final int NOP = 0x00, ACONST_NULL = 0x01, ICONST_M1 = 0x02,
+	//the values of the opcodes, which the CodeWriter encodes instructions with as well
+	static final int NOP = 0x00, ACONST_NULL = 0x01, ICONST_M1 = 0x02,
 			ICONST_0 = 0x03, ICONST_1 = 0x04, ICONST_2 = 0x05, ICONST_3 = 0x06,
 			ICONST_4 = 0x07, ICONST_5 = 0x08, LCONST_0 = 0x09, LCONST_1 = 0x0A,
 			FCONST_0 = 0x0B, FCONST_1 = 0x0C, FCONST_2 = 0x0D, DCONST_0 = 0x0E,
@@ -0,0 +1,972 @@
+package classfile.code;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import classfile.ClassFormatException;
+import classfile.ClassReference;
+import classfile.MethodReference;
+import classfile.Primitive;
+import classfile.code.opcodes.Arithmetic;
+import classfile.code.opcodes.ArithmeticType;
+import classfile.code.opcodes.ArrayInstantiation;
+import classfile.code.opcodes.CompareJump;
+import classfile.code.opcodes.CompareOption;
+import classfile.code.opcodes.Comparison;
+import classfile.code.opcodes.ComputationalType;
+import classfile.code.opcodes.ConditionalJump;
+import classfile.code.opcodes.Conversion;
+import classfile.code.opcodes.ExceptionHandler;
+import classfile.code.opcodes.FieldAccessor;
+import classfile.code.opcodes.JumpCondition;
+import classfile.code.opcodes.LocalVariable;
+import classfile.code.opcodes.LocalVariableIncrement;
+import classfile.code.opcodes.MethodInvocation;
+import classfile.code.opcodes.MethodType;
+import classfile.code.opcodes.OpType;
+import classfile.code.opcodes.Opcode;
+import classfile.code.opcodes.Shift;
+import classfile.code.opcodes.ShiftType;
+import classfile.code.opcodes.StackManagement;
+import classfile.code.opcodes.Switch;
+import classfile.constant.ConstantEntry;
+import classfile.constant.ConstantPoolBuilder;
+import classfile.constant.ConstantType;
+
+/**
+ * Encodes {@link Code} back into the contents of a Code attribute, adding the constants it uses to a {@link ConstantPoolBuilder}. The instructions are encoded in the order of their bcis, each in its shortest form (e.g., <code>iload_1</code> rather than <code>iload 1</code>, and <code>ldc</code> rather than <code>ldc_w</code> when the index of the constant fits in a byte), so the encoded code may be laid out differently than the original, and the jump targets and the exception table, which refer to the bcis of the original, are translated to the new offsets. Jumps are encoded with 16 bit offsets where they fit, and otherwise widened, i.e., <code>goto</code> and <code>jsr</code> become <code>goto_w</code> and <code>jsr_w</code>, and a conditional jump is inverted to jump over a <code>goto_w</code> to its target. Since widening a jump moves every instruction after it, the layout is repeated until no more jumps need widening.
+ * <p>
+ * The maximum stack size is recomputed by following the stack depth along every path through the code, and the maximum number of locals from the locals that the code accesses and the arguments of the method, so that code changed by an analysis never has to keep track of them. The debugging attributes of the code (e.g., the LineNumberTable) and the StackMapTable refer to the original bcis, and are left out.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class CodeWriter {
+
+	//the longest code of a method, whose length is stored in an unsigned short by most of the structures referring to it
+	private static final int MAX_CODE_LENGTH = 0xFFFF;
+
+	private final ConstantPoolBuilder pool;
+
+	/**
+	 * Creates a writer adding constants to a constant pool.
+	 *
+	 * @param pool the constant pool of the class being written
+	 */
+	public CodeWriter(ConstantPoolBuilder pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Encodes the code of a method.
+	 *
+	 * @param code the code to encode
+	 * @param method the method that the code belongs to, whose arguments take up the first locals
+	 * @param isStatic whether the method is static, i.e., has no receiver in local 0
+	 * @return the contents of the Code attribute, without its name and length
+	 * @throws ClassFormatException if the encoded code is too long, or a jump targets the middle of an instruction
+	 */
+	public byte[] write(Code code, MethodReference method, boolean isStatic) {
+		List<Opcode> ops = code.ops;
+		//number the instructions, and map each bci of the original to its instruction, with the end of the code after the last
+		int[] bcis = new int[ops.size()];
+		int[] instructionAt = new int[ops.size() + 1];
+		Arrays.fill(instructionAt, -1);
+		int count = 0;
+		for (int bci = 0; bci < ops.size(); bci++) {
+			if (ops.get(bci) != null) {
+				instructionAt[bci] = count;
+				bcis[count++] = bci;
+			}
+		}
+		instructionAt[ops.size()] = count;
+		//the constants are added before the layout, since the size of an ldc depends on the index of its constant
+		int[] constants = new int[count];
+		boolean[] isTableSwitch = new boolean[count];
+		for (int i = 0; i < count; i++) {
+			Opcode op = ops.get(bcis[i]);
+			constants[i] = addConstant(op);
+			if (op.type == OpType.SWITCH) {
+				isTableSwitch[i] = isTableSwitch((Switch) op.data);
+			}
+		}
+		int[] offsets = new int[count + 1];
+		boolean[] isWide = new boolean[count];
+		boolean isChanged = true;
+		while (isChanged) {
+			int offset = 0;
+			for (int i = 0; i < count; i++) {
+				offsets[i] = offset;
+				offset += getSize(ops.get(bcis[i]), offset, constants[i], isWide[i], isTableSwitch[i]);
+			}
+			offsets[count] = offset;
+			if (offset > MAX_CODE_LENGTH) {
+				throw new ClassFormatException("Code of " + method + " is longer than " + MAX_CODE_LENGTH + " bytes!");
+			}
+			isChanged = false;
+			for (int i = 0; i < count; i++) {
+				int target = getJumpTarget(ops.get(bcis[i]));
+				if (target >= 0 && !isWide[i]) {
+					int displacement = offsets[translate(target, instructionAt)] - offsets[i];
+					if (displacement != (short) displacement) {
+						isWide[i] = true;
+						isChanged = true;
+					}
+				}
+			}
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(offsets[count] + 32);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeShort(computeMaxStack(code));
+			out.writeShort(computeMaxLocals(code, method, isStatic));
+			out.writeInt(offsets[count]);
+			for (int i = 0; i < count; i++) {
+				encode(ops.get(bcis[i]), offsets[i], constants[i], isWide[i], isTableSwitch[i], offsets, instructionAt, out);
+			}
+			out.writeShort(code.exceptionTable.size());
+			for (ExceptionHandler handler : code.exceptionTable) {
+				out.writeShort(offsets[translate(handler.start, instructionAt)]);
+				out.writeShort(offsets[translate(handler.end, instructionAt)]);
+				out.writeShort(offsets[translate(handler.handler, instructionAt)]);
+				out.writeShort(handler.catchType != null ? pool.addClass(handler.catchType) : 0);
+			}
+			//none of the attributes of the code are valid for the new layout
+			out.writeShort(0);
+		} catch (IOException e) {
+			//writing to an array never fails
+			throw new RuntimeException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static int translate(int bci, int[] instructionAt) {
+		if (bci < 0 || bci >= instructionAt.length || instructionAt[bci] < 0) {
+			throw new ClassFormatException("Reference to bci " + bci + ", which isn't the start of an instruction!");
+		}
+		return instructionAt[bci];
+	}
+
+	/**
+	 * Adds the constant that an instruction refers to to the constant pool.
+	 *
+	 * @param op the instruction
+	 * @return the index of the constant, or 0 if the instruction doesn't refer to one
+	 */
+	private int addConstant(Opcode op) {
+		switch (op.type) {
+		case CONSTANT_LOAD:
+			ConstantEntry constant = (ConstantEntry) op.data;
+			return (getConstantOpcode(constant) < 0 ? pool.addConstant(constant) : 0);
+		case FIELD_LOAD:
+		case FIELD_STORE:
+			return pool.addField(((FieldAccessor) op.data).field);
+		case METHOD_INVOKE:
+			MethodInvocation invocation = (MethodInvocation) op.data;
+			return pool.addMethod(invocation.method, invocation.type == MethodType.INTERFACE);
+		case NEW_OBJECT:
+		case CAST:
+		case INSTANCE_OF:
+			return pool.addClass((ClassReference) op.data);
+		case NEW_ARRAY:
+			ArrayInstantiation instantiation = (ArrayInstantiation) op.data;
+			if (isPrimitiveArray(instantiation)) {
+				return 0;
+			}
+			return pool.addClass(instantiation.dimensionsCreated == 1 ? ClassReference.elementFromArrayType(instantiation.arrayClass) : instantiation.arrayClass);
+		default:
+			return 0;
+		}
+	}
+
+	private static boolean isPrimitiveArray(ArrayInstantiation instantiation) {
+		return instantiation.dimensionsCreated == 1 && instantiation.arrayClass.arrayDimension == 1 && instantiation.arrayClass.primitive != Primitive.REFERENCE;
+	}
+
+	/**
+	 * Finds the opcode of the instruction that pushes a constant without the constant pool, e.g., <code>iconst_0</code>.
+	 *
+	 * @param constant the constant
+	 * @return the opcode, or -1 if the constant has to be loaded with an ldc or a push of a byte or short
+	 */
+	private static int getConstantOpcode(ConstantEntry constant) {
+		switch (constant.type) {
+		case NULL:
+			return Code.ACONST_NULL;
+		case INTEGER:
+			int intValue = ((Number) constant.data).intValue();
+			if (intValue >= -1 && intValue <= 5) {
+				return Code.ICONST_0 + intValue;
+			}
+			return (intValue == (short) intValue ? Code.SIPUSH : -1);
+		case LONG:
+			long longValue = ((Number) constant.data).longValue();
+			return (longValue == 0L || longValue == 1L ? Code.LCONST_0 + (int) longValue : -1);
+		case FLOAT:
+			//only the exact bits of 0, 1 and 2 may be pushed as such, not negative zero
+			int floatBits = Float.floatToRawIntBits(((Number) constant.data).floatValue());
+			for (int i = 0; i <= 2; i++) {
+				if (floatBits == Float.floatToRawIntBits(i)) {
+					return Code.FCONST_0 + i;
+				}
+			}
+			return -1;
+		case DOUBLE:
+			long doubleBits = Double.doubleToRawLongBits(((Number) constant.data).doubleValue());
+			for (int i = 0; i <= 1; i++) {
+				if (doubleBits == Double.doubleToRawLongBits(i)) {
+					return Code.DCONST_0 + i;
+				}
+			}
+			return -1;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * Decides between a tableswitch and a lookupswitch, the same way javac does, by weighing the size of each against the time it takes, where a lookupswitch takes time proportional to its cases.
+	 */
+	private static boolean isTableSwitch(Switch switchData) {
+		if (switchData.jumpTable.isEmpty()) {
+			return false;
+		}
+		long low = Long.MAX_VALUE;
+		long high = Long.MIN_VALUE;
+		for (int key : switchData.jumpTable.keySet()) {
+			low = Math.min(low, key);
+			high = Math.max(high, key);
+		}
+		long tableCost = 4 + (high - low + 1) + 3 * 3;
+		long lookupCost = 3 + 2 * switchData.jumpTable.size() + 3 * switchData.jumpTable.size();
+		return tableCost <= lookupCost;
+	}
+
+	private static int getJumpTarget(Opcode op) {
+		switch (op.type) {
+		case CONDITIONAL_JUMP:
+			return ((ConditionalJump) op.data).jumpTarget;
+		case COMPARE_JUMP:
+			return ((CompareJump) op.data).jumpTarget;
+		case UNCONDITIONAL_JUMP:
+		case SUBROUTINE_JUMP:
+			return (Integer) op.data;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * Computes the encoded size of an instruction.
+	 *
+	 * @param op the instruction
+	 * @param offset the offset that the instruction is encoded at
+	 * @param constant the index of the constant of the instruction
+	 * @param isWide whether the instruction is a widened jump
+	 * @param isTableSwitch whether the instruction is encoded as a tableswitch, if it is a switch
+	 * @return the number of bytes of the instruction
+	 */
+	private static int getSize(Opcode op, int offset, int constant, boolean isWide, boolean isTableSwitch) {
+		switch (op.type) {
+		case CONSTANT_LOAD:
+		{
+			ConstantEntry entry = (ConstantEntry) op.data;
+			int opcode = getConstantOpcode(entry);
+			if (opcode == Code.SIPUSH) {
+				int value = ((Number) entry.data).intValue();
+				return (value == (byte) value ? 2 : 3);
+			} else if (opcode >= 0) {
+				return 1;
+			} else if (entry.type == ConstantType.LONG || entry.type == ConstantType.DOUBLE) {
+				return 3;
+			}
+			return (constant <= 0xFF ? 2 : 3);
+		}
+		case LOCAL_LOAD:
+		case LOCAL_STORE:
+		{
+			int index = ((LocalVariable) op.data).index;
+			return (index <= 3 ? 1 : index <= 0xFF ? 2 : 4);
+		}
+		case LOCAL_INCREMENT:
+		{
+			LocalVariableIncrement increment = (LocalVariableIncrement) op.data;
+			return (increment.local.index <= 0xFF && increment.incrementAmount == (byte) increment.incrementAmount ? 3 : 6);
+		}
+		case SUBROUTINE_RETURN:
+			return (((LocalVariable) op.data).index <= 0xFF ? 2 : 4);
+		case CONDITIONAL_JUMP:
+		case COMPARE_JUMP:
+			//a widened conditional jump is an inverted jump over a goto_w
+			return (isWide ? 8 : 3);
+		case UNCONDITIONAL_JUMP:
+		case SUBROUTINE_JUMP:
+			return (isWide ? 5 : 3);
+		case SWITCH:
+		{
+			Switch switchData = (Switch) op.data;
+			int padding = 3 - (offset % 4);
+			if (isTableSwitch) {
+				return 1 + padding + 12 + 4 * getTableLength(switchData);
+			}
+			return 1 + padding + 8 + 8 * switchData.jumpTable.size();
+		}
+		case FIELD_LOAD:
+		case FIELD_STORE:
+		case NEW_OBJECT:
+		case CAST:
+		case INSTANCE_OF:
+			return 3;
+		case METHOD_INVOKE:
+			return (((MethodInvocation) op.data).type == MethodType.INTERFACE ? 5 : 3);
+		case NEW_ARRAY:
+		{
+			ArrayInstantiation instantiation = (ArrayInstantiation) op.data;
+			return (isPrimitiveArray(instantiation) ? 2 : instantiation.dimensionsCreated == 1 ? 3 : 4);
+		}
+		case NULL_JUMP:
+			throw new IllegalArgumentException("Can't encode instruction " + op);
+		default:
+			return 1;
+		}
+	}
+
+	private static int getTableLength(Switch switchData) {
+		TreeMap<Integer, Integer> sorted = new TreeMap<>(switchData.jumpTable);
+		return sorted.lastKey() - sorted.firstKey() + 1;
+	}
+
+	/**
+	 * Encodes an instruction.
+	 *
+	 * @param op the instruction
+	 * @param offset the offset that the instruction is encoded at
+	 * @param constant the index of the constant of the instruction
+	 * @param isWide whether the instruction is a widened jump
+	 * @param isTableSwitch whether the instruction is encoded as a tableswitch, if it is a switch
+	 * @param offsets the offset of each instruction
+	 * @param instructionAt the instruction at each bci of the original code
+	 * @param out the stream to write the instruction to
+	 * @throws IOException if the stream can't be written to
+	 */
+	private static void encode(Opcode op, int offset, int constant, boolean isWide, boolean isTableSwitch, int[] offsets, int[] instructionAt, DataOutputStream out) throws IOException {
+		switch (op.type) {
+		case NOOP:
+			out.writeByte(Code.NOP);
+			break;
+		case CONSTANT_LOAD:
+		{
+			ConstantEntry entry = (ConstantEntry) op.data;
+			int opcode = getConstantOpcode(entry);
+			if (opcode == Code.SIPUSH) {
+				int value = ((Number) entry.data).intValue();
+				if (value == (byte) value) {
+					out.writeByte(Code.BIPUSH);
+					out.writeByte(value);
+				} else {
+					out.writeByte(Code.SIPUSH);
+					out.writeShort(value);
+				}
+			} else if (opcode >= 0) {
+				out.writeByte(opcode);
+			} else if (entry.type == ConstantType.LONG || entry.type == ConstantType.DOUBLE) {
+				out.writeByte(Code.LDC2_W);
+				out.writeShort(constant);
+			} else if (constant <= 0xFF) {
+				out.writeByte(Code.LDC);
+				out.writeByte(constant);
+			} else {
+				out.writeByte(Code.LDC_W);
+				out.writeShort(constant);
+			}
+			break;
+		}
+		case LOCAL_LOAD:
+		case LOCAL_STORE:
+		{
+			LocalVariable local = (LocalVariable) op.data;
+			int typeOffset = getLocalTypeOffset(local.type);
+			boolean isLoad = (op.type == OpType.LOCAL_LOAD);
+			if (local.index <= 3) {
+				out.writeByte((isLoad ? Code.ILOAD_0 : Code.ISTORE_0) + typeOffset * 4 + local.index);
+			} else {
+				writeLocalOp((isLoad ? Code.ILOAD : Code.ISTORE) + typeOffset, local.index, out);
+			}
+			break;
+		}
+		case ARRAY_LOAD:
+			out.writeByte(Code.IALOAD + getArrayTypeOffset((Primitive) op.data));
+			break;
+		case ARRAY_STORE:
+			out.writeByte(Code.IASTORE + getArrayTypeOffset((Primitive) op.data));
+			break;
+		case STACK_MANAGE:
+			//the constants of StackManagement are in the order of their opcodes
+			out.writeByte(Code.POP + ((StackManagement) op.data).ordinal());
+			break;
+		case ARITHMETIC:
+		{
+			Arithmetic arithmetic = (Arithmetic) op.data;
+			int typeOffset = getArithmeticTypeOffset(arithmetic.operatingType);
+			if (arithmetic.operation.compareTo(ArithmeticType.AND) >= 0) {
+				//the bitwise operations only exist for ints and longs
+				out.writeByte(Code.IAND + 2 * (arithmetic.operation.ordinal() - ArithmeticType.AND.ordinal()) + typeOffset);
+			} else {
+				out.writeByte(Code.IADD + 4 * arithmetic.operation.ordinal() + typeOffset);
+			}
+			break;
+		}
+		case NEGATE:
+			out.writeByte(Code.INEG + getArithmeticTypeOffset((ComputationalType) op.data));
+			break;
+		case SHIFT:
+		{
+			Shift shift = (Shift) op.data;
+			int base = (shift.shiftType == ShiftType.SHIFT_LEFT ? Code.ISHL : shift.shiftType == ShiftType.SHIFT_RIGHT ? Code.ISHR : Code.IUSHR);
+			out.writeByte(base + getArithmeticTypeOffset(shift.operatingType));
+			break;
+		}
+		case LOCAL_INCREMENT:
+		{
+			LocalVariableIncrement increment = (LocalVariableIncrement) op.data;
+			if (increment.local.index <= 0xFF && increment.incrementAmount == (byte) increment.incrementAmount) {
+				out.writeByte(Code.IINC);
+				out.writeByte(increment.local.index);
+				out.writeByte(increment.incrementAmount);
+			} else {
+				out.writeByte(Code.WIDE);
+				out.writeByte(Code.IINC);
+				out.writeShort(increment.local.index);
+				out.writeShort(increment.incrementAmount);
+			}
+			break;
+		}
+		case CONVERT:
+			out.writeByte(getConversionOpcode((Conversion) op.data));
+			break;
+		case COMPARE:
+		{
+			Comparison comparison = (Comparison) op.data;
+			if (comparison.compareType == ComputationalType.LONG) {
+				out.writeByte(Code.LCMP);
+			} else {
+				//the l variant pushes -1 for a NaN, i.e., defaults to less
+				int base = (comparison.compareType == ComputationalType.FLOAT ? Code.FCMPL : Code.DCMPL);
+				out.writeByte(base + (comparison.option == CompareOption.GREATER_DEFAULT ? 1 : 0));
+			}
+			break;
+		}
+		case CONDITIONAL_JUMP:
+		{
+			ConditionalJump jump = (ConditionalJump) op.data;
+			int opcode;
+			if (jump.condition == JumpCondition.IS_NULL) {
+				opcode = Code.IFNULL;
+			} else if (jump.condition == JumpCondition.IS_NOT_NULL) {
+				opcode = Code.IFNONNULL;
+			} else {
+				opcode = Code.IFEQ + jump.condition.ordinal();
+			}
+			writeJump(opcode, offset, offsets[translate(jump.jumpTarget, instructionAt)], isWide, out);
+			break;
+		}
+		case COMPARE_JUMP:
+		{
+			CompareJump jump = (CompareJump) op.data;
+			int base = (jump.compareType == ComputationalType.REFERENCE ? Code.IF_ACMPEQ : Code.IF_ICMPEQ);
+			writeJump(base + jump.comparison.ordinal(), offset, offsets[translate(jump.jumpTarget, instructionAt)], isWide, out);
+			break;
+		}
+		case UNCONDITIONAL_JUMP:
+		case SUBROUTINE_JUMP:
+		{
+			boolean isGoto = (op.type == OpType.UNCONDITIONAL_JUMP);
+			int displacement = offsets[translate((Integer) op.data, instructionAt)] - offset;
+			if (isWide) {
+				out.writeByte(isGoto ? Code.GOTO_W : Code.JSR_W);
+				out.writeInt(displacement);
+			} else {
+				out.writeByte(isGoto ? Code.GOTO : Code.JSR);
+				out.writeShort(displacement);
+			}
+			break;
+		}
+		case SUBROUTINE_RETURN:
+			writeLocalOp(Code.RET, ((LocalVariable) op.data).index, out);
+			break;
+		case SWITCH:
+		{
+			Switch switchData = (Switch) op.data;
+			out.writeByte(isTableSwitch ? Code.TABLESWITCH : Code.LOOKUPSWITCH);
+			for (int i = 3 - (offset % 4); i > 0; i--) {
+				out.writeByte(0);
+			}
+			int defaultOffset = offsets[translate(switchData.defaultJump, instructionAt)];
+			out.writeInt(defaultOffset - offset);
+			TreeMap<Integer, Integer> sorted = new TreeMap<>(switchData.jumpTable);
+			if (isTableSwitch) {
+				int low = sorted.firstKey();
+				int high = sorted.lastKey();
+				out.writeInt(low);
+				out.writeInt(high);
+				//keys missing from the range of the table go to the default
+				for (long key = low; key <= high; key++) {
+					Integer target = sorted.get((int) key);
+					out.writeInt((target != null ? offsets[translate(target, instructionAt)] : defaultOffset) - offset);
+				}
+			} else {
+				out.writeInt(sorted.size());
+				for (Map.Entry<Integer, Integer> entry : sorted.entrySet()) {
+					out.writeInt(entry.getKey());
+					out.writeInt(offsets[translate(entry.getValue(), instructionAt)] - offset);
+				}
+			}
+			break;
+		}
+		case RETURN:
+		{
+			ComputationalType type = (ComputationalType) op.data;
+			out.writeByte(type == ComputationalType.VOID ? Code.RETURN : Code.IRETURN + getLocalTypeOffset(type));
+			break;
+		}
+		case FIELD_LOAD:
+		case FIELD_STORE:
+		{
+			boolean isStatic = ((FieldAccessor) op.data).isStatic;
+			if (op.type == OpType.FIELD_LOAD) {
+				out.writeByte(isStatic ? Code.GETSTATIC : Code.GETFIELD);
+			} else {
+				out.writeByte(isStatic ? Code.PUTSTATIC : Code.PUTFIELD);
+			}
+			out.writeShort(constant);
+			break;
+		}
+		case METHOD_INVOKE:
+		{
+			MethodInvocation invocation = (MethodInvocation) op.data;
+			out.writeByte(Code.INVOKEVIRTUAL + invocation.type.ordinal());
+			out.writeShort(constant);
+			if (invocation.type == MethodType.INTERFACE) {
+				//the count of invokeinterface is the size of its arguments, including the receiver
+				out.writeByte(getArgumentSize(invocation.method) + 1);
+				out.writeByte(0);
+			}
+			break;
+		}
+		case NEW_OBJECT:
+			out.writeByte(Code.NEW);
+			out.writeShort(constant);
+			break;
+		case NEW_ARRAY:
+		{
+			ArrayInstantiation instantiation = (ArrayInstantiation) op.data;
+			if (isPrimitiveArray(instantiation)) {
+				out.writeByte(Code.NEWARRAY);
+				out.writeByte(getArrayTypeCode(instantiation.arrayClass.primitive));
+			} else if (instantiation.dimensionsCreated == 1) {
+				out.writeByte(Code.ANEWARRAY);
+				out.writeShort(constant);
+			} else {
+				out.writeByte(Code.MULTIANEWARRAY);
+				out.writeShort(constant);
+				out.writeByte(instantiation.dimensionsCreated);
+			}
+			break;
+		}
+		case ARRAY_LENGTH:
+			out.writeByte(Code.ARRAYLENGTH);
+			break;
+		case THROW:
+			out.writeByte(Code.ATHROW);
+			break;
+		case CAST:
+			out.writeByte(Code.CHECKCAST);
+			out.writeShort(constant);
+			break;
+		case INSTANCE_OF:
+			out.writeByte(Code.INSTANCEOF);
+			out.writeShort(constant);
+			break;
+		case SYNCHRONIZE:
+			out.writeByte((Boolean) op.data ? Code.MONITORENTER : Code.MONITOREXIT);
+			break;
+		default:
+			throw new IllegalArgumentException("Can't encode instruction " + op);
+		}
+	}
+
+	/**
+	 * Writes a conditional jump, which is widened by inverting its condition to jump over a <code>goto_w</code> to the target, since there are no conditional jumps with 32 bit offsets.
+	 */
+	private static void writeJump(int opcode, int offset, int target, boolean isWide, DataOutputStream out) throws IOException {
+		if (isWide) {
+			//the conditions come in pairs of opposites, e.g., ifeq and ifne
+			int inverted = (opcode >= Code.IFNULL ? opcode ^ 1 : ((opcode - Code.IFEQ) ^ 1) + Code.IFEQ);
+			out.writeByte(inverted);
+			out.writeShort(8);
+			out.writeByte(Code.GOTO_W);
+			out.writeInt(target - (offset + 3));
+		} else {
+			out.writeByte(opcode);
+			out.writeShort(target - offset);
+		}
+	}
+
+	private static void writeLocalOp(int opcode, int index, DataOutputStream out) throws IOException {
+		if (index <= 0xFF) {
+			out.writeByte(opcode);
+			out.writeByte(index);
+		} else {
+			out.writeByte(Code.WIDE);
+			out.writeByte(opcode);
+			out.writeShort(index);
+		}
+	}
+
+	//the opcodes for locals and returns are in the order int, long, float, double, reference
+	private static int getLocalTypeOffset(ComputationalType type) {
+		switch (type) {
+		case INT:
+			return 0;
+		case LONG:
+			return 1;
+		case FLOAT:
+			return 2;
+		case DOUBLE:
+			return 3;
+		default:
+			//return addresses are stored with astore
+			return 4;
+		}
+	}
+
+	private static int getArithmeticTypeOffset(ComputationalType type) {
+		switch (type) {
+		case INT:
+			return 0;
+		case LONG:
+			return 1;
+		case FLOAT:
+			return 2;
+		case DOUBLE:
+			return 3;
+		default:
+			throw new IllegalArgumentException("Invalid arithmetic type " + type);
+		}
+	}
+
+	private static int getArrayTypeOffset(Primitive type) {
+		switch (type) {
+		case INT:
+			return 0;
+		case LONG:
+			return 1;
+		case FLOAT:
+			return 2;
+		case DOUBLE:
+			return 3;
+		case REFERENCE:
+			return 4;
+		case BOOLEAN:
+		case BYTE:
+			return 5;
+		case CHAR:
+			return 6;
+		case SHORT:
+			return 7;
+		default:
+			throw new IllegalArgumentException("Invalid array type " + type);
+		}
+	}
+
+	private static int getArrayTypeCode(Primitive type) {
+		switch (type) {
+		case BOOLEAN:
+			return ArrayInstantiation.T_BOOLEAN;
+		case CHAR:
+			return ArrayInstantiation.T_CHAR;
+		case FLOAT:
+			return ArrayInstantiation.T_FLOAT;
+		case DOUBLE:
+			return ArrayInstantiation.T_DOUBLE;
+		case BYTE:
+			return ArrayInstantiation.T_BYTE;
+		case SHORT:
+			return ArrayInstantiation.T_SHORT;
+		case INT:
+			return ArrayInstantiation.T_INT;
+		case LONG:
+			return ArrayInstantiation.T_LONG;
+		default:
+			throw new IllegalArgumentException("Invalid primitive array type " + type);
+		}
+	}
+
+	private static int getConversionOpcode(Conversion conversion) {
+		switch (conversion.from) {
+		case INT:
+			switch (conversion.to) {
+			case LONG:
+				return Code.I2L;
+			case FLOAT:
+				return Code.I2F;
+			case DOUBLE:
+				return Code.I2D;
+			case BYTE:
+				return Code.I2B;
+			case CHAR:
+				return Code.I2C;
+			case SHORT:
+				return Code.I2S;
+			default:
+				break;
+			}
+			break;
+		case LONG:
+			switch (conversion.to) {
+			case INT:
+				return Code.L2I;
+			case FLOAT:
+				return Code.L2F;
+			case DOUBLE:
+				return Code.L2D;
+			default:
+				break;
+			}
+			break;
+		case FLOAT:
+			switch (conversion.to) {
+			case INT:
+				return Code.F2I;
+			case LONG:
+				return Code.F2L;
+			case DOUBLE:
+				return Code.F2D;
+			default:
+				break;
+			}
+			break;
+		case DOUBLE:
+			switch (conversion.to) {
+			case INT:
+				return Code.D2I;
+			case LONG:
+				return Code.D2L;
+			case FLOAT:
+				return Code.D2F;
+			default:
+				break;
+			}
+			break;
+		default:
+			break;
+		}
+		throw new IllegalArgumentException("Invalid conversion " + conversion);
+	}
+
+	private static int getArgumentSize(MethodReference method) {
+		int size = 0;
+		for (ClassReference argType : method.argTypes) {
+			size += argType.getComputationalType().category;
+		}
+		return size;
+	}
+
+	/**
+	 * Computes the maximum number of locals of code, which is the highest local accessed by the code, or the size of the arguments of its method if they take up more.
+	 *
+	 * @param code the code
+	 * @param method the method that the code belongs to
+	 * @param isStatic whether the method is static, i.e., has no receiver in local 0
+	 * @return the maximum number of locals, where longs and doubles take up two
+	 */
+	public static int computeMaxLocals(Code code, MethodReference method, boolean isStatic) {
+		int maxLocals = getArgumentSize(method) + (isStatic ? 0 : 1);
+		for (Opcode op : code.ops) {
+			if (op == null) {
+				continue;
+			}
+			switch (op.type) {
+			case LOCAL_LOAD:
+			case LOCAL_STORE:
+			case SUBROUTINE_RETURN:
+			{
+				LocalVariable local = (LocalVariable) op.data;
+				maxLocals = Math.max(maxLocals, local.index + Math.max(local.type.category, 1));
+				break;
+			}
+			case LOCAL_INCREMENT:
+				maxLocals = Math.max(maxLocals, ((LocalVariableIncrement) op.data).local.index + 1);
+				break;
+			default:
+				break;
+			}
+		}
+		return maxLocals;
+	}
+
+	/**
+	 * Computes the maximum stack size of code, by following the depth of the stack from the start of the code and from each exception handler, whose stack holds only the exception, to every instruction reachable from there. Valid code has the same depth at an instruction along every path to it, so each instruction is only visited once.
+	 *
+	 * @param code the code
+	 * @return the maximum depth of the stack, where longs and doubles take up two
+	 */
+	public static int computeMaxStack(Code code) {
+		List<Opcode> ops = code.ops;
+		int[] depths = new int[ops.size()];
+		Arrays.fill(depths, -1);
+		Deque<Integer> queue = new ArrayDeque<>();
+		queue.add(0);
+		depths[0] = 0;
+		for (ExceptionHandler handler : code.exceptionTable) {
+			if (depths[handler.handler] < 0) {
+				depths[handler.handler] = 1;
+				queue.add(handler.handler);
+			}
+		}
+		int maxStack = (code.exceptionTable.isEmpty() ? 0 : 1);
+		while (!queue.isEmpty()) {
+			int bci = queue.poll();
+			Opcode op = ops.get(bci);
+			int depth = depths[bci] + getStackChange(op);
+			maxStack = Math.max(maxStack, depth);
+			int next = bci + 1;
+			while (next < ops.size() && ops.get(next) == null) {
+				next++;
+			}
+			switch (op.type) {
+			case CONDITIONAL_JUMP:
+				visit(((ConditionalJump) op.data).jumpTarget, depth, depths, queue);
+				visit(next, depth, depths, queue);
+				break;
+			case COMPARE_JUMP:
+				visit(((CompareJump) op.data).jumpTarget, depth, depths, queue);
+				visit(next, depth, depths, queue);
+				break;
+			case UNCONDITIONAL_JUMP:
+				visit((Integer) op.data, depth, depths, queue);
+				break;
+			case SUBROUTINE_JUMP:
+				//the subroutine starts with the return address pushed, which it has popped by the time it returns to the next instruction
+				maxStack = Math.max(maxStack, depth + 1);
+				visit((Integer) op.data, depth + 1, depths, queue);
+				visit(next, depth, depths, queue);
+				break;
+			case SWITCH:
+			{
+				Switch switchData = (Switch) op.data;
+				visit(switchData.defaultJump, depth, depths, queue);
+				for (int target : switchData.jumpTable.values()) {
+					visit(target, depth, depths, queue);
+				}
+				break;
+			}
+			case SUBROUTINE_RETURN:
+			case RETURN:
+			case THROW:
+				break;
+			default:
+				visit(next, depth, depths, queue);
+				break;
+			}
+		}
+		return maxStack;
+	}
+
+	private static void visit(int bci, int depth, int[] depths, Deque<Integer> queue) {
+		if (bci < depths.length && depths[bci] < 0) {
+			depths[bci] = depth;
+			queue.add(bci);
+		}
+	}
+
+	/**
+	 * Computes the change to the depth of the stack of an instruction. Every instruction pops its operands before pushing its results, except for the dups, which push more than they pop, so the depth after an instruction is the highest it reaches during the instruction.
+	 *
+	 * @param op the instruction
+	 * @return the number of stack slots pushed minus the number popped
+	 */
+	private static int getStackChange(Opcode op) {
+		switch (op.type) {
+		case CONSTANT_LOAD:
+		{
+			ConstantType type = ((ConstantEntry) op.data).type;
+			return (type == ConstantType.LONG || type == ConstantType.DOUBLE ? 2 : 1);
+		}
+		case LOCAL_LOAD:
+			return ((LocalVariable) op.data).type.category;
+		case LOCAL_STORE:
+			return -Math.max(((LocalVariable) op.data).type.category, 1);
+		case ARRAY_LOAD:
+			return ((Primitive) op.data).computationalType.category - 2;
+		case ARRAY_STORE:
+			return -2 - ((Primitive) op.data).computationalType.category;
+		case STACK_MANAGE:
+			switch ((StackManagement) op.data) {
+			case POP:
+				return -1;
+			case POP2:
+				return -2;
+			case DUP:
+			case DUP_X1:
+			case DUP_X2:
+				return 1;
+			case DUP2:
+			case DUP2_X1:
+			case DUP2_X2:
+				return 2;
+			default:
+				return 0;
+			}
+		case ARITHMETIC:
+			return -((Arithmetic) op.data).operatingType.category;
+		case SHIFT:
+			return -1;
+		case CONVERT:
+		{
+			Conversion conversion = (Conversion) op.data;
+			return conversion.to.computationalType.category - conversion.from.computationalType.category;
+		}
+		case COMPARE:
+			return 1 - 2 * ((Comparison) op.data).compareType.category;
+		case CONDITIONAL_JUMP:
+		case SWITCH:
+		case THROW:
+		case SYNCHRONIZE:
+			return -1;
+		case COMPARE_JUMP:
+			return -2;
+		case RETURN:
+			return -((ComputationalType) op.data).category;
+		case FIELD_LOAD:
+		case FIELD_STORE:
+		{
+			FieldAccessor accessor = (FieldAccessor) op.data;
+			int size = accessor.field.type.getComputationalType().category;
+			int receiver = (accessor.isStatic ? 0 : 1);
+			return (op.type == OpType.FIELD_LOAD ? size - receiver : -size - receiver);
+		}
+		case METHOD_INVOKE:
+		{
+			MethodInvocation invocation = (MethodInvocation) op.data;
+			int receiver = (invocation.type == MethodType.STATIC ? 0 : 1);
+			return invocation.method.returnType.getComputationalType().category - getArgumentSize(invocation.method) - receiver;
+		}
+		case NEW_OBJECT:
+			return 1;
+		case NEW_ARRAY:
+			return 1 - ((ArrayInstantiation) op.data).dimensionsCreated;
+		default:
+			//noops, negations, increments, jumps, array lengths, casts and instanceofs leave the depth unchanged
+			return 0;
+		}
+	}
+
+}
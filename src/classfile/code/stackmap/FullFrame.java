@@ -4,6 +4,9 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import classfile.ClassReference;
+import classfile.MethodReference;
+
 public class FullFrame {
 	
 	public final List<VerificationItem> locals;
@@ -14,6 +17,69 @@ public class FullFrame {
 		this.stack = Collections.unmodifiableList(new ArrayList<>(stack));
 	}
 
+	/**
+	 * Creates the implicit frame at the start of a method, which holds only the receiver (if any) and the arguments. In a constructor other than that of <code>java.lang.Object</code>, the receiver is still uninitialized.
+	 * 
+	 * @param method the method to create the frame for
+	 * @param isStatic whether the method is static
+	 * @return the initial frame of the method
+	 */
+	public static FullFrame initial(MethodReference method, boolean isStatic) {
+		List<VerificationItem> locals = new ArrayList<>(method.argTypes.size() + 1);
+		if (!isStatic) {
+			if (method.isInit() && !method.enclosingClass.equals(ClassReference.OBJECT)) {
+				locals.add(VerificationItem.UNINITIALIZED_THIS_ITEM);
+			} else {
+				locals.add(new VerificationItem(VerificationType.OBJECT, method.enclosingClass));
+			}
+		}
+		for (ClassReference argType : method.argTypes) {
+			locals.add(VerificationItem.fromClass(argType));
+		}
+		return new FullFrame(locals, Collections.<VerificationItem>emptyList());
+	}
+	
+	/**
+	 * Finds the item occupying a local variable slot. Category 2 items take up two slots, and are found at the first of them.
+	 * 
+	 * @param index the local variable index
+	 * @return the item stored at <code>index</code>, or <code>null</code> if it is unused or the second half of a category 2 item
+	 */
+	public VerificationItem getLocal(int index) {
+		int slot = 0;
+		for (VerificationItem local : locals) {
+			if (slot == index) {
+				return local;
+			} else if (slot > index) {
+				break;
+			}
+			slot += (local.isCategory2() ? 2 : 1);
+		}
+		return null;
+	}
+	
+	/**
+	 * Finds the item occupying an operand stack slot, counting from the bottom of the stack. Category 2 items take up two slots, and are found at the second (upper) of them, which is where the analyzers keep the values.
+	 * 
+	 * @param index the stack slot, counting from the bottom
+	 * @return the item stored at <code>index</code>, or <code>null</code> if it is the first half of a category 2 item or past the top of the stack
+	 */
+	public VerificationItem getStack(int index) {
+		int slot = 0;
+		for (VerificationItem item : stack) {
+			if (item.isCategory2()) {
+				slot++;
+			}
+			if (slot == index) {
+				return item;
+			} else if (slot > index) {
+				break;
+			}
+			slot++;
+		}
+		return null;
+	}
+
 	@Override
 	public String toString() {
 		return "Locals: " + locals + "; Stack: " + stack;
@@ -0,0 +1,114 @@
+package classfile.code.stackmap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An index over a {@link StackMapTable} giving the complete frame at any bytecode index that has one. Since the frames of a table are delta encoded, finding the complete frame at a bytecode index means applying every frame before it, starting from the implicit frame of the method. To avoid replaying the whole table for each lookup, a complete snapshot is kept of every {@link #SNAPSHOT_INTERVAL}th frame, so a lookup is a binary search for the frame followed by replaying at most that many frames from the nearest snapshot before it.
+ * <p>
+ * The snapshots are built the first time a frame is looked up.
+ */
+public class StackMapIndex {
+	
+	/**
+	 * The number of frames between the complete snapshots.
+	 */
+	public static final int SNAPSHOT_INTERVAL = 16;
+	
+	private final StackMapTable table;
+	private final FullFrame initialFrame;
+	//the complete frames at frame 0, SNAPSHOT_INTERVAL, 2 * SNAPSHOT_INTERVAL, etc.
+	private FullFrame[] snapshots;
+	
+	/**
+	 * Creates an index over a table.
+	 * 
+	 * @param table the table to index
+	 * @param initialFrame the implicit frame at the start of the method, as given by {@link FullFrame#initial(classfile.MethodReference, boolean)}
+	 */
+	public StackMapIndex(StackMapTable table, FullFrame initialFrame) {
+		this.table = table;
+		this.initialFrame = initialFrame;
+	}
+	
+	/**
+	 * Gets the complete frame at a bytecode index.
+	 * 
+	 * @param bci the bytecode index to look up
+	 * @return the types of the locals and the stack at <code>bci</code>, or <code>null</code> if the table has no frame there
+	 */
+	public FullFrame getFrame(int bci) {
+		int frame = table.indexOf(bci);
+		if (frame < 0) {
+			return null;
+		}
+		if (snapshots == null) {
+			createSnapshots();
+		}
+		int snapshot = frame / SNAPSHOT_INTERVAL;
+		int snapshotFrame = snapshot * SNAPSHOT_INTERVAL;
+		if (frame == snapshotFrame) {
+			return snapshots[snapshot];
+		}
+		FullFrame start = snapshots[snapshot];
+		List<VerificationItem> locals = new ArrayList<>(start.locals);
+		List<VerificationItem> stack = start.stack;
+		for (int i = snapshotFrame + 1; i <= frame; i++) {
+			stack = apply(table.getFrame(i), locals, stack);
+		}
+		return new FullFrame(locals, stack);
+	}
+	
+	/**
+	 * Replays the whole table once, keeping a snapshot of every {@link #SNAPSHOT_INTERVAL}th complete frame.
+	 */
+	private void createSnapshots() {
+		int frameCount = table.size();
+		FullFrame[] snapshots = new FullFrame[(frameCount + SNAPSHOT_INTERVAL - 1) / SNAPSHOT_INTERVAL];
+		List<VerificationItem> locals = new ArrayList<>(initialFrame.locals);
+		List<VerificationItem> stack = initialFrame.stack;
+		for (int frame = 0; frame < frameCount; frame++) {
+			stack = apply(table.getFrame(frame), locals, stack);
+			if (frame % SNAPSHOT_INTERVAL == 0) {
+				snapshots[frame / SNAPSHOT_INTERVAL] = new FullFrame(locals, stack);
+			}
+		}
+		this.snapshots = snapshots;
+	}
+	
+	/**
+	 * Applies a delta encoded frame to the complete frame before it.
+	 * 
+	 * @param frame the frame to apply
+	 * @param locals the locals of the previous frame, which are updated in place
+	 * @param stack the stack of the previous frame
+	 * @return the stack of the new frame
+	 */
+	private static List<VerificationItem> apply(StackMapFrame frame, List<VerificationItem> locals, List<VerificationItem> stack) {
+		switch (frame.type) {
+		case SAME:
+		case SAME_EXTENDED:
+			return Collections.emptyList();
+		case SAME_LOCALS_1_STACK_ITEM:
+		case SAME_LOCALS_1_STACK_ITEM_EXTENDED:
+			return Collections.singletonList((VerificationItem) frame.frame);
+		case CHOP:
+			locals.subList(locals.size() - (int) frame.frame, locals.size()).clear();
+			return Collections.emptyList();
+		case APPEND:
+			@SuppressWarnings("unchecked")
+			List<VerificationItem> newLocals = (List<VerificationItem>) frame.frame;
+			locals.addAll(newLocals);
+			return Collections.emptyList();
+		case FULL:
+			FullFrame fullFrame = (FullFrame) frame.frame;
+			locals.clear();
+			locals.addAll(fullFrame.locals);
+			return fullFrame.stack;
+		default:
+			return stack;
+		}
+	}
+
+}
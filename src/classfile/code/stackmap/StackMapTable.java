@@ -2,10 +2,9 @@ package classfile.code.stackmap;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 
 import util.BufferUtils;
 import util.PrettyPrinter;
@@ -15,42 +14,65 @@ import classfile.ClassReference;
 import classfile.JavaClass;
 import classfile.struct.AttributeStruct;
 
+/**
+ * The StackMapTable attribute of a method, which gives the types of the locals and the operand stack at the start of certain instructions (every branch target, exception handler, and instruction following an unconditional jump). Each frame is delta encoded against the one before it, so the frames are kept sorted by bytecode index, and the complete state at a frame is found through a {@link StackMapIndex}.
+ * <p>
+ * Since most analyses never look at the frames, the attribute is only decoded the first time it is needed.
+ */
 public class StackMapTable implements Printable {
 	
-	private final Map<Integer, StackMapFrame> frames;
+	private final JavaClass enclosingClass;
+	//the undecoded attribute, which is discarded once decoded
+	private ByteBuffer info;
+	//the bytecode index of each frame in ascending order, and the delta encoded frames themselves
+	private int[] offsets;
+	private StackMapFrame[] frames;
 	
 	public StackMapTable(JavaClass enclosingClass, AttributeStruct struct) {
-		ByteBuffer info = struct.info;
+		this.enclosingClass = enclosingClass;
+		this.info = struct.info.duplicate();
+	}
+	
+	/**
+	 * Decodes the frames of the attribute, if this hasn't been done already.
+	 */
+	private void decode() {
+		if (frames != null) {
+			return;
+		}
+		ByteBuffer info = this.info;
 		int frameCount = BufferUtils.getUnsignedShort(info);
-		Map<Integer, StackMapFrame> frames = new LinkedHashMap<>();
+		int[] offsets = new int[frameCount];
+		StackMapFrame[] frames = new StackMapFrame[frameCount];
 		int offset = 0;
 		for (int frame = 0; frame < frameCount; frame++, offset++) {
 			int tag = BufferUtils.getUnsignedByte(info);
+			StackMapFrame stackMapFrame;
 			switch (tag >> 6) {
 			case 0:
 				offset += tag;
-				frames.put(offset, StackMapFrame.SAME);
+				stackMapFrame = StackMapFrame.SAME;
 				break;
 			case 1:
 				offset += tag - 64;
-				frames.put(offset, new StackMapFrame(FrameType.SAME_LOCALS_1_STACK_ITEM, createVerificationItem(enclosingClass, info)));
+				stackMapFrame = new StackMapFrame(FrameType.SAME_LOCALS_1_STACK_ITEM, createVerificationItem(enclosingClass, info));
 				break;
 			case 2:
 			case 3:
 				switch (tag & 0xF) {
 				case 7:
 					offset += BufferUtils.getUnsignedShort(info);
-					frames.put(offset, new StackMapFrame(FrameType.SAME_LOCALS_1_STACK_ITEM_EXTENDED, createVerificationItem(enclosingClass, info)));
+					stackMapFrame = new StackMapFrame(FrameType.SAME_LOCALS_1_STACK_ITEM_EXTENDED, createVerificationItem(enclosingClass, info));
 					break;
 				case 8:
 				case 9:
 				case 10:
 					offset += BufferUtils.getUnsignedShort(info);
-					frames.put(offset, new StackMapFrame(FrameType.CHOP, 251 - tag));
+					stackMapFrame = new StackMapFrame(FrameType.CHOP, 251 - tag);
 					break;
 				case 11:
 					offset += BufferUtils.getUnsignedShort(info);
-					frames.put(offset, StackMapFrame.SAME_EXTENDED);
+					stackMapFrame = StackMapFrame.SAME_EXTENDED;
 					break;
 				case 12:
 				case 13:
@@ -61,7 +83,7 @@ public class StackMapTable implements Printable {
 					for (int i = 0; i < additionalCount; i++) {
 						newLocals.add(createVerificationItem(enclosingClass, info));
 					}
-					frames.put(offset, new StackMapFrame(FrameType.APPEND, newLocals));
+					stackMapFrame = new StackMapFrame(FrameType.APPEND, Collections.unmodifiableList(newLocals));
 					break;
 				case 15:
 					offset += BufferUtils.getUnsignedShort(info);
@@ -71,11 +93,11 @@ public class StackMapTable implements Printable {
 						locals.add(createVerificationItem(enclosingClass, info));
 					}
 					int stackCount = BufferUtils.getUnsignedShort(info);
-					List<VerificationItem> stack = new ArrayList<>(localCount);
+					List<VerificationItem> stack = new ArrayList<>(stackCount);
 					for (int i = 0; i < stackCount; i++) {
 						stack.add(createVerificationItem(enclosingClass, info));
 					}
-					frames.put(offset, new StackMapFrame(FrameType.FULL, new FullFrame(locals, stack)));
+					stackMapFrame = new StackMapFrame(FrameType.FULL, new FullFrame(locals, stack));
 					break;
 				default:
 					throw new ClassFormatException("Stack map frame tag reserved for future use!");
@@ -84,8 +106,55 @@ public class StackMapTable implements Printable {
 			default:
 				throw new ClassFormatException("Invalid stack map frame tag!");
 			}
+			offsets[frame] = offset;
+			frames[frame] = stackMapFrame;
 		}
-		this.frames = Collections.unmodifiableMap(frames);
+		this.offsets = offsets;
+		this.frames = frames;
+		this.info = null;
+	}
+	
+	/**
+	 * Gets the number of frames in this table.
+	 * 
+	 * @return the number of frames
+	 */
+	public int size() {
+		decode();
+		return frames.length;
+	}
+	
+	/**
+	 * Gets the bytecode index of a frame. Frames are numbered in ascending order of their bytecode indices.
+	 * 
+	 * @param frame the number of the frame
+	 * @return the bytecode index that the frame applies to
+	 */
+	public int getOffset(int frame) {
+		decode();
+		return offsets[frame];
+	}
+	
+	/**
+	 * Gets a delta encoded frame.
+	 * 
+	 * @param frame the number of the frame
+	 * @return the frame, which only describes how it differs from the previous frame
+	 */
+	public StackMapFrame getFrame(int frame) {
+		decode();
+		return frames[frame];
+	}
+	
+	/**
+	 * Finds the frame at a bytecode index with a binary search.
+	 * 
+	 * @param bci the bytecode index to look up
+	 * @return the number of the frame at <code>bci</code>, or a negative number if there is none, as returned by {@link Arrays#binarySearch(int[], int)}
+	 */
+	public int indexOf(int bci) {
+		decode();
+		return Arrays.binarySearch(offsets, bci);
 	}
 	
 	private static final VerificationItem createVerificationItem(JavaClass enclosingClass, ByteBuffer info) {
@@ -118,8 +187,9 @@ public class StackMapTable implements Printable {
 	public void printOn(PrettyPrinter p) {
 		p.println("StackMapTable [")
 		.indent();
-		for (Map.Entry<Integer, StackMapFrame> frame : frames.entrySet()) {
-			p.println(frame.getKey() + ": " + frame.getValue()); 
+		decode();
+		for (int frame = 0; frame < frames.length; frame++) {
+			p.println(offsets[frame] + ": " + frames[frame]); 
 		}
 		p.unindent()
 		.println("]");
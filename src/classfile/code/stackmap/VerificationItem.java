@@ -1,5 +1,7 @@
 package classfile.code.stackmap;
 
+import classfile.ClassReference;
+
 public class VerificationItem {
 
 	public static final int TOP = 0, INTEGER = 1, FLOAT = 2, LONG = 3, DOUBLE = 4, NULL = 5, UNINITIALIZED_THIS = 6, OBJECT = 7, UNINITIALIZED = 8;
@@ -21,6 +23,25 @@ public class VerificationItem {
 		this.data = data;
 	}
 	
+	public static VerificationItem fromClass(ClassReference classType) {
+		switch (classType.getComputationalType()) {
+		case INT:
+			return INTEGER_ITEM;
+		case FLOAT:
+			return FLOAT_ITEM;
+		case LONG:
+			return LONG_ITEM;
+		case DOUBLE:
+			return DOUBLE_ITEM;
+		default:
+			return new VerificationItem(VerificationType.OBJECT, classType);
+		}
+	}
+	
+	public boolean isCategory2() {
+		return type == VerificationType.LONG || type == VerificationType.DOUBLE;
+	}
+	
 	@Override
 	public String toString() {
 		return type + (data != null ? " " + data : "");
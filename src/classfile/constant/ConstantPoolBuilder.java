@@ -0,0 +1,255 @@
+package classfile.constant;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import util.BufferUtils;
+import classfile.ClassFormatException;
+import classfile.ClassReference;
+import classfile.FieldReference;
+import classfile.MethodReference;
+import classfile.struct.ClassStruct;
+import classfile.struct.ConstantEntryStruct;
+
+/**
+ * Builds the constant pool of a class file being written, handing out the index of each constant added to it. Every entry is added only once: adding a constant that is already in the pool returns the index of the existing entry, which is found by a key made of the tag of the entry and its contents, where the contents of entries pointing to other entries are the indices of those entries. A builder may start from the constant pool of an existing class file, whose entries are copied byte for byte at the same indices, so that anything else copied unchanged from that class file (e.g., the attributes of its methods) still refers to the right constants, and new entries are appended after them.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class ConstantPoolBuilder {
+
+	//the highest count of a constant pool, which is stored in an unsigned short
+	private static final int MAX_COUNT = 0xFFFF;
+
+	private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	private final DataOutputStream out = new DataOutputStream(bytes);
+	private final Map<String, Integer> indices = new HashMap<>();
+	//the number of the next entry, i.e., the constant pool count, since entry 0 is never written
+	private int count = 1;
+
+	/**
+	 * Creates an empty constant pool.
+	 */
+	public ConstantPoolBuilder() {
+
+	}
+
+	/**
+	 * Creates a constant pool starting with the entries of the constant pool of a class file.
+	 *
+	 * @param struct the raw structure of the class file, whose constant pool is copied
+	 */
+	public ConstantPoolBuilder(ClassStruct struct) {
+		for (int i = 1; i < struct.constantPoolCount; i++) {
+			ConstantEntryStruct entry = struct.constantPool[i];
+			//the entries have been read from already, so they're read again from their start
+			ByteBuffer info = entry.info.duplicate();
+			info.rewind();
+			int length;
+			String key;
+			switch (entry.tag) {
+			case ConstantEntryStruct.CLASS:
+			case ConstantEntryStruct.STRING:
+				length = 2;
+				key = entry.tag + ":" + BufferUtils.getUnsignedShort(info);
+				break;
+			case ConstantEntryStruct.FIELD_REF:
+			case ConstantEntryStruct.METHOD_REF:
+			case ConstantEntryStruct.INTERFACE_METHOD_REF:
+			case ConstantEntryStruct.NAME_AND_TYPE:
+				length = 4;
+				key = entry.tag + ":" + BufferUtils.getUnsignedShort(info) + ":" + BufferUtils.getUnsignedShort(info);
+				break;
+			case ConstantEntryStruct.INTEGER:
+			case ConstantEntryStruct.FLOAT:
+				length = 4;
+				key = entry.tag + ":" + info.getInt();
+				break;
+			case ConstantEntryStruct.LONG:
+			case ConstantEntryStruct.DOUBLE:
+				length = 8;
+				key = entry.tag + ":" + info.getLong();
+				break;
+			case ConstantEntryStruct.UTF8:
+				length = BufferUtils.getUnsignedShort(info) + 2;
+				info.rewind();
+				key = entry.tag + ":" + BufferUtils.getModifiedUTF8(info);
+				break;
+			default:
+				throw new ClassFormatException("Invalid constant entry tag " + entry.tag + "!");
+			}
+			bytes.write(entry.tag);
+			byte[] data = new byte[length];
+			info.rewind();
+			info.get(data);
+			bytes.write(data, 0, length);
+			//a constant may be in the original pool twice, in which case the first one is reused
+			if (!indices.containsKey(key)) {
+				indices.put(key, i);
+			}
+			if (entry.tag == ConstantEntryStruct.LONG || entry.tag == ConstantEntryStruct.DOUBLE) {
+				i++;
+			}
+		}
+		count = struct.constantPoolCount;
+	}
+
+	/**
+	 * Gets the index of an entry, adding it at the end of the pool if it isn't in the pool yet.
+	 *
+	 * @param key the key of the entry
+	 * @param tag the tag of the entry
+	 * @param content the content of the entry, which is written after its tag unless it is a UTF8 entry
+	 * @param contentBytes the number of bytes of the content, i.e., 2, 4 or 8
+	 * @param utf8 the string of a UTF8 entry, or <code>null</code> for any other entry
+	 * @return the index of the entry
+	 */
+	private int add(String key, int tag, long content, int contentBytes, String utf8) {
+		Integer index = indices.get(key);
+		if (index != null) {
+			return index;
+		}
+		boolean isDoubleSize = (tag == ConstantEntryStruct.LONG || tag == ConstantEntryStruct.DOUBLE);
+		if (count + (isDoubleSize ? 2 : 1) > MAX_COUNT) {
+			throw new ClassFormatException("Constant pool has more than " + (MAX_COUNT - 1) + " entries!");
+		}
+		try {
+			out.writeByte(tag);
+			if (utf8 != null) {
+				//DataOutputStream writes exactly the modified UTF8 of class files, with its length first
+				out.writeUTF(utf8);
+			} else if (contentBytes == 8) {
+				out.writeLong(content);
+			} else if (contentBytes == 4) {
+				out.writeInt((int) content);
+			} else {
+				out.writeShort((int) content);
+			}
+		} catch (IOException e) {
+			//only a string too long for a UTF8 entry can fail to be written to the array
+			throw new ClassFormatException("Constant string is too long: " + e.getMessage());
+		}
+		index = count;
+		indices.put(key, index);
+		count += (isDoubleSize ? 2 : 1);
+		return index;
+	}
+
+	private int add(int tag, int first, int second) {
+		return add(tag + ":" + first + ":" + second, tag, ((long) first << 16) | second, 4, null);
+	}
+
+	private int add(int tag, int index) {
+		return add(tag + ":" + index, tag, index, 2, null);
+	}
+
+	public int addUTF8(String value) {
+		return add(ConstantEntryStruct.UTF8 + ":" + value, ConstantEntryStruct.UTF8, 0, 0, value);
+	}
+
+	public int addInteger(int value) {
+		return add(ConstantEntryStruct.INTEGER + ":" + value, ConstantEntryStruct.INTEGER, value, 4, null);
+	}
+
+	public int addFloat(float value) {
+		//the raw bits tell apart every float, including negative zero and each NaN
+		int bits = Float.floatToRawIntBits(value);
+		return add(ConstantEntryStruct.FLOAT + ":" + bits, ConstantEntryStruct.FLOAT, bits, 4, null);
+	}
+
+	public int addLong(long value) {
+		return add(ConstantEntryStruct.LONG + ":" + value, ConstantEntryStruct.LONG, value, 8, null);
+	}
+
+	public int addDouble(double value) {
+		long bits = Double.doubleToRawLongBits(value);
+		return add(ConstantEntryStruct.DOUBLE + ":" + bits, ConstantEntryStruct.DOUBLE, bits, 8, null);
+	}
+
+	public int addString(String value) {
+		return add(ConstantEntryStruct.STRING, addUTF8(value));
+	}
+
+	public int addClass(ClassReference type) {
+		return add(ConstantEntryStruct.CLASS, addUTF8(type.toConstant()));
+	}
+
+	public int addNameAndType(String name, String descriptor) {
+		return add(ConstantEntryStruct.NAME_AND_TYPE, addUTF8(name), addUTF8(descriptor));
+	}
+
+	public int addField(FieldReference field) {
+		return add(ConstantEntryStruct.FIELD_REF, addClass(field.enclosingClass), addNameAndType(field.name, field.type.toDescriptor()));
+	}
+
+	/**
+	 * Adds a reference to a method. A method called through an invokestatic or invokespecial instruction may be an interface method, which can't be told from the method reference alone, so an existing entry for the method is reused whichever kind it is, and a new entry is only an interface method entry if <code>isInterface</code> is set.
+	 *
+	 * @param method the method
+	 * @param isInterface whether a new entry refers to an interface method
+	 * @return the index of the entry
+	 */
+	public int addMethod(MethodReference method, boolean isInterface) {
+		int classIndex = addClass(method.enclosingClass);
+		int natIndex = addNameAndType(method.name, method.toDescriptor());
+		int tag = (isInterface ? ConstantEntryStruct.INTERFACE_METHOD_REF : ConstantEntryStruct.METHOD_REF);
+		int otherTag = (isInterface ? ConstantEntryStruct.METHOD_REF : ConstantEntryStruct.INTERFACE_METHOD_REF);
+		Integer existing = indices.get(otherTag + ":" + classIndex + ":" + natIndex);
+		if (existing != null && !indices.containsKey(tag + ":" + classIndex + ":" + natIndex)) {
+			return existing;
+		}
+		return add(tag, classIndex, natIndex);
+	}
+
+	/**
+	 * Adds a constant loadable by an ldc instruction.
+	 *
+	 * @param constant the constant, which is an int, float, long, double, string or class
+	 * @return the index of the entry
+	 * @throws IllegalArgumentException if the constant can't be loaded from the constant pool
+	 */
+	public int addConstant(ConstantEntry constant) {
+		//constants created by analyses may hold any kind of boxed number, so every number is read as a Number
+		switch (constant.type) {
+		case INTEGER:
+			return addInteger(((Number) constant.data).intValue());
+		case FLOAT:
+			return addFloat(((Number) constant.data).floatValue());
+		case LONG:
+			return addLong(((Number) constant.data).longValue());
+		case DOUBLE:
+			return addDouble(((Number) constant.data).doubleValue());
+		case STRING:
+			return addString((String) constant.data);
+		case CLASS:
+			return addClass((ClassReference) constant.data);
+		default:
+			throw new IllegalArgumentException("Constant can't be loaded from the constant pool: " + constant);
+		}
+	}
+
+	/**
+	 * Gets the constant pool count, i.e., the index of the next entry added.
+	 *
+	 * @return the number of entries in the pool, plus one, where longs and doubles count twice
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Writes the entries of the pool, without the count before them.
+	 *
+	 * @param target the stream to write the entries to
+	 * @throws IOException if the stream can't be written to
+	 */
+	public void writeTo(DataOutputStream target) throws IOException {
+		bytes.writeTo(target);
+	}
+
+}
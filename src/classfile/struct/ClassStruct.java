@@ -24,21 +24,7 @@ public class ClassStruct implements Struct<ClassStruct> {
 
 	@Override
 	public ClassStruct read(ByteBuffer buf) {
-		magic = buf.getInt();
-		minorVersion = BufferUtils.getUnsignedShort(buf);
-		majorVersion = BufferUtils.getUnsignedShort(buf);
-		constantPoolCount = BufferUtils.getUnsignedShort(buf);
-		constantPool = new ConstantEntryStruct[constantPoolCount];
-		for (int i = 1; i < constantPoolCount; i++) {
-			ConstantEntryStruct cp = new ConstantEntryStruct().read(buf);
-			constantPool[i] = cp;
-			if (cp.isDoubleSize()) {
-				i++;
-			}
-		}
-		accessFlags = BufferUtils.getUnsignedShort(buf);
-		thisClass = BufferUtils.getUnsignedShort(buf);
-		superClass = BufferUtils.getUnsignedShort(buf);
+		readConstantPool(buf);
 		interfacesCount = BufferUtils.getUnsignedShort(buf);
 		interfaces = new int[interfacesCount];
 		for (int i = 0; i < interfacesCount; i++) {
@@ -62,4 +48,29 @@ public class ClassStruct implements Struct<ClassStruct> {
 		return this;
 	}
 
+	/**
+	 * Reads only the start of a class file, up to and including the constant pool, the access flags, and the indices of this class and its superclass, which leaves the rest of the struct empty. This is much cheaper than {@link #read(ByteBuffer)} for tools that only look at constants, since none of the members or attributes are sliced.
+	 * 
+	 * @param buf the buffer to read the class file from, which is left positioned at the interfaces count
+	 * @return this struct
+	 */
+	public ClassStruct readConstantPool(ByteBuffer buf) {
+		magic = buf.getInt();
+		minorVersion = BufferUtils.getUnsignedShort(buf);
+		majorVersion = BufferUtils.getUnsignedShort(buf);
+		constantPoolCount = BufferUtils.getUnsignedShort(buf);
+		constantPool = new ConstantEntryStruct[constantPoolCount];
+		for (int i = 1; i < constantPoolCount; i++) {
+			ConstantEntryStruct cp = new ConstantEntryStruct().read(buf);
+			constantPool[i] = cp;
+			if (cp.isDoubleSize()) {
+				i++;
+			}
+		}
+		accessFlags = BufferUtils.getUnsignedShort(buf);
+		thisClass = BufferUtils.getUnsignedShort(buf);
+		superClass = BufferUtils.getUnsignedShort(buf);
+		return this;
+	}
+
 }
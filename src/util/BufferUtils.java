@@ -49,6 +49,7 @@ public final class BufferUtils {
 		for (charPos = 0; buf.hasRemaining(); charPos++) {
 			int c = buf.get() & 0xFF;
 			switch (c >> 4) {
+			case 0:
 			case 1:
 			case 2:
 			case 3:
@@ -0,0 +1,204 @@
+package util;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A utility class for running independent pieces of work on every processor. Work is split into indices, which the worker threads claim in small batches from a shared counter, so that a few expensive indices (e.g., huge methods or classes) don't leave the other threads idle.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public final class ParallelUtils {
+
+	//the number of indices claimed by a thread at once, which keeps contention on the counter low without hurting the balance of the work
+	private static final int BATCH_SIZE = 16;
+
+	/**
+	 * A piece of work to run for each index of a range.
+	 */
+	public interface IndexTask {
+
+		/**
+		 * Runs the work for one index. This is called from several threads at once, so anything shared between indices must be safe to use concurrently.
+		 *
+		 * @param index the index to run the work for
+		 */
+		void run(int index);
+
+	}
+
+	/**
+	 * A piece of work to run for each index of a range, whose results are then handled one at a time in the order of their indices.
+	 *
+	 * @param <T> the type of the result of each index
+	 */
+	public interface OrderedTask<T> {
+
+		/**
+		 * Runs the work for one index. This is called from several threads at once, so anything shared between indices must be safe to use concurrently.
+		 *
+		 * @param index the index to run the work for
+		 * @return the result of the index, which may be <code>null</code>
+		 */
+		T run(int index);
+
+		/**
+		 * Handles the result of an index. This is called for each index in order, and never for two indices at once, although not always from the same thread.
+		 *
+		 * @param index the index
+		 * @param result the result returned by {@link #run(int)} for the index
+		 */
+		void complete(int index, T result);
+
+	}
+
+	private ParallelUtils() {
+	}
+
+	/**
+	 * Gets the number of threads that parallel work is split across.
+	 *
+	 * @return the number of available processors
+	 */
+	public static int getThreadCount() {
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Runs a task for every index from 0 up to, but not including, a count, across all of the available processors, and waits for every index to finish. If a task throws, the remaining indices are skipped, and the first exception is thrown from this method.
+	 *
+	 * @param count the number of indices to run the task for
+	 * @param task the task to run for each index
+	 */
+	public static void forEachIndex(final int count, final IndexTask task) {
+		int threadCount = Math.min(getThreadCount(), (count + BATCH_SIZE - 1) / BATCH_SIZE);
+		if (threadCount <= 1) {
+			for (int index = 0; index < count; index++) {
+				task.run(index);
+			}
+			return;
+		}
+		final AtomicInteger nextIndex = new AtomicInteger();
+		final Throwable[] failure = new Throwable[1];
+		Runnable worker = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (int start = nextIndex.getAndAdd(BATCH_SIZE); start < count; start = nextIndex.getAndAdd(BATCH_SIZE)) {
+						for (int index = start, end = Math.min(start + BATCH_SIZE, count); index < end; index++) {
+							task.run(index);
+						}
+					}
+				} catch (Throwable t) {
+					//stop the other threads from claiming any more work
+					nextIndex.set(count);
+					synchronized (failure) {
+						if (failure[0] == null) {
+							failure[0] = t;
+						}
+					}
+				}
+			}
+		};
+		runThreads(threadCount, worker);
+		rethrow(failure[0]);
+	}
+
+	/**
+	 * Runs a task for every index from 0 up to, but not including, a count, across all of the available processors, and hands the result of each index to the task in the order of the indices, waiting for every index to finish. The indices are started in order, and at most <code>window</code> of them are started before the result of the earliest one is handled, which bounds the memory held by results waiting for an earlier index to finish (e.g., when the results are written out in order). If a task throws, the remaining indices are skipped, and the first exception is thrown from this method.
+	 *
+	 * @param count the number of indices to run the task for
+	 * @param window the highest number of indices started whose results haven't been handled yet
+	 * @param task the task to run for each index
+	 */
+	public static <T> void forEachIndexInOrder(final int count, int window, final OrderedTask<T> task) {
+		int threadCount = Math.min(getThreadCount(), count);
+		if (threadCount <= 1) {
+			for (int index = 0; index < count; index++) {
+				task.complete(index, task.run(index));
+			}
+			return;
+		}
+		//a window smaller than the number of threads would leave threads idle
+		final Semaphore permits = new Semaphore(Math.max(window, threadCount));
+		final AtomicInteger nextIndex = new AtomicInteger();
+		final Object[] results = new Object[count];
+		final boolean[] isDone = new boolean[count];
+		final int[] nextCompleted = new int[1];
+		final Throwable[] failure = new Throwable[1];
+		Runnable worker = new Runnable() {
+			@Override
+			@SuppressWarnings("unchecked")
+			public void run() {
+				try {
+					while (true) {
+						//a permit is taken before the index is claimed, so the claimed indices are always the earliest ones that haven't been handled
+						permits.acquireUninterruptibly();
+						int index = nextIndex.getAndIncrement();
+						if (index >= count) {
+							permits.release();
+							break;
+						}
+						T result = task.run(index);
+						synchronized (results) {
+							results[index] = result;
+							isDone[index] = true;
+							while (nextCompleted[0] < count && isDone[nextCompleted[0]]) {
+								int completed = nextCompleted[0]++;
+								T completedResult = (T) results[completed];
+								results[completed] = null;
+								task.complete(completed, completedResult);
+								permits.release();
+							}
+						}
+					}
+				} catch (Throwable t) {
+					nextIndex.set(count);
+					synchronized (failure) {
+						if (failure[0] == null) {
+							failure[0] = t;
+						}
+					}
+					//wake up the threads waiting for a permit, which then find that there is no more work
+					permits.release(count);
+				}
+			}
+		};
+		runThreads(threadCount, worker);
+		rethrow(failure[0]);
+	}
+
+	private static void runThreads(int threadCount, Runnable worker) {
+		Thread[] threads = new Thread[threadCount];
+		for (int i = 0; i < threadCount; i++) {
+			threads[i] = new Thread(worker, "parallel-" + i);
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			boolean interrupted = false;
+			while (true) {
+				try {
+					thread.join();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static void rethrow(Throwable failure) {
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		} else if (failure != null) {
+			throw new RuntimeException(failure);
+		}
+	}
+
+}
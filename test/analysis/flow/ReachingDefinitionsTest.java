@@ -0,0 +1,84 @@
+package analysis.flow;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import classfile.JavaClass;
+import classfile.JavaMethod;
+import classfile.code.opcodes.OpType;
+import classfile.code.opcodes.Opcode;
+import classfile.struct.ClassStruct;
+
+/**
+ * Checks the reaching definitions of the locals read in exception handlers, which take the definitions reaching anywhere in the blocks they cover. The fixture methods are compiled into this class, which reads its own class file to analyze them.
+ *
+ * @author Aaron Willey
+ * @version 0.1
+ */
+public class ReachingDefinitionsTest {
+
+	/**
+	 * A try block inside a loop, where the definitions at the end of the loop, <code>x = i * 2</code> and <code>i = x - 1</code>, only reach the try block through the back edge of the loop, and are both killed inside it, so the output of the try block never changes when they arrive; the division can throw before <code>x</code> is stored, so the handler must still see <code>x = i * 2</code>.
+	 */
+	static int tryInLoop(int i) {
+		int x = 0;
+		while (x < 1000) {
+			try {
+				x = 100 / i;
+				i = x;
+			} catch (ArithmeticException e) {
+				return x;
+			}
+			x = i * 2;
+			i = x - 1;
+		}
+		return x;
+	}
+
+	public static void main(String[] args) throws IOException {
+		JavaClass clazz = readSelf();
+		for (JavaMethod method : clazz.methods.values()) {
+			if (method.reference.name.equals("tryInLoop")) {
+				testTryInLoop(method);
+			}
+		}
+		System.out.println("ReachingDefinitionsTest passed");
+	}
+
+	private static void testTryInLoop(JavaMethod method) {
+		BasicBlockGraph graph = new BasicBlockGraph(method);
+		ReachingDefinitions definitions = new ReachingDefinitions(method, graph);
+		int handler = graph.getCode().exceptionTable.get(0).handler;
+		//the handler stores the exception, and then loads x to return it
+		int use = -1;
+		for (int bci = handler; use < 0; bci++) {
+			Opcode op = graph.getCode().ops.get(bci);
+			if (op != null && op.type == OpType.LOCAL_LOAD) {
+				use = definitions.getUseAt(bci);
+			}
+		}
+		int[] reaching = definitions.getReachingDefinitions(use);
+		//x = 0 before the loop, x = 100 / i in the try block, and x = i * 2 through the back edge
+		if (reaching.length != 3) {
+			int[] bcis = new int[reaching.length];
+			for (int i = 0; i < reaching.length; i++) {
+				bcis[i] = definitions.getDefinitionBci(reaching[i]);
+			}
+			throw new AssertionError("Expected 3 definitions of x reaching the handler, got the ones at " + Arrays.toString(bcis));
+		}
+	}
+
+	private static JavaClass readSelf() throws IOException {
+		try (InputStream in = ReachingDefinitionsTest.class.getResourceAsStream("ReachingDefinitionsTest.class")) {
+			byte[] data = new byte[in.available()];
+			int length = 0;
+			while (length < data.length) {
+				length += in.read(data, length, data.length - length);
+			}
+			return new JavaClass(new ClassStruct().read(ByteBuffer.wrap(data)));
+		}
+	}
+
+}